@@ -0,0 +1,246 @@
+package spotify.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.annotation.Profile;
+
+import com.google.gson.GsonBuilder;
+
+import spotify.SpotifyDiscoveryBot;
+import spotify.SpotifyDiscoveryBot.SpotifyDiscoveryBotSettings;
+import spotify.bot.DiscoveryBotCrawler;
+import spotify.bot.metrics.ApiCallMetrics;
+import spotify.bot.metrics.CrawlMetrics;
+import spotify.bot.util.data.AlbumGroupExtended;
+import spotify.fake.FakeSpotifyApiConfig;
+import spotify.fake.FakeSpotifyServer;
+
+/**
+ * End-to-end crawl benchmark: boots the entire bot against a
+ * {@link FakeSpotifyServer} and a temporary database, then runs a few full
+ * crawls for every given catalog shape (the first one against an empty cache,
+ * the following ones against the cache filled by the previous crawls). For every
+ * crawl, the wall time, the number of API calls, the peak heap usage and the
+ * duration and database time of every phase are recorded and written as JSON.<br/>
+ * <br/>
+ * Run with <code>gradlew crawlBenchmark</code>. All options are passed as
+ * project properties:
+ * <ul>
+ * <li><code>-Pbench.shapes=artists:releases:newRatio:appearsOn;...</code>
+ * (default: 1000:10:0.05:1)</li>
+ * <li><code>-Pbench.runs=n</code> crawls per shape (default: 2)</li>
+ * <li><code>-Pbench.latency_ms=n</code> simulated API latency (default: 0)</li>
+ * <li><code>-Pbench.output_dir=dir</code> where to write the results to</li>
+ * </ul>
+ */
+public class CrawlBenchmark {
+	private final static Logger LOG = LoggerFactory.getLogger(CrawlBenchmark.class);
+	private final static String DEFAULT_SHAPES = "1000:10:0.05:1";
+
+	public static void main(String[] args) throws Exception {
+		String shapes = System.getProperty("bench.shapes", DEFAULT_SHAPES);
+		int runs = Integer.getInteger("bench.runs", 2);
+		int latencyMillis = Integer.getInteger("bench.latency_ms", 0);
+		File outputDir = new File(System.getProperty("bench.output_dir", "build/reports/crawl-benchmark"));
+
+		List<Map<String, Object>> results = new ArrayList<>();
+		for (String shape : shapes.split(";")) {
+			results.addAll(benchmarkShape(CatalogShape.parse(shape), runs, latencyMillis));
+		}
+
+		Map<String, Object> report = new LinkedHashMap<>();
+		report.put("timestamp", Instant.now().toString());
+		report.put("java_version", System.getProperty("java.version"));
+		report.put("available_processors", Runtime.getRuntime().availableProcessors());
+		report.put("max_heap_mb", Runtime.getRuntime().maxMemory() / 1024 / 1024);
+		report.put("results", results);
+
+		Files.createDirectories(outputDir.toPath());
+		Path outputFile = outputDir.toPath().resolve("results-" + System.currentTimeMillis() + ".json");
+		Files.writeString(outputFile, new GsonBuilder().setPrettyPrinting().create().toJson(report), StandardCharsets.UTF_8);
+		LOG.info("Crawl benchmark results written to: {}", outputFile.toAbsolutePath());
+	}
+
+	private static List<Map<String, Object>> benchmarkShape(CatalogShape shape, int runs, int latencyMillis) throws Exception {
+		Path workDir = Files.createTempDirectory("crawl-benchmark");
+		BenchmarkSettings.workDir = workDir.toFile();
+
+		Map<String, Object> properties = new HashMap<>();
+		properties.put("server.port", 0);
+		properties.put("spotify.fake.artists", shape.artists);
+		properties.put("spotify.fake.releases_per_artist", shape.releasesPerArtist);
+		properties.put("spotify.fake.new_release_ratio", shape.newReleaseRatio);
+		properties.put("spotify.fake.appears_on_per_artist", shape.appearsOnPerArtist);
+		properties.put("spotify.fake.latency_ms", latencyMillis);
+		properties.put("spotify.discovery.crawl.feature.initial_crawl", false);
+		properties.put("spotify.discovery.crawl.feature.scheduled_crawls", false);
+		properties.put("spotify.discovery.crawl.feature.forwarder", false);
+
+		List<Map<String, Object>> results = new ArrayList<>();
+		try (ConfigurableApplicationContext context = new SpringApplicationBuilder(SpotifyDiscoveryBot.class, FakeSpotifyApiConfig.class, BenchmarkSettings.class)
+			.profiles("fake-spotify", "crawl-benchmark")
+			.properties(properties)
+			.headless(true)
+			.run()) {
+			DiscoveryBotCrawler crawler = context.getBean(DiscoveryBotCrawler.class);
+			CrawlMetrics crawlMetrics = context.getBean(CrawlMetrics.class);
+			ApiCallMetrics apiCallMetrics = context.getBean(ApiCallMetrics.class);
+			FakeSpotifyServer server = context.getBean(FakeSpotifyServer.class);
+
+			awaitReady(crawler);
+
+			for (int run = 1; run <= runs; run++) {
+				System.gc();
+				resetPeakHeap();
+				long serverRequestsBefore = server.getTotalRequestCount();
+				long start = System.nanoTime();
+				Map<AlbumGroupExtended, Integer> added = crawler.tryCrawl();
+				long wallMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+				Map<String, Object> result = new LinkedHashMap<>();
+				result.put("shape", shape.toMap());
+				result.put("latency_ms", latencyMillis);
+				result.put("run", run);
+				result.put("wall_ms", wallMillis);
+				result.put("api_calls", apiCallMetrics.getCrawlCallCount());
+				result.put("server_requests", server.getTotalRequestCount() - serverRequestsBefore);
+				result.put("peak_heap_mb", getPeakHeap() / 1024 / 1024);
+				result.put("added", added);
+				result.put("crawl", crawlMetrics.getLastCrawl());
+				results.add(result);
+				LOG.info("{}, run {}: {}ms, {} API call[s]", shape, run, wallMillis, apiCallMetrics.getCrawlCallCount());
+			}
+		} finally {
+			deleteRecursively(workDir.toFile());
+		}
+		return results;
+	}
+
+	/**
+	 * The crawler becomes ready once the bot has logged in. If the login event
+	 * doesn't arrive (e.g. because no login is required against the fake API),
+	 * the initialization is triggered manually.
+	 */
+	private static void awaitReady(DiscoveryBotCrawler crawler) throws Exception {
+		long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+		while (!crawler.isReady() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(100);
+		}
+		if (!crawler.isReady()) {
+			crawler.firstCrawlAndEnableReadyState();
+		}
+	}
+
+	private static void resetPeakHeap() {
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				pool.resetPeakUsage();
+			}
+		}
+	}
+
+	/**
+	 * The sum of the peaks of all heap pools (an upper bound, as the pools don't
+	 * necessarily peak at the same time)
+	 */
+	private static long getPeakHeap() {
+		long peak = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+				peak += pool.getPeakUsage().getUsed();
+			}
+		}
+		return peak;
+	}
+
+	private static void deleteRecursively(File file) throws IOException {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				deleteRecursively(child);
+			}
+		}
+		Files.deleteIfExists(file.toPath());
+	}
+
+	////////////////////////
+
+	/**
+	 * Points the config files (including the database) to the temporary working
+	 * directory of the current benchmark (profiled, as it's picked up by the
+	 * component scan of every other test that boots the bot as well)
+	 */
+	@Configuration
+	@Profile("crawl-benchmark")
+	static class BenchmarkSettings {
+		private static File workDir;
+
+		@Bean
+		@Primary
+		SpotifyDiscoveryBotSettings benchmarkSettings() {
+			return new SpotifyDiscoveryBotSettings() {
+				@Override
+				public File configFilesBase() {
+					return workDir;
+				}
+			};
+		}
+	}
+
+	private static class CatalogShape {
+		private final int artists;
+		private final int releasesPerArtist;
+		private final double newReleaseRatio;
+		private final int appearsOnPerArtist;
+
+		private CatalogShape(int artists, int releasesPerArtist, double newReleaseRatio, int appearsOnPerArtist) {
+			this.artists = artists;
+			this.releasesPerArtist = releasesPerArtist;
+			this.newReleaseRatio = newReleaseRatio;
+			this.appearsOnPerArtist = appearsOnPerArtist;
+		}
+
+		private static CatalogShape parse(String shape) {
+			String[] parts = shape.trim().split(":");
+			if (parts.length != 4) {
+				throw new IllegalArgumentException("Invalid catalog shape (expected artists:releases:newRatio:appearsOn): " + shape);
+			}
+			return new CatalogShape(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]), Double.parseDouble(parts[2]), Integer.parseInt(parts[3]));
+		}
+
+		private Map<String, Object> toMap() {
+			Map<String, Object> map = new LinkedHashMap<>();
+			map.put("artists", artists);
+			map.put("releases_per_artist", releasesPerArtist);
+			map.put("new_release_ratio", newReleaseRatio);
+			map.put("appears_on_per_artist", appearsOnPerArtist);
+			return map;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d artists x %d releases (new: %.2f, appears_on: %d)", artists, releasesPerArtist, newReleaseRatio, appearsOnPerArtist);
+		}
+	}
+}
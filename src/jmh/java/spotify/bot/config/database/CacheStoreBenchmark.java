@@ -0,0 +1,175 @@
+package spotify.bot.config.database;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import spotify.api.SpotifyDependenciesSettings;
+import spotify.bot.metrics.DatabaseMetrics;
+import spotify.bot.util.DiscoveryBotLogger;
+
+/**
+ * Compares the {@link CacheStore} implementations on a release cache of the
+ * given size, for the three access patterns of a crawl: looking up the release
+ * candidates, writing the new releases and reading all release IDs (when the
+ * in-memory release index is loaded). Run with
+ * <code>gradlew jmh -PjmhInclude=CacheStoreBenchmark</code>.<br/>
+ * <br/>
+ * Every store works on fresh files in a temporary directory. The releases
+ * written by {@link CacheStoreBenchmark#putNewReleases} are removed again after
+ * every iteration, so the cache keeps its size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CacheStoreBenchmark {
+	private final static int CANDIDATE_COUNT = 500;
+	private final static int NEW_RELEASE_COUNT = 1000;
+	private final static String BASE62 = "0123456789abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ";
+
+	@Param({ "sqlite", "mvstore", "mmap" })
+	private String store;
+
+	@Param({ "10000", "100000", "1000000" })
+	private int releaseCount;
+
+	private File directory;
+	private CacheStore cacheStore;
+	private Random random;
+	private List<String> candidates;
+	private List<String> writtenReleaseIds;
+
+	@Setup
+	public void setup() throws IOException, SQLException {
+		directory = Files.createTempDirectory("cache-store-benchmark").toFile();
+		DiscoveryBotLogger log = mock(DiscoveryBotLogger.class);
+		SpotifyDependenciesSettings settings = mock(SpotifyDependenciesSettings.class);
+		when(settings.configFilesBase()).thenReturn(directory);
+		DatabaseCreationService databaseCreationService = new DatabaseCreationService(new DatabaseMigrationService(log));
+		DiscoveryDatabase database = new DiscoveryDatabase(log, databaseCreationService, mock(DatabaseMetrics.class), settings, true, 4);
+
+		if ("mvstore".equals(store)) {
+			MvStoreCacheStore mvStoreCacheStore = new MvStoreCacheStore(database, log, settings);
+			mvStoreCacheStore.init();
+			cacheStore = mvStoreCacheStore;
+		} else if ("mmap".equals(store)) {
+			MappedReleaseLogStore mappedReleaseLogStore = new MappedReleaseLogStore(database, log, settings);
+			mappedReleaseLogStore.init();
+			cacheStore = mappedReleaseLogStore;
+		} else {
+			cacheStore = new SqliteCacheStore(database);
+		}
+
+		random = new Random(42L);
+		List<String> cachedReleaseIds = new ArrayList<>();
+		List<List<Object>> rows = new ArrayList<>();
+		for (int i = 0; i < releaseCount; i++) {
+			String releaseId = randomId();
+			cachedReleaseIds.add(releaseId);
+			rows.add(createRow(releaseId));
+			if (rows.size() == 10000) {
+				cacheStore.putAll(DBConstants.TABLE_CACHE_RELEASES, rows);
+				rows.clear();
+			}
+		}
+		cacheStore.putAll(DBConstants.TABLE_CACHE_RELEASES, rows);
+
+		// Half of the candidates are cached, as after a typical crawl
+		candidates = new ArrayList<>();
+		for (int i = 0; i < CANDIDATE_COUNT; i++) {
+			candidates.add(i % 2 == 0 ? cachedReleaseIds.get(random.nextInt(releaseCount)) : randomId());
+		}
+		writtenReleaseIds = new ArrayList<>();
+	}
+
+	@TearDown(Level.Iteration)
+	public void removeWrittenReleases() throws SQLException {
+		cacheStore.removeAll(DBConstants.TABLE_CACHE_RELEASES, writtenReleaseIds);
+		writtenReleaseIds.clear();
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		if (cacheStore instanceof MvStoreCacheStore) {
+			((MvStoreCacheStore) cacheStore).close();
+		} else if (cacheStore instanceof MappedReleaseLogStore) {
+			((MappedReleaseLogStore) cacheStore).close();
+		}
+		try (Stream<File> files = Files.walk(directory.toPath()).map(Path::toFile)) {
+			files.sorted(Comparator.reverseOrder()).forEach(File::delete);
+		}
+	}
+
+	@Benchmark
+	public int findCandidates() throws SQLException {
+		return cacheStore.findKeys(DBConstants.TABLE_CACHE_RELEASES, candidates).size();
+	}
+
+	@Benchmark
+	public int putNewReleases() throws SQLException {
+		List<List<Object>> rows = new ArrayList<>();
+		for (int i = 0; i < NEW_RELEASE_COUNT; i++) {
+			String releaseId = randomId();
+			writtenReleaseIds.add(releaseId);
+			rows.add(createRow(releaseId));
+		}
+		cacheStore.putAll(DBConstants.TABLE_CACHE_RELEASES, rows);
+		return rows.size();
+	}
+
+	@Benchmark
+	public long readAllReleaseIds() throws SQLException {
+		LongAdder count = new LongAdder();
+		cacheStore.forEachKey(DBConstants.TABLE_CACHE_RELEASES, releaseId -> count.increment());
+		return count.sum();
+	}
+
+	////////////////////////
+
+	/**
+	 * Like real Spotify IDs, these fit into 128 bits (see
+	 * {@link spotify.bot.filter.ReleaseIdSet#decode})
+	 */
+	private String randomId() {
+		char[] id = new char[22];
+		id[0] = BASE62.charAt(random.nextInt(7));
+		for (int i = 1; i < id.length; i++) {
+			id[i] = BASE62.charAt(random.nextInt(BASE62.length()));
+		}
+		return new String(id);
+	}
+
+	private List<Object> createRow(String releaseId) {
+		return Arrays.asList(releaseId, System.currentTimeMillis(), randomId(), "album", "2020-01-01");
+	}
+}
@@ -0,0 +1,152 @@
+package spotify.bot.filter;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import se.michaelthelin.spotify.enums.AlbumGroup;
+import se.michaelthelin.spotify.enums.AlbumType;
+import se.michaelthelin.spotify.enums.ReleaseDatePrecision;
+import se.michaelthelin.spotify.model_objects.specification.AlbumSimplified;
+import se.michaelthelin.spotify.model_objects.specification.ArtistSimplified;
+import se.michaelthelin.spotify.model_objects.specification.TrackSimplified;
+import spotify.bot.config.properties.PlaylistStoreConfig.PlaylistStore;
+import spotify.bot.util.data.AlbumGroupExtended;
+import spotify.util.data.AlbumTrackPair;
+
+/**
+ * Deterministic synthetic releases for the benchmarks. The shape roughly
+ * follows a real crawl: mostly singles, some albums, few compilations and a fair
+ * share of appears_on releases, with release dates spread over the past few
+ * years and a couple of remixes, live and rereleases mixed in.
+ */
+final class BenchmarkFixtures {
+	private final static String[] NAME_SUFFIXES = { "", "", "", "", " (Remix)", " (Live)", " - Remastered 2011", " (Deluxe Edition)" };
+
+	private final List<String> artistIds;
+	private final List<AlbumSimplified> albums;
+	private final List<AlbumTrackPair> albumTrackPairs;
+
+	/**
+	 * Create a new set of fixtures
+	 *
+	 * @param releaseCount the number of releases
+	 * @param seed the random seed
+	 */
+	BenchmarkFixtures(int releaseCount, long seed) {
+		Random random = new Random(seed);
+		int artistCount = Math.max(1, releaseCount / 10);
+
+		this.artistIds = new ArrayList<>();
+		for (int i = 0; i < artistCount; i++) {
+			artistIds.add(String.format("artist%016d", i));
+		}
+
+		this.albums = new ArrayList<>();
+		this.albumTrackPairs = new ArrayList<>();
+		LocalDate today = LocalDate.now();
+		for (int i = 0; i < releaseCount; i++) {
+			int roll = random.nextInt(100);
+			AlbumGroup albumGroup = roll < 15 ? AlbumGroup.ALBUM : roll < 70 ? AlbumGroup.SINGLE : roll < 75 ? AlbumGroup.COMPILATION : AlbumGroup.APPEARS_ON;
+			String mainArtist = artistIds.get(random.nextInt(artistCount));
+			String featuredArtist = artistIds.get(random.nextInt(artistCount));
+			String name = "Release " + (i % (releaseCount / 2 + 1)) + NAME_SUFFIXES[random.nextInt(NAME_SUFFIXES.length)];
+
+			AlbumSimplified album = new AlbumSimplified.Builder()
+				.setId(String.format("album%017d", i))
+				.setName(name)
+				.setAlbumGroup(albumGroup)
+				.setAlbumType(albumGroup == AlbumGroup.ALBUM ? AlbumType.ALBUM : albumGroup == AlbumGroup.COMPILATION ? AlbumType.COMPILATION : AlbumType.SINGLE)
+				.setArtists(artist(mainArtist), artist(featuredArtist))
+				.setReleaseDate(today.minusDays(random.nextInt(1500)).toString())
+				.setReleaseDatePrecision(ReleaseDatePrecision.DAY)
+				.build();
+			albums.add(album);
+
+			int trackCount = albumGroup == AlbumGroup.SINGLE ? 1 + random.nextInt(3) : 6 + random.nextInt(10);
+			List<TrackSimplified> tracks = new ArrayList<>();
+			for (int t = 1; t <= trackCount; t++) {
+				tracks.add(new TrackSimplified.Builder()
+					.setId(String.format("track%013d%04d", i, t))
+					.setName(name + " - Track " + t)
+					.setTrackNumber(t)
+					.setDurationMs(60_000 + random.nextInt(300_000))
+					.setArtists(artist(random.nextBoolean() ? mainArtist : featuredArtist))
+					.build());
+			}
+			albumTrackPairs.add(AlbumTrackPair.of(album, tracks));
+		}
+	}
+
+	/**
+	 * The IDs of all artists the releases were created for
+	 */
+	List<String> getArtistIds() {
+		return artistIds;
+	}
+
+	/**
+	 * A fresh (mutable) copy of the releases
+	 */
+	List<AlbumSimplified> getAlbums() {
+		return new ArrayList<>(albums);
+	}
+
+	/**
+	 * The IDs of every n-th release, to simulate a partially filled release cache
+	 */
+	List<String> getEveryNthAlbumId(int n) {
+		List<String> albumIds = new ArrayList<>();
+		for (int i = 0; i < albums.size(); i += n) {
+			albumIds.add(albums.get(i).getId());
+		}
+		return albumIds;
+	}
+
+	/**
+	 * A fresh (mutable) copy of the releases with their tracks, by album group
+	 */
+	Map<AlbumGroup, List<AlbumTrackPair>> getAlbumTrackPairsByAlbumGroup() {
+		Map<AlbumGroup, List<AlbumTrackPair>> byAlbumGroup = new EnumMap<>(AlbumGroup.class);
+		for (AlbumGroup albumGroup : AlbumGroup.values()) {
+			byAlbumGroup.put(albumGroup, new ArrayList<>());
+		}
+		for (AlbumTrackPair atp : albumTrackPairs) {
+			byAlbumGroup.get(atp.getAlbum().getAlbumGroup()).add(atp);
+		}
+		return byAlbumGroup;
+	}
+
+	/**
+	 * A fresh (mutable) copy of the releases with their tracks, by playlist store
+	 */
+	Map<PlaylistStore, List<AlbumTrackPair>> getAlbumTrackPairsByPlaylistStore(Map<AlbumGroupExtended, PlaylistStore> playlistStores) {
+		Map<PlaylistStore, List<AlbumTrackPair>> byPlaylistStore = new HashMap<>();
+		for (Map.Entry<AlbumGroup, List<AlbumTrackPair>> entry : getAlbumTrackPairsByAlbumGroup().entrySet()) {
+			byPlaylistStore.put(playlistStores.get(AlbumGroupExtended.fromAlbumGroup(entry.getKey())), entry.getValue());
+		}
+		return byPlaylistStore;
+	}
+
+	/**
+	 * One playlist store for every album group (including the extended ones)
+	 */
+	static Map<AlbumGroupExtended, PlaylistStore> createPlaylistStores() {
+		Map<AlbumGroupExtended, PlaylistStore> playlistStores = new EnumMap<>(AlbumGroupExtended.class);
+		for (AlbumGroupExtended albumGroupExtended : AlbumGroupExtended.values()) {
+			playlistStores.put(albumGroupExtended, new PlaylistStore(albumGroupExtended, "playlist_" + albumGroupExtended.getGroupName()));
+		}
+		return playlistStores;
+	}
+
+	private static ArtistSimplified artist(String artistId) {
+		return new ArtistSimplified.Builder()
+			.setId(artistId)
+			.setName(artistId)
+			.build();
+	}
+}
@@ -0,0 +1,115 @@
+package spotify.bot.filter;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import se.michaelthelin.spotify.enums.AlbumGroup;
+import se.michaelthelin.spotify.model_objects.specification.AlbumSimplified;
+import spotify.bot.config.database.DatabaseService;
+import spotify.bot.config.properties.PlaylistStoreConfig;
+import spotify.bot.config.properties.PlaylistStoreConfig.PlaylistStore;
+import spotify.bot.properties.BlacklistService;
+import spotify.bot.properties.FeatureControl;
+import spotify.bot.util.DiscoveryBotLogger;
+import spotify.bot.util.data.AlbumGroupExtended;
+import spotify.util.data.AlbumTrackPair;
+
+/**
+ * Throughput of the {@link FilterService} methods run on every crawl. Run with
+ * <code>gradlew jmh</code> (the GC profiler reports the allocation rate).<br/>
+ * <br/>
+ * Methods that modify their input get a fresh copy of the fixtures on every
+ * invocation; {@link FilterServiceBenchmark#fixtureCopyBaseline} measures the
+ * cost of that copy alone.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FilterServiceBenchmark {
+	@Param({ "1000", "10000", "100000" })
+	private int releaseCount;
+
+	private BenchmarkFixtures fixtures;
+	private FilterService filterService;
+	private Map<AlbumGroupExtended, PlaylistStore> playlistStores;
+	private List<AlbumSimplified> albums;
+	private Map<AlbumGroup, List<AlbumTrackPair>> albumTrackPairsByAlbumGroup;
+
+	@Setup
+	public void setup() throws SQLException {
+		fixtures = new BenchmarkFixtures(releaseCount, 42L);
+		albums = fixtures.getAlbums();
+		albumTrackPairsByAlbumGroup = fixtures.getAlbumTrackPairsByAlbumGroup();
+		playlistStores = BenchmarkFixtures.createPlaylistStores();
+
+		DatabaseService databaseService = mock(DatabaseService.class);
+		Set<String> cachedAlbumIds = new HashSet<>(fixtures.getEveryNthAlbumId(2));
+		when(databaseService.getCachedReleaseIds(any())).thenAnswer(i -> i.<Collection<String>>getArgument(0).stream()
+			.filter(cachedAlbumIds::contains)
+			.collect(Collectors.toSet()));
+
+		PlaylistStoreConfig playlistStoreConfig = mock(PlaylistStoreConfig.class);
+		when(playlistStoreConfig.getPlaylistStore(any(AlbumGroupExtended.class))).thenAnswer(i -> playlistStores.get(i.getArgument(0)));
+
+		// Blacklist every tenth artist for singles and EPs
+		Map<String, List<AlbumGroupExtended>> blacklist = new HashMap<>();
+		for (int i = 0; i < fixtures.getArtistIds().size(); i += 10) {
+			blacklist.put(fixtures.getArtistIds().get(i), List.of(AlbumGroupExtended.SINGLE, AlbumGroupExtended.EP));
+		}
+		BlacklistService blacklistService = mock(BlacklistService.class);
+		when(blacklistService.getBlacklistMap()).thenReturn(blacklist);
+
+		filterService = new FilterService(mock(DiscoveryBotLogger.class), databaseService, playlistStoreConfig, blacklistService, mock(FeatureControl.class));
+	}
+
+	@Benchmark
+	public Object fixtureCopyBaseline() {
+		return fixtures.getAlbumTrackPairsByPlaylistStore(playlistStores);
+	}
+
+	@Benchmark
+	public List<AlbumSimplified> getNonCachedAlbums() throws SQLException {
+		return filterService.getNonCachedAlbums(albums);
+	}
+
+	@Benchmark
+	public List<AlbumSimplified> filterDuplicatedAlbumsReleasedSimultaneously() {
+		return filterService.filterDuplicatedAlbumsReleasedSimultaneously(albums);
+	}
+
+	@Benchmark
+	public Map<AlbumGroup, List<AlbumTrackPair>> intelligentAppearsOnSearch() {
+		return filterService.intelligentAppearsOnSearch(albumTrackPairsByAlbumGroup, fixtures.getArtistIds());
+	}
+
+	@Benchmark
+	public Map<PlaylistStore, List<AlbumTrackPair>> filterBlacklistedReleaseTypesForArtists() {
+		return filterService.filterBlacklistedReleaseTypesForArtists(fixtures.getAlbumTrackPairsByPlaylistStore(playlistStores));
+	}
+}
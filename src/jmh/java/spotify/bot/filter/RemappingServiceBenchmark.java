@@ -0,0 +1,106 @@
+package spotify.bot.filter;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.neovisionaries.i18n.CountryCode;
+
+import spotify.bot.config.database.DatabaseService;
+import spotify.bot.config.properties.PlaylistStoreConfig;
+import spotify.bot.config.properties.PlaylistStoreConfig.PlaylistStore;
+import spotify.bot.filter.remapper.EpRemapper;
+import spotify.bot.filter.remapper.LiveRemapper;
+import spotify.bot.filter.remapper.Remapper.Action;
+import spotify.bot.filter.remapper.RemixRemapper;
+import spotify.bot.filter.remapper.RereleaseRemapper;
+import spotify.bot.properties.BlacklistService;
+import spotify.bot.properties.FeatureControl;
+import spotify.bot.util.DiscoveryBotLogger;
+import spotify.bot.util.data.AlbumGroupExtended;
+import spotify.services.UserService;
+import spotify.util.data.AlbumTrackPair;
+
+/**
+ * Throughput of {@link RemappingService#remapIntoExtendedPlaylists}. The live
+ * remapper is stubbed out, as it has to query the audio features of the tracks
+ * from the Spotify API (which is not what this benchmark is about). As the
+ * remapping modifies its input, every invocation works on a fresh copy of the
+ * fixtures (see {@link FilterServiceBenchmark#fixtureCopyBaseline} for the cost
+ * of that copy).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RemappingServiceBenchmark {
+	@Param({ "1000", "10000", "100000" })
+	private int releaseCount;
+
+	private BenchmarkFixtures fixtures;
+	private RemappingService remappingService;
+	private Map<AlbumGroupExtended, PlaylistStore> playlistStores;
+
+	@Setup
+	public void setup() throws SQLException {
+		fixtures = new BenchmarkFixtures(releaseCount, 42L);
+		playlistStores = BenchmarkFixtures.createPlaylistStores();
+
+		DatabaseService databaseService = mock(DatabaseService.class);
+		Set<String> cachedAlbumIds = new HashSet<>(fixtures.getEveryNthAlbumId(2));
+		when(databaseService.getCachedReleaseIds(any())).thenAnswer(i -> i.<Collection<String>>getArgument(0).stream()
+			.filter(cachedAlbumIds::contains)
+			.collect(Collectors.toSet()));
+		when(databaseService.getReleaseNamesCache()).thenReturn(List.of());
+
+		PlaylistStoreConfig playlistStoreConfig = mock(PlaylistStoreConfig.class);
+		when(playlistStoreConfig.getPlaylistStore(any(AlbumGroupExtended.class))).thenAnswer(i -> playlistStores.get(i.getArgument(0)));
+
+		UserService userService = mock(UserService.class);
+		when(userService.getMarketOfCurrentUser()).thenReturn(CountryCode.DE);
+
+		BlacklistService blacklistService = mock(BlacklistService.class);
+		when(blacklistService.getBlacklistMap()).thenReturn(Map.of());
+
+		LiveRemapper liveRemapper = mock(LiveRemapper.class);
+		when(liveRemapper.getAlbumGroup()).thenReturn(AlbumGroupExtended.LIVE);
+		when(liveRemapper.determineRemapAction(any())).thenReturn(Action.NONE);
+
+		DiscoveryBotLogger log = mock(DiscoveryBotLogger.class);
+		FilterService filterService = new FilterService(log, databaseService, playlistStoreConfig, blacklistService, mock(FeatureControl.class));
+		remappingService = new RemappingService(playlistStoreConfig,
+			new EpRemapper(),
+			new RemixRemapper(),
+			new RereleaseRemapper(filterService, userService, databaseService),
+			liveRemapper,
+			log);
+	}
+
+	@Benchmark
+	public Map<PlaylistStore, List<AlbumTrackPair>> remapIntoExtendedPlaylists() {
+		return remappingService.remapIntoExtendedPlaylists(fixtures.getAlbumTrackPairsByPlaylistStore(playlistStores));
+	}
+}
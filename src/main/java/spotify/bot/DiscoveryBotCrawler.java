@@ -1,17 +1,24 @@
 package spotify.bot;
 
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.UnaryOperator;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
 
 import se.michaelthelin.spotify.enums.AlbumGroup;
 import se.michaelthelin.spotify.model_objects.specification.AlbumSimplified;
+import se.michaelthelin.spotify.model_objects.specification.TrackSimplified;
 import spotify.api.events.SpotifyApiException;
 import spotify.api.events.SpotifyApiLoggedInEvent;
+import spotify.bot.cluster.ShardCoordinator;
 import spotify.bot.properties.FeatureControl;
 import spotify.bot.config.properties.PlaylistStoreConfig;
 import spotify.bot.config.properties.PlaylistStoreConfig.PlaylistStore;
@@ -19,7 +26,13 @@ import spotify.bot.filter.FilterService;
 import spotify.bot.properties.AutoPurgerService;
 import spotify.bot.properties.ForwarderService;
 import spotify.bot.filter.RemappingService;
+import spotify.bot.metrics.CrawlMetrics;
+import spotify.bot.metrics.CrawlMetrics.PhaseMeasurement;
+import spotify.bot.metrics.CrawlPhase;
+import spotify.bot.service.AdaptiveCrawlScheduleService;
+import spotify.bot.service.ArtistAlbumsEtagService;
 import spotify.bot.service.CachedArtistService;
+import spotify.bot.service.CrawlCheckpointService;
 import spotify.bot.service.DiscoveryAlbumService;
 import spotify.bot.service.DiscoveryTrackService;
 import spotify.bot.service.PlaylistMetaService;
@@ -33,6 +46,13 @@ import spotify.util.data.AlbumTrackPair;
 
 @Component
 public class DiscoveryBotCrawler {
+	/**
+	 * Filter out the cached releases of every artist as soon as they've been
+	 * fetched (opt-in)
+	 */
+	@Value("${spotify.discovery.crawl.streaming_pipeline.enabled:#{false}}")
+	private boolean streamingPipelineEnabled;
+
 	private final DiscoveryBotLogger log;
 	private final CachedArtistService cachedArtistService;
 	private final DiscoveryAlbumService discoveryAlbumService;
@@ -45,6 +65,11 @@ public class DiscoveryBotCrawler {
 	private final ForwarderService forwarderService;
 	private final FeatureControl featureControl;
 	private final AutoPurgerService autoPurgerService;
+	private final AdaptiveCrawlScheduleService adaptiveCrawlScheduleService;
+	private final CrawlCheckpointService crawlCheckpointService;
+	private final ArtistAlbumsEtagService artistAlbumsEtagService;
+	private final ShardCoordinator shardCoordinator;
+	private final CrawlMetrics crawlMetrics;
 
 	private List<AlbumSimplified> albumsToCache;
 
@@ -60,7 +85,12 @@ public class DiscoveryBotCrawler {
 		RemappingService remappingService,
 		ForwarderService forwarderService,
 		FeatureControl featureControl,
-		AutoPurgerService autoPurgerService
+		AutoPurgerService autoPurgerService,
+		AdaptiveCrawlScheduleService adaptiveCrawlScheduleService,
+		CrawlCheckpointService crawlCheckpointService,
+		ArtistAlbumsEtagService artistAlbumsEtagService,
+		ShardCoordinator shardCoordinator,
+		CrawlMetrics crawlMetrics
 	) {
 		this.log = discoveryBotLogger;
 		this.cachedArtistService = cachedArtistService;
@@ -74,6 +104,11 @@ public class DiscoveryBotCrawler {
 		this.forwarderService = forwarderService;
 		this.featureControl = featureControl;
 		this.autoPurgerService = autoPurgerService;
+		this.adaptiveCrawlScheduleService = adaptiveCrawlScheduleService;
+		this.crawlCheckpointService = crawlCheckpointService;
+		this.artistAlbumsEtagService = artistAlbumsEtagService;
+		this.shardCoordinator = shardCoordinator;
+		this.crawlMetrics = crawlMetrics;
 	}
 
 	/**
@@ -109,6 +144,27 @@ public class DiscoveryBotCrawler {
 		return null;
 	}
 
+	/**
+	 * Run the given task while holding the crawl lock, so that no crawl can start
+	 * until it's done. Nothing is run if the crawler isn't ready yet or a crawl is
+	 * currently in progress.
+	 *
+	 * @param task the task to run
+	 * @return true if the task was run, false if the lock wasn't available
+	 */
+	public boolean tryRunExclusive(Runnable task) {
+		ReentrantLock crawlLock = lock;
+		if (crawlLock != null && crawlLock.tryLock()) {
+			try {
+				task.run();
+				return true;
+			} finally {
+				crawlLock.unlock();
+			}
+		}
+		return false;
+	}
+
 	/**
 	 * Event that will be fired once the Spring application has fully booted. It
 	 * will automatically initiate the first crawling iteration. After completion,
@@ -170,13 +226,32 @@ public class DiscoveryBotCrawler {
 	 * Finally, store the album IDs to the DB to prevent them from getting added a
 	 * second time<br/>
 	 * This happens even if no new songs are added, because it will significantly
-	 * speed up the future search processes
+	 * speed up the future search processes<br/>
+	 * <br/>
+	 *
+	 * If checkpoints are enabled (streaming pipeline only), the progress of each
+	 * step is recorded in a checkpoint, which is only cleared after the crawl has
+	 * finished. If the crawl gets interrupted, the next one resumes from that
+	 * checkpoint. In that case, the releases of the failed crawl aren't cached, as
+	 * the resumed crawl takes them over from the checkpoint.
 	 */
 	private Map<AlbumGroupExtended, Integer> crawl() throws SpotifyApiException, SQLException {
+		boolean successful = false;
+		crawlMetrics.startCrawl();
 		try {
-			return crawlScript();
-		} finally {
+			crawlCheckpointService.startOrResume();
+			Map<AlbumGroupExtended, Integer> results = crawlScript();
 			updateAlbumCache();
+			crawlCheckpointService.finish();
+			successful = true;
+			return results;
+		} finally {
+			if (successful || !crawlCheckpointService.isEnabled()) {
+				updateAlbumCache();
+			}
+			albumsToCache = null;
+			discoveryAlbumService.clearOriginArtistIds();
+			crawlMetrics.finishCrawl(successful);
 		}
 	}
 
@@ -186,11 +261,17 @@ public class DiscoveryBotCrawler {
 	 * Main crawl script with fail-fast mechanisms to save bandwidth
 	 */
 	private Map<AlbumGroupExtended, Integer> crawlScript() throws SpotifyApiException, SQLException {
-		autoPurgerService.runPurger();
+		shardCoordinator.acquireShards();
+		if (shardCoordinator.isCoordinator()) {
+			PhaseMeasurement purgerPhase = crawlMetrics.startPhase(CrawlPhase.PURGER, 0);
+			autoPurgerService.runPurger();
+			purgerPhase.stop(0);
+		}
 
 		List<String> followedArtists = getFollowedArtists();
 		if (!followedArtists.isEmpty()) {
-			List<AlbumSimplified> filteredAlbums = getNewAlbumsFromArtists(followedArtists);
+			List<String> artistsDueForCrawl = adaptiveCrawlScheduleService.getArtistsDueForCrawl(shardCoordinator.getOwnArtists(followedArtists));
+			List<AlbumSimplified> filteredAlbums = getNewAlbumsFromArtists(artistsDueForCrawl);
 			if (!filteredAlbums.isEmpty()) {
 				Map<PlaylistStore, List<AlbumTrackPair>> newTracksByTargetPlaylist = getNewTracksByTargetPlaylist(filteredAlbums, followedArtists);
 				if (!SpotifyUtils.isAllEmptyLists(newTracksByTargetPlaylist)) {
@@ -206,25 +287,77 @@ public class DiscoveryBotCrawler {
 	 */
 	private List<String> getFollowedArtists() throws SQLException, SpotifyApiException {
 		log.debug("Fetching followed artists...");
+		PhaseMeasurement followedArtistsPhase = crawlMetrics.startPhase(CrawlPhase.FOLLOWED_ARTISTS, 0);
 		CachedArtistsContainer cachedArtistsContainer = cachedArtistService.getFollowedArtistsIds();
-		return cachedArtistsContainer.getAllArtists();
+		List<String> followedArtists = cachedArtistsContainer.getAllArtists();
+		followedArtistsPhase.stop(followedArtists.size());
+		return followedArtists;
 	}
 
 	/**
-	 * Phase 1: Get all new releases from the list of followed artists
+	 * Phase 1: Get all new releases from the list of followed artists that are due for a crawl
 	 */
-	private List<AlbumSimplified> getNewAlbumsFromArtists(List<String> followedArtists) throws SpotifyApiException, SQLException {
-		log.debug("Fetching releases of followed artists...");
-		List<AlbumSimplified> allAlbums = discoveryAlbumService.getAllAlbumsOfArtists(followedArtists, false);
+	private List<AlbumSimplified> getNewAlbumsFromArtists(List<String> artistsDueForCrawl) throws SpotifyApiException, SQLException {
+		PhaseMeasurement albumFetchPhase = crawlMetrics.startPhase(CrawlPhase.ALBUM_FETCH, artistsDueForCrawl.size());
+		List<AlbumSimplified> fetchedAlbums = streamingPipelineEnabled
+			? getCandidateAlbumsStreamed(artistsDueForCrawl)
+			: getAllAlbums(artistsDueForCrawl);
+		albumFetchPhase.stop(fetchedAlbums.size());
+
+		PhaseMeasurement cacheFilterPhase = crawlMetrics.startPhase(CrawlPhase.CACHE_FILTER, fetchedAlbums.size());
 		log.debug("Filtering for new releases...");
-		List<AlbumSimplified> nonCachedAlbums = filterService.getNonCachedAlbums(allAlbums);
-		List<AlbumSimplified> noFutureAlbums = filterService.filterFutureAlbums(nonCachedAlbums);
+		List<AlbumSimplified> noFutureAlbums = streamingPipelineEnabled
+			? filterService.filterDuplicateAlbumIds(fetchedAlbums)
+			: filterService.filterFutureAlbums(filterService.getNonCachedAlbums(fetchedAlbums));
+		if (shardCoordinator.isEnabled()) {
+			if (!shardCoordinator.isCoordinator()) {
+				shardCoordinator.handOff(discoveryAlbumService.groupByOriginArtist(noFutureAlbums));
+				cacheFilterPhase.stop(0);
+				return List.of();
+			}
+			// The handed-off releases may have been cached in the meantime (e.g. by a previous crawl of this instance)
+			List<AlbumSimplified> mergedAlbums = new ArrayList<>(noFutureAlbums);
+			List<AlbumSimplified> handedOffAlbums = new ArrayList<>();
+			shardCoordinator.takeHandedOff().forEach((artistId, albums) -> handedOffAlbums.addAll(artistId != null ? discoveryAlbumService.recordOriginArtistId(artistId, albums) : albums));
+			mergedAlbums.addAll(filterService.filterFutureAlbums(filterService.getNonCachedAlbums(handedOffAlbums)));
+			noFutureAlbums = filterService.filterDuplicateAlbumIds(mergedAlbums);
+		}
 		albumsToCache = List.copyOf(noFutureAlbums);
 		log.debug("Resolving appears-on artists...");
 		List<AlbumSimplified> insertedAppearOnArtistsAlbums = discoveryAlbumService.resolveViaAppearsOnArtistNames(noFutureAlbums);
 		log.debug("Filtering for new albums only...");
 		List<AlbumSimplified> filteredNoDuplicatesAlbums = filterService.filterDuplicatedAlbumsReleasedSimultaneously(insertedAppearOnArtistsAlbums);
-		return filterService.filterNewAlbumsOnly(filteredNoDuplicatesAlbums);
+		List<AlbumSimplified> newAlbums = filterService.filterNewAlbumsOnly(filteredNoDuplicatesAlbums);
+		cacheFilterPhase.stop(newAlbums.size());
+		return newAlbums;
+	}
+
+	/**
+	 * Phase 1a: Fetch all releases (filtering happens afterwards)
+	 */
+	private List<AlbumSimplified> getAllAlbums(List<String> artistsDueForCrawl) throws SpotifyApiException {
+		log.debug("Fetching releases of followed artists...");
+		List<AlbumSimplified> allAlbums = discoveryAlbumService.getAllAlbumsOfArtists(artistsDueForCrawl, false, true);
+		adaptiveCrawlScheduleService.markCrawled(artistsDueForCrawl);
+		return allAlbums;
+	}
+
+	/**
+	 * Phase 1a (streaming): Filter out the cached and future releases of every
+	 * artist as soon as they've been fetched, so that only the candidates are held
+	 * in memory instead of the entire catalog of every followed artist
+	 */
+	private List<AlbumSimplified> getCandidateAlbumsStreamed(List<String> artistsDueForCrawl) throws SpotifyApiException, SQLException {
+		log.debug("Fetching and filtering releases of followed artists...");
+		UnaryOperator<List<AlbumSimplified>> candidateFilter = filterService.createStreamingCandidateFilter();
+		List<String> artistsToFetch = crawlCheckpointService.withoutRestoredArtists(artistsDueForCrawl);
+		List<AlbumSimplified> candidates = new ArrayList<>();
+		crawlCheckpointService.getRestoredCandidates().forEach((artistId, albums) -> candidates.addAll(discoveryAlbumService.recordOriginArtistId(artistId, candidateFilter.apply(albums))));
+		candidates.addAll(discoveryAlbumService.getAllAlbumsOfArtists(artistsToFetch, false, true,
+			(artistId, albumsOfArtist) -> crawlCheckpointService.recordFetchedArtist(artistId, candidateFilter.apply(albumsOfArtist))));
+		crawlCheckpointService.flushFetchedArtists();
+		adaptiveCrawlScheduleService.markCrawled(artistsToFetch);
+		return candidates;
 	}
 
 	/**
@@ -232,40 +365,90 @@ public class DiscoveryBotCrawler {
 	 */
 	private Map<PlaylistStore, List<AlbumTrackPair>> getNewTracksByTargetPlaylist(List<AlbumSimplified> filteredAlbums, List<String> followedArtists) throws SpotifyApiException {
 		log.debug("Getting tracks of new albums...");
-		List<AlbumTrackPair> tracksByAlbums = discoveryTrackService.getTracksOfAlbums(filteredAlbums);
+		PhaseMeasurement trackFetchPhase = crawlMetrics.startPhase(CrawlPhase.TRACK_FETCH, filteredAlbums.size());
+		List<AlbumTrackPair> tracksByAlbums = getTracksOfAlbums(filteredAlbums);
+		int resolvedCount = (int) tracksByAlbums.stream().filter(Objects::nonNull).count();
+		trackFetchPhase.stop(resolvedCount);
+
+		PhaseMeasurement remappingPhase = crawlMetrics.startPhase(CrawlPhase.REMAPPING, resolvedCount);
 		Map<AlbumGroup, List<AlbumTrackPair>> categorizedFilteredAlbums = filterService.categorizeAlbumsByAlbumGroup(tracksByAlbums);
 		log.debug("Applying intelligent appears-on search...");
 		Map<AlbumGroup, List<AlbumTrackPair>> intelligentAppearsOnFilteredAlbums = filterService.intelligentAppearsOnSearch(categorizedFilteredAlbums, followedArtists);
+		Map<PlaylistStore, List<AlbumTrackPair>> newTracksByTargetPlaylist = Map.of();
 		if (!SpotifyUtils.isAllEmptyLists(intelligentAppearsOnFilteredAlbums)) {
 			log.debug("Remapping to extended playlist types...");
 			Map<PlaylistStore, List<AlbumTrackPair>> songsByMainPlaylist = remappingService.mapToTargetPlaylist(intelligentAppearsOnFilteredAlbums);
 			Map<PlaylistStore, List<AlbumTrackPair>> songsByExtendedPlaylist = remappingService.remapIntoExtendedPlaylists(songsByMainPlaylist);
 			Map<PlaylistStore, List<AlbumTrackPair>> songsByExtendedPlaylistFiltered = remappingService.removeDisabledPlaylistStores(songsByExtendedPlaylist);
 			log.debug("Removing blacklisted release types...");
-			return filterService.filterBlacklistedReleaseTypesForArtists(songsByExtendedPlaylistFiltered);
+			newTracksByTargetPlaylist = filterService.filterBlacklistedReleaseTypesForArtists(songsByExtendedPlaylistFiltered);
 		}
-		return Map.of();
+		remappingPhase.stop(DiscoveryBotUtils.countReleases(newTracksByTargetPlaylist.values()));
+		return newTracksByTargetPlaylist;
+	}
+
+	/**
+	 * Phase 2a: Get the tracks of the given releases, except for those already
+	 * resolved by an interrupted crawl
+	 */
+	private List<AlbumTrackPair> getTracksOfAlbums(List<AlbumSimplified> filteredAlbums) {
+		Map<String, List<TrackSimplified>> restoredTracks = crawlCheckpointService.getRestoredTracks();
+		List<AlbumTrackPair> tracksByAlbums = new ArrayList<>();
+		List<AlbumSimplified> albumsToResolve = new ArrayList<>();
+		for (AlbumSimplified album : filteredAlbums) {
+			List<TrackSimplified> tracks = restoredTracks.get(album.getId());
+			if (tracks != null) {
+				tracksByAlbums.add(AlbumTrackPair.of(album, tracks));
+			} else {
+				albumsToResolve.add(album);
+			}
+		}
+		List<AlbumTrackPair> resolvedTracksByAlbums = discoveryTrackService.getTracksOfAlbums(albumsToResolve);
+		crawlCheckpointService.recordResolvedTracks(resolvedTracksByAlbums);
+		tracksByAlbums.addAll(resolvedTracksByAlbums);
+		return tracksByAlbums;
 	}
 
 	/**
 	 * Phase 3: Add all releases to their target playlists and collect the results
+	 * (playlists already completed by an interrupted crawl are left out)
 	 */
 	private Map<AlbumGroupExtended, Integer> addReleasesToPlaylistsAndCollectResults(Map<PlaylistStore, List<AlbumTrackPair>> newTracksByTargetPlaylist) throws SpotifyApiException {
+		Set<AlbumGroupExtended> completedPlaylistStores = crawlCheckpointService.getCompletedPlaylistStores();
+		newTracksByTargetPlaylist.keySet().removeIf(ps -> completedPlaylistStores.contains(ps.getAlbumGroupExtended()));
+		int releaseCount = DiscoveryBotUtils.countReleases(newTracksByTargetPlaylist.values());
+
 		log.debug("Adding new releases to target playlists...");
-		playlistSongsService.addAllReleasesToSetPlaylists(newTracksByTargetPlaylist);
+		PhaseMeasurement playlistAddPhase = crawlMetrics.startPhase(CrawlPhase.PLAYLIST_ADD, releaseCount);
+		playlistSongsService.addAllReleasesToSetPlaylists(newTracksByTargetPlaylist,
+			ps -> crawlCheckpointService.recordCompletedPlaylistStore(ps.getAlbumGroupExtended()));
+		playlistAddPhase.stop(releaseCount);
+
+		PhaseMeasurement playlistMetaPhase = crawlMetrics.startPhase(CrawlPhase.PLAYLIST_META, newTracksByTargetPlaylist.size());
 		playlistMetaService.showNotifiers(newTracksByTargetPlaylist);
+		playlistMetaPhase.stop(newTracksByTargetPlaylist.size());
+
+		PhaseMeasurement forwarderPhase = crawlMetrics.startPhase(CrawlPhase.FORWARDER, releaseCount);
 		forwarderService.forwardResults(newTracksByTargetPlaylist);
+		forwarderPhase.stop(releaseCount);
+
 		return DiscoveryBotUtils.collectSongAdditionResults(newTracksByTargetPlaylist);
 	}
 
 	/**
-	 * Post: Cache any new album IDs found during this crawl process
+	 * Post: Cache any new album IDs found during this crawl process (with
+	 * write-behind enabled, this only queues them, so the crawl lock is given up
+	 * right after the playlist work), then store the ETags of the release listings
+	 * they were found on
 	 */
 	private void updateAlbumCache() {
-		if (albumsToCache != null && !albumsToCache.isEmpty()) {
-			log.debug("Updating album cache...");
-			filterService.cacheAlbumIds(albumsToCache);
-			filterService.cacheAlbumNames(albumsToCache);
+		if (albumsToCache != null) {
+			if (!albumsToCache.isEmpty()) {
+				log.debug("Updating album cache...");
+				filterService.cacheAlbumIds(albumsToCache, discoveryAlbumService::getOriginArtistId);
+				filterService.cacheAlbumNames(albumsToCache);
+			}
+			artistAlbumsEtagService.commit();
 			albumsToCache = null;
 		}
 	}
@@ -0,0 +1,48 @@
+package spotify.bot.api;
+
+/**
+ * The response of a conditional request (see
+ * {@link SpotifyRequestScheduler#executeConditional})
+ *
+ * @param <T> the result type
+ */
+public class ConditionalResponse<T> {
+  private final T result;
+  private final String etag;
+  private final boolean notModified;
+
+  private ConditionalResponse(T result, String etag, boolean notModified) {
+    this.result = result;
+    this.etag = etag;
+    this.notModified = notModified;
+  }
+
+  static <T> ConditionalResponse<T> of(T result, String etag) {
+    return new ConditionalResponse<>(result, etag, false);
+  }
+
+  static <T> ConditionalResponse<T> notModified(String etag) {
+    return new ConditionalResponse<>(null, etag, true);
+  }
+
+  /**
+   * The result, or null if the resource hasn't been modified
+   */
+  public T getResult() {
+    return result;
+  }
+
+  /**
+   * The ETag of the resource (may be null if Spotify didn't send one)
+   */
+  public String getEtag() {
+    return etag;
+  }
+
+  /**
+   * True if Spotify answered with 304 Not Modified
+   */
+  public boolean isNotModified() {
+    return notModified;
+  }
+}
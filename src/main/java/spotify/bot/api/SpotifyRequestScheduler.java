@@ -0,0 +1,392 @@
+package spotify.bot.api;
+
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import javax.annotation.PostConstruct;
+
+import org.apache.hc.core5.http.Header;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import se.michaelthelin.spotify.exceptions.detailed.TooManyRequestsException;
+import se.michaelthelin.spotify.model_objects.specification.Paging;
+import se.michaelthelin.spotify.model_objects.specification.PagingCursorbased;
+import se.michaelthelin.spotify.requests.IRequest;
+import se.michaelthelin.spotify.requests.data.IPagingCursorbasedRequestBuilder;
+import se.michaelthelin.spotify.requests.data.IPagingRequestBuilder;
+import spotify.api.SpotifyCall;
+import spotify.api.events.SpotifyApiException;
+import spotify.bot.metrics.ApiCallMetrics;
+import spotify.bot.metrics.ApiCallMetrics.Outcome;
+import spotify.bot.util.DiscoveryBotLogger;
+
+/**
+ * Token bucket that every Spotify Web API request of the bot has to pass through.
+ * The bucket refills at a steady rate and allows short bursts up to its capacity.
+ * The throttle is off unless a request rate is configured.
+ * Whenever Spotify answers with HTTP 429, the entire bucket is paused for the
+ * given Retry-After duration, so that all in-flight work (including other threads)
+ * waits for the cooldown instead of piling further requests on top of it. The
+ * rejected request is retried once the pause is over.<br/>
+ * <br/>
+ * Every call is also accounted for in the {@link ApiCallMetrics}, by endpoint type.
+ * Paged results are fetched page by page, so that every page takes its own
+ * token.
+ */
+@Component
+public class SpotifyRequestScheduler {
+  /**
+   * Extra safety margin on top of Spotify's Retry-After value
+   */
+  private final static long RETRY_AFTER_GRACE_MS = 1000;
+
+  private final static Duration CONDITIONAL_REQUEST_TIMEOUT = Duration.ofSeconds(30);
+
+  @Value("${spotify.discovery.crawl.rate_limit.requests_per_second:#{0}}")
+  private double requestsPerSecond;
+
+  @Value("${spotify.discovery.crawl.rate_limit.burst:#{40}}")
+  private int burst;
+
+  @Value("${spotify.discovery.crawl.rate_limit.max_retries:#{10}}")
+  private int maxRetries;
+
+  private final ApiCallMetrics apiCallMetrics;
+  private final DiscoveryBotLogger log;
+  private final HttpClient httpClient;
+
+  private double availableTokens;
+  private long lastRefillNanos;
+  private long pausedUntilMillis;
+
+  SpotifyRequestScheduler(ApiCallMetrics apiCallMetrics, DiscoveryBotLogger discoveryBotLogger) {
+    this.apiCallMetrics = apiCallMetrics;
+    this.log = discoveryBotLogger;
+    this.httpClient = HttpClient.newBuilder()
+      .connectTimeout(CONDITIONAL_REQUEST_TIMEOUT)
+      .build();
+  }
+
+  @PostConstruct
+  void init() {
+    this.burst = Math.max(1, burst);
+    this.availableTokens = burst;
+    this.lastRefillNanos = System.nanoTime();
+  }
+
+  /**
+   * Execute the given request once a token is available. Rate-limited requests
+   * will be retried after the Retry-After cooldown has passed.
+   *
+   * @param requestBuilder the request to execute
+   * @return the result of the request
+   * @throws SpotifyApiException if the request fails for any other reason or is
+   *                             still rate-limited after the maximum number of retries
+   */
+  public <T, BT extends IRequest.Builder<T, ?>> T execute(IRequest.Builder<T, BT> requestBuilder) throws SpotifyApiException {
+    return run(getEndpoint(requestBuilder), () -> SpotifyCall.execute(requestBuilder));
+  }
+
+  /**
+   * Same as {@link SpotifyRequestScheduler#execute}, but as a conditional request:
+   * if an ETag from a previous response is given, Spotify may answer with
+   * 304 Not Modified and an empty body instead of the full result.<br/>
+   * <br/>
+   * The Spotify API library has no support for conditional requests, so the
+   * request is built by the library but sent by hand. A rate limit (429) pauses
+   * the bucket for the Retry-After duration, just like for regular calls. Any
+   * other answer (e.g. an expired access token) falls back to the regular call,
+   * which knows how to deal with those. That one is a call of its own, taking
+   * its own token. Should the request still be rate-limited
+   * after the maximum number of retries, the regular call is fired once more to
+   * report the rate limit the usual way.
+   *
+   * @param requestBuilder the request to execute
+   * @param etag the ETag of the previous response (may be null)
+   * @param parser the parser for the JSON body of a 200 response
+   * @return the response
+   * @throws SpotifyApiException if the request fails for any other reason or is
+   *                             still rate-limited after the maximum number of retries
+   */
+  public <T, BT extends IRequest.Builder<T, ?>> ConditionalResponse<T> executeConditional(IRequest.Builder<T, BT> requestBuilder, String etag, Function<String, T> parser) throws SpotifyApiException {
+    String endpoint = getEndpoint(requestBuilder);
+    try {
+      return run(endpoint, () -> sendConditional(requestBuilder, etag, parser), maxRetries);
+    } catch (ConditionalRateLimitException e) {
+      return ConditionalResponse.of(run(endpoint, () -> SpotifyCall.execute(requestBuilder), 0), null);
+    } catch (ConditionalFallbackException e) {
+      log.warning(e.getMessage());
+      return ConditionalResponse.of(execute(requestBuilder), null);
+    }
+  }
+
+  /**
+   * Execute the given paged request and fetch all of its remaining pages,
+   * starting at the offset already set on the request (if any). Every page is a
+   * separate request, which has to wait for its own token.
+   *
+   * @param pagingRequestBuilder the request for the first page
+   * @return the items of all pages
+   * @throws SpotifyApiException if any of the requests fails (see
+   *                             {@link SpotifyRequestScheduler#execute})
+   */
+  public <T, BT extends IRequest.Builder<Paging<T>, ?>> List<T> executePaging(IPagingRequestBuilder<T, BT> pagingRequestBuilder) throws SpotifyApiException {
+    List<T> items = new ArrayList<>();
+    Paging<T> paging;
+    do {
+      paging = execute(pagingRequestBuilder);
+      if (paging.getItems() != null) {
+        items.addAll(Arrays.asList(paging.getItems()));
+      }
+      pagingRequestBuilder.offset(paging.getOffset() + paging.getLimit());
+    } while (paging.getNext() != null);
+    return items;
+  }
+
+  /**
+   * Same as {@link SpotifyRequestScheduler#executePaging}, but for requests that
+   * are paged by a cursor (such as the followed artists)
+   *
+   * @param pagingRequestBuilder the request for the first page
+   * @return the items of all pages
+   * @throws SpotifyApiException if any of the requests fails (see
+   *                             {@link SpotifyRequestScheduler#execute})
+   */
+  public <T, BT extends IRequest.Builder<PagingCursorbased<T>, ?>> List<T> executeCursorPaging(IPagingCursorbasedRequestBuilder<T, String, BT> pagingRequestBuilder) throws SpotifyApiException {
+    List<T> items = new ArrayList<>();
+    PagingCursorbased<T> paging;
+    do {
+      paging = execute(pagingRequestBuilder);
+      if (paging.getItems() != null) {
+        items.addAll(Arrays.asList(paging.getItems()));
+      }
+      if (paging.getCursors() == null || paging.getCursors().length == 0) {
+        break;
+      }
+      pagingRequestBuilder.after(paging.getCursors()[0].getAfter());
+    } while (paging.getNext() != null);
+    return items;
+  }
+
+  /**
+   * Same as {@link SpotifyRequestScheduler#execute}, but for higher-level calls
+   * (such as the shared Spotify services) that fire the actual request themselves.
+   * Every call takes a single token, so it must fire exactly one request. Paged
+   * results have to be fetched with {@link SpotifyRequestScheduler#executePaging}
+   * instead.
+   *
+   * @param endpoint the endpoint type for the metrics, by convention the name of
+   *                 the underlying request class of the Spotify API library
+   * @param call the call to execute
+   * @return the result of the call
+   * @throws SpotifyApiException if the call fails for any other reason or is
+   *                             still rate-limited after the maximum number of retries
+   */
+  public <T> T run(String endpoint, Supplier<T> call) throws SpotifyApiException {
+    return run(endpoint, call, maxRetries);
+  }
+
+  /**
+   * Convenience method for calls without a return value
+   *
+   * @param endpoint the endpoint type for the metrics
+   * @param call the call to execute
+   */
+  public void runVoid(String endpoint, Runnable call) throws SpotifyApiException {
+    run(endpoint, () -> {
+      call.run();
+      return null;
+    });
+  }
+
+  /**
+   * Report the remaining budget of the token bucket
+   *
+   * @return a human-readable summary of the currently available requests
+   */
+  public synchronized String getRemainingBudget() {
+    refill();
+    long pausedForMillis = Math.max(0, pausedUntilMillis - System.currentTimeMillis());
+    if (pausedForMillis > 0) {
+      return String.format("Rate-limited by Spotify! All requests are paused for another %d seconds", (pausedForMillis / 1000) + 1);
+    }
+    if (!isThrottled()) {
+      return "Unthrottled (no request limit configured)";
+    }
+    return String.format("%d / %d requests available (refilling at %.1f requests per second)", (int) availableTokens, burst, requestsPerSecond);
+  }
+
+  ////////////////////////
+
+  private <T> T run(String endpoint, Supplier<T> call, int retries) throws SpotifyApiException {
+    for (int attempt = 0; ; attempt++) {
+      acquire();
+      long start = System.nanoTime();
+      try {
+        T result = call.get();
+        apiCallMetrics.record(endpoint, System.nanoTime() - start, Outcome.SUCCESS);
+        return result;
+      } catch (SpotifyApiException e) {
+        boolean rateLimited = e.getNestedException() instanceof TooManyRequestsException;
+        apiCallMetrics.record(endpoint, System.nanoTime() - start, rateLimited ? Outcome.RATE_LIMITED : Outcome.ERROR);
+        if (attempt < retries && rateLimited) {
+          TooManyRequestsException tooManyRequestsException = (TooManyRequestsException) e.getNestedException();
+          pause(tooManyRequestsException.getRetryAfter());
+        } else {
+          throw e;
+        }
+      } catch (ConditionalRateLimitException e) {
+        apiCallMetrics.record(endpoint, System.nanoTime() - start, Outcome.RATE_LIMITED);
+        pause(e.retryAfterSeconds);
+        if (attempt >= retries) {
+          throw e;
+        }
+      } catch (ConditionalFallbackException e) {
+        apiCallMetrics.record(endpoint, System.nanoTime() - start, Outcome.ERROR);
+        throw e;
+      }
+    }
+  }
+
+  /**
+   * Determine the endpoint type of the given request from the name of its class
+   * (e.g. "GetArtistsAlbumsRequest")
+   */
+  private String getEndpoint(IRequest.Builder<?, ?> requestBuilder) {
+    Class<?> requestClass = requestBuilder.getClass().getEnclosingClass();
+    return requestClass != null ? requestClass.getSimpleName() : requestBuilder.getClass().getSimpleName();
+  }
+
+  private <T, BT extends IRequest.Builder<T, ?>> ConditionalResponse<T> sendConditional(IRequest.Builder<T, BT> requestBuilder, String etag, Function<String, T> parser) {
+    IRequest<T> request = requestBuilder.build();
+    HttpRequest.Builder httpRequest = HttpRequest.newBuilder(request.getUri())
+      .timeout(CONDITIONAL_REQUEST_TIMEOUT)
+      .GET();
+    for (Header header : request.getHeaders()) {
+      httpRequest.header(header.getName(), header.getValue());
+    }
+    if (etag != null) {
+      httpRequest.header("If-None-Match", etag);
+    }
+
+    try {
+      HttpResponse<String> response = httpClient.send(httpRequest.build(), HttpResponse.BodyHandlers.ofString());
+      if (response.statusCode() == 304 && etag != null) {
+        return ConditionalResponse.notModified(etag);
+      } else if (response.statusCode() == 200) {
+        return ConditionalResponse.of(parser.apply(response.body()), response.headers().firstValue("ETag").orElse(null));
+      } else if (response.statusCode() == 429) {
+        throw new ConditionalRateLimitException(getRetryAfterSeconds(response));
+      }
+      throw new ConditionalFallbackException("Conditional request answered with HTTP " + response.statusCode() + ", retrying without");
+    } catch (IOException e) {
+      throw new ConditionalFallbackException("Conditional request failed, retrying without: " + e.getMessage());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for a Spotify response", e);
+    }
+  }
+
+  private static int getRetryAfterSeconds(HttpResponse<?> response) {
+    try {
+      return Integer.parseInt(response.headers().firstValue("Retry-After").orElse("1").trim());
+    } catch (NumberFormatException e) {
+      return 1;
+    }
+  }
+
+  /**
+   * Block the current thread until a token is available and consume it
+   */
+  private void acquire() {
+    while (true) {
+      long waitMillis;
+      synchronized (this) {
+        long now = System.currentTimeMillis();
+        if (now < pausedUntilMillis) {
+          waitMillis = pausedUntilMillis - now;
+        } else {
+          refill();
+          if (!isThrottled() || availableTokens >= 1) {
+            availableTokens -= 1;
+            return;
+          }
+          waitMillis = (long) Math.ceil((1 - availableTokens) * 1000 / requestsPerSecond);
+        }
+      }
+      sleep(Math.max(1, waitMillis));
+    }
+  }
+
+  /**
+   * Pause the entire bucket for the given amount of seconds. If an even longer
+   * pause is already in effect, that one is kept.
+   */
+  private synchronized void pause(int retryAfterSeconds) {
+    long resumeAt = System.currentTimeMillis() + (retryAfterSeconds * 1000L) + RETRY_AFTER_GRACE_MS;
+    if (resumeAt > pausedUntilMillis) {
+      log.warning("Rate-limited by Spotify! Pausing all requests for " + retryAfterSeconds + " seconds...");
+      this.pausedUntilMillis = resumeAt;
+    }
+    this.availableTokens = 0;
+    this.lastRefillNanos = System.nanoTime();
+  }
+
+  private void refill() {
+    long now = System.nanoTime();
+    if (isThrottled()) {
+      double refilled = (now - lastRefillNanos) / 1_000_000_000.0 * requestsPerSecond;
+      this.availableTokens = Math.min(burst, availableTokens + refilled);
+    } else {
+      this.availableTokens = burst;
+    }
+    this.lastRefillNanos = now;
+  }
+
+  private boolean isThrottled() {
+    return requestsPerSecond > 0;
+  }
+
+  private void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for the Spotify rate limit", e);
+    }
+  }
+
+  /**
+   * A conditional request that was answered with 429 Too Many Requests
+   */
+  private static class ConditionalRateLimitException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final int retryAfterSeconds;
+
+    private ConditionalRateLimitException(int retryAfterSeconds) {
+      super("Rate-limited by Spotify (retry after " + retryAfterSeconds + " seconds)");
+      this.retryAfterSeconds = retryAfterSeconds;
+    }
+  }
+
+  /**
+   * A conditional request that has to be repeated as a regular call
+   */
+  private static class ConditionalFallbackException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private ConditionalFallbackException(String message) {
+      super(message);
+    }
+  }
+}
@@ -0,0 +1,78 @@
+package spotify.bot.cluster;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+import se.michaelthelin.spotify.model_objects.specification.AlbumSimplified;
+
+/**
+ * Local stand-in for the lease store that only lives inside the current process.
+ * It doesn't coordinate anything across instances and is only meant for tests
+ * and for trying out the sharded crawl on a single machine.
+ */
+@Repository
+@ConditionalOnProperty(name = "spotify.discovery.crawl.sharding.store", havingValue = "local")
+public class InMemoryLeaseStore implements LeaseStore {
+  private final Map<String, String> holders = new HashMap<>();
+  private final Map<String, Long> expiries = new HashMap<>();
+  private final Map<String, AlbumSimplified> handedOff = new LinkedHashMap<>();
+  private final Map<String, String> handedOffOrigins = new HashMap<>();
+
+  @Override
+  public synchronized boolean tryAcquire(String leaseKey, String holder, long expiresAtMillis) {
+    String currentHolder = holders.get(leaseKey);
+    if (currentHolder == null || currentHolder.equals(holder) || expiries.get(leaseKey) < System.currentTimeMillis()) {
+      holders.put(leaseKey, holder);
+      expiries.put(leaseKey, expiresAtMillis);
+      return true;
+    }
+    return false;
+  }
+
+  @Override
+  public synchronized void release(String leaseKey, String holder) {
+    if (holder.equals(holders.get(leaseKey))) {
+      holders.remove(leaseKey);
+      expiries.remove(leaseKey);
+    }
+  }
+
+  @Override
+  public synchronized Map<String, String> getActiveHolders() {
+    long now = System.currentTimeMillis();
+    Map<String, String> activeHolders = new HashMap<>();
+    for (Map.Entry<String, String> entry : holders.entrySet()) {
+      if (expiries.get(entry.getKey()) >= now) {
+        activeHolders.put(entry.getKey(), entry.getValue());
+      }
+    }
+    return activeHolders;
+  }
+
+  @Override
+  public synchronized void handOff(String instanceId, Map<String, List<AlbumSimplified>> releasesByOriginArtist) {
+    releasesByOriginArtist.forEach((artistId, releases) -> {
+      for (AlbumSimplified release : releases) {
+        handedOff.put(release.getId(), release);
+        handedOffOrigins.put(release.getId(), artistId);
+      }
+    });
+  }
+
+  @Override
+  public synchronized Map<String, List<AlbumSimplified>> takeHandedOff() {
+    Map<String, List<AlbumSimplified>> releasesByOriginArtist = new HashMap<>();
+    for (AlbumSimplified release : handedOff.values()) {
+      releasesByOriginArtist.computeIfAbsent(handedOffOrigins.get(release.getId()), k -> new ArrayList<>()).add(release);
+    }
+    handedOff.clear();
+    handedOffOrigins.clear();
+    return releasesByOriginArtist;
+  }
+}
@@ -0,0 +1,58 @@
+package spotify.bot.cluster;
+
+import java.util.List;
+import java.util.Map;
+
+import se.michaelthelin.spotify.model_objects.specification.AlbumSimplified;
+
+/**
+ * The shared store through which multiple bot instances coordinate a sharded
+ * crawl. It holds time-limited leases (on shards and on instance memberships)
+ * and the releases handed off to the coordinating instance.
+ */
+public interface LeaseStore {
+
+  /**
+   * Acquire the given lease, or renew it if it's already held by the given
+   * holder. This must be atomic across all instances using the same store.
+   *
+   * @param leaseKey the key of the lease
+   * @param holder the ID of the instance trying to acquire the lease
+   * @param expiresAtMillis the timestamp at which the lease will expire
+   * @return true if the lease is now held by the given holder
+   */
+  boolean tryAcquire(String leaseKey, String holder, long expiresAtMillis);
+
+  /**
+   * Release the given lease, if it's still held by the given holder
+   *
+   * @param leaseKey the key of the lease
+   * @param holder the ID of the instance releasing the lease
+   */
+  void release(String leaseKey, String holder);
+
+  /**
+   * Get the holders of all leases that haven't expired yet
+   *
+   * @return the holders, by lease key
+   */
+  Map<String, String> getActiveHolders();
+
+  /**
+   * Hand off the given releases to the coordinating instance
+   *
+   * @param instanceId the ID of the handing instance
+   * @param releasesByOriginArtist the releases, by the ID of the followed artist
+   *                               they were found for (null if unknown)
+   */
+  void handOff(String instanceId, Map<String, List<AlbumSimplified>> releasesByOriginArtist);
+
+  /**
+   * Take over all releases that have been handed off so far. Every handed-off
+   * release is only returned once.
+   *
+   * @return the releases, by the ID of the followed artist they were found for
+   *         (null if unknown)
+   */
+  Map<String, List<AlbumSimplified>> takeHandedOff();
+}
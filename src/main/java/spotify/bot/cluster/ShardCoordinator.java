@@ -0,0 +1,198 @@
+package spotify.bot.cluster;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import se.michaelthelin.spotify.model_objects.specification.AlbumSimplified;
+import spotify.bot.util.DiscoveryBotLogger;
+
+/**
+ * Optional coordination mode to split the crawl of the followed artists among
+ * multiple bot instances. The followed artists are divided into a fixed number
+ * of shards (by the hash of their ID), which the instances lease from a shared
+ * {@link LeaseStore}. Every instance only fetches the releases of the artists in
+ * the shards it holds.<br/>
+ * <br/>
+ * The instance holding shard 0 is the coordinator. All other instances hand off
+ * their candidate releases to it and the coordinator merges them into its own
+ * crawl, so that only one instance ever writes to the playlists (handed-off
+ * releases may therefore be added one crawl later). For the same reason, the
+ * coordinator is the only instance that runs the auto-purger and updates the
+ * cache of followed artists.<br/>
+ * <br/>
+ * Every instance renews its leases at the start of each crawl, so the lease
+ * duration has to be longer than the time between two crawls. If an instance
+ * dies, its leases expire and are taken over by the remaining instances. The
+ * shards are spread evenly among all live instances.
+ */
+@Service
+public class ShardCoordinator {
+  private final static String SHARD_LEASE_PREFIX = "shard:";
+  private final static String INSTANCE_LEASE_PREFIX = "instance:";
+  private final static int COORDINATOR_SHARD = 0;
+
+  @Value("${spotify.discovery.crawl.sharding.enabled:#{false}}")
+  private boolean shardingEnabled;
+
+  @Value("${spotify.discovery.crawl.sharding.shard_count:#{16}}")
+  private int shardCount;
+
+  @Value("${spotify.discovery.crawl.sharding.lease_minutes:#{45}}")
+  private int leaseMinutes;
+
+  @Value("${spotify.discovery.crawl.sharding.instance_id:}")
+  private String instanceId;
+
+  private final LeaseStore leaseStore;
+  private final DiscoveryBotLogger log;
+
+  private Set<Integer> ownShards;
+
+  ShardCoordinator(LeaseStore leaseStore, DiscoveryBotLogger discoveryBotLogger) {
+    this.leaseStore = leaseStore;
+    this.log = discoveryBotLogger;
+    this.ownShards = Set.of();
+  }
+
+  @PostConstruct
+  void init() {
+    this.shardCount = Math.max(1, shardCount);
+    if (instanceId == null || instanceId.isBlank()) {
+      this.instanceId = UUID.randomUUID().toString();
+    }
+    if (shardingEnabled) {
+      log.info(String.format("Sharded crawling enabled (instance ID: %s, %d shards)", instanceId, shardCount), false);
+    }
+  }
+
+  /**
+   * Release all leases on shutdown, so that the other instances can take over
+   * immediately instead of having to wait for them to expire
+   */
+  @PreDestroy
+  void releaseAll() {
+    if (shardingEnabled) {
+      for (int shard : ownShards) {
+        leaseStore.release(SHARD_LEASE_PREFIX + shard, instanceId);
+      }
+      leaseStore.release(INSTANCE_LEASE_PREFIX + instanceId, instanceId);
+    }
+  }
+
+  public boolean isEnabled() {
+    return shardingEnabled;
+  }
+
+  /**
+   * Renew the membership of this instance and its leases, then rebalance: give
+   * up shards beyond the fair share (the number of shards divided by the number
+   * of live instances) or claim free and expired shards up to the fair share.
+   * Should be called at the start of every crawl.
+   */
+  public synchronized void acquireShards() {
+    if (!shardingEnabled) {
+      return;
+    }
+    long expiresAt = System.currentTimeMillis() + leaseMinutes * 60L * 1000L;
+    leaseStore.tryAcquire(INSTANCE_LEASE_PREFIX + instanceId, instanceId, expiresAt);
+
+    Map<String, String> activeHolders = leaseStore.getActiveHolders();
+    long liveInstances = activeHolders.keySet().stream()
+      .filter(key -> key.startsWith(INSTANCE_LEASE_PREFIX))
+      .count();
+    int fairShare = (int) Math.ceil((double) shardCount / Math.max(1, liveInstances));
+
+    TreeSet<Integer> shards = new TreeSet<>();
+    for (int shard = 0; shard < shardCount; shard++) {
+      if (instanceId.equals(activeHolders.get(SHARD_LEASE_PREFIX + shard))) {
+        shards.add(shard);
+      }
+    }
+    while (shards.size() > fairShare) {
+      leaseStore.release(SHARD_LEASE_PREFIX + shards.last(), instanceId);
+      shards.remove(shards.last());
+    }
+    for (int shard = 0; shard < shardCount; shard++) {
+      boolean owned = shards.contains(shard);
+      boolean free = !activeHolders.containsKey(SHARD_LEASE_PREFIX + shard);
+      if ((owned || (free && shards.size() < fairShare)) && leaseStore.tryAcquire(SHARD_LEASE_PREFIX + shard, instanceId, expiresAt)) {
+        shards.add(shard);
+      } else {
+        shards.remove(shard);
+      }
+    }
+
+    if (!shards.equals(ownShards)) {
+      log.info(String.format("Now crawling shard[s] %s of %d (%d live instance[s])%s", shards, shardCount, liveInstances,
+        shards.contains(COORDINATOR_SHARD) ? " as coordinator" : ""));
+    }
+    this.ownShards = Set.copyOf(shards);
+  }
+
+  /**
+   * Reduce the given artists to those in the shards currently held by this
+   * instance (or return all of them if sharding is disabled)
+   *
+   * @param artistIds the artist IDs
+   * @return the artist IDs this instance is responsible for
+   */
+  public List<String> getOwnArtists(List<String> artistIds) {
+    if (!shardingEnabled) {
+      return artistIds;
+    }
+    Set<Integer> shards = ownShards;
+    return artistIds.stream()
+      .filter(artistId -> shards.contains(Math.floorMod(artistId.hashCode(), shardCount)))
+      .collect(Collectors.toList());
+  }
+
+  /**
+   * Returns true if this instance is the one writing to the playlists (always
+   * true if sharding is disabled)
+   */
+  public boolean isCoordinator() {
+    return !shardingEnabled || ownShards.contains(COORDINATOR_SHARD);
+  }
+
+  /**
+   * Hand off the candidate releases found by this instance to the coordinator
+   *
+   * @param releasesByOriginArtist the releases, by the ID of the followed artist
+   *                               they were found for
+   */
+  public void handOff(Map<String, List<AlbumSimplified>> releasesByOriginArtist) {
+    int count = countReleases(releasesByOriginArtist);
+    if (count > 0) {
+      log.debug("Handing off " + count + " release[s] to the coordinating instance...");
+      leaseStore.handOff(instanceId, releasesByOriginArtist);
+    }
+  }
+
+  /**
+   * Take over the candidate releases handed off by the other instances
+   *
+   * @return the releases, by the ID of the followed artist they were found for
+   */
+  public Map<String, List<AlbumSimplified>> takeHandedOff() {
+    Map<String, List<AlbumSimplified>> releasesByOriginArtist = leaseStore.takeHandedOff();
+    int count = countReleases(releasesByOriginArtist);
+    if (count > 0) {
+      log.debug("Merging " + count + " release[s] handed off by other instances...");
+    }
+    return releasesByOriginArtist;
+  }
+
+  private static int countReleases(Map<String, List<AlbumSimplified>> releasesByOriginArtist) {
+    return releasesByOriginArtist.values().stream().mapToInt(List::size).sum();
+  }
+}
@@ -0,0 +1,91 @@
+package spotify.bot.cluster;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+import se.michaelthelin.spotify.model_objects.specification.AlbumSimplified;
+import spotify.bot.config.database.DatabaseService;
+import spotify.bot.util.DiscoveryBotJson;
+import spotify.bot.util.DiscoveryBotLogger;
+
+/**
+ * Lease store backed by the regular SQLite database of the bot. To be shared by
+ * multiple instances, the database file has to be put on a volume all of them
+ * have access to (i.e. all instances need to use the same config directory).
+ */
+@Repository
+@ConditionalOnProperty(name = "spotify.discovery.crawl.sharding.store", havingValue = "sqlite", matchIfMissing = true)
+public class SqliteLeaseStore implements LeaseStore {
+  private final DatabaseService databaseService;
+  private final DiscoveryBotLogger log;
+
+  SqliteLeaseStore(DatabaseService databaseService, DiscoveryBotLogger discoveryBotLogger) {
+    this.databaseService = databaseService;
+    this.log = discoveryBotLogger;
+  }
+
+  @Override
+  public boolean tryAcquire(String leaseKey, String holder, long expiresAtMillis) {
+    try {
+      return databaseService.tryAcquireLease(leaseKey, holder, expiresAtMillis);
+    } catch (SQLException e) {
+      log.stackTrace(e);
+      return false;
+    }
+  }
+
+  @Override
+  public void release(String leaseKey, String holder) {
+    databaseService.releaseLease(leaseKey, holder);
+  }
+
+  @Override
+  public Map<String, String> getActiveHolders() {
+    try {
+      return databaseService.getActiveLeaseHolders();
+    } catch (SQLException e) {
+      log.stackTrace(e);
+      return Map.of();
+    }
+  }
+
+  @Override
+  public void handOff(String instanceId, Map<String, List<AlbumSimplified>> releasesByOriginArtist) {
+    releasesByOriginArtist.forEach((artistId, releases) -> {
+      Map<String, String> payloadsByReleaseId = new HashMap<>();
+      for (AlbumSimplified release : releases) {
+        payloadsByReleaseId.put(release.getId(), DiscoveryBotJson.albumsToJson(List.of(release)));
+      }
+      databaseService.handOffReleases(instanceId, artistId, payloadsByReleaseId);
+    });
+  }
+
+  @Override
+  public Map<String, List<AlbumSimplified>> takeHandedOff() {
+    try {
+      Map<String, Map<String, String>> handedOff = databaseService.getHandedOffReleases();
+      Map<String, List<AlbumSimplified>> releasesByOriginArtist = new HashMap<>();
+      Set<String> releaseIds = new HashSet<>();
+      handedOff.forEach((artistId, payloadsByReleaseId) -> {
+        List<AlbumSimplified> releases = releasesByOriginArtist.computeIfAbsent(artistId, k -> new ArrayList<>());
+        for (String payload : payloadsByReleaseId.values()) {
+          releases.addAll(DiscoveryBotJson.albumsFromJson(payload));
+        }
+        releaseIds.addAll(payloadsByReleaseId.keySet());
+      });
+      databaseService.removeHandedOffReleases(releaseIds);
+      return releasesByOriginArtist;
+    } catch (SQLException e) {
+      log.stackTrace(e);
+      return Map.of();
+    }
+  }
+}
@@ -0,0 +1,96 @@
+package spotify.bot.config.database;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * The storage backend of the keyed caches (the release IDs, the release names
+ * and the followed artists, see {@link DBConstants#CACHE_STORE_COLUMNS}). Every
+ * row is keyed by its first column. Writing a row whose key is already present
+ * keeps the stored values and only fills in the columns that are still null,
+ * so repeated writes are harmless. The only exception is the artist a release
+ * was found for: once another followed artist finds it as well, it no longer
+ * has a single origin and its artist is cleared (see
+ * {@link CacheStore#coalesce}).<br/>
+ * <br/>
+ * The store is chosen with <code>spotify.discovery.database.store</code>. All
+ * other tables remain in the SQLite database.
+ */
+public interface CacheStore {
+
+  /**
+   * Get those of the given keys that are present in the given table
+   *
+   * @param table the table
+   * @param keys the keys to look up
+   * @return the present keys
+   */
+  Set<String> findKeys(String table, Collection<String> keys) throws SQLException;
+
+  /**
+   * Pass every key of the given table to the given consumer
+   *
+   * @param table the table
+   * @param consumer the consumer
+   */
+  void forEachKey(String table, Consumer<String> consumer) throws SQLException;
+
+  /**
+   * Write the given rows to the given table
+   *
+   * @param table the table
+   * @param rows the rows, with the columns listed in
+   *          {@link DBConstants#CACHE_STORE_COLUMNS} (key first)
+   */
+  void putAll(String table, List<List<Object>> rows) throws SQLException;
+
+  /**
+   * Remove the rows with the given keys from the given table
+   *
+   * @param table the table
+   * @param keys the keys
+   */
+  void removeAll(String table, Collection<String> keys) throws SQLException;
+
+  /**
+   * Combine a stored row with a newly written row of the same key, the way every
+   * store must: the stored values are kept and missing ones are filled in. A
+   * release only keeps its artist if it's found for the same one again (or if
+   * it had no metadata yet, i.e. was cached before the metadata columns
+   * existed).
+   *
+   * @param table the table
+   * @param storedRow the stored row (key first)
+   * @param newRow the newly written row (key first)
+   * @return the combined row
+   */
+  static List<Object> coalesce(String table, List<Object> storedRow, List<Object> newRow) {
+    List<String> columns = DBConstants.CACHE_STORE_COLUMNS.get(table);
+    List<Object> row = new ArrayList<>(storedRow);
+    for (int i = 1; i < row.size() && i < newRow.size(); i++) {
+      if (isOriginColumn(table, columns.get(i))) {
+        Object storedGroup = storedRow.get(columns.indexOf(DBConstants.COL_ALBUM_GROUP));
+        if (storedGroup == null) {
+          row.set(i, newRow.get(i));
+        } else if (!Objects.equals(storedRow.get(i), newRow.get(i))) {
+          row.set(i, null);
+        }
+      } else if (row.get(i) == null) {
+        row.set(i, newRow.get(i));
+      }
+    }
+    return row;
+  }
+
+  /**
+   * Whether the given column holds the followed artist a release was found for
+   */
+  static boolean isOriginColumn(String table, String column) {
+    return DBConstants.TABLE_CACHE_RELEASES.equals(table) && DBConstants.COL_ARTIST_ID.equals(column);
+  }
+}
@@ -0,0 +1,354 @@
+package spotify.bot.config.database;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+
+import spotify.api.SpotifyDependenciesSettings;
+import spotify.bot.util.DiscoveryBotLogger;
+
+/**
+ * Write-behind queue for the release caches. Rows are keyed by their first
+ * column (the primary key), so repeated writes of the same release are
+ * coalesced until they're flushed in batches by a background thread, either
+ * periodically or as soon as enough rows have piled up.<br/>
+ * <br/>
+ * Every queued row is first appended to a journal file next to the database,
+ * which is replayed on startup, so rows are never lost to a crash. The journal
+ * is emptied once its rows have made it into the database. Pending rows are
+ * visible through {@link CacheWriteQueue#getPendingKeys}, which the
+ * {@link DatabaseService} merges into its reads. The queue is drained on
+ * shutdown.<br/>
+ * <br/>
+ * If write-behind is disabled, rows are written immediately instead. Either way,
+ * they end up in the {@link CacheStore}. Write-behind isn't available for
+ * sharded crawls, as all instances would share the same journal.
+ */
+@Service
+public class CacheWriteQueue {
+  private final static String JOURNAL_FILE_NAME = "database_write_queue.log";
+  private final static int SHUTDOWN_TIMEOUT_SECONDS = 10;
+
+  @Value("${spotify.discovery.database.write_behind.enabled:#{false}}")
+  private boolean writeBehindEnabled;
+
+  @Value("${spotify.discovery.database.write_behind.flush_interval_ms:#{1000}}")
+  private long flushIntervalMs;
+
+  @Value("${spotify.discovery.database.write_behind.batch_size:#{1000}}")
+  private int batchSize;
+
+  @Value("${spotify.discovery.crawl.sharding.enabled:#{false}}")
+  private boolean shardingEnabled;
+
+  private final CacheStore cacheStore;
+  private final DiscoveryBotLogger log;
+  private final Gson gson;
+  private final Path journalPath;
+
+  /**
+   * Pending rows by table, each by their primary key
+   */
+  private final Map<String, Map<String, List<Object>>> pendingRows;
+  private final Object flushLock;
+
+  private FileChannel journal;
+  private ScheduledExecutorService flusher;
+
+  CacheWriteQueue(CacheStore cacheStore, DiscoveryBotLogger discoveryBotLogger, SpotifyDependenciesSettings spotifyDependenciesSettings) {
+    this.cacheStore = cacheStore;
+    this.log = discoveryBotLogger;
+    this.gson = new Gson();
+    this.journalPath = new File(spotifyDependenciesSettings.configFilesBase(), JOURNAL_FILE_NAME).toPath();
+    this.pendingRows = new LinkedHashMap<>();
+    List.of(DBConstants.TABLE_CACHE_RELEASES, DBConstants.TABLE_CACHE_RELEASES_NAMES).forEach(table -> pendingRows.put(table, new LinkedHashMap<>()));
+    this.flushLock = new Object();
+  }
+
+  /**
+   * Restore the rows of the journal (if any), then start the background flusher.
+   * Should either fail, write-behind is disabled and rows are written
+   * immediately from then on.
+   */
+  @PostConstruct
+  void init() {
+    if (writeBehindEnabled && shardingEnabled) {
+      log.warning("Write-behind is not supported for sharded crawls and has been disabled", false);
+      this.writeBehindEnabled = false;
+    }
+    try {
+      replayJournal();
+      if (writeBehindEnabled) {
+        this.journal = openJournal();
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+          Thread thread = new Thread(runnable, "cache-write-queue");
+          thread.setDaemon(true);
+          return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+      } else {
+        flush();
+      }
+    } catch (IOException | SQLException e) {
+      log.stackTrace(e);
+      if (writeBehindEnabled) {
+        log.warning("Write-behind could not be started and has been disabled", false);
+        this.writeBehindEnabled = false;
+      }
+    }
+  }
+
+  /**
+   * Stop the background flusher and write all pending rows. Anything that can't
+   * be written remains in the journal for the next startup.
+   */
+  @PreDestroy
+  void drain() {
+    if (flusher != null) {
+      flusher.shutdown();
+      try {
+        flusher.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    flushQuietly();
+    try {
+      if (journal != null) {
+        journal.close();
+      }
+    } catch (IOException e) {
+      log.stackTrace(e);
+    }
+  }
+
+  /**
+   * Queue the given rows for the given table. If write-behind is disabled (or
+   * the journal can't be written), they're written immediately.
+   *
+   * @param table the table (either "cache_releases" or "cache_releases_names")
+   * @param rows the rows, each starting with the primary key
+   */
+  public void enqueue(String table, List<List<Object>> rows) throws SQLException {
+    if (!pendingRows.containsKey(table)) {
+      throw new IllegalArgumentException("Table is not supported by the write queue: " + table);
+    }
+    if (rows.isEmpty()) {
+      return;
+    }
+    if (writeBehindEnabled) {
+      synchronized (this) {
+        try {
+          appendToJournal(table, rows);
+          Map<String, List<Object>> pendingOfTable = pendingRows.get(table);
+          rows.forEach(row -> pendingOfTable.merge((String) row.get(0), row, (previous, current) -> CacheStore.coalesce(table, previous, current)));
+          if (countPendingRows() >= batchSize && !flusher.isShutdown()) {
+            flusher.execute(this::flushQuietly);
+          }
+          return;
+        } catch (IOException e) {
+          log.stackTrace(e);
+        }
+      }
+    }
+    write(table, rows);
+  }
+
+  /**
+   * Get the primary keys of the rows of the given table that are still waiting
+   * to be written
+   */
+  public synchronized Set<String> getPendingKeys(String table) {
+    return Set.copyOf(pendingRows.get(table).keySet());
+  }
+
+  /**
+   * Get those of the given primary keys whose rows of the given table are still
+   * waiting to be written
+   */
+  public synchronized Set<String> getPendingKeys(String table, Collection<String> keys) {
+    Map<String, List<Object>> pendingOfTable = pendingRows.get(table);
+    return keys.stream()
+        .filter(pendingOfTable::containsKey)
+        .collect(Collectors.toSet());
+  }
+
+  /**
+   * Write all pending rows to the database, then remove them from the queue and
+   * the journal
+   */
+  public void flush() throws SQLException, IOException {
+    synchronized (flushLock) {
+      Map<String, List<List<Object>>> snapshot = new LinkedHashMap<>();
+      synchronized (this) {
+        pendingRows.forEach((table, rows) -> snapshot.put(table, new ArrayList<>(rows.values())));
+      }
+      int count = snapshot.values().stream().mapToInt(List::size).sum();
+      if (count == 0) {
+        return;
+      }
+      for (Map.Entry<String, List<List<Object>>> entry : snapshot.entrySet()) {
+        write(entry.getKey(), entry.getValue());
+      }
+      synchronized (this) {
+        snapshot.forEach((table, rows) -> rows.forEach(row -> pendingRows.get(table).remove((String) row.get(0), row)));
+        rewriteJournal();
+      }
+      log.debug("Flushed " + count + " queued cache write[s]");
+    }
+  }
+
+  ////////////////////////
+
+  private void flushQuietly() {
+    try {
+      flush();
+    } catch (SQLException | IOException e) {
+      log.stackTrace(e);
+    }
+  }
+
+  private void write(String table, List<List<Object>> rows) throws SQLException {
+    cacheStore.putAll(table, rows);
+  }
+
+  private int countPendingRows() {
+    return pendingRows.values().stream().mapToInt(Map::size).sum();
+  }
+
+  ////////////////////////
+  // JOURNAL
+
+  private FileChannel openJournal() throws IOException {
+    return FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+  }
+
+  /**
+   * Append the given rows to the journal (one JSON object per line) and force
+   * them to the disk
+   */
+  private void appendToJournal(String table, Collection<List<Object>> rows) throws IOException {
+    StringBuilder lines = new StringBuilder();
+    for (List<Object> row : rows) {
+      lines.append(toJournalLine(table, row)).append('\n');
+    }
+    ByteBuffer buffer = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+    while (buffer.hasRemaining()) {
+      journal.write(buffer);
+    }
+    journal.force(false);
+  }
+
+  /**
+   * Replace the journal with the rows that are still pending. An empty journal
+   * is simply truncated, otherwise the new journal is written to a temporary
+   * file first and then moved into place.
+   */
+  private void rewriteJournal() throws IOException {
+    if (journal == null) {
+      Files.deleteIfExists(journalPath);
+      return;
+    }
+    if (countPendingRows() == 0) {
+      journal.truncate(0);
+      journal.force(false);
+      return;
+    }
+    Path tempPath = journalPath.resolveSibling(JOURNAL_FILE_NAME + ".tmp");
+    List<String> lines = new ArrayList<>();
+    pendingRows.forEach((table, rows) -> rows.values().forEach(row -> lines.add(toJournalLine(table, row))));
+    Files.write(tempPath, lines, StandardCharsets.UTF_8);
+    journal.close();
+    Files.move(tempPath, journalPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    this.journal = openJournal();
+  }
+
+  /**
+   * Restore the pending rows from the journal of a previous run. A line that
+   * can't be parsed (e.g. the last line after a crash mid-write) is skipped.
+   */
+  private synchronized void replayJournal() throws IOException {
+    if (!Files.exists(journalPath)) {
+      return;
+    }
+    for (String line : Files.readAllLines(journalPath, StandardCharsets.UTF_8)) {
+      if (!line.isBlank()) {
+        try {
+          JsonObject entry = gson.fromJson(line, JsonObject.class);
+          String table = entry.get("table").getAsString();
+          List<Object> row = fromJsonArray(entry.getAsJsonArray("row"));
+          if (pendingRows.containsKey(table)) {
+            pendingRows.get(table).merge((String) row.get(0), row, (previous, current) -> CacheStore.coalesce(table, previous, current));
+          }
+        } catch (JsonParseException | IllegalStateException | NullPointerException | ClassCastException e) {
+          log.warning("Skipped unreadable cache write queue entry: " + line, false);
+        }
+      }
+    }
+    int restored = countPendingRows();
+    if (restored > 0) {
+      log.info("Restored " + restored + " queued cache write[s] from the journal", false);
+    }
+  }
+
+  private String toJournalLine(String table, List<Object> row) {
+    JsonArray jsonRow = new JsonArray();
+    for (Object value : row) {
+      if (value instanceof Number) {
+        jsonRow.add((Number) value);
+      } else {
+        jsonRow.add(value != null ? value.toString() : null);
+      }
+    }
+    JsonObject entry = new JsonObject();
+    entry.addProperty("table", table);
+    entry.add("row", jsonRow);
+    return gson.toJson(entry);
+  }
+
+  /**
+   * Restore a journaled row (all numbers in the queued rows are timestamps)
+   */
+  private static List<Object> fromJsonArray(JsonArray jsonRow) {
+    List<Object> row = new ArrayList<>();
+    for (JsonElement element : jsonRow) {
+      if (element.isJsonNull()) {
+        row.add(null);
+      } else if (element.getAsJsonPrimitive().isNumber()) {
+        row.add(element.getAsLong());
+      } else {
+        row.add(element.getAsString());
+      }
+    }
+    return row;
+  }
+}
@@ -1,5 +1,8 @@
 package spotify.bot.config.database;
 
+import java.util.List;
+import java.util.Map;
+
 class DBConstants {
 
 	private DBConstants() {
@@ -8,10 +11,55 @@ class DBConstants {
 	// Database constants
 	public final static String TABLE_CACHE_RELEASES = "cache_releases";
 	public final static String COL_RELEASE_ID = "release_id";
+	public final static String COL_FIRST_SEEN = "first_seen";
 	
 	public final static String TABLE_CACHE_RELEASES_NAMES = "cache_releases_names";
 	public final static String COL_RELEASE_NAME = "release_name";
 
 	public final static String TABLE_CACHE_ARTISTS = "cache_artists";
 	public final static String COL_ARTIST_ID = "artist_id";
+
+	public final static String TABLE_CACHE_ARTIST_WATERMARKS = "cache_artist_watermarks";
+	public final static String COL_ALBUM_GROUP = "album_group";
+	public final static String COL_RELEASE_DATE = "release_date";
+	public final static String COL_GROUP_SIZE = "group_size";
+
+	public final static String TABLE_CACHE_ARTIST_CRAWL_SCHEDULE = "cache_artist_crawl_schedule";
+	public final static String COL_LAST_CRAWLED = "last_crawled";
+
+	public final static String TABLE_CACHE_ARTIST_ALBUMS_PAGES = "cache_artist_albums_pages";
+	public final static String COL_MARKET = "market";
+	public final static String COL_PAGE_OFFSET = "page_offset";
+	public final static String COL_ETAG = "etag";
+	public final static String COL_TOTAL = "total";
+	public final static String COL_NEXT_URL = "next_url";
+
+	public final static String TABLE_CACHE_ALBUM_TRACKS = "cache_album_tracks";
+	public final static String COL_CACHED_AT = "cached_at";
+
+	public final static String TABLE_CACHE_ARTIST_METADATA = "cache_artist_metadata";
+	public final static String COL_ARTIST_NAME = "artist_name";
+	public final static String COL_GENRES = "genres";
+	public final static String COL_REFRESHED_AT = "refreshed_at";
+
+	public final static String TABLE_CRAWL_CHECKPOINT = "crawl_checkpoint";
+	public final static String COL_PHASE = "phase";
+	public final static String COL_ITEM_ID = "item_id";
+	public final static String COL_PAYLOAD = "payload";
+
+	public final static String TABLE_CRAWL_LEASES = "crawl_leases";
+	public final static String COL_LEASE_KEY = "lease_key";
+	public final static String COL_HOLDER = "holder";
+	public final static String COL_EXPIRES_AT = "expires_at";
+
+	public final static String TABLE_SHARD_HANDOFF = "shard_handoff";
+	public final static String COL_INSTANCE_ID = "instance_id";
+
+	/**
+	 * The tables managed by the {@link CacheStore}, with their columns (key first)
+	 */
+	public final static Map<String, List<String>> CACHE_STORE_COLUMNS = Map.of(
+		TABLE_CACHE_RELEASES, List.of(COL_RELEASE_ID, COL_FIRST_SEEN, COL_ARTIST_ID, COL_ALBUM_GROUP, COL_RELEASE_DATE),
+		TABLE_CACHE_RELEASES_NAMES, List.of(COL_RELEASE_NAME),
+		TABLE_CACHE_ARTISTS, List.of(COL_ARTIST_ID));
 }
@@ -28,15 +28,85 @@ public class DatabaseCreationService {
           + "                      NOT NULL\n"
           + "                      PRIMARY KEY);";
 
+  private static final String SQL_CACHE_ARTIST_WATERMARKS =
+      "CREATE TABLE if NOT EXISTS cache_artist_watermarks (\n"
+          + "    artist_id    STRING  NOT NULL,\n"
+          + "    album_group  STRING  NOT NULL,\n"
+          + "    release_id   STRING  NOT NULL,\n"
+          + "    release_date STRING,\n"
+          + "    group_size   INTEGER NOT NULL,\n"
+          + "    PRIMARY KEY (artist_id, album_group) ON CONFLICT REPLACE);";
+
+  private static final String SQL_CACHE_ARTIST_CRAWL_SCHEDULE =
+      "CREATE TABLE if NOT EXISTS cache_artist_crawl_schedule (\n"
+          + "    artist_id    STRING  NOT NULL\n"
+          + "                         PRIMARY KEY ON CONFLICT REPLACE,\n"
+          + "    last_crawled INTEGER NOT NULL);";
+
+  private static final String SQL_CACHE_ARTIST_ALBUMS_PAGES =
+      "CREATE TABLE if NOT EXISTS cache_artist_albums_pages (\n"
+          + "    artist_id   STRING  NOT NULL,\n"
+          + "    market      STRING  NOT NULL,\n"
+          + "    page_offset INTEGER NOT NULL,\n"
+          + "    etag        STRING  NOT NULL,\n"
+          + "    total       INTEGER NOT NULL,\n"
+          + "    next_url    STRING,\n"
+          + "    payload     STRING  NOT NULL,\n"
+          + "    PRIMARY KEY (artist_id, market, page_offset) ON CONFLICT REPLACE);";
+
+  private static final String SQL_CACHE_ALBUM_TRACKS =
+      "CREATE TABLE if NOT EXISTS cache_album_tracks (\n"
+          + "    release_id STRING  NOT NULL\n"
+          + "                       PRIMARY KEY ON CONFLICT REPLACE,\n"
+          + "    payload    STRING  NOT NULL,\n"
+          + "    cached_at  INTEGER NOT NULL);";
+
+  private static final String SQL_CACHE_ARTIST_METADATA =
+      "CREATE TABLE if NOT EXISTS cache_artist_metadata (\n"
+          + "    artist_id    STRING  NOT NULL\n"
+          + "                         PRIMARY KEY ON CONFLICT REPLACE,\n"
+          + "    artist_name  STRING  NOT NULL,\n"
+          + "    genres       STRING,\n"
+          + "    refreshed_at INTEGER NOT NULL);";
+
+  private static final String SQL_CRAWL_CHECKPOINT =
+      "CREATE TABLE if NOT EXISTS crawl_checkpoint (\n"
+          + "    phase   STRING NOT NULL,\n"
+          + "    item_id STRING NOT NULL,\n"
+          + "    payload STRING,\n"
+          + "    PRIMARY KEY (phase, item_id) ON CONFLICT REPLACE);";
+
+  private static final String SQL_CRAWL_LEASES =
+      "CREATE TABLE if NOT EXISTS crawl_leases (\n"
+          + "    lease_key  STRING  NOT NULL\n"
+          + "                       PRIMARY KEY,\n"
+          + "    holder     STRING  NOT NULL,\n"
+          + "    expires_at INTEGER NOT NULL);";
+
+  private static final String SQL_SHARD_HANDOFF =
+      "CREATE TABLE if NOT EXISTS shard_handoff (\n"
+          + "    release_id  STRING NOT NULL,\n"
+          + "    instance_id STRING NOT NULL,\n"
+          + "    payload     STRING NOT NULL,\n"
+          + "    PRIMARY KEY (release_id, instance_id) ON CONFLICT REPLACE);";
+
+  private final DatabaseMigrationService databaseMigrationService;
+
+  DatabaseCreationService(DatabaseMigrationService databaseMigrationService) {
+    this.databaseMigrationService = databaseMigrationService;
+  }
+
   /**
    * Create the discovery bot database with all required tables
-   * (typically if this is the first time the app is launched)
+   * (typically if this is the first time the app is launched),
+   * then bring the schema up to date
    */
   public void createTables(Connection connection) throws SQLException {
-    for (String tableCreationCommand : List.of(SQL_CACHE_ARTISTS, SQL_CACHE_RELEASES, SQL_CACHE_RELEASES_NAMES)) {
+    for (String tableCreationCommand : List.of(SQL_CACHE_ARTISTS, SQL_CACHE_RELEASES, SQL_CACHE_RELEASES_NAMES, SQL_CACHE_ARTIST_WATERMARKS, SQL_CACHE_ARTIST_CRAWL_SCHEDULE, SQL_CACHE_ARTIST_ALBUMS_PAGES, SQL_CACHE_ALBUM_TRACKS, SQL_CACHE_ARTIST_METADATA, SQL_CRAWL_CHECKPOINT, SQL_CRAWL_LEASES, SQL_SHARD_HANDOFF)) {
       Statement statement = connection.createStatement();
       statement.execute(tableCreationCommand);
       statement.closeOnCompletion();
     }
+    databaseMigrationService.migrate(connection);
   }
 }
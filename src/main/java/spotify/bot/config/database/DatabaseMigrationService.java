@@ -0,0 +1,92 @@
+package spotify.bot.config.database;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+import org.springframework.stereotype.Service;
+
+import spotify.bot.util.DiscoveryBotLogger;
+
+/**
+ * Evolves the schema of an existing database step by step. The version of the
+ * schema is kept in SQLite's <code>user_version</code> header field (0 for a
+ * database that was never migrated). Every migration that is newer than that
+ * version is applied in its own transaction, together with the version bump, so
+ * a failing migration leaves the database untouched.<br/>
+ * <br/>
+ * New migrations must only ever be appended, never changed once released.
+ */
+@Service
+public class DatabaseMigrationService {
+  private static final List<Migration> MIGRATIONS = List.of(
+      new Migration(1, "release metadata",
+          "ALTER TABLE cache_releases ADD COLUMN first_seen INTEGER",
+          "ALTER TABLE cache_releases ADD COLUMN artist_id TEXT",
+          "ALTER TABLE cache_releases ADD COLUMN album_group TEXT",
+          "ALTER TABLE cache_releases ADD COLUMN release_date TEXT",
+          "CREATE INDEX if NOT EXISTS idx_cache_releases_artist ON cache_releases (artist_id, album_group, release_date)",
+          "CREATE INDEX if NOT EXISTS idx_cache_releases_first_seen ON cache_releases (first_seen)"),
+      new Migration(2, "origin artist of handed-off releases",
+          "ALTER TABLE shard_handoff ADD COLUMN artist_id TEXT"));
+
+  private final DiscoveryBotLogger log;
+
+  DatabaseMigrationService(DiscoveryBotLogger discoveryBotLogger) {
+    this.log = discoveryBotLogger;
+  }
+
+  /**
+   * Apply all migrations the given database hasn't seen yet
+   *
+   * @param connection the connection (must not be in a transaction)
+   */
+  public void migrate(Connection connection) throws SQLException {
+    int currentVersion = getSchemaVersion(connection);
+    for (Migration migration : MIGRATIONS) {
+      if (migration.version > currentVersion) {
+        log.info("Migrating database schema to version " + migration.version + " (" + migration.description + ")", false);
+        apply(connection, migration);
+      }
+    }
+  }
+
+  ////////////////////////
+
+  private int getSchemaVersion(Connection connection) throws SQLException {
+    try (Statement statement = connection.createStatement();
+        ResultSet resultSet = statement.executeQuery("PRAGMA user_version")) {
+      return resultSet.next() ? resultSet.getInt(1) : 0;
+    }
+  }
+
+  private void apply(Connection connection, Migration migration) throws SQLException {
+    connection.setAutoCommit(false);
+    try (Statement statement = connection.createStatement()) {
+      for (String sql : migration.statements) {
+        statement.execute(sql);
+      }
+      statement.execute("PRAGMA user_version = " + migration.version);
+      connection.commit();
+    } catch (SQLException e) {
+      connection.rollback();
+      throw e;
+    } finally {
+      connection.setAutoCommit(true);
+    }
+  }
+
+  private static class Migration {
+    private final int version;
+    private final String description;
+    private final List<String> statements;
+
+    private Migration(int version, String description, String... statements) {
+      this.version = version;
+      this.description = description;
+      this.statements = List.of(statements);
+    }
+  }
+}
@@ -1,26 +1,91 @@
 package spotify.bot.config.database;
 
-import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import org.springframework.stereotype.Service;
 
+import se.michaelthelin.spotify.enums.AlbumGroup;
 import se.michaelthelin.spotify.model_objects.specification.AlbumSimplified;
+import se.michaelthelin.spotify.model_objects.specification.Artist;
+import se.michaelthelin.spotify.model_objects.specification.TrackSimplified;
+import spotify.bot.util.DiscoveryBotJson;
 import spotify.bot.util.DiscoveryBotLogger;
+import spotify.bot.util.data.ArtistAlbumsPage;
+import spotify.bot.util.data.ArtistWatermark;
 import spotify.util.SpotifyUtils;
 
 @Service
 public class DatabaseService {
 	private static final int INSERTION_CHUNK_SIZE = 1000;
 
+	/**
+	 * Stays well below SQLite's limit of host parameters per statement
+	 */
+	private static final int SELECTION_CHUNK_SIZE = 500;
+
+	/**
+	 * Takes the lease if it's free, expired, or already held by the same holder
+	 * (in a single statement, so that concurrent instances can't both succeed)
+	 */
+	private static final String ACQUIRE_LEASE_QUERY = "INSERT INTO crawl_leases (lease_key, holder, expires_at) VALUES (?, ?, ?)"
+		+ " ON CONFLICT(lease_key) DO UPDATE SET holder = excluded.holder, expires_at = excluded.expires_at"
+		+ " WHERE crawl_leases.holder = excluded.holder OR crawl_leases.expires_at < ?";
+	private static final String RELEASE_LEASE_QUERY = "DELETE FROM crawl_leases WHERE lease_key = ? AND holder = ?";
+
+	/**
+	 * The release dates of the newest (up to the given number of) own releases of
+	 * every artist. Releases without a proper release date are left out.
+	 */
+	private static final String SELECT_RECENT_RELEASE_DATES_QUERY = "SELECT artist_id, release_date FROM"
+		+ " (SELECT artist_id, release_date, ROW_NUMBER() OVER (PARTITION BY artist_id ORDER BY release_date DESC) AS position FROM cache_releases"
+		+ " WHERE artist_id IS NOT NULL AND album_group IN ('album', 'single', 'compilation') AND release_date GLOB '[0-9][0-9][0-9][0-9]*')"
+		+ " WHERE position <= ?";
+	private static final String SELECT_ARTIST_ALBUMS_PAGE_QUERY = "SELECT * FROM cache_artist_albums_pages WHERE artist_id = ? AND market = ? AND page_offset = ?";
+	private static final String SELECT_ALBUM_TRACKS_QUERY_MASK = "SELECT release_id, payload FROM cache_album_tracks WHERE release_id IN (%s)";
+	private static final String SELECT_ARTIST_NAMES_QUERY_MASK = "SELECT artist_id, artist_name FROM cache_artist_metadata WHERE refreshed_at >= ? AND artist_id IN (%s)";
+	private static final String EVICT_ALBUM_TRACKS_BY_AGE_QUERY = "DELETE FROM cache_album_tracks WHERE cached_at < ?";
+	private static final String EVICT_ALBUM_TRACKS_BY_SIZE_QUERY = "DELETE FROM cache_album_tracks WHERE release_id NOT IN"
+		+ " (SELECT release_id FROM cache_album_tracks ORDER BY cached_at DESC LIMIT ?)";
+
+	/**
+	 * The retention deletes remove at most the given number of rows per statement,
+	 * so that the writer connection is never blocked for long. Releases without a
+	 * proper release date are never considered outdated. Releases of unfollowed
+	 * artists are only removed if there are any followed artists at all, so that
+	 * an empty artist cache can't wipe the release cache. They're keyed on the
+	 * followed artist a release was found for (not its first credited artist), and
+	 * releases without a single such artist are kept, as a followed artist would
+	 * otherwise find them again and they'd be posted a second time.
+	 */
+	private static final String DELETE_RELEASES_RELEASED_BEFORE_QUERY = "DELETE FROM cache_releases WHERE rowid IN"
+		+ " (SELECT rowid FROM cache_releases WHERE release_date GLOB '[0-9][0-9][0-9][0-9]*' AND release_date < ? LIMIT ?)";
+	private static final String DELETE_RELEASES_OF_UNFOLLOWED_ARTISTS_QUERY = "DELETE FROM cache_releases WHERE rowid IN"
+		+ " (SELECT rowid FROM cache_releases WHERE artist_id IS NOT NULL AND artist_id NOT IN (SELECT artist_id FROM cache_artists)"
+		+ " AND EXISTS (SELECT 1 FROM cache_artists) LIMIT ?)";
+
 	private final DiscoveryDatabase database;
+	private final CacheStore cacheStore;
+	private final CacheWriteQueue writeQueue;
 	private final DiscoveryBotLogger log;
 
-	DatabaseService(DiscoveryDatabase discoveryDatabase, DiscoveryBotLogger botLogger) {
+	DatabaseService(DiscoveryDatabase discoveryDatabase, CacheStore cacheStore, CacheWriteQueue cacheWriteQueue, DiscoveryBotLogger botLogger) {
 		this.database = discoveryDatabase;
+		this.cacheStore = cacheStore;
+		this.writeQueue = cacheWriteQueue;
 		this.log = botLogger;
 	}
 
@@ -31,59 +96,268 @@ public class DatabaseService {
 	 * Return the entire contents of the "cache_releases" table as Strings
 	 */
 	public List<String> getReleasesIdsCache() throws SQLException {
+		Set<String> pendingKeys = writeQueue.getPendingKeys(DBConstants.TABLE_CACHE_RELEASES);
 		List<String> albumCacheIds = new ArrayList<>();
-		ResultSet rs = database.selectAll(DBConstants.TABLE_CACHE_RELEASES);
-		while (rs.next()) {
-			albumCacheIds.add(rs.getString(DBConstants.COL_RELEASE_ID));
-		}
+		cacheStore.forEachKey(DBConstants.TABLE_CACHE_RELEASES, albumCacheIds::add);
+		addPendingKeys(albumCacheIds, pendingKeys);
 		return albumCacheIds;
 	}
 	
+	/**
+	 * Return those of the given release IDs that are present in the
+	 * "cache_releases" table. Only the given IDs are looked up (by primary key),
+	 * so this scales with the number of candidates rather than the size of the
+	 * cache.
+	 */
+	public Set<String> getCachedReleaseIds(Collection<String> releaseIds) throws SQLException {
+		Set<String> cachedReleaseIds = new HashSet<>(writeQueue.getPendingKeys(DBConstants.TABLE_CACHE_RELEASES, releaseIds));
+		cachedReleaseIds.addAll(cacheStore.findKeys(DBConstants.TABLE_CACHE_RELEASES, releaseIds));
+		return cachedReleaseIds;
+	}
+
+	/**
+	 * Pass every ID of the "cache_releases" table to the given consumer, without
+	 * holding the entire table in memory (IDs that are just being written may be
+	 * passed twice)
+	 */
+	public void forEachCachedReleaseId(Consumer<String> consumer) throws SQLException {
+		Set<String> pendingKeys = writeQueue.getPendingKeys(DBConstants.TABLE_CACHE_RELEASES);
+		cacheStore.forEachKey(DBConstants.TABLE_CACHE_RELEASES, consumer);
+		pendingKeys.forEach(consumer);
+	}
+
 	/**
 	 * Return the entire contents of the "cache_releases_names" table as Strings
 	 */
 	public List<String> getReleaseNamesCache() throws SQLException {
+		Set<String> pendingKeys = writeQueue.getPendingKeys(DBConstants.TABLE_CACHE_RELEASES_NAMES);
 		List<String> albumCacheNames = new ArrayList<>();
-		ResultSet rs = database.selectAll(DBConstants.TABLE_CACHE_RELEASES_NAMES);
-		while (rs.next()) {
-			albumCacheNames.add(rs.getString(DBConstants.COL_RELEASE_NAME));
-		}
+		cacheStore.forEachKey(DBConstants.TABLE_CACHE_RELEASES_NAMES, albumCacheNames::add);
+		addPendingKeys(albumCacheNames, pendingKeys);
 		return albumCacheNames;
 	}
 
+	/**
+	 * Append the keys that were still waiting in the write queue and aren't part
+	 * of the given table contents yet. The pending keys must be taken before the
+	 * table is read: a flush in between then only moves them into the table,
+	 * while the other way around they might be in neither.
+	 */
+	private void addPendingKeys(List<String> tableContents, Set<String> pendingKeys) {
+		Set<String> missingKeys = new HashSet<>(pendingKeys);
+		tableContents.forEach(missingKeys::remove);
+		tableContents.addAll(missingKeys);
+	}
+
 	/**
 	 * Return the entire contents of the "cache_artists" table as Strings
 	 */
 	public List<String> getArtistCache() throws SQLException {
-		ResultSet rs = database.selectAll(DBConstants.TABLE_CACHE_ARTISTS);
 		List<String> cachedArtists = new ArrayList<>();
-		while (rs.next()) {
-			String string = rs.getString(DBConstants.COL_ARTIST_ID);
-			if (!SpotifyUtils.isNullString(string)) {
-				cachedArtists.add(string);
+		cacheStore.forEachKey(DBConstants.TABLE_CACHE_ARTISTS, artistId -> {
+			if (!SpotifyUtils.isNullString(artistId)) {
+				cachedArtists.add(artistId);
 			}
-		}
+		});
 		return cachedArtists;
 	}
 
+	/**
+	 * Return the entire contents of the "cache_artist_watermarks" table, grouped by
+	 * artist ID
+	 */
+	public Map<String, Map<AlbumGroup, ArtistWatermark>> getArtistWatermarks() throws SQLException {
+		Map<String, Map<AlbumGroup, ArtistWatermark>> watermarks = new HashMap<>();
+		database.selectAll(DBConstants.TABLE_CACHE_ARTIST_WATERMARKS, rs -> {
+			AlbumGroup albumGroup = AlbumGroup.keyOf(rs.getString(DBConstants.COL_ALBUM_GROUP));
+			if (albumGroup != null) {
+				ArtistWatermark watermark = new ArtistWatermark(
+					rs.getString(DBConstants.COL_ARTIST_ID),
+					albumGroup,
+					rs.getString(DBConstants.COL_RELEASE_ID),
+					rs.getString(DBConstants.COL_RELEASE_DATE),
+					rs.getInt(DBConstants.COL_GROUP_SIZE));
+				watermarks.computeIfAbsent(watermark.getArtistId(), k -> new HashMap<>()).put(albumGroup, watermark);
+			}
+		});
+		return watermarks;
+	}
+
+	/**
+	 * Return the release dates of the newest (up to the given number of) cached
+	 * releases of every artist, newest first, grouped by artist ID. appears_on
+	 * releases aren't considered, as they say nothing about the artist's own
+	 * release cadence.
+	 */
+	public Map<String, List<String>> getRecentReleaseDates(int releasesPerArtist) throws SQLException {
+		Map<String, List<String>> releaseDates = new HashMap<>();
+		database.select(SELECT_RECENT_RELEASE_DATES_QUERY, List.of(releasesPerArtist), rs -> releaseDates
+			.computeIfAbsent(rs.getString(DBConstants.COL_ARTIST_ID), k -> new ArrayList<>())
+			.add(rs.getString(DBConstants.COL_RELEASE_DATE)));
+		releaseDates.values().forEach(dates -> dates.sort(Comparator.reverseOrder()));
+		return releaseDates;
+	}
+
+	/**
+	 * Return the entire contents of the "cache_artist_crawl_schedule" table as
+	 * last-crawled timestamps by artist ID
+	 */
+	public Map<String, Long> getArtistLastCrawled() throws SQLException {
+		Map<String, Long> lastCrawled = new HashMap<>();
+		database.selectAll(DBConstants.TABLE_CACHE_ARTIST_CRAWL_SCHEDULE, rs -> lastCrawled.put(rs.getString(DBConstants.COL_ARTIST_ID), rs.getLong(DBConstants.COL_LAST_CRAWLED)));
+		return lastCrawled;
+	}
+
+	/**
+	 * Return the stored page of the given artist's release listing from the
+	 * "cache_artist_albums_pages" table
+	 *
+	 * @return the page, or null if it isn't stored
+	 */
+	public ArtistAlbumsPage getArtistAlbumsPage(String artistId, String market, int offset) throws SQLException {
+		List<ArtistAlbumsPage> pages = new ArrayList<>();
+		database.select(SELECT_ARTIST_ALBUMS_PAGE_QUERY, List.of(artistId, market, offset), rs -> pages.add(new ArtistAlbumsPage(
+			rs.getString(DBConstants.COL_ARTIST_ID),
+			rs.getString(DBConstants.COL_MARKET),
+			rs.getInt(DBConstants.COL_PAGE_OFFSET),
+			rs.getString(DBConstants.COL_ETAG),
+			rs.getInt(DBConstants.COL_TOTAL),
+			rs.getString(DBConstants.COL_NEXT_URL),
+			DiscoveryBotJson.albumsFromJson(rs.getString(DBConstants.COL_PAYLOAD)))));
+		return !pages.isEmpty() ? pages.get(0) : null;
+	}
+
+	/**
+	 * Return the cached tracks of the given albums, by album ID (albums that aren't
+	 * cached are missing from the result)
+	 */
+	public Map<String, List<TrackSimplified>> getCachedAlbumTracks(Collection<String> albumIds) throws SQLException {
+		Map<String, List<TrackSimplified>> tracksByAlbumId = new HashMap<>();
+		for (List<String> chunk : SpotifyUtils.partitionList(new ArrayList<>(albumIds), SELECTION_CHUNK_SIZE)) {
+			database.select(String.format(SELECT_ALBUM_TRACKS_QUERY_MASK, placeholders(chunk.size())), new ArrayList<>(chunk),
+				rs -> tracksByAlbumId.put(rs.getString(DBConstants.COL_RELEASE_ID), DiscoveryBotJson.tracksFromJson(rs.getString(DBConstants.COL_PAYLOAD))));
+		}
+		return tracksByAlbumId;
+	}
+
+	/**
+	 * Return the names of the given artists, by artist ID (artists that aren't
+	 * known or whose metadata was last refreshed before the given timestamp are
+	 * missing from the result)
+	 */
+	public Map<String, String> getArtistNames(Collection<String> artistIds, long refreshedAfter) throws SQLException {
+		Map<String, String> namesByArtistId = new HashMap<>();
+		for (List<String> chunk : SpotifyUtils.partitionList(new ArrayList<>(artistIds), SELECTION_CHUNK_SIZE)) {
+			List<Object> params = new ArrayList<>();
+			params.add(refreshedAfter);
+			params.addAll(chunk);
+			database.select(String.format(SELECT_ARTIST_NAMES_QUERY_MASK, placeholders(chunk.size())), params,
+				rs -> namesByArtistId.put(rs.getString(DBConstants.COL_ARTIST_ID), rs.getString(DBConstants.COL_ARTIST_NAME)));
+		}
+		return namesByArtistId;
+	}
+
+	/**
+	 * Return the entire contents of the "crawl_checkpoint" table as payloads by
+	 * item ID, grouped by crawl phase
+	 */
+	public Map<String, Map<String, String>> getCrawlCheckpoint() throws SQLException {
+		Map<String, Map<String, String>> checkpoint = new HashMap<>();
+		database.selectAll(DBConstants.TABLE_CRAWL_CHECKPOINT, rs -> checkpoint
+			.computeIfAbsent(rs.getString(DBConstants.COL_PHASE), k -> new HashMap<>())
+			.put(rs.getString(DBConstants.COL_ITEM_ID), rs.getString(DBConstants.COL_PAYLOAD)));
+		return checkpoint;
+	}
+
+	/**
+	 * Return the holders of all leases that haven't expired yet, by lease key
+	 */
+	public Map<String, String> getActiveLeaseHolders() throws SQLException {
+		long now = System.currentTimeMillis();
+		Map<String, String> holders = new HashMap<>();
+		database.selectAll(DBConstants.TABLE_CRAWL_LEASES, rs -> {
+			if (rs.getLong(DBConstants.COL_EXPIRES_AT) >= now) {
+				holders.put(rs.getString(DBConstants.COL_LEASE_KEY), rs.getString(DBConstants.COL_HOLDER));
+			}
+		});
+		return holders;
+	}
+
+	/**
+	 * Return the entire contents of the "shard_handoff" table as payloads by
+	 * release ID, grouped by the followed artist they were found for (null if
+	 * unknown)
+	 */
+	public Map<String, Map<String, String>> getHandedOffReleases() throws SQLException {
+		Map<String, Map<String, String>> handedOff = new HashMap<>();
+		database.selectAll(DBConstants.TABLE_SHARD_HANDOFF, rs -> handedOff
+			.computeIfAbsent(rs.getString(DBConstants.COL_ARTIST_ID), k -> new HashMap<>())
+			.put(rs.getString(DBConstants.COL_RELEASE_ID), rs.getString(DBConstants.COL_PAYLOAD)));
+		return handedOff;
+	}
+
+	/**
+	 * Create the placeholder list for an IN clause with the given number of values
+	 */
+	private static String placeholders(int count) {
+		return String.join(", ", Collections.nCopies(count, "?"));
+	}
+
 	////////////////////////
 	// WRITE
 
 	/**
-	 * Cache the album IDs of the given list of albums
+	 * Cache the album IDs of the given list of albums, along with the followed
+	 * artist they were found for, their album group and release date (through the
+	 * {@link CacheWriteQueue})
+	 *
+	 * @param albumsSimplified the albums
+	 * @param originArtistIds resolves the followed artist an album was found for
+	 *                        (may return null if it's unknown)
+	 */
+	public void cacheAlbumIds(List<AlbumSimplified> albumsSimplified, Function<AlbumSimplified, String> originArtistIds) {
+		long now = System.currentTimeMillis();
+		List<List<Object>> rows = albumsSimplified.stream()
+			.map(a -> Arrays.<Object>asList(a.getId(), now, originArtistIds.apply(a), a.getAlbumGroup() != null ? a.getAlbumGroup().getGroup() : null, a.getReleaseDate()))
+			.collect(Collectors.toList());
+
+		try {
+			writeQueue.enqueue(DBConstants.TABLE_CACHE_RELEASES, rows);
+		} catch (SQLException e) {
+			log.stackTrace(e);
+		}
+	}
+
+	/**
+	 * Cache the album names of the given list of albums (through the
+	 * {@link CacheWriteQueue})
 	 */
-	public void cacheAlbumIds(List<AlbumSimplified> albumsSimplified) {
-		List<String> albumIds = albumsSimplified.stream()
-			.map(AlbumSimplified::getId)
+	public void cacheAlbumNames(List<AlbumSimplified> albumsSimplified) {
+		List<List<Object>> rows = albumsSimplified.stream()
+			.map(a -> List.<Object>of(SpotifyUtils.albumIdentifierString(a)))
 			.collect(Collectors.toList());
 
-		List<List<String>> albumChunks = SpotifyUtils.partitionList(albumIds, INSERTION_CHUNK_SIZE);
-		for (List<String> chunk : albumChunks) {
+		try {
+			writeQueue.enqueue(DBConstants.TABLE_CACHE_RELEASES_NAMES, rows);
+		} catch (SQLException e) {
+			log.stackTrace(e);
+		}
+	}
+
+	/**
+	 * Store the given artist watermarks, replacing any previous ones of the same
+	 * artist and album group
+	 */
+	public void cacheArtistWatermarks(Collection<ArtistWatermark> watermarks) {
+		List<List<Object>> rows = watermarks.stream()
+			.map(w -> List.<Object>of(w.getArtistId(), w.getAlbumGroup().getGroup(), w.getReleaseId(), w.getReleaseDate() != null ? w.getReleaseDate() : "", w.getGroupSize()))
+			.collect(Collectors.toList());
+		for (List<List<Object>> chunk : SpotifyUtils.partitionList(rows, INSERTION_CHUNK_SIZE)) {
 			try {
-				database.insertAll(
+				database.upsertAll(
 					chunk,
-					DBConstants.TABLE_CACHE_RELEASES,
-					DBConstants.COL_RELEASE_ID);
+					DBConstants.TABLE_CACHE_ARTIST_WATERMARKS,
+					List.of(DBConstants.COL_ARTIST_ID, DBConstants.COL_ALBUM_GROUP, DBConstants.COL_RELEASE_ID, DBConstants.COL_RELEASE_DATE, DBConstants.COL_GROUP_SIZE));
 			} catch (SQLException e) {
 				log.stackTrace(e);
 			}
@@ -91,26 +365,196 @@ public class DatabaseService {
 	}
 
 	/**
-	 * Cache the album names of the given list of albums
+	 * Store the given last-crawled timestamps, replacing any previous ones of the
+	 * same artist
+	 *
+	 * @param lastCrawledByArtistId the timestamps in milliseconds, by artist ID
 	 */
-	public void cacheAlbumNames(List<AlbumSimplified> albumsSimplified) {
-		List<String> albumIds = albumsSimplified.stream()
-			.map(SpotifyUtils::albumIdentifierString)
+	public void cacheArtistLastCrawled(Map<String, Long> lastCrawledByArtistId) {
+		List<List<Object>> rows = lastCrawledByArtistId.entrySet().stream()
+			.map(e -> List.<Object>of(e.getKey(), e.getValue()))
+			.collect(Collectors.toList());
+		for (List<List<Object>> chunk : SpotifyUtils.partitionList(rows, INSERTION_CHUNK_SIZE)) {
+			try {
+				database.upsertAll(
+					chunk,
+					DBConstants.TABLE_CACHE_ARTIST_CRAWL_SCHEDULE,
+					List.of(DBConstants.COL_ARTIST_ID, DBConstants.COL_LAST_CRAWLED));
+			} catch (SQLException e) {
+				log.stackTrace(e);
+			}
+		}
+	}
+
+	/**
+	 * Store the given pages of the artists' release listings, replacing any
+	 * previous ones of the same artist, market and offset
+	 */
+	public void cacheArtistAlbumsPages(Collection<ArtistAlbumsPage> pages) {
+		List<List<Object>> rows = pages.stream()
+			.map(p -> Arrays.<Object>asList(p.getArtistId(), p.getMarket(), p.getOffset(), p.getEtag(), p.getTotal(), p.getNext(), DiscoveryBotJson.albumsToJson(p.getItems())))
+			.collect(Collectors.toList());
+		for (List<List<Object>> chunk : SpotifyUtils.partitionList(rows, INSERTION_CHUNK_SIZE)) {
+			try {
+				database.upsertAll(
+					chunk,
+					DBConstants.TABLE_CACHE_ARTIST_ALBUMS_PAGES,
+					List.of(DBConstants.COL_ARTIST_ID, DBConstants.COL_MARKET, DBConstants.COL_PAGE_OFFSET, DBConstants.COL_ETAG, DBConstants.COL_TOTAL, DBConstants.COL_NEXT_URL, DBConstants.COL_PAYLOAD));
+			} catch (SQLException e) {
+				log.stackTrace(e);
+			}
+		}
+	}
+
+	/**
+	 * Cache the given tracks by album ID, replacing any previously cached ones
+	 */
+	public void cacheAlbumTracks(Map<String, List<TrackSimplified>> tracksByAlbumId) {
+		long now = System.currentTimeMillis();
+		List<List<Object>> rows = tracksByAlbumId.entrySet().stream()
+			.map(e -> List.<Object>of(e.getKey(), DiscoveryBotJson.tracksToJson(e.getValue()), now))
 			.collect(Collectors.toList());
+		for (List<List<Object>> chunk : SpotifyUtils.partitionList(rows, INSERTION_CHUNK_SIZE)) {
+			try {
+				database.upsertAll(
+					chunk,
+					DBConstants.TABLE_CACHE_ALBUM_TRACKS,
+					List.of(DBConstants.COL_RELEASE_ID, DBConstants.COL_PAYLOAD, DBConstants.COL_CACHED_AT));
+			} catch (SQLException e) {
+				log.stackTrace(e);
+			}
+		}
+	}
 
-		List<List<String>> albumChunks = SpotifyUtils.partitionList(albumIds, INSERTION_CHUNK_SIZE);
-		for (List<String> chunk : albumChunks) {
+	/**
+	 * Store the ID, name and genres of the given artists, replacing any previous
+	 * metadata of the same artist
+	 */
+	public void cacheArtistMetadata(Collection<Artist> artists) {
+		long now = System.currentTimeMillis();
+		List<List<Object>> rows = artists.stream()
+			.filter(a -> a.getId() != null && a.getName() != null)
+			.map(a -> List.<Object>of(a.getId(), a.getName(), a.getGenres() != null ? String.join(",", a.getGenres()) : "", now))
+			.collect(Collectors.toList());
+		for (List<List<Object>> chunk : SpotifyUtils.partitionList(rows, INSERTION_CHUNK_SIZE)) {
 			try {
-				database.insertAll(
+				database.upsertAll(
 					chunk,
-					DBConstants.TABLE_CACHE_RELEASES_NAMES,
-					DBConstants.COL_RELEASE_NAME);
+					DBConstants.TABLE_CACHE_ARTIST_METADATA,
+					List.of(DBConstants.COL_ARTIST_ID, DBConstants.COL_ARTIST_NAME, DBConstants.COL_GENRES, DBConstants.COL_REFRESHED_AT));
 			} catch (SQLException e) {
 				log.stackTrace(e);
 			}
 		}
 	}
 
+	/**
+	 * Evict the cached album tracks that are older than the given timestamp, then
+	 * the oldest ones exceeding the given maximum number of albums
+	 *
+	 * @param cachedBefore the timestamp in milliseconds
+	 * @param maxEntries the maximum number of albums to keep
+	 */
+	public void evictAlbumTracks(long cachedBefore, int maxEntries) {
+		try {
+			database.update(EVICT_ALBUM_TRACKS_BY_AGE_QUERY, List.of(cachedBefore));
+			database.update(EVICT_ALBUM_TRACKS_BY_SIZE_QUERY, List.of(maxEntries));
+		} catch (SQLException e) {
+			log.stackTrace(e);
+		}
+	}
+
+	/**
+	 * Record the given items as done for the given crawl phase
+	 *
+	 * @param phase the crawl phase
+	 * @param payloadsByItemId the payloads to store, by item ID (payloads may be null)
+	 */
+	public void writeCrawlCheckpoint(String phase, Map<String, String> payloadsByItemId) {
+		List<List<Object>> rows = payloadsByItemId.entrySet().stream()
+			.map(e -> Arrays.<Object>asList(phase, e.getKey(), e.getValue()))
+			.collect(Collectors.toList());
+		for (List<List<Object>> chunk : SpotifyUtils.partitionList(rows, INSERTION_CHUNK_SIZE)) {
+			try {
+				database.upsertAll(
+					chunk,
+					DBConstants.TABLE_CRAWL_CHECKPOINT,
+					List.of(DBConstants.COL_PHASE, DBConstants.COL_ITEM_ID, DBConstants.COL_PAYLOAD));
+			} catch (SQLException e) {
+				log.stackTrace(e);
+			}
+		}
+	}
+
+	/**
+	 * Remove the checkpoint of the current crawl entirely
+	 */
+	public void clearCrawlCheckpoint() {
+		try {
+			database.clearTable(DBConstants.TABLE_CRAWL_CHECKPOINT);
+		} catch (SQLException e) {
+			log.stackTrace(e);
+		}
+	}
+
+	/**
+	 * Try to acquire (or renew) the given lease
+	 *
+	 * @param leaseKey the key of the lease
+	 * @param holder the (would-be) holder
+	 * @param expiresAt the new expiry timestamp in milliseconds
+	 * @return true if the lease is now held by the given holder
+	 */
+	public boolean tryAcquireLease(String leaseKey, String holder, long expiresAt) throws SQLException {
+		return database.update(ACQUIRE_LEASE_QUERY, List.of(leaseKey, holder, expiresAt, System.currentTimeMillis())) > 0;
+	}
+
+	/**
+	 * Release the given lease, if it's still held by the given holder
+	 */
+	public void releaseLease(String leaseKey, String holder) {
+		try {
+			database.update(RELEASE_LEASE_QUERY, List.of(leaseKey, holder));
+		} catch (SQLException e) {
+			log.stackTrace(e);
+		}
+	}
+
+	/**
+	 * Hand off the given releases to the coordinating instance
+	 *
+	 * @param instanceId the ID of the handing instance
+	 * @param artistId the ID of the followed artist the releases were found for
+	 *                 (may be null if it's unknown)
+	 * @param payloadsByReleaseId the serialized releases, by release ID
+	 */
+	public void handOffReleases(String instanceId, String artistId, Map<String, String> payloadsByReleaseId) {
+		List<List<Object>> rows = payloadsByReleaseId.entrySet().stream()
+			.map(e -> Arrays.<Object>asList(e.getKey(), instanceId, artistId, e.getValue()))
+			.collect(Collectors.toList());
+		for (List<List<Object>> chunk : SpotifyUtils.partitionList(rows, INSERTION_CHUNK_SIZE)) {
+			try {
+				database.upsertAll(
+					chunk,
+					DBConstants.TABLE_SHARD_HANDOFF,
+					List.of(DBConstants.COL_RELEASE_ID, DBConstants.COL_INSTANCE_ID, DBConstants.COL_ARTIST_ID, DBConstants.COL_PAYLOAD));
+			} catch (SQLException e) {
+				log.stackTrace(e);
+			}
+		}
+	}
+
+	/**
+	 * Remove the given handed-off releases after they've been taken over
+	 */
+	public void removeHandedOffReleases(Collection<String> releaseIds) {
+		try {
+			database.removeAll(releaseIds, DBConstants.TABLE_SHARD_HANDOFF, DBConstants.COL_RELEASE_ID);
+		} catch (SQLException e) {
+			log.stackTrace(e);
+		}
+	}
+
 	/**
 	 * Cache the artist IDs in a separate thread
 	 */
@@ -118,10 +562,9 @@ public class DatabaseService {
 		try {
 			List<String> cachedArtists = getArtistCache();
 			if (cachedArtists != null) {
-				database.insertAll(
-					followedArtists,
-					DBConstants.TABLE_CACHE_ARTISTS,
-					DBConstants.COL_ARTIST_ID);
+				cacheStore.putAll(DBConstants.TABLE_CACHE_ARTISTS, followedArtists.stream()
+					.map(artistId -> List.<Object>of(artistId))
+					.collect(Collectors.toList()));
 			}
 		} catch (SQLException e) {
 			log.stackTrace(e);
@@ -135,13 +578,68 @@ public class DatabaseService {
 		try {
 			List<String> cachedArtists = getArtistCache();
 			if (cachedArtists != null) {
+				cacheStore.removeAll(DBConstants.TABLE_CACHE_ARTISTS, unfollowedArtists);
+				database.removeAll(
+					unfollowedArtists,
+					DBConstants.TABLE_CACHE_ARTIST_WATERMARKS,
+					DBConstants.COL_ARTIST_ID);
 				database.removeAll(
 					unfollowedArtists,
-					DBConstants.TABLE_CACHE_ARTISTS,
+					DBConstants.TABLE_CACHE_ARTIST_CRAWL_SCHEDULE,
+					DBConstants.COL_ARTIST_ID);
+				database.removeAll(
+					unfollowedArtists,
+					DBConstants.TABLE_CACHE_ARTIST_ALBUMS_PAGES,
+					DBConstants.COL_ARTIST_ID);
+				database.removeAll(
+					unfollowedArtists,
+					DBConstants.TABLE_CACHE_ARTIST_METADATA,
 					DBConstants.COL_ARTIST_ID);
 			}
 		} catch (SQLException e) {
 			log.stackTrace(e);
 		}
 	}
+
+	////////////////////////
+	// RETENTION
+
+	/**
+	 * Delete up to the given number of cached releases that were released before
+	 * the given date
+	 *
+	 * @return the number of deleted releases
+	 */
+	public int deleteReleasesReleasedBefore(LocalDate releasedBefore, int limit) throws SQLException {
+		return database.update(DELETE_RELEASES_RELEASED_BEFORE_QUERY, List.of(releasedBefore.toString(), limit));
+	}
+
+	/**
+	 * Delete up to the given number of cached releases that were found for artists
+	 * which aren't followed anymore (releases whose origin is unknown are kept)
+	 *
+	 * @return the number of deleted releases
+	 */
+	public int deleteReleasesOfUnfollowedArtists(int limit) throws SQLException {
+		return database.update(DELETE_RELEASES_OF_UNFOLLOWED_ARTISTS_QUERY, List.of(limit));
+	}
+
+	/**
+	 * Refresh the statistics the query planner bases its decisions on
+	 */
+	public void analyze() throws SQLException {
+		database.execute("ANALYZE");
+	}
+
+	/**
+	 * Give up to the given number of free pages (the space of deleted rows) back
+	 * to the file system, then truncate the write-ahead log they went through.
+	 * Unlike a full VACUUM, this doesn't rebuild the entire database file.
+	 *
+	 * @param pages the maximum number of pages to free
+	 */
+	public void vacuum(int pages) throws SQLException {
+		database.execute("PRAGMA incremental_vacuum(" + pages + ")");
+		database.execute("PRAGMA wal_checkpoint(TRUNCATE)");
+	}
 }
@@ -4,17 +4,27 @@ import java.io.File;
 import java.io.IOException;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import javax.annotation.PreDestroy;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Repository;
 
 import spotify.api.SpotifyDependenciesSettings;
+import spotify.bot.metrics.DatabaseMetrics;
 import spotify.bot.util.DiscoveryBotLogger;
 import spotify.util.SpotifyUtils;
 
@@ -26,21 +36,76 @@ public class DiscoveryDatabase {
 	private final static String DB_URL_PREFIX = "jdbc:sqlite:";
 
 	private final static String FULL_SELECT_QUERY_MASK = "SELECT * FROM %s";
-	private final static String INSERT_QUERY_MASK = "INSERT INTO %s (%s) VALUES %s";
-	private final static String DELETE_QUERY_MASK = "DELETE FROM %s WHERE %s = \"%s\"";
+	private final static String DELETE_QUERY_MASK = "DELETE FROM %s WHERE %s = ?";
+	private final static String FULL_DELETE_QUERY_MASK = "DELETE FROM %s";
+	private final static String UPSERT_QUERY_MASK = "INSERT OR REPLACE INTO %s (%s) VALUES (%s)";
+
+	/**
+	 * How long to wait for a lock held by another process (e.g. another bot
+	 * instance sharing the same database file) before giving up
+	 */
+	private final static String BUSY_TIMEOUT_PRAGMA = "PRAGMA busy_timeout = 10000";
+
+	/**
+	 * Write-ahead logging lets readers continue while a write is in progress and
+	 * turns every commit into a sequential append. With WAL, synchronous=NORMAL
+	 * is still safe against corruption (only the last commits may be lost on a
+	 * power failure) and avoids an fsync per transaction.
+	 */
+	private final static String WAL_JOURNAL_MODE_PRAGMA = "PRAGMA journal_mode = WAL";
+	private final static String SYNCHRONOUS_NORMAL_PRAGMA = "PRAGMA synchronous = NORMAL";
+
+	/**
+	 * Lets the retention give the space of deleted rows back to the file system
+	 * a few pages at a time, rather than by rebuilding the entire file. It only
+	 * takes effect before the first table is created, so an existing database is
+	 * converted with a single VACUUM on startup.
+	 */
+	private final static String INCREMENTAL_AUTO_VACUUM_PRAGMA = "PRAGMA auto_vacuum = INCREMENTAL";
+	private final static String AUTO_VACUUM_QUERY = "PRAGMA auto_vacuum";
+	private final static int AUTO_VACUUM_INCREMENTAL = 2;
+
+	/**
+	 * Guards the read connections against accidental writes
+	 */
+	private final static String QUERY_ONLY_PRAGMA = "PRAGMA query_only = true";
+
+	/**
+	 * How long to wait for running reads to finish before their connections are
+	 * closed on shutdown
+	 */
+	private final static int CLOSE_TIMEOUT_SECONDS = 5;
 
 	private final DiscoveryBotLogger log;
 	private final DatabaseCreationService databaseCreationService;
+	private final DatabaseMetrics databaseMetrics;
+	private final boolean walEnabled;
+	private final int readConnectionCount;
+	private final Semaphore readPermits;
+	private final Queue<Connection> idleReadConnections;
+	private final Set<Connection> readConnections;
+	private volatile boolean closed;
 
 	private String dbUrl;
 	private Connection connection;
 
 	/**
-	 * Initialize the Database connection to the local database
+	 * Initialize the Database connection to the local database. All writes go
+	 * through a single connection (one at a time), while reads are spread over a
+	 * small pool of read-only connections. With WAL, reads therefore never have
+	 * to wait for a write (or another read) to finish.
 	 */
-	DiscoveryDatabase(DiscoveryBotLogger discoveryBotLogger, DatabaseCreationService databaseCreationService, SpotifyDependenciesSettings spotifyDependenciesSettings) {
+	DiscoveryDatabase(DiscoveryBotLogger discoveryBotLogger, DatabaseCreationService databaseCreationService, DatabaseMetrics databaseMetrics, SpotifyDependenciesSettings spotifyDependenciesSettings,
+		@Value("${spotify.discovery.database.wal:#{true}}") boolean walEnabled,
+		@Value("${spotify.discovery.database.read_connections:#{4}}") int readConnections) {
 		this.log = discoveryBotLogger;
 		this.databaseCreationService = databaseCreationService;
+		this.databaseMetrics = databaseMetrics;
+		this.walEnabled = walEnabled;
+		this.readConnectionCount = Math.max(1, readConnections);
+		this.readPermits = new Semaphore(readConnectionCount);
+		this.idleReadConnections = new ConcurrentLinkedQueue<>();
+		this.readConnections = ConcurrentHashMap.newKeySet();
 		try {
 			File dbFilePath = SpotifyUtils.normalizeFile(getDbFilePath(spotifyDependenciesSettings.configFilesBase()));
 			this.dbUrl = DB_URL_PREFIX + dbFilePath.getAbsolutePath();
@@ -68,24 +133,117 @@ public class DiscoveryDatabase {
 	//////////////
 
 	/**
-	 * Returns the Database connection instance. May create a new one if not already
-	 * set
+	 * Returns the Database connection instance used for all writes. May create a
+	 * new one if not already set
 	 */
-	private Connection getConnectionInstance() throws SQLException {
+	private synchronized Connection getConnectionInstance() throws SQLException {
 		if (connection == null || connection.isClosed()) {
 			connection = DriverManager.getConnection(dbUrl);
+			try (Statement statement = connection.createStatement()) {
+				statement.execute(BUSY_TIMEOUT_PRAGMA);
+				statement.execute(INCREMENTAL_AUTO_VACUUM_PRAGMA);
+				if (getAutoVacuumMode(statement) != AUTO_VACUUM_INCREMENTAL) {
+					log.info("Converting the database to incremental vacuuming (this may take a while)...", false);
+					statement.execute("VACUUM");
+				}
+				if (walEnabled) {
+					statement.execute(WAL_JOURNAL_MODE_PRAGMA);
+					statement.execute(SYNCHRONOUS_NORMAL_PRAGMA);
+				}
+			}
 			databaseCreationService.createTables(connection);
 		}
 		return connection;
 	}
 
+	private int getAutoVacuumMode(Statement statement) throws SQLException {
+		try (ResultSet resultSet = statement.executeQuery(AUTO_VACUUM_QUERY)) {
+			return resultSet.next() ? resultSet.getInt(1) : 0;
+		}
+	}
+
+	/**
+	 * Open a new read-only connection. The tables have already been created by the
+	 * write connection during the construction of this class, so this doesn't
+	 * need to go through (and wait for) the write connection.
+	 */
+	private Connection openReadConnection() throws SQLException {
+		Connection readConnection = DriverManager.getConnection(dbUrl);
+		try (Statement statement = readConnection.createStatement()) {
+			statement.execute(BUSY_TIMEOUT_PRAGMA);
+			statement.execute(QUERY_ONLY_PRAGMA);
+		} catch (SQLException e) {
+			readConnection.close();
+			throw e;
+		}
+		readConnections.add(readConnection);
+		if (closed) {
+			readConnections.remove(readConnection);
+			readConnection.close();
+			throw new SQLException("Database has already been closed");
+		}
+		return readConnection;
+	}
+
+	/**
+	 * Take an idle read connection from the pool (or open a new one), waiting if
+	 * all of them are currently in use. Must be returned with
+	 * {@link DiscoveryDatabase#releaseReadConnection}. Fails once the database
+	 * has been closed, rather than opening a connection nobody would close again.
+	 */
+	private Connection acquireReadConnection() throws SQLException {
+		readPermits.acquireUninterruptibly();
+		try {
+			if (closed) {
+				throw new SQLException("Database has already been closed");
+			}
+			Connection readConnection = idleReadConnections.poll();
+			if (readConnection == null || readConnection.isClosed()) {
+				if (readConnection != null) {
+					readConnections.remove(readConnection);
+				}
+				readConnection = openReadConnection();
+			}
+			return readConnection;
+		} catch (SQLException e) {
+			readPermits.release();
+			throw e;
+		}
+	}
+
+	private void releaseReadConnection(Connection readConnection) {
+		if (!closed) {
+			idleReadConnections.add(readConnection);
+		}
+		readPermits.release();
+	}
+
 	/**
-	 * Close the SQL connection if it's still live
+	 * Close all SQL connections that are still live. Running reads are given a
+	 * few seconds to finish, after which their connections are closed as well.
 	 */
 	@PreDestroy
-	private void closeConnection() throws SQLException {
-		if (connection != null) {
-			connection.close();
+	private synchronized void closeConnection() throws SQLException {
+		this.closed = true;
+		boolean allReadsFinished = false;
+		try {
+			allReadsFinished = readPermits.tryAcquire(readConnectionCount, CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		try {
+			for (Connection readConnection : readConnections) {
+				readConnection.close();
+			}
+			readConnections.clear();
+			idleReadConnections.clear();
+		} finally {
+			if (allReadsFinished) {
+				readPermits.release(readConnectionCount);
+			}
+			if (connection != null) {
+				connection.close();
+			}
 		}
 	}
 
@@ -99,38 +257,145 @@ public class DiscoveryDatabase {
 	//////////////
 
 	/**
-	 * Fetch an entire table result set
+	 * Reads every single row of a query result. The rows are streamed from an
+	 * open cursor, which is closed (and its connection returned to the pool) as
+	 * soon as the last row has been read, so the reader must not keep the
+	 * ResultSet itself.
 	 */
-	ResultSet selectAll(String tableName) throws SQLException {
-		Statement statement = createStatement();
-		ResultSet resultSet = statement.executeQuery(String.format(FULL_SELECT_QUERY_MASK, tableName));
-		statement.closeOnCompletion();
-		return resultSet;
+	@FunctionalInterface
+	interface RowReader {
+		void read(ResultSet row) throws SQLException;
 	}
 
 	/**
-	 * Adds all given strings to the specified table's specified column
+	 * Fetch an entire table and pass every row to the given reader
 	 */
-	synchronized void insertAll(Collection<String> strings, String table, String column) throws SQLException {
-		if (strings != null && !strings.isEmpty()) {
-			Statement statement = createStatement();
+	void selectAll(String tableName, RowReader rowReader) throws SQLException {
+		select(String.format(FULL_SELECT_QUERY_MASK, tableName), List.of(), rowReader);
+	}
+
+	/**
+	 * Execute the given parameterized query on one of the read connections and
+	 * pass every resulting row to the given reader
+	 */
+	void select(String sql, List<Object> params, RowReader rowReader) throws SQLException {
+		long start = System.nanoTime();
+		Connection readConnection = acquireReadConnection();
+		try (PreparedStatement statement = readConnection.prepareStatement(sql)) {
+			for (int i = 0; i < params.size(); i++) {
+				statement.setObject(i + 1, params.get(i));
+			}
+			try (ResultSet resultSet = statement.executeQuery()) {
+				while (resultSet.next()) {
+					rowReader.read(resultSet);
+				}
+			}
+		} finally {
+			releaseReadConnection(readConnection);
+			databaseMetrics.record("select", System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Inserts the given rows into the specified table's specified columns, replacing
+	 * any existing rows with the same primary key. All rows are written in a single
+	 * transaction.
+	 */
+	synchronized void upsertAll(Collection<List<Object>> rows, String table, List<String> columns) throws SQLException {
+		if (rows != null && !rows.isEmpty()) {
+			String placeholders = columns.stream().map(c -> "?").collect(Collectors.joining(", "));
+			executeBatch(String.format(UPSERT_QUERY_MASK, table, String.join(", ", columns), placeholders), rows, "upsert");
+		}
+	}
 
-			String values = strings.stream().map(s -> String.format("('%s')", s)).collect(Collectors.joining(", "));
-			statement.executeUpdate(String.format(INSERT_QUERY_MASK, table, column, values));
-			statement.closeOnCompletion();
+	/**
+	 * Executes the given parameterized statement once for every given row. All
+	 * rows are written in a single transaction.
+	 */
+	synchronized void executeAll(String sql, Collection<List<Object>> rows) throws SQLException {
+		if (rows != null && !rows.isEmpty()) {
+			executeBatch(sql, rows, "upsert");
 		}
 	}
 
 	/**
-	 * Removes all given strings from the specified table's specified column
+	 * Removes all given strings from the specified table's specified column. All
+	 * strings are removed in a single transaction.
 	 */
 	synchronized void removeAll(Collection<String> strings, String table, String column) throws SQLException {
 		if (strings != null && !strings.isEmpty()) {
-			Statement statement = createStatement();
-			for (String string : strings) {
-				statement.executeUpdate(String.format(DELETE_QUERY_MASK, table, column, string));
+			executeBatch(String.format(DELETE_QUERY_MASK, table, column), asRows(strings), "delete");
+		}
+	}
+
+	/**
+	 * Executes the given parameterized update statement
+	 *
+	 * @return the number of affected rows
+	 */
+	synchronized int update(String sql, List<Object> params) throws SQLException {
+		long start = System.nanoTime();
+		try (PreparedStatement statement = getConnectionInstance().prepareStatement(sql)) {
+			for (int i = 0; i < params.size(); i++) {
+				statement.setObject(i + 1, params.get(i));
+			}
+			return statement.executeUpdate();
+		} finally {
+			databaseMetrics.record("update", System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Executes the given parameterized statement once per row as a single batch
+	 * inside a transaction (rolled back entirely if any row fails)
+	 */
+	private void executeBatch(String sql, Collection<List<Object>> rows, String operation) throws SQLException {
+		long start = System.nanoTime();
+		Connection connection = getConnectionInstance();
+		connection.setAutoCommit(false);
+		try (PreparedStatement statement = connection.prepareStatement(sql)) {
+			for (List<Object> row : rows) {
+				for (int i = 0; i < row.size(); i++) {
+					statement.setObject(i + 1, row.get(i));
+				}
+				statement.addBatch();
 			}
-			statement.closeOnCompletion();
+			statement.executeBatch();
+			connection.commit();
+		} catch (SQLException e) {
+			connection.rollback();
+			throw e;
+		} finally {
+			connection.setAutoCommit(true);
+			databaseMetrics.record(operation, System.nanoTime() - start);
 		}
 	}
+
+	private static List<List<Object>> asRows(Collection<String> strings) {
+		return strings.stream()
+			.map(s -> List.<Object>of(s))
+			.collect(Collectors.toList());
+	}
+
+		/**
+	 * Executes the given maintenance statement (e.g. VACUUM, which can't run
+	 * inside a transaction) on the writer connection. It's run as an update, so
+	 * that it's stepped through to the end: some pragmas (e.g. incremental_vacuum)
+	 * only do part of their work per step.
+	 */
+	synchronized void execute(String sql) throws SQLException {
+		long start = System.nanoTime();
+		try (Statement statement = createStatement()) {
+			statement.executeUpdate(sql);
+		} finally {
+			databaseMetrics.record("maintenance", System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Removes all rows from the specified table in a single transaction
+	 */
+	synchronized void clearTable(String table) throws SQLException {
+		executeBatch(String.format(FULL_DELETE_QUERY_MASK, table), List.of(List.of()), "delete");
+	}
 }
@@ -0,0 +1,246 @@
+package spotify.bot.config.database;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+import spotify.api.SpotifyDependenciesSettings;
+import spotify.bot.filter.ReleaseIdSet;
+import spotify.bot.util.DiscoveryBotLogger;
+
+/**
+ * Cache store that keeps the release IDs in a memory-mapped, append-only
+ * {@link ReleaseLog} next to the SQLite database, so that looking up the
+ * release candidates neither queries the database nor loads the cache into the
+ * heap. Only the IDs themselves are kept there, not the release metadata, so
+ * the features based on it (retention and adaptive crawling) are disabled for
+ * this store.<br/>
+ * <br/>
+ * Release IDs that can't be packed into 128 bits, as well as the release names
+ * and the followed artists, remain in the SQLite database. The release IDs of
+ * the database are imported into the log once (and left in the database, along
+ * with their metadata). The import is idempotent and only marked as complete in
+ * the header of the log once it's done, so an interrupted import is simply run
+ * again on the next start. Switching back to another store afterwards is not
+ * supported.<br/>
+ * <br/>
+ * The log can only be used by a single process at a time, which is ensured by
+ * an exclusive lock on another sidecar file. It therefore can't be used for
+ * sharded crawls.
+ */
+@Repository
+@ConditionalOnProperty(name = "spotify.discovery.database.store", havingValue = "mmap")
+public class MappedReleaseLogStore implements CacheStore {
+  private final static String LOG_FILE_NAME = "releases.log";
+  private final static String INDEX_FILE_NAME = "releases.idx";
+  private final static String LOCK_FILE_NAME = "releases.lock";
+  private final static int IMPORT_CHUNK_SIZE = 10000;
+
+  @Value("${spotify.discovery.crawl.sharding.enabled:#{false}}")
+  private boolean shardingEnabled;
+
+  private final DiscoveryDatabase database;
+  private final SqliteCacheStore sqliteCacheStore;
+  private final DiscoveryBotLogger log;
+  private final File logFile;
+  private final File indexFile;
+  private final File lockFile;
+
+  private FileChannel lockChannel;
+  private ReleaseLog releaseLog;
+
+  MappedReleaseLogStore(DiscoveryDatabase discoveryDatabase, DiscoveryBotLogger discoveryBotLogger, SpotifyDependenciesSettings spotifyDependenciesSettings) {
+    this.database = discoveryDatabase;
+    this.sqliteCacheStore = new SqliteCacheStore(discoveryDatabase);
+    this.log = discoveryBotLogger;
+    this.logFile = new File(spotifyDependenciesSettings.configFilesBase(), LOG_FILE_NAME);
+    this.indexFile = new File(spotifyDependenciesSettings.configFilesBase(), INDEX_FILE_NAME);
+    this.lockFile = new File(spotifyDependenciesSettings.configFilesBase(), LOCK_FILE_NAME);
+  }
+
+  @PostConstruct
+  void init() throws SQLException {
+    if (shardingEnabled) {
+      throw new SQLException("The mmap cache store can't be used for sharded crawls, as the release log is locked by a single instance");
+    }
+    log.info("Opening release log: " + logFile.getAbsolutePath(), false);
+    try {
+      lockExclusively();
+      this.releaseLog = new ReleaseLog(logFile.toPath(), indexFile.toPath());
+    } catch (IOException e) {
+      try {
+        close();
+      } catch (IOException ioe) {
+        e.addSuppressed(ioe);
+      }
+      throw new SQLException("Failed to open the release log", e);
+    }
+    if (!releaseLog.isImported()) {
+      importFromSqlite();
+    }
+  }
+
+  @PreDestroy
+  void close() throws IOException {
+    try {
+      if (releaseLog != null) {
+        releaseLog.close();
+      }
+    } finally {
+      if (lockChannel != null) {
+        lockChannel.close();
+        lockChannel = null;
+      }
+    }
+  }
+
+  @Override
+  public Set<String> findKeys(String table, Collection<String> keys) throws SQLException {
+    if (!DBConstants.TABLE_CACHE_RELEASES.equals(table)) {
+      return sqliteCacheStore.findKeys(table, keys);
+    }
+    Set<String> foundKeys = new HashSet<>();
+    List<String> undecodableKeys = new ArrayList<>();
+    for (String key : keys) {
+      long[] id = ReleaseIdSet.decode(key);
+      if (id == null) {
+        undecodableKeys.add(key);
+      } else if (releaseLog.contains(id[0], id[1])) {
+        foundKeys.add(key);
+      }
+    }
+    if (!undecodableKeys.isEmpty()) {
+      foundKeys.addAll(sqliteCacheStore.findKeys(table, undecodableKeys));
+    }
+    return foundKeys;
+  }
+
+  @Override
+  public void forEachKey(String table, Consumer<String> consumer) throws SQLException {
+    if (!DBConstants.TABLE_CACHE_RELEASES.equals(table)) {
+      sqliteCacheStore.forEachKey(table, consumer);
+      return;
+    }
+    releaseLog.forEach((high, low) -> consumer.accept(ReleaseIdSet.encode(high, low)));
+
+    // The imported IDs are still in the database as well
+    sqliteCacheStore.forEachKey(table, key -> {
+      if (key != null && ReleaseIdSet.decode(key) == null) {
+        consumer.accept(key);
+      }
+    });
+  }
+
+  @Override
+  public void putAll(String table, List<List<Object>> rows) throws SQLException {
+    if (!DBConstants.TABLE_CACHE_RELEASES.equals(table)) {
+      sqliteCacheStore.putAll(table, rows);
+      return;
+    }
+    List<long[]> ids = new ArrayList<>();
+    List<List<Object>> undecodableRows = new ArrayList<>();
+    for (List<Object> row : rows) {
+      long[] id = ReleaseIdSet.decode((String) row.get(0));
+      if (id == null) {
+        undecodableRows.add(row);
+      } else {
+        ids.add(id);
+      }
+    }
+    try {
+      releaseLog.appendAll(ids);
+    } catch (IOException e) {
+      throw new SQLException("Failed to append to the release log", e);
+    }
+    if (!undecodableRows.isEmpty()) {
+      sqliteCacheStore.putAll(table, undecodableRows);
+    }
+  }
+
+  @Override
+  public void removeAll(String table, Collection<String> keys) throws SQLException {
+    if (DBConstants.TABLE_CACHE_RELEASES.equals(table)) {
+      List<long[]> ids = new ArrayList<>();
+      for (String key : keys) {
+        long[] id = ReleaseIdSet.decode(key);
+        if (id != null) {
+          ids.add(id);
+        }
+      }
+      try {
+        releaseLog.removeAll(ids);
+      } catch (IOException e) {
+        throw new SQLException("Failed to remove releases from the release log", e);
+      }
+    }
+    sqliteCacheStore.removeAll(table, keys);
+  }
+
+  ////////////////////////
+
+  /**
+   * Take an exclusive lock on the lock file, held until this store is closed
+   */
+  private void lockExclusively() throws IOException {
+    this.lockChannel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    FileLock fileLock;
+    try {
+      fileLock = lockChannel.tryLock();
+    } catch (OverlappingFileLockException e) {
+      fileLock = null;
+    }
+    if (fileLock == null) {
+      throw new IOException("The release log is already in use by another process: " + logFile.getAbsolutePath());
+    }
+  }
+
+  /**
+   * Copy the decodable release IDs of the database into the log, in chunks, then
+   * mark the log as imported. IDs that are already in the log are skipped, so if
+   * this fails, the import is simply run again on the next start.
+   */
+  private void importFromSqlite() throws SQLException {
+    List<long[]> chunk = new ArrayList<>();
+    int[] count = { 0 };
+    database.selectAll(DBConstants.TABLE_CACHE_RELEASES, rs -> {
+      String key = rs.getString(DBConstants.COL_RELEASE_ID);
+      long[] id = key != null ? ReleaseIdSet.decode(key) : null;
+      if (id != null) {
+        chunk.add(id);
+        count[0]++;
+      }
+      if (chunk.size() >= IMPORT_CHUNK_SIZE) {
+        appendImported(chunk);
+        chunk.clear();
+      }
+    });
+    appendImported(chunk);
+    releaseLog.markImported();
+    log.info(String.format("Imported %d release IDs into the release log", count[0]), false);
+  }
+
+  private void appendImported(List<long[]> ids) throws SQLException {
+    try {
+      releaseLog.appendAll(ids);
+    } catch (IOException e) {
+      throw new SQLException("Failed to import the release IDs into the release log", e);
+    }
+  }
+}
@@ -0,0 +1,193 @@
+package spotify.bot.config.database;
+
+import java.io.File;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVStore;
+import org.h2.mvstore.MVStoreException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+import spotify.api.SpotifyDependenciesSettings;
+import spotify.bot.util.DiscoveryBotLogger;
+import spotify.util.SpotifyUtils;
+
+/**
+ * Cache store backed by an embedded MVStore (the key-value store underneath the
+ * H2 database) in a file next to the SQLite database. Every table is a map from
+ * the key to the remaining columns of the row.<br/>
+ * <br/>
+ * When the file is created, the contents of the corresponding SQLite tables are
+ * imported once, so that switching the store doesn't make every known release
+ * look new. Switching back to SQLite afterwards is not supported.<br/>
+ * <br/>
+ * MVStore takes an exclusive lock on its file, so this store can't be shared by
+ * the instances of a sharded crawl.
+ */
+@Repository
+@ConditionalOnProperty(name = "spotify.discovery.database.store", havingValue = "mvstore")
+public class MvStoreCacheStore implements CacheStore {
+  private final static String STORE_FILE_NAME = "database.mv";
+  private final static String META_MAP_NAME = "meta";
+  private final static String IMPORTED_KEY = "imported_from_sqlite";
+  private final static int IMPORT_CHUNK_SIZE = 10000;
+
+  @Value("${spotify.discovery.crawl.sharding.enabled:#{false}}")
+  private boolean shardingEnabled;
+
+  private final DiscoveryDatabase database;
+  private final DiscoveryBotLogger log;
+  private final File storeFile;
+
+  private MVStore store;
+
+  MvStoreCacheStore(DiscoveryDatabase discoveryDatabase, DiscoveryBotLogger discoveryBotLogger, SpotifyDependenciesSettings spotifyDependenciesSettings) {
+    this.database = discoveryDatabase;
+    this.log = discoveryBotLogger;
+    this.storeFile = new File(spotifyDependenciesSettings.configFilesBase(), STORE_FILE_NAME);
+  }
+
+  @PostConstruct
+  void init() throws SQLException {
+    if (shardingEnabled) {
+      throw new SQLException("The mvstore cache store can't be used for sharded crawls, as it's locked by a single instance");
+    }
+    log.info("Opening MVStore cache store: " + storeFile.getAbsolutePath(), false);
+    try {
+      this.store = new MVStore.Builder()
+          .fileName(storeFile.getAbsolutePath())
+          .open();
+    } catch (MVStoreException e) {
+      throw new SQLException("Failed to open the MVStore cache store", e);
+    }
+    MVMap<String, Object> meta = store.openMap(META_MAP_NAME);
+    if (!meta.containsKey(IMPORTED_KEY)) {
+      importFromSqlite();
+      meta.put(IMPORTED_KEY, System.currentTimeMillis());
+      store.commit();
+    }
+  }
+
+  @PreDestroy
+  void close() {
+    if (store != null) {
+      store.close();
+    }
+  }
+
+  @Override
+  public Set<String> findKeys(String table, Collection<String> keys) throws SQLException {
+    MVMap<String, Object[]> map = openMap(table);
+    Set<String> foundKeys = new HashSet<>();
+    try {
+      for (String key : keys) {
+        if (map.containsKey(key)) {
+          foundKeys.add(key);
+        }
+      }
+    } catch (MVStoreException e) {
+      throw new SQLException(e);
+    }
+    return foundKeys;
+  }
+
+  @Override
+  public void forEachKey(String table, Consumer<String> consumer) throws SQLException {
+    try {
+      openMap(table).keyIterator(null).forEachRemaining(consumer);
+    } catch (MVStoreException e) {
+      throw new SQLException(e);
+    }
+  }
+
+  @Override
+  public void putAll(String table, List<List<Object>> rows) throws SQLException {
+    MVMap<String, Object[]> map = openMap(table);
+    try {
+      for (List<Object> row : rows) {
+        String key = (String) row.get(0);
+        map.merge(key, row.subList(1, row.size()).toArray(), (storedValues, newValues) -> coalesce(table, key, storedValues, newValues));
+      }
+      store.commit();
+    } catch (MVStoreException e) {
+      throw new SQLException(e);
+    }
+  }
+
+  @Override
+  public void removeAll(String table, Collection<String> keys) throws SQLException {
+    MVMap<String, Object[]> map = openMap(table);
+    try {
+      keys.forEach(map::remove);
+      store.commit();
+    } catch (MVStoreException e) {
+      throw new SQLException(e);
+    }
+  }
+
+  ////////////////////////
+
+  private MVMap<String, Object[]> openMap(String table) {
+    if (!DBConstants.CACHE_STORE_COLUMNS.containsKey(table)) {
+      throw new IllegalArgumentException("Table is not managed by the cache store: " + table);
+    }
+    return store.openMap(table);
+  }
+
+  /**
+   * Combine the stored values with the new ones, see {@link CacheStore#coalesce}
+   */
+  private static Object[] coalesce(String table, String key, Object[] storedValues, Object[] newValues) {
+    List<Object> storedRow = new ArrayList<>();
+    storedRow.add(key);
+    storedRow.addAll(Arrays.asList(storedValues));
+    List<Object> newRow = new ArrayList<>();
+    newRow.add(key);
+    newRow.addAll(Arrays.asList(newValues));
+    List<Object> row = CacheStore.coalesce(table, storedRow, newRow);
+    return row.subList(1, row.size()).toArray();
+  }
+
+  /**
+   * Copy the contents of the SQLite tables into the store, in chunks
+   */
+  private void importFromSqlite() throws SQLException {
+    for (Map.Entry<String, List<String>> table : DBConstants.CACHE_STORE_COLUMNS.entrySet()) {
+      List<String> columns = table.getValue();
+      List<List<Object>> chunk = new ArrayList<>();
+      int[] count = { 0 };
+      database.selectAll(table.getKey(), rs -> {
+        String key = rs.getString(columns.get(0));
+        if (!SpotifyUtils.isNullString(key)) {
+          List<Object> row = new ArrayList<>();
+          row.add(key);
+          for (String column : columns.subList(1, columns.size())) {
+            Object value = rs.getObject(column);
+            row.add(value instanceof Number ? (Object) ((Number) value).longValue() : value);
+          }
+          chunk.add(row);
+          count[0]++;
+        }
+        if (chunk.size() >= IMPORT_CHUNK_SIZE) {
+          putAll(table.getKey(), chunk);
+          chunk.clear();
+        }
+      });
+      putAll(table.getKey(), chunk);
+      log.info(String.format("Imported %d rows of %s into the MVStore cache store", count[0], table.getKey()), false);
+    }
+  }
+}
@@ -0,0 +1,362 @@
+package spotify.bot.config.database;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import spotify.bot.filter.ReleaseIdSet;
+
+/**
+ * Append-only set of 128-bit release IDs (see {@link ReleaseIdSet#decode}) in a
+ * memory-mapped file of fixed-width records, with an open-addressing hash index
+ * (over {@link ReleaseIdSet#hash}) in a memory-mapped sidecar file.<br/>
+ * <br/>
+ * The log starts with a header holding the number of committed records (and
+ * when the log was marked as imported, see {@link #markImported}). New
+ * records are written behind the committed ones and forced to the disk before
+ * the header is updated (and forced as well), so a crash during an append
+ * leaves the log at its previous state. The index maps the hash of an ID to the
+ * position of its record (plus one, zero marks a free slot) and is only ever
+ * updated after the log, so it never points to uncommitted records. It keeps
+ * the number of records it covers in its own header: on opening, any missing
+ * records are indexed, and a missing or damaged index is rebuilt from the log.
+ * Opening an intact log and index therefore takes no time at all, and lookups
+ * read the records straight from the mapped file.<br/>
+ * <br/>
+ * Both files are only ever written in place (never replaced), as a file that is
+ * still mapped can't be replaced on every platform. Removing IDs compacts the
+ * log and rebuilds the index, so it's meant for rare maintenance only. This
+ * class is thread-safe.
+ */
+class ReleaseLog implements Closeable {
+  private final static long LOG_MAGIC = 0x52454c4c4f473031L; // "RELLOG01"
+  private final static long INDEX_MAGIC = 0x52454c4944583031L; // "RELIDX01"
+  private final static int LOG_HEADER_SIZE = 24;
+  private final static int INDEX_HEADER_SIZE = 24;
+  private final static int RECORD_SIZE = 16;
+  private final static int SLOT_SIZE = 4;
+  private final static int INITIAL_RECORD_CAPACITY = 1 << 16;
+  private final static int INITIAL_INDEX_CAPACITY = 1 << 17;
+
+  /**
+   * Receives the high and low 64 bits of every ID
+   */
+  @FunctionalInterface
+  interface RecordConsumer {
+    void accept(long high, long low);
+  }
+
+  private final Path logPath;
+  private final Path indexPath;
+
+  private FileChannel logChannel;
+  private MappedByteBuffer log;
+  private long recordCapacity;
+  private long recordCount;
+
+  private FileChannel indexChannel;
+  private MappedByteBuffer index;
+  private int indexCapacity;
+
+  ReleaseLog(Path logPath, Path indexPath) throws IOException {
+    this.logPath = logPath;
+    this.indexPath = indexPath;
+    openLog();
+    openIndex();
+  }
+
+  /**
+   * The number of IDs in this log
+   */
+  synchronized long size() {
+    return recordCount;
+  }
+
+  /**
+   * Check if the IDs of an existing cache have been imported into this log
+   */
+  synchronized boolean isImported() {
+    return log.getLong(16) > 0;
+  }
+
+  /**
+   * Mark this log as imported, once all IDs of an existing cache have been
+   * appended
+   */
+  synchronized void markImported() {
+    log.putLong(16, System.currentTimeMillis());
+    log.force();
+  }
+
+  /**
+   * Check if the given ID is contained in this log
+   */
+  synchronized boolean contains(long high, long low) {
+    return findSlot(index, indexCapacity, high, low) < 0;
+  }
+
+  /**
+   * Append the given IDs (as pairs of high and low 64 bits) that aren't
+   * contained in this log yet
+   *
+   * @return the number of appended IDs
+   */
+  synchronized int appendAll(Collection<long[]> ids) throws IOException {
+    List<long[]> newIds = new ArrayList<>();
+    Set<List<Long>> seen = new HashSet<>();
+    for (long[] id : ids) {
+      if (!contains(id[0], id[1]) && seen.add(List.of(id[0], id[1]))) {
+        newIds.add(id);
+      }
+    }
+    if (newIds.isEmpty()) {
+      return 0;
+    }
+    ensureRecordCapacity(recordCount + newIds.size());
+    long position = recordPosition(recordCount);
+    for (long[] id : newIds) {
+      log.putLong((int) position, id[0]);
+      log.putLong((int) position + 8, id[1]);
+      position += RECORD_SIZE;
+    }
+    log.force();
+    long firstNewRecord = recordCount;
+    recordCount += newIds.size();
+    log.putLong(8, recordCount);
+    log.force();
+
+    indexRecords(firstNewRecord);
+    return newIds.size();
+  }
+
+  /**
+   * Pass every ID of this log to the given consumer, in the order they were
+   * appended
+   */
+  synchronized void forEach(RecordConsumer consumer) {
+    for (long record = 0; record < recordCount; record++) {
+      int position = (int) recordPosition(record);
+      consumer.accept(log.getLong(position), log.getLong(position + 8));
+    }
+  }
+
+  /**
+   * Remove the given IDs by compacting the remaining records of the log in place.
+   * The index is invalidated first and rebuilt afterwards, so it's rebuilt on
+   * opening if the removal gets interrupted. Since every record is moved towards
+   * the start of the log only after the records in front of it, an interrupted
+   * removal never loses any remaining ID (but may keep some of the removed ones,
+   * or a second copy of a remaining one).
+   *
+   * @return the number of removed IDs
+   */
+  synchronized int removeAll(Collection<long[]> ids) throws IOException {
+    Set<List<Long>> idsToRemove = new HashSet<>();
+    for (long[] id : ids) {
+      if (contains(id[0], id[1])) {
+        idsToRemove.add(List.of(id[0], id[1]));
+      }
+    }
+    if (idsToRemove.isEmpty()) {
+      return 0;
+    }
+
+    invalidateIndex();
+    long remainingCount = 0;
+    for (long record = 0; record < recordCount; record++) {
+      int position = (int) recordPosition(record);
+      long high = log.getLong(position);
+      long low = log.getLong(position + 8);
+      if (!idsToRemove.contains(List.of(high, low))) {
+        if (remainingCount != record) {
+          int targetPosition = (int) recordPosition(remainingCount);
+          log.putLong(targetPosition, high);
+          log.putLong(targetPosition + 8, low);
+        }
+        remainingCount++;
+      }
+    }
+    log.force();
+    recordCount = remainingCount;
+    log.putLong(8, recordCount);
+    log.force();
+
+    rebuildIndex(indexCapacity);
+    return idsToRemove.size();
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (log != null) {
+      log.force();
+      index.force();
+      logChannel.close();
+      indexChannel.close();
+      log = null;
+      index = null;
+    }
+  }
+
+  ////////////////////////
+  // LOG
+
+  private void openLog() throws IOException {
+    this.logChannel = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    if (logChannel.size() < LOG_HEADER_SIZE) {
+      mapLog(INITIAL_RECORD_CAPACITY);
+      log.putLong(0, LOG_MAGIC);
+      log.putLong(8, 0);
+      log.putLong(16, 0);
+      log.force();
+    } else {
+      mapLog((logChannel.size() - LOG_HEADER_SIZE) / RECORD_SIZE);
+      if (log.getLong(0) != LOG_MAGIC) {
+        throw new IOException("Not a release log: " + logPath);
+      }
+    }
+    this.recordCount = log.getLong(8);
+    if (recordCount < 0 || recordCount > recordCapacity) {
+      throw new IOException("Damaged release log (" + recordCount + " records committed, room for " + recordCapacity + "): " + logPath);
+    }
+  }
+
+  private void mapLog(long capacity) throws IOException {
+    this.recordCapacity = capacity;
+    this.log = logChannel.map(MapMode.READ_WRITE, 0, recordPosition(capacity));
+  }
+
+  private void ensureRecordCapacity(long requiredCapacity) throws IOException {
+    if (requiredCapacity > recordCapacity) {
+      long newCapacity = Math.max(recordCapacity, INITIAL_RECORD_CAPACITY);
+      while (newCapacity < requiredCapacity) {
+        newCapacity *= 2;
+      }
+      if (recordPosition(newCapacity) > Integer.MAX_VALUE) {
+        throw new IOException("Release log exceeds the maximum size: " + logPath);
+      }
+      mapLog(newCapacity);
+    }
+  }
+
+  private static long recordPosition(long record) {
+    return LOG_HEADER_SIZE + record * RECORD_SIZE;
+  }
+
+  ////////////////////////
+  // INDEX
+
+  /**
+   * Open the index and index any records it doesn't cover yet, or rebuild it if
+   * it's missing or doesn't belong to the log
+   */
+  private void openIndex() throws IOException {
+    this.indexChannel = FileChannel.open(indexPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    long size = indexChannel.size();
+    if (size >= INDEX_HEADER_SIZE) {
+      this.index = indexChannel.map(MapMode.READ_WRITE, 0, size);
+      this.indexCapacity = index.getInt(8);
+      long indexedCount = index.getLong(16);
+      boolean intact = index.getLong(0) == INDEX_MAGIC
+        && Integer.bitCount(indexCapacity) == 1
+        && size >= INDEX_HEADER_SIZE + (long) indexCapacity * SLOT_SIZE
+        && indexedCount >= 0 && indexedCount <= recordCount;
+      if (intact) {
+        indexRecords(indexedCount);
+        return;
+      }
+    }
+    rebuildIndex(INITIAL_INDEX_CAPACITY);
+  }
+
+  /**
+   * Add the records from the given one up to the last committed one to the
+   * index, then record the number of indexed records
+   */
+  private void indexRecords(long fromRecord) throws IOException {
+    if (recordCount * 2 > indexCapacity) {
+      rebuildIndex(indexCapacity);
+      return;
+    }
+    for (long record = fromRecord; record < recordCount; record++) {
+      int position = (int) recordPosition(record);
+      insert(index, indexCapacity, log.getLong(position), log.getLong(position + 8), record);
+    }
+    index.force();
+    index.putLong(16, recordCount);
+  }
+
+  /**
+   * Rebuild the index in place with at least the given capacity (large enough
+   * for all records). The file only ever grows, so it may be larger than the
+   * index it holds. Should the rebuild get interrupted, the index is still
+   * marked as invalid and gets rebuilt again on opening.
+   */
+  private void rebuildIndex(int minCapacity) throws IOException {
+    int capacity = minCapacity;
+    while ((long) recordCount * 2 > capacity) {
+      capacity *= 2;
+    }
+    invalidateIndex();
+    long size = INDEX_HEADER_SIZE + (long) capacity * SLOT_SIZE;
+    this.index = indexChannel.map(MapMode.READ_WRITE, 0, Math.max(size, indexChannel.size()));
+    for (int slot = 0; slot < capacity; slot++) {
+      index.putInt(INDEX_HEADER_SIZE + slot * SLOT_SIZE, 0);
+    }
+    for (long record = 0; record < recordCount; record++) {
+      int position = (int) recordPosition(record);
+      insert(index, capacity, log.getLong(position), log.getLong(position + 8), record);
+    }
+    index.putInt(8, capacity);
+    index.putLong(16, recordCount);
+    index.force();
+    index.putLong(0, INDEX_MAGIC);
+    index.force();
+    this.indexCapacity = capacity;
+  }
+
+  /**
+   * Mark the index as invalid (if there is one), so it gets rebuilt on opening
+   */
+  private void invalidateIndex() {
+    if (index != null && index.capacity() >= INDEX_HEADER_SIZE) {
+      index.putLong(0, 0);
+      index.force();
+    }
+  }
+
+  /**
+   * Find the slot of the given ID in the given index
+   *
+   * @return the (non-negative) free slot the ID would go into, or -1 if the ID
+   *         is already indexed
+   */
+  private int findSlot(MappedByteBuffer targetIndex, int capacity, long high, long low) {
+    int mask = capacity - 1;
+    for (int slot = ReleaseIdSet.hash(high, low) & mask; ; slot = (slot + 1) & mask) {
+      int entry = targetIndex.getInt(INDEX_HEADER_SIZE + slot * SLOT_SIZE);
+      if (entry == 0) {
+        return slot;
+      }
+      int position = (int) recordPosition(entry - 1);
+      if (log.getLong(position) == high && log.getLong(position + 8) == low) {
+        return -1;
+      }
+    }
+  }
+
+  private void insert(MappedByteBuffer targetIndex, int capacity, long high, long low, long record) {
+    int slot = findSlot(targetIndex, capacity, high, low);
+    if (slot >= 0) {
+      targetIndex.putInt(INDEX_HEADER_SIZE + slot * SLOT_SIZE, (int) (record + 1));
+    }
+  }
+}
@@ -0,0 +1,120 @@
+package spotify.bot.config.database;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+import spotify.util.SpotifyUtils;
+
+/**
+ * Cache store backed by the regular SQLite database of the bot (the default)
+ */
+@Repository
+@ConditionalOnProperty(name = "spotify.discovery.database.store", havingValue = "sqlite", matchIfMissing = true)
+public class SqliteCacheStore implements CacheStore {
+  private final static int INSERTION_CHUNK_SIZE = 1000;
+
+  /**
+   * Stays well below SQLite's limit of host parameters per statement
+   */
+  private final static int SELECTION_CHUNK_SIZE = 500;
+
+  private final static String SELECT_ALL_KEYS_QUERY_MASK = "SELECT %s FROM %s";
+  private final static String SELECT_KEYS_QUERY_MASK = "SELECT %s FROM %s WHERE %s IN (%s)";
+
+  private final static String UPSERT_QUERY_MASK = "INSERT INTO %s (%s) VALUES (%s) ON CONFLICT(%s) DO %s";
+  private final static String FILL_IN_COLUMN_MASK = "%s = COALESCE(%s.%s, excluded.%s)";
+  private final static String ORIGIN_COLUMN_MASK = "%1$s = CASE WHEN %2$s.%3$s IS NULL THEN excluded.%1$s WHEN %2$s.%1$s IS excluded.%1$s THEN %2$s.%1$s END";
+
+  /**
+   * The insertion queries by table, generated from
+   * {@link DBConstants#CACHE_STORE_COLUMNS}
+   */
+  private final static Map<String, String> UPSERT_QUERIES_BY_TABLE = createUpsertQueries();
+
+  private final DiscoveryDatabase database;
+
+  SqliteCacheStore(DiscoveryDatabase discoveryDatabase) {
+    this.database = discoveryDatabase;
+  }
+
+  @Override
+  public Set<String> findKeys(String table, Collection<String> keys) throws SQLException {
+    String keyColumn = getKeyColumn(table);
+    Set<String> foundKeys = new HashSet<>();
+    for (List<String> chunk : SpotifyUtils.partitionList(new ArrayList<>(keys), SELECTION_CHUNK_SIZE)) {
+      String placeholders = String.join(", ", Collections.nCopies(chunk.size(), "?"));
+      database.select(String.format(SELECT_KEYS_QUERY_MASK, keyColumn, table, keyColumn, placeholders), new ArrayList<>(chunk),
+          rs -> foundKeys.add(rs.getString(keyColumn)));
+    }
+    return foundKeys;
+  }
+
+  @Override
+  public void forEachKey(String table, Consumer<String> consumer) throws SQLException {
+    String keyColumn = getKeyColumn(table);
+    database.select(String.format(SELECT_ALL_KEYS_QUERY_MASK, keyColumn, table), List.of(), rs -> consumer.accept(rs.getString(keyColumn)));
+  }
+
+  @Override
+  public void putAll(String table, List<List<Object>> rows) throws SQLException {
+    getKeyColumn(table);
+    for (List<List<Object>> chunk : SpotifyUtils.partitionList(rows, INSERTION_CHUNK_SIZE)) {
+      database.executeAll(UPSERT_QUERIES_BY_TABLE.get(table), chunk);
+    }
+  }
+
+  @Override
+  public void removeAll(String table, Collection<String> keys) throws SQLException {
+    database.removeAll(keys, table, getKeyColumn(table));
+  }
+
+  ////////////////////////
+
+  private static Map<String, String> createUpsertQueries() {
+    Map<String, String> upsertQueries = new HashMap<>();
+    DBConstants.CACHE_STORE_COLUMNS.forEach((table, columns) -> upsertQueries.put(table, createUpsertQuery(table, columns)));
+    return Map.copyOf(upsertQueries);
+  }
+
+  /**
+   * Create the insertion query for the given table. Rows that are already cached
+   * keep their values, but get any values they're missing filled in (e.g.
+   * releases that were cached before the metadata columns existed). The artist
+   * of a release is combined as described in {@link CacheStore#coalesce}.
+   *
+   * @param table the table
+   * @param columns the columns of the table (key first)
+   * @return the query
+   */
+  static String createUpsertQuery(String table, List<String> columns) {
+    String keyColumn = columns.get(0);
+    List<String> fillInColumns = columns.subList(1, columns.size()).stream()
+        .map(column -> CacheStore.isOriginColumn(table, column)
+            ? String.format(ORIGIN_COLUMN_MASK, column, table, DBConstants.COL_ALBUM_GROUP)
+            : String.format(FILL_IN_COLUMN_MASK, column, table, column, column))
+        .collect(Collectors.toList());
+    String conflictAction = fillInColumns.isEmpty() ? "NOTHING" : "UPDATE SET " + String.join(", ", fillInColumns);
+    String placeholders = String.join(", ", Collections.nCopies(columns.size(), "?"));
+    return String.format(UPSERT_QUERY_MASK, table, String.join(", ", columns), placeholders, keyColumn, conflictAction);
+  }
+
+  private static String getKeyColumn(String table) {
+    List<String> columns = DBConstants.CACHE_STORE_COLUMNS.get(table);
+    if (columns == null) {
+      throw new IllegalArgumentException("Table is not managed by the cache store: " + table);
+    }
+    return columns.get(0);
+  }
+}
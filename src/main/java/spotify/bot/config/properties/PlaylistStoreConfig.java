@@ -21,9 +21,9 @@ import se.michaelthelin.spotify.SpotifyApi;
 import se.michaelthelin.spotify.enums.AlbumGroup;
 import se.michaelthelin.spotify.model_objects.specification.Playlist;
 import se.michaelthelin.spotify.model_objects.specification.User;
-import spotify.api.SpotifyCall;
 import spotify.api.SpotifyDependenciesSettings;
 import spotify.api.events.SpotifyApiException;
+import spotify.bot.api.SpotifyRequestScheduler;
 import spotify.bot.service.PlaylistMetaService;
 import spotify.bot.util.DiscoveryBotLogger;
 import spotify.bot.util.DiscoveryBotUtils;
@@ -44,13 +44,15 @@ public class PlaylistStoreConfig {
 
 	private final SpotifyApi spotifyApi;
 	private final UserService userService;
+	private final SpotifyRequestScheduler requestScheduler;
 	private final DiscoveryBotLogger log;
 
 	private final File playlistPropertiesFile;
 
-	PlaylistStoreConfig(SpotifyApi spotifyApi, UserService userService, DiscoveryBotLogger discoveryBotLogger, SpotifyDependenciesSettings spotifyDependenciesSettings) {
+	PlaylistStoreConfig(SpotifyApi spotifyApi, UserService userService, SpotifyRequestScheduler requestScheduler, DiscoveryBotLogger discoveryBotLogger, SpotifyDependenciesSettings spotifyDependenciesSettings) {
 		this.spotifyApi = spotifyApi;
 		this.userService = userService;
+		this.requestScheduler = requestScheduler;
 		this.log = discoveryBotLogger;
 		this.enabledAlbumGroups = new ArrayList<>();
 		this.disabledAlbumGroups = new ArrayList<>();
@@ -113,7 +115,7 @@ public class PlaylistStoreConfig {
 			if (playlistId != null && !playlistId.isBlank()) {
 				Playlist playlist;
 				try {
-					playlist = SpotifyCall.execute(spotifyApi.getPlaylist(playlistId));
+					playlist = requestScheduler.execute(spotifyApi.getPlaylist(playlistId));
 				} catch (SpotifyApiException e) {
 					throw new IOException("Playlist ID for '" + albumGroupExtended.getGroupName() + "' does not point to an existing playlist");
 				}
@@ -128,7 +130,7 @@ public class PlaylistStoreConfig {
 					disabledAlbumGroups.add(albumGroupExtended);
 				} else {
 					String playlistName = PlaylistMetaService.INDICATOR_OFF + " New " + albumGroupExtended.getHumanName();
-					Playlist newPlaylist = SpotifyCall.execute(spotifyApi.createPlaylist(userService.getCurrentUser().getId(), playlistName).public_(false));
+					Playlist newPlaylist = requestScheduler.execute(spotifyApi.createPlaylist(userService.getCurrentUser().getId(), playlistName).public_(false));
 					properties.putIfAbsent(albumGroupExtended.getGroupName(), newPlaylist.getId());
 					changes = true;
 				}
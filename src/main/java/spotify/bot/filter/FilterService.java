@@ -14,10 +14,16 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
 
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import se.michaelthelin.spotify.enums.AlbumGroup;
@@ -50,12 +56,38 @@ public class FilterService {
 	 */
 	private final static String VARIOUS_ARTISTS = "Various Artists";
 
+	/**
+	 * Keep the IDs of all cached releases in memory (see {@link ReleaseIdSet})
+	 * instead of querying the database for every crawl
+	 */
+	@Value("${spotify.discovery.crawl.release_index.enabled:#{false}}")
+	private boolean releaseIndexEnabled;
+
+	/**
+	 * Other instances write to the release cache as well, which would make the
+	 * in-memory index go stale
+	 */
+	@Value("${spotify.discovery.crawl.sharding.enabled:#{false}}")
+	private boolean shardingEnabled;
+
+	/**
+	 * Releases older than the retention period may have been removed from the
+	 * release cache, so they must be treated as cached regardless
+	 */
+	@Value("${spotify.discovery.database.retention.enabled:#{false}}")
+	private boolean retentionEnabled;
+
+	@Value("${spotify.discovery.database.retention.max_age_years:#{0}}")
+	private int retentionMaxAgeYears;
+
 	private final DiscoveryBotLogger log;
 	private final DatabaseService databaseService;
 	private final PlaylistStoreConfig playlistStoreConfig;
 	private final BlacklistService blacklistService;
 	private final FeatureControl featureControl;
 
+	private ReleaseIdSet releaseIndex;
+
 	FilterService(DiscoveryBotLogger discoveryBotLogger,
 			DatabaseService databaseService,
 			PlaylistStoreConfig playlistStoreConfig,
@@ -68,6 +100,21 @@ public class FilterService {
 		this.featureControl = featureControl;
 	}
 
+	/**
+	 * Load the release index right at startup rather than during the first crawl.
+	 * Should that fail, it's loaded on first use instead.
+	 */
+	@PostConstruct
+	void init() {
+		if (isReleaseIndexEnabled()) {
+			try {
+				getReleaseIndex();
+			} catch (SQLException e) {
+				log.stackTrace(e);
+			}
+		}
+	}
+
 	private final static DateTimeFormatter RELEASE_DATE_PARSER = new DateTimeFormatterBuilder()
 		.append(DateTimeFormatter.ofPattern("yyyy[-MM[-dd]]"))
 		.parseDefaulting(ChronoField.DAY_OF_MONTH, 1).parseDefaulting(ChronoField.MONTH_OF_YEAR, 1)
@@ -90,6 +137,116 @@ public class FilterService {
 	 * Filter out all album IDs not currently present in the database
 	 */
 	private List<AlbumSimplified> filterNonCachedAlbumsOnly(List<AlbumSimplified> albumsSimplified) throws SQLException {
+		List<AlbumSimplified> uniqueAlbums = filterDuplicateAlbumIds(albumsSimplified);
+		Set<String> cachedAlbumIds = getCachedAlbumIds(uniqueAlbums);
+		return uniqueAlbums.stream()
+			.filter(a -> !cachedAlbumIds.contains(a.getId()))
+			.collect(Collectors.toList());
+	}
+
+	/**
+	 * Look up which of the given albums are already cached. Albums released before
+	 * the retention horizon count as cached as well.
+	 */
+	private Set<String> getCachedAlbumIds(List<AlbumSimplified> albums) throws SQLException {
+		Set<String> albumIds = albums.stream()
+			.filter(Objects::nonNull)
+			.map(AlbumSimplified::getId)
+			.collect(Collectors.toSet());
+		if (albumIds.isEmpty()) {
+			return Set.of();
+		}
+		Set<String> cachedAlbumIds = new HashSet<>(lookUpCachedAlbumIds(albumIds));
+		LocalDate retentionHorizon = getRetentionHorizon();
+		if (retentionHorizon != null) {
+			for (AlbumSimplified album : albums) {
+				LocalDate releaseDate = album != null ? parseReleaseDate(album.getReleaseDate()) : null;
+				if (releaseDate != null && releaseDate.isBefore(retentionHorizon)) {
+					cachedAlbumIds.add(album.getId());
+				}
+			}
+		}
+		return cachedAlbumIds;
+	}
+
+	private Set<String> lookUpCachedAlbumIds(Set<String> albumIds) throws SQLException {
+		if (isReleaseIndexEnabled()) {
+			synchronized (this) {
+				ReleaseIdSet index = getReleaseIndex();
+				return albumIds.stream()
+					.filter(index::contains)
+					.collect(Collectors.toSet());
+			}
+		}
+		return databaseService.getCachedReleaseIds(albumIds);
+	}
+
+	/**
+	 * The date before which releases are no longer kept in the release cache (and
+	 * thus ignored entirely)
+	 *
+	 * @return the date, or null if releases are kept forever
+	 */
+	public LocalDate getRetentionHorizon() {
+		if (retentionEnabled && retentionMaxAgeYears > 0) {
+			return LocalDate.now().minusYears(retentionMaxAgeYears);
+		}
+		return null;
+	}
+
+	private boolean isReleaseIndexEnabled() {
+		return releaseIndexEnabled && !shardingEnabled;
+	}
+
+	/**
+	 * Get the release index, loading it from the database if that hasn't happened
+	 * during startup
+	 */
+	private synchronized ReleaseIdSet getReleaseIndex() throws SQLException {
+		if (releaseIndex == null) {
+			ReleaseIdSet loadedIndex = new ReleaseIdSet();
+			databaseService.forEachCachedReleaseId(loadedIndex::add);
+			log.debug("Loaded " + loadedIndex.size() + " cached release IDs into memory");
+			this.releaseIndex = loadedIndex;
+		}
+		return releaseIndex;
+	}
+
+	/**
+	 * Create a filter for the streaming crawl pipeline, which is applied to the
+	 * releases of every artist as soon as they've been fetched. It drops all
+	 * releases that are either cached or going to be released in the future, so
+	 * that only the actual candidates are retained until the end of the fetch. The
+	 * release cache is only queried for the releases of the respective artist.<br/>
+	 * <br/>
+	 * The returned filter is thread-safe. Since the same release may be found for
+	 * multiple artists, the combined result of all artists still has to be passed
+	 * through {@link FilterService#filterDuplicateAlbumIds}.
+	 *
+	 * @return the filter
+	 */
+	public UnaryOperator<List<AlbumSimplified>> createStreamingCandidateFilter() {
+		return albumsOfArtist -> {
+			Set<String> cachedAlbumIds;
+			try {
+				cachedAlbumIds = getCachedAlbumIds(albumsOfArtist);
+			} catch (SQLException e) {
+				throw new IllegalStateException("Failed to look up the release cache", e);
+			}
+			return albumsOfArtist.stream()
+				.filter(a -> a != null && !cachedAlbumIds.contains(a.getId()) && isNotInTheFuture(a))
+				.collect(Collectors.toList());
+		};
+	}
+
+	/**
+	 * Reduce the given albums to one per album ID. If the same album was found for
+	 * multiple artists, the one with the superior album group is kept.
+	 *
+	 * @param albumsSimplified the albums to filter
+	 * @return the albums with unique IDs
+	 */
+	public List<AlbumSimplified> filterDuplicateAlbumIds(List<AlbumSimplified> albumsSimplified) {
 		Map<String, AlbumSimplified> filteredAlbums = new HashMap<>();
 		for (AlbumSimplified as : albumsSimplified) {
 			if (as != null) {
@@ -99,11 +256,7 @@ public class FilterService {
 				}
 			}
 		}
-
-		Set<String> albumCache = new HashSet<>(databaseService.getReleasesIdsCache());
-		return filteredAlbums.values().stream()
-			.filter(a -> !albumCache.contains(a.getId()))
-			.collect(Collectors.toList());
+		return new ArrayList<>(filteredAlbums.values());
 	}
 
 	////////////
@@ -150,12 +303,18 @@ public class FilterService {
 	}
 
 	/**
-	 * Cache the given album IDs in the database
+	 * Cache the given album IDs in the database, along with the followed artist
+	 * every album was found for
 	 */
-	public void cacheAlbumIds(List<AlbumSimplified> albums) {
+	public void cacheAlbumIds(List<AlbumSimplified> albums, Function<AlbumSimplified, String> originArtistIds) {
 		if (featureControl.isCacheEnabled()) {
 			if (!albums.isEmpty()) {
-				databaseService.cacheAlbumIds(albums);
+				databaseService.cacheAlbumIds(albums, originArtistIds);
+				synchronized (this) {
+					if (releaseIndex != null) {
+						albums.forEach(album -> releaseIndex.add(album.getId()));
+					}
+				}
 			}
 		}
 	}
@@ -258,6 +417,23 @@ public class FilterService {
 		return filteredReleases;
 	}
 
+	/**
+	 * Parse the given release date, which may be of any precision (year, month, or day)
+	 *
+	 * @param releaseDate the release date
+	 * @return the parsed release date, or null if it couldn't be parsed
+	 */
+	public LocalDate parseReleaseDate(String releaseDate) {
+		if (releaseDate == null) {
+			return null;
+		}
+		try {
+			return LocalDate.parse(releaseDate, RELEASE_DATE_PARSER);
+		} catch (DateTimeParseException e) {
+			return null;
+		}
+	}
+
 	/**
 	 * Evaluate whether a release is new enough to consider it valid for addition to
 	 * the playlist
@@ -0,0 +1,215 @@
+package spotify.bot.filter;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Compact set of Spotify IDs. A Spotify ID is a 128-bit number written as 22
+ * base62 characters, so instead of the string itself (well over 100 bytes on the
+ * heap once wrapped in a hash set entry), each ID is stored as a pair of longs
+ * in an open-addressing hash table with linear probing.<br/>
+ * <br/>
+ * IDs that don't decode into 128 bits (wrong length, unexpected characters or
+ * too large a value) are kept as strings in a separate fallback set, so the set
+ * is correct for any input. This class is not thread-safe.
+ */
+public class ReleaseIdSet {
+	private final static int ID_LENGTH = 22;
+	private final static String BASE62 = "0123456789abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ";
+	private final static int INITIAL_CAPACITY = 1024;
+	private final static long MAX_HIGH_BEFORE_MULTIPLICATION = Long.divideUnsigned(-1L, 62);
+
+	/**
+	 * Interleaved high and low halves of the IDs; (0, 0) marks an empty slot
+	 */
+	private long[] table;
+	private int size;
+	private boolean containsZero;
+	private final Set<String> fallback;
+
+	public ReleaseIdSet() {
+		this.table = new long[INITIAL_CAPACITY * 2];
+		this.fallback = new HashSet<>();
+	}
+
+	/**
+	 * Add the given ID to this set
+	 *
+	 * @return true if the ID wasn't contained yet
+	 */
+	public boolean add(String id) {
+		long[] decoded = decode(id);
+		if (decoded == null) {
+			return fallback.add(id);
+		}
+		long high = decoded[0];
+		long low = decoded[1];
+		if (high == 0 && low == 0) {
+			boolean added = !containsZero;
+			containsZero = true;
+			return added;
+		}
+		if ((size + 1) * 2 > capacity()) {
+			resize(capacity() * 2);
+		}
+		if (insert(table, high, low)) {
+			size++;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Check if the given ID is contained in this set
+	 */
+	public boolean contains(String id) {
+		long[] decoded = decode(id);
+		if (decoded == null) {
+			return fallback.contains(id);
+		}
+		long high = decoded[0];
+		long low = decoded[1];
+		if (high == 0 && low == 0) {
+			return containsZero;
+		}
+		int mask = capacity() - 1;
+		for (int slot = hash(high, low) & mask; ; slot = (slot + 1) & mask) {
+			long slotHigh = table[slot * 2];
+			long slotLow = table[slot * 2 + 1];
+			if (slotHigh == 0 && slotLow == 0) {
+				return false;
+			}
+			if (slotHigh == high && slotLow == low) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * The number of IDs in this set
+	 */
+	public int size() {
+		return size + fallback.size() + (containsZero ? 1 : 0);
+	}
+
+	////////////////////////
+
+	private int capacity() {
+		return table.length / 2;
+	}
+
+	private void resize(int newCapacity) {
+		long[] newTable = new long[newCapacity * 2];
+		for (int slot = 0; slot < capacity(); slot++) {
+			long high = table[slot * 2];
+			long low = table[slot * 2 + 1];
+			if (high != 0 || low != 0) {
+				insert(newTable, high, low);
+			}
+		}
+		this.table = newTable;
+	}
+
+	/**
+	 * Insert the given (non-zero) ID into the given table, which must have at least
+	 * one free slot
+	 *
+	 * @return false if the ID was already present
+	 */
+	private static boolean insert(long[] table, long high, long low) {
+		int mask = table.length / 2 - 1;
+		for (int slot = hash(high, low) & mask; ; slot = (slot + 1) & mask) {
+			long slotHigh = table[slot * 2];
+			long slotLow = table[slot * 2 + 1];
+			if (slotHigh == 0 && slotLow == 0) {
+				table[slot * 2] = high;
+				table[slot * 2 + 1] = low;
+				return true;
+			}
+			if (slotHigh == high && slotLow == low) {
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Spread the bits of both halves (finalizer of MurmurHash3). Also used by the
+	 * persisted index of the release log, so it must never change.
+	 */
+	public static int hash(long high, long low) {
+		long h = high * 0x9E3779B97F4A7C15L ^ low;
+		h ^= h >>> 33;
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+		h *= 0xC4CEB93FE1A85EC5L;
+		h ^= h >>> 33;
+		return (int) h;
+	}
+
+	/**
+	 * Decode the given base62 ID into its high and low 64 bits
+	 *
+	 * @return the two halves, or null if the ID can't be represented in 128 bits
+	 */
+	public static long[] decode(String id) {
+		if (id == null || id.length() != ID_LENGTH) {
+			return null;
+		}
+		long high = 0;
+		long low = 0;
+		for (int i = 0; i < ID_LENGTH; i++) {
+			int digit = digit(id.charAt(i));
+			if (digit < 0 || Long.compareUnsigned(high, MAX_HIGH_BEFORE_MULTIPLICATION) > 0) {
+				return null;
+			}
+			// (high, low) * 62 + digit, failing on any overflow beyond 128 bits
+			long lowProduct = low * 62;
+			long lowCarry = Math.multiplyHigh(low, 62) + (low < 0 ? 62 : 0);
+			long highProduct = high * 62;
+			long newHigh = highProduct + lowCarry;
+			if (Long.compareUnsigned(newHigh, highProduct) < 0) {
+				return null;
+			}
+			long newLow = lowProduct + digit;
+			if (Long.compareUnsigned(newLow, lowProduct) < 0) {
+				newHigh++;
+				if (newHigh == 0) {
+					return null;
+				}
+			}
+			high = newHigh;
+			low = newLow;
+		}
+		return new long[] { high, low };
+	}
+
+	/**
+	 * Encode the given high and low 64 bits back into a base62 ID (the reverse of
+	 * {@link ReleaseIdSet#decode})
+	 */
+	public static String encode(long high, long low) {
+		char[] id = new char[ID_LENGTH];
+		for (int i = ID_LENGTH - 1; i >= 0; i--) {
+			// (high, low) / 62, the low half in two 32-bit steps so nothing overflows
+			long remainder = Long.remainderUnsigned(high, 62);
+			high = Long.divideUnsigned(high, 62);
+			long upper = (remainder << 32) | (low >>> 32);
+			long upperQuotient = upper / 62;
+			long lower = ((upper % 62) << 32) | (low & 0xFFFFFFFFL);
+			low = (upperQuotient << 32) | (lower / 62);
+			id[i] = BASE62.charAt((int) (lower % 62));
+		}
+		return new String(id);
+	}
+
+	private static int digit(char c) {
+		if (c >= '0' && c <= '9') {
+			return c - '0';
+		} else if (c >= 'a' && c <= 'z') {
+			return c - 'a' + 10;
+		} else if (c >= 'A' && c <= 'Z') {
+			return c - 'A' + 36;
+		}
+		return -1;
+	}
+}
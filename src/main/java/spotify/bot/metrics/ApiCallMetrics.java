@@ -0,0 +1,122 @@
+package spotify.bot.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Accounts for every call to the Spotify Web API made through the
+ * {@link spotify.bot.api.SpotifyRequestScheduler}, by endpoint type (the name of
+ * the request class of the Spotify API library). The latencies are recorded as
+ * histograms in the metrics registry, while the counts are additionally
+ * attributed to the current crawl.
+ */
+@Component
+public class ApiCallMetrics {
+  private final static String API_CALL_TIMER = CrawlMetrics.METRICS_PREFIX + "api.calls";
+
+  /**
+   * The outcome of a single API call
+   */
+  public enum Outcome {
+    SUCCESS,
+    ERROR,
+    RATE_LIMITED;
+
+    String getTag() {
+      return name().toLowerCase();
+    }
+  }
+
+  private final MeterRegistry meterRegistry;
+
+  private Map<String, EndpointStats> crawlStats;
+
+  ApiCallMetrics(MeterRegistry meterRegistry) {
+    this.meterRegistry = meterRegistry;
+    this.crawlStats = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * Record a single API call
+   *
+   * @param endpoint the endpoint type
+   * @param durationNanos the duration of the call
+   * @param outcome the outcome of the call
+   */
+  public void record(String endpoint, long durationNanos, Outcome outcome) {
+    Timer.builder(API_CALL_TIMER)
+      .tag("endpoint", endpoint)
+      .tag("outcome", outcome.getTag())
+      .publishPercentiles(0.5, 0.95, 0.99)
+      .publishPercentileHistogram()
+      .register(meterRegistry)
+      .record(durationNanos, TimeUnit.NANOSECONDS);
+    crawlStats.computeIfAbsent(endpoint, e -> new EndpointStats()).add(durationNanos, outcome);
+  }
+
+  /**
+   * Reset the counts attributed to the current crawl
+   */
+  public void startCrawl() {
+    this.crawlStats = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * Get the counts of the current (or most recent) crawl
+   *
+   * @return the counts, by endpoint type
+   */
+  public Map<String, Map<String, Long>> getCrawlSnapshot() {
+    Map<String, Map<String, Long>> snapshot = new TreeMap<>();
+    for (Map.Entry<String, EndpointStats> entry : crawlStats.entrySet()) {
+      snapshot.put(entry.getKey(), entry.getValue().toMap());
+    }
+    return snapshot;
+  }
+
+  /**
+   * Get the total number of calls of the current (or most recent) crawl
+   */
+  public long getCrawlCallCount() {
+    return crawlStats.values().stream().mapToLong(s -> s.calls.sum()).sum();
+  }
+
+  private static class EndpointStats {
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder rateLimited = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    private void add(long durationNanos, Outcome outcome) {
+      calls.increment();
+      totalNanos.add(durationNanos);
+      maxNanos.accumulateAndGet(durationNanos, Math::max);
+      if (outcome == Outcome.ERROR) {
+        errors.increment();
+      } else if (outcome == Outcome.RATE_LIMITED) {
+        rateLimited.increment();
+      }
+    }
+
+    private Map<String, Long> toMap() {
+      long callCount = calls.sum();
+      Map<String, Long> map = new TreeMap<>();
+      map.put("calls", callCount);
+      map.put("errors", errors.sum());
+      map.put("rate_limited", rateLimited.sum());
+      map.put("avg_ms", callCount > 0 ? TimeUnit.NANOSECONDS.toMillis(totalNanos.sum() / callCount) : 0);
+      map.put("max_ms", TimeUnit.NANOSECONDS.toMillis(maxNanos.get()));
+      return map;
+    }
+  }
+}
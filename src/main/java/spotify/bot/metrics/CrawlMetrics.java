@@ -0,0 +1,176 @@
+package spotify.bot.metrics;
+
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Measurement;
+import io.micrometer.core.instrument.Timer;
+import spotify.bot.util.DiscoveryBotLogger;
+
+/**
+ * Records the duration, the database time and the number of incoming, outgoing
+ * and dropped items of every phase of a crawl in the metrics registry.
+ * Additionally, the phases of the most recent crawl are kept as a snapshot, to
+ * quickly spot the bottleneck of a single crawl.
+ */
+@Component
+public class CrawlMetrics {
+  public final static String METRICS_PREFIX = "discovery.";
+
+  private final static String CRAWL_TIMER = METRICS_PREFIX + "crawl.duration";
+  private final static String PHASE_TIMER = METRICS_PREFIX + "crawl.phase.duration";
+  private final static String PHASE_ITEMS_COUNTER = METRICS_PREFIX + "crawl.phase.items";
+
+  private final MeterRegistry meterRegistry;
+  private final ApiCallMetrics apiCallMetrics;
+  private final DatabaseMetrics databaseMetrics;
+  private final DiscoveryBotLogger log;
+
+  private Timer.Sample currentCrawl;
+  private long currentCrawlDbNanosAtStart;
+  private Map<String, Map<String, Long>> currentPhases;
+  private Map<String, Object> lastCrawl;
+
+  CrawlMetrics(MeterRegistry meterRegistry, ApiCallMetrics apiCallMetrics, DatabaseMetrics databaseMetrics, DiscoveryBotLogger discoveryBotLogger) {
+    this.meterRegistry = meterRegistry;
+    this.apiCallMetrics = apiCallMetrics;
+    this.databaseMetrics = databaseMetrics;
+    this.log = discoveryBotLogger;
+    this.currentPhases = new LinkedHashMap<>();
+    this.lastCrawl = Map.of();
+  }
+
+  /**
+   * Start measuring a new crawl
+   */
+  public synchronized void startCrawl() {
+    this.currentCrawl = Timer.start(meterRegistry);
+    this.currentCrawlDbNanosAtStart = databaseMetrics.getTotalNanos();
+    this.currentPhases = new LinkedHashMap<>();
+    apiCallMetrics.startCrawl();
+  }
+
+  /**
+   * Finish measuring the current crawl
+   *
+   * @param successful false if the crawl was aborted by an exception
+   */
+  public synchronized void finishCrawl(boolean successful) {
+    if (currentCrawl != null) {
+      long durationNanos = currentCrawl.stop(Timer.builder(CRAWL_TIMER)
+        .tag("result", successful ? "success" : "failure")
+        .register(meterRegistry));
+      long durationMs = TimeUnit.NANOSECONDS.toMillis(durationNanos);
+
+      Map<String, Object> snapshot = new LinkedHashMap<>();
+      snapshot.put("successful", successful);
+      snapshot.put("duration_ms", durationMs);
+      snapshot.put("db_ms", TimeUnit.NANOSECONDS.toMillis(databaseMetrics.getTotalNanos() - currentCrawlDbNanosAtStart));
+      snapshot.put("phases", currentPhases);
+      snapshot.put("api_calls", apiCallMetrics.getCrawlSnapshot());
+      this.lastCrawl = snapshot;
+      this.currentCrawl = null;
+
+      Optional<Map.Entry<String, Map<String, Long>>> slowestPhase = currentPhases.entrySet().stream()
+        .max(Comparator.comparing(e -> e.getValue().get("duration_ms")));
+      log.debug(String.format("Crawl finished in %dms with %d API call[s]%s", durationMs, apiCallMetrics.getCrawlCallCount(),
+        slowestPhase.map(e -> String.format(" (slowest phase: %s with %dms)", e.getKey(), e.getValue().get("duration_ms"))).orElse("")));
+    }
+  }
+
+  /**
+   * Start measuring the given phase of the current crawl
+   *
+   * @param phase the phase
+   * @param itemsIn the number of items going into this phase
+   * @return the measurement, which has to be stopped at the end of the phase
+   */
+  public PhaseMeasurement startPhase(CrawlPhase phase, int itemsIn) {
+    return new PhaseMeasurement(phase, itemsIn, Timer.start(meterRegistry), databaseMetrics.getTotalNanos());
+  }
+
+  /**
+   * Get the snapshot of the most recent crawl (duration, database time, phases
+   * and API calls), or an empty map if no crawl has finished yet
+   */
+  public synchronized Map<String, Object> getLastCrawl() {
+    return lastCrawl;
+  }
+
+  /**
+   * Get all metrics of the bot (i.e. every meter of the registry starting with
+   * "discovery.") along with the phases of the most recent crawl
+   *
+   * @return the metrics as a sorted map, by meter name and tags
+   */
+  public synchronized Map<String, Object> getSummary() {
+    Map<String, Object> summary = new TreeMap<>();
+    for (Meter meter : meterRegistry.getMeters()) {
+      Meter.Id id = meter.getId();
+      if (id.getName().startsWith(METRICS_PREFIX)) {
+        String tags = id.getTags().stream()
+          .map(tag -> tag.getKey() + "=" + tag.getValue())
+          .collect(Collectors.joining(",", "{", "}"));
+        Map<String, Double> measurements = new LinkedHashMap<>();
+        for (Measurement measurement : meter.measure()) {
+          measurements.put(measurement.getStatistic().getTagValueRepresentation(), measurement.getValue());
+        }
+        summary.put(id.getName() + tags, measurements);
+      }
+    }
+    summary.put("last_crawl", lastCrawl);
+    return summary;
+  }
+
+  private synchronized void recordPhase(CrawlPhase phase, long durationNanos, long dbNanos, int itemsIn, int itemsOut) {
+    Map<String, Long> phaseSnapshot = new LinkedHashMap<>();
+    phaseSnapshot.put("duration_ms", TimeUnit.NANOSECONDS.toMillis(durationNanos));
+    phaseSnapshot.put("db_ms", TimeUnit.NANOSECONDS.toMillis(dbNanos));
+    phaseSnapshot.put("items_in", (long) itemsIn);
+    phaseSnapshot.put("items_out", (long) itemsOut);
+    meterRegistry.counter(PHASE_ITEMS_COUNTER, "phase", phase.getTag(), "direction", "in").increment(itemsIn);
+    meterRegistry.counter(PHASE_ITEMS_COUNTER, "phase", phase.getTag(), "direction", "out").increment(itemsOut);
+    if (phase.isFiltering()) {
+      int dropped = Math.max(0, itemsIn - itemsOut);
+      meterRegistry.counter(PHASE_ITEMS_COUNTER, "phase", phase.getTag(), "direction", "dropped").increment(dropped);
+      phaseSnapshot.put("items_dropped", (long) dropped);
+    }
+    currentPhases.put(phase.getTag(), phaseSnapshot);
+  }
+
+  /**
+   * A running measurement of a single crawl phase
+   */
+  public class PhaseMeasurement {
+    private final CrawlPhase phase;
+    private final int itemsIn;
+    private final Timer.Sample sample;
+    private final long dbNanosAtStart;
+
+    private PhaseMeasurement(CrawlPhase phase, int itemsIn, Timer.Sample sample, long dbNanosAtStart) {
+      this.phase = phase;
+      this.itemsIn = itemsIn;
+      this.sample = sample;
+      this.dbNanosAtStart = dbNanosAtStart;
+    }
+
+    /**
+     * Stop the measurement of this phase
+     *
+     * @param itemsOut the number of items coming out of this phase
+     */
+    public void stop(int itemsOut) {
+      long durationNanos = sample.stop(meterRegistry.timer(PHASE_TIMER, "phase", phase.getTag()));
+      recordPhase(phase, durationNanos, databaseMetrics.getTotalNanos() - dbNanosAtStart, itemsIn, itemsOut);
+    }
+  }
+}
@@ -0,0 +1,37 @@
+package spotify.bot.metrics;
+
+/**
+ * The individual steps of a crawl, as measured by {@link CrawlMetrics}
+ */
+public enum CrawlPhase {
+  PURGER(false),
+  FOLLOWED_ARTISTS(false),
+  ALBUM_FETCH(false),
+  CACHE_FILTER(true),
+  TRACK_FETCH(true),
+  REMAPPING(true),
+  PLAYLIST_ADD(true),
+  PLAYLIST_META(false),
+  FORWARDER(false);
+
+  private final boolean filtering;
+
+  CrawlPhase(boolean filtering) {
+    this.filtering = filtering;
+  }
+
+  /**
+   * Returns true if the items going out of this phase are a subset of the items
+   * coming in (i.e. the difference between the two is the number of dropped items)
+   */
+  public boolean isFiltering() {
+    return filtering;
+  }
+
+  /**
+   * The name of this phase as used in the metric tags
+   */
+  public String getTag() {
+    return name().toLowerCase();
+  }
+}
@@ -0,0 +1,44 @@
+package spotify.bot.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Accounts for the time spent in the SQLite database, by operation type. The
+ * total time is additionally kept as a running sum, so that it can be attributed
+ * to the individual phases of a crawl (see {@link CrawlMetrics}).
+ */
+@Component
+public class DatabaseMetrics {
+  private final static String DB_TIMER = CrawlMetrics.METRICS_PREFIX + "db.duration";
+
+  private final MeterRegistry meterRegistry;
+  private final LongAdder totalNanos;
+
+  DatabaseMetrics(MeterRegistry meterRegistry) {
+    this.meterRegistry = meterRegistry;
+    this.totalNanos = new LongAdder();
+  }
+
+  /**
+   * Record a single database operation
+   *
+   * @param operation the operation type (e.g. "select" or "insert")
+   * @param durationNanos the duration of the operation
+   */
+  public void record(String operation, long durationNanos) {
+    meterRegistry.timer(DB_TIMER, "operation", operation).record(durationNanos, TimeUnit.NANOSECONDS);
+    totalNanos.add(durationNanos);
+  }
+
+  /**
+   * Get the total time spent in the database since startup
+   */
+  public long getTotalNanos() {
+    return totalNanos.sum();
+  }
+}
@@ -13,8 +13,10 @@ import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.stereotype.Service;
 
+import se.michaelthelin.spotify.SpotifyApi;
 import se.michaelthelin.spotify.model_objects.IPlaylistItem;
 import se.michaelthelin.spotify.model_objects.specification.PlaylistTrack;
+import spotify.bot.api.SpotifyRequestScheduler;
 import spotify.bot.config.properties.PlaylistStoreConfig;
 import spotify.bot.service.PlaylistMetaService;
 import spotify.bot.util.DiscoveryBotLogger;
@@ -27,20 +29,27 @@ import spotify.util.SpotifyUtils;
 @EnableConfigurationProperties
 @ConfigurationProperties(prefix = "spotify.discovery.crawl.auto")
 public class AutoPurgerService {
+  private final static int PLAYLIST_FETCH_LIMIT = 100;
+  private final static int PLAYLIST_REMOVE_LIMIT = 100;
+
+  private final SpotifyApi spotifyApi;
   private final PlaylistService playlistService;
   private final PlaylistStoreConfig playlistStoreConfig;
   private final PlaylistMetaService playlistMetaService;
   private final SpotifyOptimizedExecutorService executorService;
+  private final SpotifyRequestScheduler requestScheduler;
   private final FeatureControl featureControl;
   private final DiscoveryBotLogger log;
 
   private Map<AlbumGroupExtended, Integer> autoPurgeConfigMap = Map.of();
 
-  AutoPurgerService(PlaylistService playlistService, PlaylistStoreConfig playlistStoreConfig, PlaylistMetaService playlistMetaService, SpotifyOptimizedExecutorService executorService, FeatureControl featureControl, DiscoveryBotLogger log) {
+  AutoPurgerService(SpotifyApi spotifyApi, PlaylistService playlistService, PlaylistStoreConfig playlistStoreConfig, PlaylistMetaService playlistMetaService, SpotifyOptimizedExecutorService executorService, SpotifyRequestScheduler requestScheduler, FeatureControl featureControl, DiscoveryBotLogger log) {
+    this.spotifyApi = spotifyApi;
     this.playlistService = playlistService;
     this.playlistStoreConfig = playlistStoreConfig;
     this.playlistMetaService = playlistMetaService;
     this.executorService = executorService;
+    this.requestScheduler = requestScheduler;
     this.featureControl = featureControl;
     this.log = log;
   }
@@ -82,13 +91,17 @@ public class AutoPurgerService {
         int expirationDays = entry.getValue();
 
         callables.add(() -> {
-          List<PlaylistTrack> playlistTracks = playlistService.getPlaylistTracks(playlistId);
+          List<PlaylistTrack> playlistTracks = requestScheduler.executePaging(spotifyApi
+            .getPlaylistsItems(playlistId)
+            .limit(PLAYLIST_FETCH_LIMIT));
           List<IPlaylistItem> expiredTracks = playlistTracks.stream()
             .filter(pt -> isExpiredTrack(pt, expirationDays))
             .map(PlaylistTrack::getTrack)
             .collect(Collectors.toList());
           if (!expiredTracks.isEmpty()) {
-            playlistService.removeItemsFromPlaylist(playlistId, expiredTracks);
+            for (List<IPlaylistItem> partition : SpotifyUtils.partitionList(expiredTracks, PLAYLIST_REMOVE_LIMIT)) {
+              requestScheduler.runVoid("RemoveItemsFromPlaylistRequest", () -> playlistService.removeItemsFromPlaylist(playlistId, partition));
+            }
             purgedTracksCount.addAndGet(expiredTracks.size());
             if (playlistTracks.size() == expiredTracks.size()) {
               playlistMetaService.markPlaylistAsRead(playlistStore);
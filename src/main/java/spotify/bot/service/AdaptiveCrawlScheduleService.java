@@ -0,0 +1,235 @@
+package spotify.bot.service;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import se.michaelthelin.spotify.enums.AlbumGroup;
+import spotify.bot.config.database.DatabaseService;
+import spotify.bot.filter.FilterService;
+import spotify.bot.properties.FeatureControl;
+import spotify.bot.util.DiscoveryBotLogger;
+import spotify.bot.util.data.ArtistWatermark;
+
+/**
+ * Performance service to not crawl every followed artist on every single crawl.
+ * Artists are sorted into tiers based on their release cadence, i.e. the average
+ * number of days between their newest releases in the release cache. The time
+ * since the newest release counts as one of those intervals, so an artist that
+ * has gone quiet gradually cools down:
+ * <ul>
+ * <li>HOT: Releases something every few months (or nothing is known about the
+ * artist yet) -> crawled every time</li>
+ * <li>WARM: Releases something every year or two -> crawled every few hours</li>
+ * <li>COLD: Everyone else -> crawled about once a day</li>
+ * </ul>
+ * If the release cache holds no release of an artist (e.g. after the retention
+ * removed them), the newest release known from the artist watermarks is used
+ * instead.<br/>
+ * <br/>
+ * To spread the API load evenly, the first crawl of an artist is backdated by an
+ * artist-specific offset within its interval, so that not every warm or cold artist
+ * comes due during the same crawl. The time of the last crawl of every artist is
+ * stored in the database, so the schedule survives restarts.<br/>
+ * <br/>
+ * Adaptive crawling is only available for the sqlite store, as the other stores
+ * keep the cached releases (and with them the release dates the cadence is
+ * based on) outside of the database.
+ */
+@Service
+public class AdaptiveCrawlScheduleService {
+  enum Tier {
+    HOT, WARM, COLD
+  }
+
+  @Value("${spotify.discovery.crawl.adaptive.enabled:#{false}}")
+  private boolean enabled;
+
+  /**
+   * The number of newest releases per artist the release cadence is based on
+   */
+  private final static int CADENCE_RELEASE_COUNT = 10;
+
+  @Value("${spotify.discovery.crawl.adaptive.hot_days:#{90}}")
+  private int hotDays;
+
+  @Value("${spotify.discovery.crawl.adaptive.warm_days:#{730}}")
+  private int warmDays;
+
+  @Value("${spotify.discovery.crawl.adaptive.warm_interval_hours:#{6}}")
+  private int warmIntervalHours;
+
+  @Value("${spotify.discovery.crawl.adaptive.cold_interval_hours:#{24}}")
+  private int coldIntervalHours;
+
+  @Value("${spotify.discovery.database.store:sqlite}")
+  private String store;
+
+  private final ArtistWatermarkService artistWatermarkService;
+  private final DatabaseService databaseService;
+  private final FilterService filterService;
+  private final FeatureControl featureControl;
+  private final DiscoveryBotLogger log;
+
+  private final Map<String, Long> lastCrawled;
+  private final Map<String, Tier> tiers;
+  private boolean lastCrawledLoaded;
+
+  AdaptiveCrawlScheduleService(ArtistWatermarkService artistWatermarkService, DatabaseService databaseService, FilterService filterService, FeatureControl featureControl, DiscoveryBotLogger discoveryBotLogger) {
+    this.artistWatermarkService = artistWatermarkService;
+    this.databaseService = databaseService;
+    this.filterService = filterService;
+    this.featureControl = featureControl;
+    this.log = discoveryBotLogger;
+    this.lastCrawled = new ConcurrentHashMap<>();
+    this.tiers = new ConcurrentHashMap<>();
+  }
+
+  @PostConstruct
+  void init() {
+    if (enabled && !"sqlite".equals(store)) {
+      log.warning("Adaptive crawling is only supported for the sqlite store and has been disabled (store: " + store + ")", false);
+      enabled = false;
+    }
+  }
+
+  /**
+   * Get the subset of the given artists that are due for a crawl during this tick
+   *
+   * @param followedArtists all followed artists
+   * @return the artists to crawl now
+   */
+  public List<String> getArtistsDueForCrawl(List<String> followedArtists) {
+    if (!enabled) {
+      return followedArtists;
+    }
+
+    loadLastCrawled();
+    Map<String, List<String>> recentReleaseDates = getRecentReleaseDates();
+    Map<String, Map<AlbumGroup, ArtistWatermark>> watermarks = artistWatermarkService.getWatermarks();
+    LocalDate today = LocalDate.now();
+    long now = System.currentTimeMillis();
+
+    Map<Tier, Integer> totalByTier = new EnumMap<>(Tier.class);
+    Map<Tier, Integer> dueByTier = new EnumMap<>(Tier.class);
+    List<String> dueArtists = new ArrayList<>();
+    for (String artistId : followedArtists) {
+      Tier tier = determineTier(recentReleaseDates.getOrDefault(artistId, List.of()), watermarks.getOrDefault(artistId, Map.of()).values(), today);
+      tiers.put(artistId, tier);
+      totalByTier.merge(tier, 1, Integer::sum);
+      Long lastCrawl = lastCrawled.get(artistId);
+      if (lastCrawl == null || now - lastCrawl >= getInterval(tier).toMillis()) {
+        dueArtists.add(artistId);
+        dueByTier.merge(tier, 1, Integer::sum);
+      }
+    }
+
+    log.debug(String.format("Crawling %d of %d artists (hot: %d, warm: %d / %d, cold: %d / %d)",
+      dueArtists.size(), followedArtists.size(),
+      dueByTier.getOrDefault(Tier.HOT, 0),
+      dueByTier.getOrDefault(Tier.WARM, 0), totalByTier.getOrDefault(Tier.WARM, 0),
+      dueByTier.getOrDefault(Tier.COLD, 0), totalByTier.getOrDefault(Tier.COLD, 0)));
+    return dueArtists;
+  }
+
+  /**
+   * Remember that the given artists have just been crawled successfully
+   *
+   * @param crawledArtists the crawled artists
+   */
+  public void markCrawled(Collection<String> crawledArtists) {
+    if (enabled) {
+      long now = System.currentTimeMillis();
+      Map<String, Long> crawled = new HashMap<>();
+      for (String artistId : crawledArtists) {
+        long interval = getInterval(tiers.getOrDefault(artistId, Tier.HOT)).toMillis();
+        if (lastCrawled.containsKey(artistId) || interval <= 0) {
+          crawled.put(artistId, now);
+        } else {
+          crawled.put(artistId, now - Math.floorMod(Objects.hashCode(artistId), interval));
+        }
+      }
+      lastCrawled.putAll(crawled);
+      if (featureControl.isCacheEnabled()) {
+        databaseService.cacheArtistLastCrawled(crawled);
+      }
+    }
+  }
+
+  private synchronized void loadLastCrawled() {
+    if (!lastCrawledLoaded && featureControl.isCacheEnabled()) {
+      try {
+        databaseService.getArtistLastCrawled().forEach(lastCrawled::putIfAbsent);
+        lastCrawledLoaded = true;
+      } catch (SQLException e) {
+        log.stackTrace(e);
+      }
+    }
+  }
+
+  private Map<String, List<String>> getRecentReleaseDates() {
+    if (featureControl.isCacheEnabled()) {
+      try {
+        return databaseService.getRecentReleaseDates(CADENCE_RELEASE_COUNT);
+      } catch (SQLException e) {
+        log.stackTrace(e);
+      }
+    }
+    return Map.of();
+  }
+
+  private Tier determineTier(List<String> recentReleaseDates, Collection<ArtistWatermark> watermarksOfArtist, LocalDate today) {
+    List<LocalDate> releaseDates = new ArrayList<>();
+    for (String releaseDate : recentReleaseDates) {
+      LocalDate parsedReleaseDate = filterService.parseReleaseDate(releaseDate);
+      if (parsedReleaseDate != null) {
+        releaseDates.add(parsedReleaseDate);
+      }
+    }
+    if (releaseDates.isEmpty()) {
+      watermarksOfArtist.stream()
+        .map(w -> filterService.parseReleaseDate(w.getReleaseDate()))
+        .filter(Objects::nonNull)
+        .max(LocalDate::compareTo)
+        .ifPresent(releaseDates::add);
+    }
+    if (releaseDates.isEmpty()) {
+      return Tier.HOT;
+    }
+
+    // The releases span n intervals up until today: n - 1 between them, plus the one since the newest release
+    LocalDate oldestRelease = releaseDates.stream().min(LocalDate::compareTo).get();
+    long averageDaysBetweenReleases = ChronoUnit.DAYS.between(oldestRelease, today) / releaseDates.size();
+    if (averageDaysBetweenReleases <= hotDays) {
+      return Tier.HOT;
+    } else if (averageDaysBetweenReleases <= warmDays) {
+      return Tier.WARM;
+    }
+    return Tier.COLD;
+  }
+
+  private Duration getInterval(Tier tier) {
+    switch (tier) {
+      case WARM:
+        return Duration.ofHours(warmIntervalHours);
+      case COLD:
+        return Duration.ofHours(coldIntervalHours);
+      default:
+        return Duration.ZERO;
+    }
+  }
+}
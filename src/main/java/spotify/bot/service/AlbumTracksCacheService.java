@@ -0,0 +1,85 @@
+package spotify.bot.service;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import se.michaelthelin.spotify.model_objects.specification.TrackSimplified;
+import spotify.bot.config.database.DatabaseService;
+import spotify.bot.properties.FeatureControl;
+import spotify.bot.util.DiscoveryBotLogger;
+import spotify.util.data.AlbumTrackPair;
+
+/**
+ * Keeps the tracks of already resolved albums in the database. The tracks of an
+ * album practically never change, yet the same album may flow through the
+ * pipeline multiple times (e.g. after a failed crawl). The cache is bounded both
+ * by age and by the number of albums, the oldest entries being evicted first.
+ */
+@Service
+public class AlbumTracksCacheService {
+  @Value("${spotify.discovery.crawl.album_tracks_cache.enabled:#{false}}")
+  private boolean albumTracksCacheEnabled;
+
+  @Value("${spotify.discovery.crawl.album_tracks_cache.max_age_days:#{30}}")
+  private int maxAgeDays;
+
+  @Value("${spotify.discovery.crawl.album_tracks_cache.max_entries:#{5000}}")
+  private int maxEntries;
+
+  private final DatabaseService databaseService;
+  private final FeatureControl featureControl;
+  private final DiscoveryBotLogger log;
+
+  AlbumTracksCacheService(DatabaseService databaseService, FeatureControl featureControl, DiscoveryBotLogger discoveryBotLogger) {
+    this.databaseService = databaseService;
+    this.featureControl = featureControl;
+    this.log = discoveryBotLogger;
+  }
+
+  /**
+   * Get the cached tracks of the given albums
+   *
+   * @param albumIds the album IDs
+   * @return the tracks by album ID (albums that aren't cached are missing)
+   */
+  public Map<String, List<TrackSimplified>> getCachedTracks(Collection<String> albumIds) {
+    if (isEnabled() && !albumIds.isEmpty()) {
+      try {
+        return databaseService.getCachedAlbumTracks(albumIds);
+      } catch (SQLException e) {
+        log.stackTrace(e);
+      }
+    }
+    return Map.of();
+  }
+
+  /**
+   * Cache the tracks of the given resolved albums and evict any outdated or
+   * excess entries
+   *
+   * @param albumTrackPairs the resolved albums (null entries are ignored)
+   */
+  public void cacheTracks(List<AlbumTrackPair> albumTrackPairs) {
+    if (isEnabled()) {
+      Map<String, List<TrackSimplified>> tracksByAlbumId = albumTrackPairs.stream()
+        .filter(Objects::nonNull)
+        .collect(Collectors.toMap(atp -> atp.getAlbum().getId(), AlbumTrackPair::getTracks, (a, b) -> a));
+      if (!tracksByAlbumId.isEmpty()) {
+        databaseService.cacheAlbumTracks(tracksByAlbumId);
+        databaseService.evictAlbumTracks(System.currentTimeMillis() - Duration.ofDays(maxAgeDays).toMillis(), maxEntries);
+      }
+    }
+  }
+
+  private boolean isEnabled() {
+    return albumTracksCacheEnabled && featureControl.isCacheEnabled();
+  }
+}
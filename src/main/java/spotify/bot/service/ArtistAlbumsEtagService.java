@@ -0,0 +1,113 @@
+package spotify.bot.service;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.neovisionaries.i18n.CountryCode;
+
+import se.michaelthelin.spotify.model_objects.specification.AlbumSimplified;
+import se.michaelthelin.spotify.model_objects.specification.Paging;
+import spotify.bot.config.database.DatabaseService;
+import spotify.bot.filter.FilterService;
+import spotify.bot.properties.FeatureControl;
+import spotify.bot.util.DiscoveryBotLogger;
+import spotify.bot.util.data.ArtistAlbumsPage;
+
+/**
+ * Remembers the pages of the artists' release listings along with their ETags,
+ * so that they can be requested conditionally during the next crawl. Spotify
+ * answers unchanged pages with 304 Not Modified and an empty body, in which case
+ * the page is restored from the stored copy and treated as "nothing new".<br/>
+ * <br/>
+ * Because of the latter, the pages fetched during a crawl only become effective
+ * once the releases on them have made it into the release cache (see
+ * {@link ArtistAlbumsEtagService#commit}). Pages containing releases from the
+ * future are never stored, as those will become new once their day has come.
+ * The stored pages are looked up one by one while the listings are fetched, so
+ * they're never all held in memory at once.
+ */
+@Service
+public class ArtistAlbumsEtagService {
+  @Value("${spotify.discovery.crawl.conditional_requests.enabled:#{false}}")
+  private boolean conditionalRequestsEnabled;
+
+  private final DatabaseService databaseService;
+  private final FilterService filterService;
+  private final FeatureControl featureControl;
+  private final DiscoveryBotLogger log;
+
+  private final Queue<ArtistAlbumsPage> pendingPages;
+
+  ArtistAlbumsEtagService(DatabaseService databaseService, FilterService filterService, FeatureControl featureControl, DiscoveryBotLogger discoveryBotLogger) {
+    this.databaseService = databaseService;
+    this.filterService = filterService;
+    this.featureControl = featureControl;
+    this.log = discoveryBotLogger;
+    this.pendingPages = new ConcurrentLinkedQueue<>();
+  }
+
+  /**
+   * Discard any pages still pending from a previous (failed) crawl before the
+   * upcoming album fetch
+   *
+   * @return true if conditional requests are to be used
+   */
+  public synchronized boolean startCrawl() {
+    pendingPages.clear();
+    return conditionalRequestsEnabled && featureControl.isCacheEnabled();
+  }
+
+  /**
+   * Get the page of the given artist's release listing as it was delivered
+   * during a previous crawl
+   *
+   * @return the page, or null if it's unknown
+   */
+  public ArtistAlbumsPage getKnownPage(String artistId, CountryCode market, int offset) {
+    try {
+      return databaseService.getArtistAlbumsPage(artistId, market.getAlpha2(), offset);
+    } catch (SQLException e) {
+      log.stackTrace(e);
+      return null;
+    }
+  }
+
+  /**
+   * Remember the given freshly fetched page for the next crawl (pending until
+   * the next {@link ArtistAlbumsEtagService#commit})
+   *
+   * @param artistId the artist ID
+   * @param market the market
+   * @param etag the ETag of the page (nothing is remembered if this is null)
+   * @param paging the page
+   */
+  public void recordPage(String artistId, CountryCode market, String etag, Paging<AlbumSimplified> paging) {
+    if (etag != null) {
+      List<AlbumSimplified> items = paging.getItems() != null ? Arrays.asList(paging.getItems()) : List.of();
+      if (filterService.filterFutureAlbums(items).size() == items.size()) {
+        pendingPages.add(new ArtistAlbumsPage(artistId, market.getAlpha2(), paging.getOffset(), etag, paging.getTotal(), paging.getNext(), items));
+      }
+    }
+  }
+
+  /**
+   * Store all pages fetched during the current crawl. To be called once the
+   * releases found on them have been cached. In a sharded crawl, that's only
+   * ever the case on the coordinator (after it has taken over the handed-off
+   * releases), so the other instances never store their pages.
+   */
+  public synchronized void commit() {
+    if (!pendingPages.isEmpty()) {
+      List<ArtistAlbumsPage> pages = new ArrayList<>(pendingPages);
+      pendingPages.clear();
+      databaseService.cacheArtistAlbumsPages(pages);
+    }
+  }
+}
@@ -0,0 +1,63 @@
+package spotify.bot.service;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import se.michaelthelin.spotify.model_objects.specification.Artist;
+import spotify.bot.config.database.DatabaseService;
+import spotify.bot.properties.FeatureControl;
+import spotify.bot.util.DiscoveryBotLogger;
+
+/**
+ * Dictionary of artist names (and genres), persisted in the database. It's
+ * filled whenever the followed artists are fetched from Spotify anyway, which
+ * covers nearly every artist the bot ever needs the name of (such as the "via"
+ * artists of appears-on releases). Entries older than the configured maximum
+ * age are treated as unknown, so renamed artists are picked up eventually.
+ */
+@Service
+public class ArtistMetadataService {
+  @Value("${spotify.discovery.crawl.artist_metadata.max_age_days:#{30}}")
+  private int maxAgeDays;
+
+  private final DatabaseService databaseService;
+  private final FeatureControl featureControl;
+  private final DiscoveryBotLogger log;
+
+  ArtistMetadataService(DatabaseService databaseService, FeatureControl featureControl, DiscoveryBotLogger discoveryBotLogger) {
+    this.databaseService = databaseService;
+    this.featureControl = featureControl;
+    this.log = discoveryBotLogger;
+  }
+
+  /**
+   * Get the names of the given artists
+   *
+   * @param artistIds the artist IDs
+   * @return the names by artist ID (unknown or outdated artists are missing)
+   */
+  public Map<String, String> getArtistNames(Collection<String> artistIds) {
+    if (featureControl.isCacheEnabled() && !artistIds.isEmpty()) {
+      try {
+        return databaseService.getArtistNames(artistIds, System.currentTimeMillis() - Duration.ofDays(maxAgeDays).toMillis());
+      } catch (SQLException e) {
+        log.stackTrace(e);
+      }
+    }
+    return Map.of();
+  }
+
+  /**
+   * Store (or refresh) the metadata of the given artists
+   */
+  public void storeArtists(Collection<Artist> artists) {
+    if (featureControl.isCacheEnabled() && !artists.isEmpty()) {
+      databaseService.cacheArtistMetadata(artists);
+    }
+  }
+}
@@ -0,0 +1,111 @@
+package spotify.bot.service;
+
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import se.michaelthelin.spotify.enums.AlbumGroup;
+import se.michaelthelin.spotify.model_objects.specification.AlbumSimplified;
+import spotify.bot.config.database.DatabaseService;
+import spotify.bot.filter.FilterService;
+import spotify.bot.properties.FeatureControl;
+import spotify.bot.util.DiscoveryBotLogger;
+import spotify.bot.util.data.ArtistWatermark;
+
+/**
+ * Keeps track of the newest release per artist and album group seen during the
+ * previous crawls (the "watermarks"). In incremental mode, the release listing of
+ * an artist is no longer paged through entirely. Instead, as soon as known
+ * material that is older than the lookback range has been reached, the remaining
+ * (known) releases of that album group are skipped.<br/>
+ * <br/>
+ * Since re-uploads of old releases are sorted by their original release date, they
+ * may land inside a skipped range. To still catch those, a full crawl ignoring
+ * all watermarks is done periodically.
+ */
+@Service
+public class ArtistWatermarkService {
+  @Value("${spotify.discovery.crawl.incremental.enabled:#{false}}")
+  private boolean incrementalEnabled;
+
+  @Value("${spotify.discovery.crawl.incremental.full_crawl_interval_hours:#{24}}")
+  private int fullCrawlIntervalHours;
+
+  private final DatabaseService databaseService;
+  private final FilterService filterService;
+  private final FeatureControl featureControl;
+  private final DiscoveryBotLogger log;
+
+  private LocalDateTime lastFullCrawl;
+
+  ArtistWatermarkService(DatabaseService databaseService, FilterService filterService, FeatureControl featureControl, DiscoveryBotLogger discoveryBotLogger) {
+    this.databaseService = databaseService;
+    this.filterService = filterService;
+    this.featureControl = featureControl;
+    this.log = discoveryBotLogger;
+  }
+
+  /**
+   * Determine whether the upcoming crawl may skip known releases using the
+   * watermarks. If it may not, the upcoming crawl is considered a full crawl.
+   *
+   * @return true if this is an incremental crawl
+   */
+  public synchronized boolean startCrawl() {
+    LocalDateTime now = LocalDateTime.now();
+    if (incrementalEnabled && lastFullCrawl != null && now.isBefore(lastFullCrawl.plusHours(fullCrawlIntervalHours))) {
+      return true;
+    }
+    if (incrementalEnabled) {
+      log.debug("Doing a full crawl (ignoring artist watermarks)...");
+    }
+    this.lastFullCrawl = now;
+    return false;
+  }
+
+  /**
+   * Get the watermarks of all artists, grouped by artist ID
+   */
+  public Map<String, Map<AlbumGroup, ArtistWatermark>> getWatermarks() {
+    if (featureControl.isCacheEnabled()) {
+      try {
+        return databaseService.getArtistWatermarks();
+      } catch (SQLException e) {
+        log.stackTrace(e);
+      }
+    }
+    return Map.of();
+  }
+
+  /**
+   * Store the given watermarks, but only those that have actually changed
+   *
+   * @param previousWatermarks the watermarks before the crawl, grouped by artist ID
+   * @param newWatermarks the watermarks determined during the crawl
+   */
+  public void updateWatermarks(Map<String, Map<AlbumGroup, ArtistWatermark>> previousWatermarks, Collection<ArtistWatermark> newWatermarks) {
+    if (featureControl.isCacheEnabled()) {
+      List<ArtistWatermark> changedWatermarks = newWatermarks.stream()
+        .filter(w -> !Objects.equals(w, previousWatermarks.getOrDefault(w.getArtistId(), Map.of()).get(w.getAlbumGroup())))
+        .collect(Collectors.toList());
+      if (!changedWatermarks.isEmpty()) {
+        databaseService.cacheArtistWatermarks(changedWatermarks);
+      }
+    }
+  }
+
+  /**
+   * Returns true if the given release is older than the lookback range (and
+   * therefore wouldn't be considered as new release anyway, unless it's an album)
+   */
+  public boolean isOlderThanLookback(AlbumSimplified album) {
+    return !filterService.isValidDate(album);
+  }
+}
@@ -0,0 +1,142 @@
+package spotify.bot.service;
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.SchedulingConfigurer;
+import org.springframework.scheduling.config.ScheduledTaskRegistrar;
+import org.springframework.stereotype.Service;
+
+import spotify.bot.DiscoveryBotCrawler;
+import spotify.bot.config.database.DatabaseService;
+import spotify.bot.filter.FilterService;
+import spotify.bot.properties.FeatureControl;
+import spotify.bot.util.DiscoveryBotLogger;
+
+/**
+ * Keeps the release cache from growing forever. On its own schedule, it
+ * removes the cached releases that are older than the retention period, as well
+ * as the releases of artists that aren't followed anymore, then refreshes the
+ * query planner statistics and gives a limited number of free pages back to
+ * the file system. The crawl lock is held for the entire run, so no crawl can
+ * start in the meantime.<br/>
+ * <br/>
+ * Rows are deleted in batches, each in its own statement. Releases older than
+ * the retention period are ignored by the {@link FilterService}, so removing
+ * them from the cache doesn't make them show up as new again. Releases of
+ * unfollowed artists are only removed if they were found for that artist alone,
+ * so no other followed artist can find them again.<br/>
+ * <br/>
+ * Retention is only available for the sqlite store, as the other stores keep
+ * the release IDs outside of the database tables it cleans up.<br/>
+ * <br/>
+ * The release names are never removed: a re-release of an old release gets a
+ * new ID and a recent release date, so the name is the only thing keeping it
+ * out of the playlists.
+ */
+@Service
+public class CacheRetentionService implements SchedulingConfigurer {
+  @Value("${spotify.discovery.database.retention.enabled:#{false}}")
+  private boolean retentionEnabled;
+
+  @Value("${spotify.discovery.database.retention.cron:0 15 4 * * *}")
+  private String retentionCron;
+
+  @Value("${spotify.discovery.database.retention.unfollowed_artists:#{false}}")
+  private boolean removeUnfollowedArtists;
+
+  @Value("${spotify.discovery.database.retention.batch_size:#{5000}}")
+  private int batchSize;
+
+  @Value("${spotify.discovery.database.retention.vacuum_pages:#{10000}}")
+  private int vacuumPages;
+
+  @Value("${spotify.discovery.database.store:sqlite}")
+  private String store;
+
+  private final DatabaseService databaseService;
+  private final FilterService filterService;
+  private final DiscoveryBotCrawler crawler;
+  private final FeatureControl featureControl;
+  private final DiscoveryBotLogger log;
+
+  CacheRetentionService(DatabaseService databaseService, FilterService filterService, DiscoveryBotCrawler discoveryBotCrawler, FeatureControl featureControl, DiscoveryBotLogger discoveryBotLogger) {
+    this.databaseService = databaseService;
+    this.filterService = filterService;
+    this.crawler = discoveryBotCrawler;
+    this.featureControl = featureControl;
+    this.log = discoveryBotLogger;
+  }
+
+  @Override
+  public void configureTasks(ScheduledTaskRegistrar taskRegistrar) {
+    if (retentionEnabled && featureControl.isCacheEnabled()) {
+      if (!"sqlite".equals(store)) {
+        log.warning("Cache retention is only supported for the sqlite store and has been disabled (store: " + store + ")", false);
+        return;
+      }
+      taskRegistrar.addCronTask(this::runRetention, retentionCron);
+      log.info("Cache retention is enabled with the following cronjob: " + retentionCron, false);
+    }
+  }
+
+  /**
+   * Apply the retention policies and maintain the database file. Skipped if a
+   * crawl is currently in progress.
+   */
+  public synchronized void runRetention() {
+    if (!crawler.tryRunExclusive(this::applyRetention)) {
+      log.debug("Skipped cache retention, as a crawl is currently in progress");
+    }
+  }
+
+  ////////////////////////
+
+  private void applyRetention() {
+    try {
+      LocalDate retentionHorizon = filterService.getRetentionHorizon();
+      if (retentionHorizon != null) {
+        int releases = deleteInBatches(limit -> databaseService.deleteReleasesReleasedBefore(retentionHorizon, limit));
+        logDeletions(releases, "released before " + retentionHorizon);
+      }
+      if (removeUnfollowedArtists) {
+        int releases = deleteInBatches(databaseService::deleteReleasesOfUnfollowedArtists);
+        logDeletions(releases, "of unfollowed artists");
+      }
+      databaseService.analyze();
+      if (vacuumPages > 0) {
+        databaseService.vacuum(vacuumPages);
+      }
+    } catch (SQLException e) {
+      log.stackTrace(e);
+    }
+  }
+
+  @FunctionalInterface
+  private interface BatchDeletion {
+    int delete(int limit) throws SQLException;
+  }
+
+  /**
+   * Repeat the given deletion until a batch comes out incomplete
+   *
+   * @return the total number of deleted rows
+   */
+  private int deleteInBatches(BatchDeletion deletion) throws SQLException {
+    int limit = Math.max(1, batchSize);
+    int total = 0;
+    int deleted;
+    do {
+      deleted = deletion.delete(limit);
+      total += deleted;
+    } while (deleted == limit);
+    return total;
+  }
+
+  private void logDeletions(int releases, String reason) {
+    if (releases > 0) {
+      log.info(String.format("Removed %d cached release[s] %s", releases, reason), false);
+    }
+  }
+}
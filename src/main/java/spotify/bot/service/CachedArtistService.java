@@ -10,14 +10,17 @@ import java.util.stream.Collectors;
 
 import org.springframework.stereotype.Service;
 
+import se.michaelthelin.spotify.SpotifyApi;
+import se.michaelthelin.spotify.enums.ModelObjectType;
 import se.michaelthelin.spotify.model_objects.specification.AlbumSimplified;
 import se.michaelthelin.spotify.model_objects.specification.Artist;
 import spotify.api.events.SpotifyApiException;
+import spotify.bot.api.SpotifyRequestScheduler;
+import spotify.bot.cluster.ShardCoordinator;
 import spotify.bot.config.database.DatabaseService;
 import spotify.bot.filter.FilterService;
 import spotify.bot.util.DiscoveryBotLogger;
 import spotify.bot.util.data.CachedArtistsContainer;
-import spotify.services.ArtistService;
 import spotify.util.SpotifyUtils;
 
 /**
@@ -27,33 +30,44 @@ import spotify.util.SpotifyUtils;
  */
 @Service
 public class CachedArtistService {
-  private final ArtistService artistService;
+  private final static int MAX_FOLLOWED_ARTISTS_FETCH_LIMIT = 50;
+
+  private final SpotifyApi spotifyApi;
   private final DatabaseService databaseService;
   private final DiscoveryAlbumService discoveryAlbumService;
   private final FilterService filterService;
+  private final SpotifyRequestScheduler requestScheduler;
+  private final ArtistMetadataService artistMetadataService;
+  private final ShardCoordinator shardCoordinator;
   private final DiscoveryBotLogger log;
 
   private LocalDate artistCacheLastUpdated;
 
-  CachedArtistService(ArtistService artistService, DatabaseService databaseService, FilterService filterService, DiscoveryAlbumService discoveryAlbumService, DiscoveryBotLogger discoveryBotLogger) {
-    this.artistService = artistService;
+  CachedArtistService(SpotifyApi spotifyApi, DatabaseService databaseService, FilterService filterService, DiscoveryAlbumService discoveryAlbumService, SpotifyRequestScheduler requestScheduler, ArtistMetadataService artistMetadataService, ShardCoordinator shardCoordinator, DiscoveryBotLogger discoveryBotLogger) {
+    this.spotifyApi = spotifyApi;
+    this.requestScheduler = requestScheduler;
+    this.artistMetadataService = artistMetadataService;
     this.databaseService = databaseService;
     this.filterService = filterService;
     this.discoveryAlbumService = discoveryAlbumService;
+    this.shardCoordinator = shardCoordinator;
     this.log = discoveryBotLogger;
   }
 
   /**
-   * Get all the user's followed artists
+   * Get all the user's followed artists. In a sharded crawl, only the coordinator
+   * updates the artist cache (and initializes the album cache for new followees),
+   * all other instances work off the cached artists.
    */
   public CachedArtistsContainer getFollowedArtistsIds() throws SQLException, IllegalStateException {
     List<String> cachedArtists = getCachedArtistIds();
-    if (isArtistCacheExpired()) {
+    if (isArtistCacheExpired() && shardCoordinator.isCoordinator()) {
       List<Artist> followedArtist = getRealArtists();
       if (followedArtist.isEmpty()) {
         throw new IllegalArgumentException("No followed artists found!");
       }
       filterService.cacheArtistIds(followedArtist);
+      artistMetadataService.storeArtists(followedArtist);
       filterService.uncacheUnfollowedArtists(cachedArtists, followedArtist);
 
       List<Artist> newFollowedArtists = followedArtist.stream()
@@ -73,7 +87,7 @@ public class CachedArtistService {
 
         List<AlbumSimplified> allAlbumsOfNewFollowees = discoveryAlbumService.getAllAlbumsOfArtists(newFollowedArtistsIds, true);
         List<AlbumSimplified> albumsToInitialize = filterService.getNonCachedAlbums(allAlbumsOfNewFollowees);
-        filterService.cacheAlbumIds(albumsToInitialize);
+        filterService.cacheAlbumIds(albumsToInitialize, discoveryAlbumService::getOriginArtistId);
         filterService.cacheAlbumNames(albumsToInitialize);
       }
 
@@ -98,7 +112,9 @@ public class CachedArtistService {
    * Get the real artist IDs directly from the Spotify API
    */
   private List<Artist> getRealArtists() throws SpotifyApiException {
-    List<Artist> followedArtists = artistService.getFollowedArtists();
+    List<Artist> followedArtists = requestScheduler.executeCursorPaging(spotifyApi
+        .getUsersFollowedArtists(ModelObjectType.ARTIST)
+        .limit(MAX_FOLLOWED_ARTISTS_FETCH_LIMIT));
     return followedArtists.stream()
         .filter(artist -> artist != null && !SpotifyUtils.isNullString(artist.getId()))
         .collect(Collectors.toList());
@@ -0,0 +1,281 @@
+package spotify.bot.service;
+
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import se.michaelthelin.spotify.model_objects.specification.AlbumSimplified;
+import se.michaelthelin.spotify.model_objects.specification.TrackSimplified;
+import spotify.bot.config.database.DatabaseService;
+import spotify.bot.properties.FeatureControl;
+import spotify.bot.util.DiscoveryBotJson;
+import spotify.bot.util.DiscoveryBotLogger;
+import spotify.bot.util.data.AlbumGroupExtended;
+import spotify.util.data.AlbumTrackPair;
+
+/**
+ * Records the progress of the current crawl in the database, so that a crawl
+ * that got interrupted (e.g. by a crash or a restart) can be resumed where it
+ * left off instead of firing all the requests again. The checkpoint consists of:
+ * <ul>
+ * <li>the artists whose releases have been fetched, along with the candidate
+ * releases found for them</li>
+ * <li>the releases whose tracks have been resolved, along with those tracks</li>
+ * <li>the playlists the new releases have been added to</li>
+ * </ul>
+ * The checkpoint is cleared once a crawl has finished successfully. Checkpoints
+ * that are too old are discarded instead of being resumed.<br/>
+ * <br/>
+ * As there is only a single checkpoint per database, checkpoints are disabled
+ * for sharded crawls (where multiple instances share the same database). They
+ * also require the streaming pipeline, as only that one resumes the fetched
+ * artists from the checkpoint.
+ */
+@Service
+public class CrawlCheckpointService {
+  private final static String PHASE_CRAWL = "crawl";
+  private final static String PHASE_ARTISTS = "artists";
+  private final static String PHASE_TRACKS = "tracks";
+  private final static String PHASE_PLAYLISTS = "playlists";
+
+  private final static String CRAWL_STARTED = "started";
+
+  @Value("${spotify.discovery.crawl.checkpoint.enabled:#{false}}")
+  private boolean checkpointEnabled;
+
+  @Value("${spotify.discovery.crawl.checkpoint.max_age_hours:#{24}}")
+  private int maxAgeHours;
+
+  /**
+   * The number of fetched artists to collect before they are written to the
+   * checkpoint (to not write to the database after every single artist)
+   */
+  @Value("${spotify.discovery.crawl.checkpoint.artist_batch_size:#{50}}")
+  private int artistBatchSize;
+
+  @Value("${spotify.discovery.crawl.sharding.enabled:#{false}}")
+  private boolean shardingEnabled;
+
+  @Value("${spotify.discovery.crawl.streaming_pipeline.enabled:#{false}}")
+  private boolean streamingPipelineEnabled;
+
+  private final DatabaseService databaseService;
+  private final FeatureControl featureControl;
+  private final DiscoveryBotLogger log;
+
+  private final Map<String, String> pendingArtists;
+  private Map<String, Map<String, String>> restoredCheckpoint;
+
+  CrawlCheckpointService(DatabaseService databaseService, FeatureControl featureControl, DiscoveryBotLogger discoveryBotLogger) {
+    this.databaseService = databaseService;
+    this.featureControl = featureControl;
+    this.log = discoveryBotLogger;
+    this.pendingArtists = new HashMap<>();
+    this.restoredCheckpoint = Map.of();
+  }
+
+  @PostConstruct
+  void init() {
+    if (checkpointEnabled && !streamingPipelineEnabled) {
+      log.warning("Crawl checkpoints require the streaming pipeline and have been disabled", false);
+    }
+  }
+
+  /**
+   * Load the checkpoint of a previously interrupted crawl, if there is one that
+   * isn't outdated yet. Otherwise, start a new checkpoint for the upcoming crawl.
+   */
+  public synchronized void startOrResume() {
+    this.restoredCheckpoint = Map.of();
+    this.pendingArtists.clear();
+    if (!isEnabled()) {
+      return;
+    }
+
+    try {
+      Map<String, Map<String, String>> checkpoint = databaseService.getCrawlCheckpoint();
+      String started = checkpoint.getOrDefault(PHASE_CRAWL, Map.of()).get(CRAWL_STARTED);
+      if (started != null && isRecent(started)) {
+        this.restoredCheckpoint = checkpoint;
+        if (checkpoint.size() > 1) {
+          log.info(String.format("Resuming interrupted crawl (%d artist[s], %d release[s] and %d playlist[s] already done)...",
+            getPhase(PHASE_ARTISTS).size(), getPhase(PHASE_TRACKS).size(), getPhase(PHASE_PLAYLISTS).size()));
+        }
+        return;
+      }
+      if (!checkpoint.isEmpty()) {
+        log.debug("Discarding outdated crawl checkpoint...");
+        databaseService.clearCrawlCheckpoint();
+      }
+    } catch (SQLException | NumberFormatException e) {
+      log.stackTrace(e);
+      databaseService.clearCrawlCheckpoint();
+    }
+    databaseService.writeCrawlCheckpoint(PHASE_CRAWL, Map.of(CRAWL_STARTED, String.valueOf(System.currentTimeMillis())));
+  }
+
+  /**
+   * Clear the checkpoint after the crawl has finished successfully
+   */
+  public synchronized void finish() {
+    this.restoredCheckpoint = Map.of();
+    this.pendingArtists.clear();
+    if (isEnabled()) {
+      databaseService.clearCrawlCheckpoint();
+    }
+  }
+
+  ////////////////////////
+  // PHASE 1: ARTISTS
+
+  /**
+   * Remove all artists whose releases have already been fetched by the
+   * interrupted crawl
+   *
+   * @param artistIds the artist IDs
+   * @return the artist IDs that still need to be fetched
+   */
+  public List<String> withoutRestoredArtists(List<String> artistIds) {
+    Set<String> restoredArtists = getPhase(PHASE_ARTISTS).keySet();
+    if (restoredArtists.isEmpty()) {
+      return artistIds;
+    }
+    return artistIds.stream()
+      .filter(artistId -> !restoredArtists.contains(artistId))
+      .collect(Collectors.toList());
+  }
+
+  /**
+   * Returns true if the progress of the current crawl (including its candidate
+   * releases) is kept in the checkpoint. Since the restored candidates of an
+   * interrupted crawl are filtered against the release cache again, the
+   * candidates of a failed crawl must not be cached, or the resumed crawl would
+   * drop them.
+   */
+  public boolean isEnabled() {
+    return checkpointEnabled && !shardingEnabled && featureControl.isCacheEnabled() && streamingPipelineEnabled;
+  }
+
+  /**
+   * Get the candidate releases that were found by the interrupted crawl. Some of
+   * them may have been cached since, so they need to be filtered again.
+   *
+   * @return the candidates, by the ID of the artist they were found for
+   */
+  public Map<String, List<AlbumSimplified>> getRestoredCandidates() {
+    Map<String, List<AlbumSimplified>> candidates = new HashMap<>();
+    getPhase(PHASE_ARTISTS).forEach((artistId, payload) -> candidates.put(artistId, DiscoveryBotJson.albumsFromJson(payload)));
+    return candidates;
+  }
+
+  /**
+   * Record that the releases of the given artist have been fetched. The artists
+   * are written in batches.
+   *
+   * @param artistId the artist ID
+   * @param candidates the candidate releases of this artist
+   * @return the candidates (for convenience)
+   */
+  public synchronized List<AlbumSimplified> recordFetchedArtist(String artistId, List<AlbumSimplified> candidates) {
+    if (isEnabled()) {
+      pendingArtists.put(artistId, DiscoveryBotJson.albumsToJson(candidates));
+      if (pendingArtists.size() >= artistBatchSize) {
+        flushFetchedArtists();
+      }
+    }
+    return candidates;
+  }
+
+  /**
+   * Write all fetched artists that haven't been written yet
+   */
+  public synchronized void flushFetchedArtists() {
+    if (!pendingArtists.isEmpty()) {
+      databaseService.writeCrawlCheckpoint(PHASE_ARTISTS, pendingArtists);
+      pendingArtists.clear();
+    }
+  }
+
+  ////////////////////////
+  // PHASE 2: TRACKS
+
+  /**
+   * Get the tracks that were resolved by the interrupted crawl
+   *
+   * @return the tracks, by album ID
+   */
+  public Map<String, List<TrackSimplified>> getRestoredTracks() {
+    Map<String, List<TrackSimplified>> restoredTracks = new HashMap<>();
+    for (Map.Entry<String, String> entry : getPhase(PHASE_TRACKS).entrySet()) {
+      restoredTracks.put(entry.getKey(), DiscoveryBotJson.tracksFromJson(entry.getValue()));
+    }
+    return restoredTracks;
+  }
+
+  /**
+   * Record the resolved tracks of the given releases
+   *
+   * @param albumTrackPairs the releases with their tracks
+   */
+  public void recordResolvedTracks(List<AlbumTrackPair> albumTrackPairs) {
+    if (isEnabled()) {
+      Map<String, String> tracksByAlbumId = new HashMap<>();
+      for (AlbumTrackPair atp : albumTrackPairs) {
+        if (atp != null && atp.getAlbum() != null && atp.getTracks() != null) {
+          tracksByAlbumId.put(atp.getAlbum().getId(), DiscoveryBotJson.tracksToJson(atp.getTracks()));
+        }
+      }
+      if (!tracksByAlbumId.isEmpty()) {
+        databaseService.writeCrawlCheckpoint(PHASE_TRACKS, tracksByAlbumId);
+      }
+    }
+  }
+
+  ////////////////////////
+  // PHASE 3: PLAYLISTS
+
+  /**
+   * Get the playlists the interrupted crawl has already finished adding the new
+   * releases to
+   */
+  public Set<AlbumGroupExtended> getCompletedPlaylistStores() {
+    Set<AlbumGroupExtended> completed = new HashSet<>();
+    for (String albumGroupExtended : getPhase(PHASE_PLAYLISTS).keySet()) {
+      completed.add(AlbumGroupExtended.valueOf(albumGroupExtended));
+    }
+    return completed;
+  }
+
+  /**
+   * Record that all new releases have been added to the given playlist
+   *
+   * @param albumGroupExtended the album group of the playlist
+   */
+  public void recordCompletedPlaylistStore(AlbumGroupExtended albumGroupExtended) {
+    if (isEnabled()) {
+      Map<String, String> completed = new HashMap<>();
+      completed.put(albumGroupExtended.name(), null);
+      databaseService.writeCrawlCheckpoint(PHASE_PLAYLISTS, completed);
+    }
+  }
+
+  ////////////////////////
+
+  private synchronized Map<String, String> getPhase(String phase) {
+    return restoredCheckpoint.getOrDefault(phase, Map.of());
+  }
+
+  private boolean isRecent(String startedMillis) {
+    long ageMillis = System.currentTimeMillis() - Long.parseLong(startedMillis);
+    return ageMillis < maxAgeHours * 60L * 60L * 1000L;
+  }
+}
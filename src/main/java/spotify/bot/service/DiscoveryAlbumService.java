@@ -1,31 +1,41 @@
 package spotify.bot.service;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import com.neovisionaries.i18n.CountryCode;
 
 import se.michaelthelin.spotify.SpotifyApi;
 import se.michaelthelin.spotify.enums.AlbumGroup;
-import se.michaelthelin.spotify.exceptions.detailed.TooManyRequestsException;
 import se.michaelthelin.spotify.model_objects.specification.Album;
 import se.michaelthelin.spotify.model_objects.specification.AlbumSimplified;
 import se.michaelthelin.spotify.model_objects.specification.Artist;
 import se.michaelthelin.spotify.model_objects.specification.ArtistSimplified;
 import se.michaelthelin.spotify.model_objects.specification.Paging;
-import se.michaelthelin.spotify.requests.data.IPagingRequestBuilder;
 import se.michaelthelin.spotify.requests.data.artists.GetArtistsAlbumsRequest;
-import spotify.api.SpotifyCall;
 import spotify.api.events.SpotifyApiException;
+import spotify.bot.api.ConditionalResponse;
+import spotify.bot.api.SpotifyRequestScheduler;
 import spotify.bot.util.DiscoveryBotLogger;
+import spotify.bot.util.data.ArtistAlbumsPage;
+import spotify.bot.util.data.ArtistWatermark;
 import spotify.services.AlbumService;
 import spotify.services.UserService;
 import spotify.util.SpotifyOptimizedExecutorService;
@@ -34,20 +44,43 @@ import spotify.util.SpotifyUtils;
 @Service
 public class DiscoveryAlbumService {
   private static final int MAX_ALBUM_FETCH_LIMIT = 50;
+  private static final String AMBIGUOUS_ORIGIN = "";
+
+  /**
+   * The maximum number of artists whose albums are fetched at the same time.
+   * A value of 1 (or lower) fetches one artist after another, which is the
+   * default.
+   */
+  @Value("${spotify.discovery.crawl.concurrency.album_fetch:#{1}}")
+  private int albumFetchParallelism;
 
   private final String albumGroupString;
 
   private final SpotifyApi spotifyApi;
   private final UserService userService;
   private final SpotifyOptimizedExecutorService spotifyOptimizedExecutorService;
+  private final SpotifyRequestScheduler requestScheduler;
+  private final ArtistWatermarkService artistWatermarkService;
+  private final ArtistAlbumsEtagService artistAlbumsEtagService;
+  private final ArtistMetadataService artistMetadataService;
   private final DiscoveryBotLogger log;
 
-  DiscoveryAlbumService(SpotifyApi spotifyApi, AlbumService albumService, UserService userService, SpotifyOptimizedExecutorService spotifyOptimizedExecutorService, DiscoveryBotLogger log) {
+  /**
+   * The followed artist every fetched release was found for, by release ID
+   */
+  private final Map<String, String> originArtistIds;
+
+  DiscoveryAlbumService(SpotifyApi spotifyApi, AlbumService albumService, UserService userService, SpotifyOptimizedExecutorService spotifyOptimizedExecutorService, SpotifyRequestScheduler requestScheduler, ArtistWatermarkService artistWatermarkService, ArtistAlbumsEtagService artistAlbumsEtagService, ArtistMetadataService artistMetadataService, DiscoveryBotLogger log) {
     this.spotifyApi = spotifyApi;
     this.userService = userService;
     this.spotifyOptimizedExecutorService = spotifyOptimizedExecutorService;
+    this.requestScheduler = requestScheduler;
+    this.artistWatermarkService = artistWatermarkService;
+    this.artistAlbumsEtagService = artistAlbumsEtagService;
+    this.artistMetadataService = artistMetadataService;
     this.albumGroupString = albumService.createAlbumGroupString(Set.of(AlbumGroup.ALBUM, AlbumGroup.SINGLE, AlbumGroup.COMPILATION, AlbumGroup.APPEARS_ON));
     this.log = log;
+    this.originArtistIds = new ConcurrentHashMap<>();
   }
 
   /**
@@ -56,12 +89,125 @@ public class DiscoveryAlbumService {
    * Spotify Web API request for EVERY SINGLE ARTIST!)
    */
   public List<AlbumSimplified> getAllAlbumsOfArtists(List<String> followedArtists, boolean showProgress) throws SpotifyApiException {
+    return getAllAlbumsOfArtists(followedArtists, showProgress, false);
+  }
+
+  /**
+   * Fetch all albums of the given artists. If incremental crawling is allowed,
+   * already known releases may be skipped based on the artist watermarks (see
+   * {@link ArtistWatermarkService}) and unchanged release listings based on their
+   * ETags (see {@link ArtistAlbumsEtagService}).
+   *
+   * @param followedArtists the artists to fetch the albums of
+   * @param showProgress log the progress after every artist
+   * @param incremental true if this is a regular crawl that may skip known releases
+   * @return the albums
+   */
+  public List<AlbumSimplified> getAllAlbumsOfArtists(List<String> followedArtists, boolean showProgress, boolean incremental) throws SpotifyApiException {
+    return getAllAlbumsOfArtists(followedArtists, showProgress, incremental, (artistId, albumsOfArtist) -> albumsOfArtist);
+  }
+
+  /**
+   * Fetch all albums of the given artists, but pass the albums of every artist
+   * through the given filter as soon as they've been fetched. Only the albums
+   * surviving the filter are retained, so the memory footprint of the result is
+   * determined by the filter rather than the size of the artists' catalogs. The
+   * artist every retained album was found for is recorded (see
+   * {@link DiscoveryAlbumService#getOriginArtistId}).
+   *
+   * @param followedArtists the artists to fetch the albums of
+   * @param showProgress log the progress after every artist
+   * @param incremental true if this is a regular crawl that may skip known releases
+   * @param albumsOfArtistFilter the filter to apply to the albums of every single
+   *                             artist, given the artist ID and its albums (must
+   *                             be thread-safe)
+   * @return the albums that passed the filter
+   */
+  public List<AlbumSimplified> getAllAlbumsOfArtists(List<String> followedArtists, boolean showProgress, boolean incremental, BiFunction<String, List<AlbumSimplified>, List<AlbumSimplified>> albumsOfArtistFilter) throws SpotifyApiException {
     CountryCode marketOfCurrentUser = userService.getMarketOfCurrentUser();
+    boolean skippingAllowed = incremental && artistWatermarkService.startCrawl();
+    boolean conditional = incremental && artistAlbumsEtagService.startCrawl();
+    Map<String, Map<AlbumGroup, ArtistWatermark>> previousWatermarks = incremental ? artistWatermarkService.getWatermarks() : Map.of();
+    Queue<ArtistWatermark> newWatermarks = new ConcurrentLinkedQueue<>();
+
+    Function<String, List<AlbumSimplified>> albumsOfArtistFetcher = artist -> recordOriginArtistId(artist, albumsOfArtistFilter.apply(artist,
+      getAlbumIdsOfSingleArtist(artist, marketOfCurrentUser, previousWatermarks.getOrDefault(artist, Map.of()), skippingAllowed, conditional, newWatermarks)));
+
+    List<AlbumSimplified> results = albumFetchParallelism > 1 && followedArtists.size() > 1
+      ? getAllAlbumsOfArtistsConcurrently(followedArtists, albumsOfArtistFetcher, showProgress)
+      : getAllAlbumsOfArtistsSequentially(followedArtists, albumsOfArtistFetcher, showProgress);
 
+    artistWatermarkService.updateWatermarks(previousWatermarks, newWatermarks);
+    return results;
+  }
+
+  /**
+   * Record that the given albums were found for the given followed artist.
+   * Releases that were found for multiple followed artists (e.g. collaborations
+   * between two of them) don't have a single origin, so they're marked as
+   * ambiguous instead.
+   *
+   * @param artistId the artist ID
+   * @param albums the albums of this artist
+   * @return the albums (for convenience)
+   */
+  public List<AlbumSimplified> recordOriginArtistId(String artistId, List<AlbumSimplified> albums) {
+    for (AlbumSimplified album : albums) {
+      if (album != null && album.getId() != null) {
+        originArtistIds.merge(album.getId(), artistId, (previous, current) -> previous.equals(current) ? previous : AMBIGUOUS_ORIGIN);
+      }
+    }
+    return albums;
+  }
+
+  /**
+   * The followed artist the given release was found for. This isn't necessarily
+   * the first credited artist, e.g. for collaborations or appears_on releases.
+   * For releases that weren't fetched since the last call of
+   * {@link DiscoveryAlbumService#clearOriginArtistIds}, only appears_on releases
+   * still carry their origin (attached as the last artist, possibly with the ID
+   * in place of the name).
+   *
+   * @param album the album
+   * @return the artist ID, or null if it's unknown or ambiguous
+   */
+  public String getOriginArtistId(AlbumSimplified album) {
+    String originArtistId = originArtistIds.get(album.getId());
+    if (originArtistId != null) {
+      return !AMBIGUOUS_ORIGIN.equals(originArtistId) ? originArtistId : null;
+    }
+    ArtistSimplified[] artists = album.getArtists();
+    if (AlbumGroup.APPEARS_ON.equals(album.getAlbumGroup()) && artists != null && artists.length > 0) {
+      ArtistSimplified viaArtist = artists[artists.length - 1];
+      return viaArtist.getId() != null ? viaArtist.getId() : viaArtist.getName();
+    }
+    return null;
+  }
+
+  /**
+   * Group the given albums by the followed artist they were found for (with a
+   * null key for the albums whose origin is unknown)
+   */
+  public Map<String, List<AlbumSimplified>> groupByOriginArtist(Collection<AlbumSimplified> albums) {
+    Map<String, List<AlbumSimplified>> albumsByOriginArtist = new HashMap<>();
+    for (AlbumSimplified album : albums) {
+      albumsByOriginArtist.computeIfAbsent(getOriginArtistId(album), artistId -> new ArrayList<>()).add(album);
+    }
+    return albumsByOriginArtist;
+  }
+
+  /**
+   * Forget the origins of all releases (after the releases have been cached)
+   */
+  public void clearOriginArtistIds() {
+    originArtistIds.clear();
+  }
+
+  private List<AlbumSimplified> getAllAlbumsOfArtistsSequentially(List<String> followedArtists, Function<String, List<AlbumSimplified>> albumsOfArtistFetcher, boolean showProgress) throws SpotifyApiException {
     int done = 0;
     List<AlbumSimplified> results = new ArrayList<>();
     for (String artist : followedArtists) {
-      List<AlbumSimplified> albumIdsOfSingleArtist = getAlbumIdsOfSingleArtist(artist, albumGroupString, marketOfCurrentUser);
+      List<AlbumSimplified> albumIdsOfSingleArtist = albumsOfArtistFetcher.apply(artist);
       results.addAll(albumIdsOfSingleArtist);
       if (showProgress) {
         done++;
@@ -71,44 +217,120 @@ public class DiscoveryAlbumService {
     return results;
   }
 
+  /**
+   * Fan the per-artist album requests out over the executor, with no more than
+   * the configured number of requests being in-flight at once. Every artist gets
+   * its own result list, which are then concatenated in the order of the input,
+   * so the result is identical to the one of the sequential fetch. Just like
+   * there, the first failed artist fails the entire fetch.
+   */
+  private List<AlbumSimplified> getAllAlbumsOfArtistsConcurrently(List<String> followedArtists, Function<String, List<AlbumSimplified>> albumsOfArtistFetcher, boolean showProgress) throws SpotifyApiException {
+    Semaphore inFlight = new Semaphore(albumFetchParallelism);
+    AtomicInteger done = new AtomicInteger();
+    Queue<RuntimeException> failures = new ConcurrentLinkedQueue<>();
+
+    List<Callable<List<AlbumSimplified>>> callables = new ArrayList<>();
+    for (String artist : followedArtists) {
+      callables.add(() -> {
+        inFlight.acquire();
+        try {
+          return albumsOfArtistFetcher.apply(artist);
+        } catch (RuntimeException e) {
+          failures.add(e);
+          return List.of();
+        } finally {
+          inFlight.release();
+          if (showProgress) {
+            log.debug(done.incrementAndGet() + " / " + followedArtists.size());
+          }
+        }
+      });
+    }
+
+    List<List<AlbumSimplified>> albumsByArtist = spotifyOptimizedExecutorService.executeAndWait(callables);
+    if (!failures.isEmpty()) {
+      throw failures.peek();
+    }
+    return albumsByArtist.stream()
+      .filter(Objects::nonNull)
+      .flatMap(List::stream)
+      .collect(Collectors.toList());
+  }
+
   /**
    * Return the albums of a single given artist with the original ID intact (so they won't get lost in appears-on releases)
    *
    * @param artistId the artist ID to check up
-   * @param albumGroupString the AlbumGroups to look for
    * @param market the market to check for
+   * @param watermarks the watermarks of this artist from the previous crawl
+   * @param skippingAllowed whether known releases may be skipped using the watermarks
+   * @param conditional whether unchanged pages may be skipped using their ETags
+   * @param newWatermarks the collection to put the updated watermarks of this artist into
    * @return the albums
    */
-  private List<AlbumSimplified> getAlbumIdsOfSingleArtist(String artistId, String albumGroupString, CountryCode market) throws SpotifyApiException {
-    List<AlbumSimplified> allAlbums = executePagingStopAtFirstAppearsOn(spotifyApi
+  private List<AlbumSimplified> getAlbumIdsOfSingleArtist(String artistId, CountryCode market, Map<AlbumGroup, ArtistWatermark> watermarks, boolean skippingAllowed, boolean conditional, Collection<ArtistWatermark> newWatermarks) throws SpotifyApiException {
+    WatermarkTracker tracker = new WatermarkTracker(artistId, watermarks, skippingAllowed, artistWatermarkService::isOlderThanLookback);
+    List<AlbumSimplified> allAlbums = executePagingStopAtFirstAppearsOn(artistId, market, conditional, tracker);
+    if (allAlbums == null) {
+      // The release listing has changed in a way that made skipping unreliable, so page through it entirely
+      tracker = new WatermarkTracker(artistId, watermarks, false, artistWatermarkService::isOlderThanLookback);
+      allAlbums = executePagingStopAtFirstAppearsOn(artistId, market, conditional, tracker);
+    }
+    newWatermarks.addAll(tracker.getWatermarks());
+    return attachOriginArtistIdForAppearsOnReleases(artistId, allAlbums);
+  }
+
+  private GetArtistsAlbumsRequest.Builder createArtistsAlbumsRequest(String artistId, CountryCode market) {
+    return spotifyApi
       .getArtistsAlbums(artistId)
       .market(market)
       .limit(MAX_ALBUM_FETCH_LIMIT)
-      .album_type(albumGroupString));
-    return attachOriginArtistIdForAppearsOnReleases(artistId, allAlbums);
+      .album_type(albumGroupString);
   }
 
   /**
-   * A custom version of SpotifyCall.executePaging that stops as soon as it finds an appears_on release
+   * A custom version of SpotifyCall.executePaging that stops as soon as it finds an appears_on release.
+   * Known releases are skipped as determined by the given tracker. In conditional
+   * mode, pages that haven't changed since the previous crawl are still passed to
+   * the tracker, but their releases aren't part of the result (as none of them
+   * can be new).
+   *
+   * @return the albums, or null if a skip turned out to be unreliable
    */
-  private List<AlbumSimplified> executePagingStopAtFirstAppearsOn(IPagingRequestBuilder<AlbumSimplified, GetArtistsAlbumsRequest.Builder> pagingRequestBuilder) throws SpotifyApiException {
+  private List<AlbumSimplified> executePagingStopAtFirstAppearsOn(String artistId, CountryCode market, boolean conditional, WatermarkTracker tracker) throws SpotifyApiException {
+    GetArtistsAlbumsRequest.Builder pagingRequestBuilder = createArtistsAlbumsRequest(artistId, market);
     List<AlbumSimplified> resultList = new ArrayList<>();
     Paging<AlbumSimplified> paging = null;
     do {
+      int offset = 0;
       if (paging != null && paging.getNext() != null) {
-        pagingRequestBuilder.offset(paging.getOffset() + paging.getLimit());
+        offset = tracker.nextOffset(paging.getOffset() + paging.getLimit(), paging.getTotal());
+        pagingRequestBuilder.offset(offset);
       }
-      try {
-        paging = SpotifyCall.execute(pagingRequestBuilder);
-      } catch (SpotifyApiException e) {
-        if (TooManyRequestsException.class.equals(e.getNestedException().getClass())) {
-          TooManyRequestsException tooManyRequestsException = (TooManyRequestsException) e.getNestedException();
-          log.error("You have unfortunately been super-rate-limited by Spotify. Please restart the app after the cooldown has expired. Estimated time: " + tooManyRequestsException.getRetryAfter() + " seconds");
-          System.exit(182);
+      boolean unchanged = false;
+      if (conditional) {
+        ArtistAlbumsPage knownPage = artistAlbumsEtagService.getKnownPage(artistId, market, offset);
+        ConditionalResponse<Paging<AlbumSimplified>> response = requestScheduler.executeConditional(pagingRequestBuilder,
+          knownPage != null ? knownPage.getEtag() : null,
+          json -> new AlbumSimplified.JsonUtil().createModelObjectPaging(json));
+        if (response.isNotModified()) {
+          paging = restorePage(knownPage);
+          unchanged = true;
+        } else {
+          paging = response.getResult();
+          artistAlbumsEtagService.recordPage(artistId, market, response.getEtag(), paging);
         }
+      } else {
+        paging = requestScheduler.execute(pagingRequestBuilder);
+      }
+      if (!tracker.verify(paging)) {
+        return null;
       }
+      tracker.accept(paging);
       AlbumSimplified[] newItems = paging.getItems();
-      SpotifyUtils.addToListIfNotBlank(newItems, resultList);
+      if (!unchanged) {
+        SpotifyUtils.addToListIfNotBlank(newItems, resultList);
+      }
 
       // Fetches are sorted by AlbumGroup, so if the first entry of this paged result is an Appears-On release, we can stop
       if (newItems == null || newItems.length == 0 || newItems[0].getAlbumGroup().equals(AlbumGroup.APPEARS_ON)) {
@@ -116,9 +338,20 @@ public class DiscoveryAlbumService {
       }
 
     } while (paging.getNext() != null);
+    tracker.finish(paging.getOffset() + (paging.getItems() != null ? paging.getItems().length : 0));
     return resultList;
   }
 
+  private Paging<AlbumSimplified> restorePage(ArtistAlbumsPage knownPage) {
+    return new Paging.Builder<AlbumSimplified>()
+      .setItems(knownPage.getItems().toArray(AlbumSimplified[]::new))
+      .setOffset(knownPage.getOffset())
+      .setLimit(MAX_ALBUM_FETCH_LIMIT)
+      .setTotal(knownPage.getTotal())
+      .setNext(knownPage.getNext())
+      .build();
+  }
+
   /**
    * Attach the artist IDs for any appears_on releases, so they won't get lost down
    * the way. For performance reasons, the proper conversion to an Artist object
@@ -174,25 +407,35 @@ public class DiscoveryAlbumService {
 
   /**
    * Replace any appears_on releases' artists that were preserved in
-   * attachOriginArtistIdForAppearsOnReleases.
+   * attachOriginArtistIdForAppearsOnReleases. The artist names are looked up in
+   * the {@link ArtistMetadataService} first, so only unknown artists need to be
+   * fetched from Spotify.
    *
    * @param albums the albums to work with
    * @return the new albums
    * @throws SpotifyApiException if anything goes wrong
    */
   public List<AlbumSimplified> resolveViaAppearsOnArtistNames(List<AlbumSimplified> albums) throws SpotifyApiException {
-    List<String> relevantAppearsOnArtistsIds = albums.stream()
+    Set<String> relevantAppearsOnArtistsIds = albums.stream()
       .filter(album -> AlbumGroup.APPEARS_ON.equals(album.getAlbumGroup()))
       .map(SpotifyUtils::getLastArtistName)
-      .collect(Collectors.toList());
+      .collect(Collectors.toSet());
 
-    Map<String, String> artistIdToName = new HashMap<>();
-    for (List<String> sublistArtistIds : SpotifyUtils.partitionList(relevantAppearsOnArtistsIds, 50)) {
-      Artist[] execute = SpotifyCall.execute(spotifyApi.getSeveralArtists(sublistArtistIds.toArray(String[]::new)));
+    Map<String, String> artistIdToName = new HashMap<>(artistMetadataService.getArtistNames(relevantAppearsOnArtistsIds));
+    List<String> unknownArtistIds = relevantAppearsOnArtistsIds.stream()
+      .filter(artistId -> !artistIdToName.containsKey(artistId))
+      .collect(Collectors.toList());
+    List<Artist> fetchedArtists = new ArrayList<>();
+    for (List<String> sublistArtistIds : SpotifyUtils.partitionList(unknownArtistIds, 50)) {
+      Artist[] execute = requestScheduler.execute(spotifyApi.getSeveralArtists(sublistArtistIds.toArray(String[]::new)));
       for (Artist a : execute) {
-        artistIdToName.put(a.getId(), a.getName());
+        if (a != null) {
+          artistIdToName.put(a.getId(), a.getName());
+          fetchedArtists.add(a);
+        }
       }
     }
+    artistMetadataService.storeArtists(fetchedArtists);
 
     for (AlbumSimplified as : albums) {
       if (AlbumGroup.APPEARS_ON.equals(as.getAlbumGroup())) {
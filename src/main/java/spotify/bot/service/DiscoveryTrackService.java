@@ -1,38 +1,151 @@
 package spotify.bot.service;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.stream.Collectors;
 
 import org.springframework.stereotype.Component;
 
+import se.michaelthelin.spotify.SpotifyApi;
+import se.michaelthelin.spotify.model_objects.specification.Album;
 import se.michaelthelin.spotify.model_objects.specification.AlbumSimplified;
+import se.michaelthelin.spotify.model_objects.specification.Paging;
+import se.michaelthelin.spotify.model_objects.specification.TrackSimplified;
 import spotify.api.events.SpotifyApiException;
-import spotify.services.TrackService;
+import spotify.bot.api.SpotifyRequestScheduler;
 import spotify.util.SpotifyOptimizedExecutorService;
+import spotify.util.SpotifyUtils;
 import spotify.util.data.AlbumTrackPair;
 
 @Component
 public class DiscoveryTrackService {
-  private final TrackService trackService;
+  /**
+   * The maximum number of albums the several-albums endpoint accepts per request
+   */
+  private final static int MAX_SEVERAL_ALBUMS = 20;
+  private final static int MAX_TRACK_FETCH_LIMIT = 50;
+
+  private final SpotifyApi spotifyApi;
   private final SpotifyOptimizedExecutorService spotifyOptimizedExecutorService;
+  private final SpotifyRequestScheduler requestScheduler;
+  private final AlbumTracksCacheService albumTracksCacheService;
 
-  DiscoveryTrackService(TrackService trackService, SpotifyOptimizedExecutorService spotifyOptimizedExecutorService) {
-    this.trackService = trackService;
+  DiscoveryTrackService(SpotifyApi spotifyApi, SpotifyOptimizedExecutorService spotifyOptimizedExecutorService, SpotifyRequestScheduler requestScheduler, AlbumTracksCacheService albumTracksCacheService) {
+    this.spotifyApi = spotifyApi;
     this.spotifyOptimizedExecutorService = spotifyOptimizedExecutorService;
+    this.requestScheduler = requestScheduler;
+    this.albumTracksCacheService = albumTracksCacheService;
   }
 
+  /**
+   * Get the tracks of the given albums. Albums whose tracks have already been
+   * cached are taken from the {@link AlbumTracksCacheService}. The rest is
+   * fetched in batches of 20 through the several-albums endpoint, which already
+   * contains the first page of each album's tracks, so only albums with more
+   * tracks than that need to be paged through separately. Should a batch
+   * request fail, the tracks of its albums are fetched album by album.
+   *
+   * @param albums the albums
+   * @return the albums with their tracks, in the same order as the input (null
+   *         for any album whose tracks couldn't be fetched)
+   */
   public List<AlbumTrackPair> getTracksOfAlbums(List<AlbumSimplified> albums) {
-    List<Callable<AlbumTrackPair>> callables = new ArrayList<>();
+    Map<String, List<TrackSimplified>> cachedTracks = albumTracksCacheService.getCachedTracks(albums.stream()
+      .map(AlbumSimplified::getId)
+      .collect(Collectors.toSet()));
+    List<AlbumSimplified> albumsToFetch = albums.stream()
+      .filter(album -> !cachedTracks.containsKey(album.getId()))
+      .collect(Collectors.toList());
+    List<AlbumTrackPair> fetched = fetchTracksOfAlbums(albumsToFetch);
+    albumTracksCacheService.cacheTracks(fetched);
+
+    Map<String, AlbumTrackPair> fetchedByAlbumId = new HashMap<>();
+    for (int i = 0; i < albumsToFetch.size(); i++) {
+      fetchedByAlbumId.put(albumsToFetch.get(i).getId(), fetched.get(i));
+    }
+    List<AlbumTrackPair> albumTrackPairs = new ArrayList<>();
     for (AlbumSimplified album : albums) {
-      callables.add(() -> {
-        try {
-          return trackService.getTracksOfSingleAlbum(album);
-        } catch (SpotifyApiException e) {
-          return null;
+      List<TrackSimplified> tracks = cachedTracks.get(album.getId());
+      albumTrackPairs.add(tracks != null ? AlbumTrackPair.of(album, tracks) : fetchedByAlbumId.get(album.getId()));
+    }
+    return albumTrackPairs;
+  }
+
+  ////////////////////////
+
+  private List<AlbumTrackPair> fetchTracksOfAlbums(List<AlbumSimplified> albums) {
+    List<Callable<List<AlbumTrackPair>>> callables = new ArrayList<>();
+    for (List<AlbumSimplified> batch : SpotifyUtils.partitionList(albums, MAX_SEVERAL_ALBUMS)) {
+      callables.add(() -> getTracksOfAlbumBatch(batch));
+    }
+    List<List<AlbumTrackPair>> tracksByBatch = spotifyOptimizedExecutorService.executeAndWait(callables);
+    return tracksByBatch.stream()
+      .flatMap(List::stream)
+      .collect(Collectors.toList());
+  }
+
+  private List<AlbumTrackPair> getTracksOfAlbumBatch(List<AlbumSimplified> batch) {
+    Map<String, Album> fullAlbumsById = getFullAlbums(batch);
+    List<AlbumTrackPair> albumTrackPairs = new ArrayList<>();
+    for (AlbumSimplified album : batch) {
+      List<TrackSimplified> tracks = getTracks(album.getId(), fullAlbumsById.get(album.getId()));
+      albumTrackPairs.add(tracks != null ? AlbumTrackPair.of(album, tracks) : null);
+    }
+    return albumTrackPairs;
+  }
+
+  /**
+   * Fetch the given batch of albums through the several-albums endpoint. If that
+   * request fails, no full albums are returned at all and the tracks of every
+   * album of the batch are fetched individually instead.
+   *
+   * @return the full albums by their ID
+   */
+  private Map<String, Album> getFullAlbums(List<AlbumSimplified> batch) {
+    Map<String, Album> fullAlbumsById = new HashMap<>();
+    try {
+      String[] albumIds = batch.stream().map(AlbumSimplified::getId).toArray(String[]::new);
+      Album[] fullAlbums = requestScheduler.execute(spotifyApi.getSeveralAlbums(albumIds));
+      for (Album fullAlbum : fullAlbums) {
+        if (fullAlbum != null) {
+          fullAlbumsById.put(fullAlbum.getId(), fullAlbum);
         }
-      });
+      }
+    } catch (SpotifyApiException e) {
+      return Map.of();
+    }
+    return fullAlbumsById;
+  }
+
+  /**
+   * Take the tracks embedded in the given full album and fetch the remaining ones
+   * if the embedded track page has been truncated. Without a full album, or if no
+   * tracks are embedded at all, all of them are fetched separately.
+   *
+   * @param albumId the ID of the album
+   * @param fullAlbum the full album (may be null)
+   * @return the tracks, or null if the remaining tracks couldn't be fetched
+   */
+  private List<TrackSimplified> getTracks(String albumId, Album fullAlbum) {
+    Paging<TrackSimplified> embeddedTracks = fullAlbum != null ? fullAlbum.getTracks() : null;
+    List<TrackSimplified> tracks = new ArrayList<>();
+    if (embeddedTracks != null && embeddedTracks.getItems() != null) {
+      tracks.addAll(Arrays.asList(embeddedTracks.getItems()));
+    }
+    if (tracks.isEmpty() || embeddedTracks.getNext() != null) {
+      try {
+        tracks.addAll(requestScheduler.executePaging(spotifyApi
+          .getAlbumsTracks(albumId)
+          .offset(tracks.size())
+          .limit(MAX_TRACK_FETCH_LIMIT)));
+      } catch (SpotifyApiException e) {
+        return null;
+      }
     }
-    return spotifyOptimizedExecutorService.executeAndWait(callables);
+    return tracks;
   }
 }
@@ -21,8 +21,8 @@ import se.michaelthelin.spotify.model_objects.miscellaneous.CurrentlyPlaying;
 import se.michaelthelin.spotify.model_objects.specification.Playlist;
 import se.michaelthelin.spotify.model_objects.specification.PlaylistTrack;
 import se.michaelthelin.spotify.requests.data.playlists.ChangePlaylistsDetailsRequest;
-import spotify.api.SpotifyCall;
 import spotify.api.events.SpotifyApiException;
+import spotify.bot.api.SpotifyRequestScheduler;
 import spotify.bot.properties.FeatureControl;
 import spotify.bot.config.properties.PlaylistStoreConfig;
 import spotify.bot.config.properties.PlaylistStoreConfig.PlaylistStore;
@@ -63,17 +63,20 @@ public class PlaylistMetaService {
   private final PlaylistService playlistService;
   private final PlaylistStoreConfig playlistStoreConfig;
   private final SpotifyOptimizedExecutorService spotifyOptimizedExecutorService;
+  private final SpotifyRequestScheduler requestScheduler;
   private final FeatureControl featureControl;
 
   PlaylistMetaService(SpotifyApi spotifyApi,
     PlaylistService playlistService,
     PlaylistStoreConfig playlistStoreConfig,
     SpotifyOptimizedExecutorService spotifyOptimizedExecutorService,
+    SpotifyRequestScheduler requestScheduler,
     FeatureControl featureControl) {
     this.spotifyApi = spotifyApi;
     this.playlistService = playlistService;
     this.playlistStoreConfig = playlistStoreConfig;
     this.spotifyOptimizedExecutorService = spotifyOptimizedExecutorService;
+    this.requestScheduler = requestScheduler;
     this.featureControl = featureControl;
   }
 
@@ -86,7 +89,7 @@ public class PlaylistMetaService {
       List<Callable<Void>> callables = new ArrayList<>();
       for (PlaylistStore ps : playlistStoreConfig.getEnabledPlaylistStores()) {
         callables.add(() -> {
-          Playlist playlist = SpotifyCall.execute(spotifyApi.getPlaylist(ps.getPlaylistId()));
+          Playlist playlist = requestScheduler.execute(spotifyApi.getPlaylist(ps.getPlaylistId()));
           if (containsNewIndicator(playlist.getName())) {
             String description = playlist.getDescription();
             if (description.startsWith(DESCRIPTION_PREFIX)) {
@@ -142,7 +145,7 @@ public class PlaylistMetaService {
     if (!psRequireDeepCheck.isEmpty()) {
       // Once it's been established that at least one playlist needs a deep check for notifier clearance,
       // compare the currently playing song with the recently added songs of the playlists
-      CurrentlyPlaying currentlyPlaying = SpotifyCall.execute(spotifyApi.getUsersCurrentlyPlayingTrack());
+      CurrentlyPlaying currentlyPlaying = requestScheduler.execute(spotifyApi.getUsersCurrentlyPlayingTrack());
 
       if (currentlyPlaying != null && currentlyPlaying.getItem() != null) {
         List<Callable<Void>> callables = new ArrayList<>();
@@ -177,7 +180,7 @@ public class PlaylistMetaService {
       return true;
     }
 
-    Playlist playlist = playlistService.getPlaylist(playlistStore.getPlaylistId());
+    Playlist playlist = requestScheduler.run("GetPlaylistRequest", () -> playlistService.getPlaylist(playlistStore.getPlaylistId()));
 
     if (playlist != null && playlist.getTracks() != null && playlist.getTracks().getItems() != null) {
       List<PlaylistTrack> recentlyAddedPlaylistTracks = Arrays.stream(playlist.getTracks().getItems())
@@ -227,7 +230,7 @@ public class PlaylistMetaService {
         newDescription = DESCRIPTION_PREFIX + LocalDateTime.now().format(DESCRIPTION_TIMESTAMP_FORMAT);
       }
 
-      Playlist p = playlistService.getPlaylist(playlistId);
+      Playlist p = requestScheduler.run("GetPlaylistRequest", () -> playlistService.getPlaylist(playlistId));
       if (p != null) {
         String playlistName = p.getName();
         if (playlistName != null && playlistName.contains(notifierTarget)) {
@@ -243,7 +246,7 @@ public class PlaylistMetaService {
         if (newDescription != null) {
           playlistDetailsBuilder = playlistDetailsBuilder.description(newDescription);
         }
-        SpotifyCall.execute(playlistDetailsBuilder);
+        requestScheduler.execute(playlistDetailsBuilder);
       }
     }
   }
@@ -7,15 +7,18 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import org.springframework.stereotype.Service;
 
+import se.michaelthelin.spotify.SpotifyApi;
 import se.michaelthelin.spotify.model_objects.IPlaylistItem;
 import se.michaelthelin.spotify.model_objects.specification.Playlist;
 import se.michaelthelin.spotify.model_objects.specification.PlaylistTrack;
 import se.michaelthelin.spotify.model_objects.specification.TrackSimplified;
 import spotify.api.events.SpotifyApiException;
+import spotify.bot.api.SpotifyRequestScheduler;
 import spotify.bot.properties.FeatureControl;
 import spotify.bot.config.properties.PlaylistStoreConfig.PlaylistStore;
 import spotify.bot.util.DiscoveryBotLogger;
@@ -28,19 +31,27 @@ import spotify.util.data.AlbumTrackPair;
 public class PlaylistSongsService {
   private final static int PLAYLIST_ADDITION_COOLDOWN = 1000;
   private final static int PLAYLIST_ADD_LIMIT = 100;
+  private final static int PLAYLIST_FETCH_LIMIT = 100;
+  private final static int PLAYLIST_REMOVE_LIMIT = 100;
   private final static int PLAYLIST_SIZE_LIMIT = 10000;
 
+  private final SpotifyApi spotifyApi;
   private final PlaylistService playlistService;
   private final SpotifyOptimizedExecutorService spotifyOptimizedExecutorService;
+  private final SpotifyRequestScheduler requestScheduler;
   private final DiscoveryBotLogger log;
   private final FeatureControl featureControl;
 
-  PlaylistSongsService(PlaylistService playlistService,
+  PlaylistSongsService(SpotifyApi spotifyApi,
+    PlaylistService playlistService,
     SpotifyOptimizedExecutorService spotifyOptimizedExecutorService,
+    SpotifyRequestScheduler requestScheduler,
     DiscoveryBotLogger discoveryBotLogger,
     FeatureControl featureControl) {
+    this.spotifyApi = spotifyApi;
     this.playlistService = playlistService;
     this.spotifyOptimizedExecutorService = spotifyOptimizedExecutorService;
+    this.requestScheduler = requestScheduler;
     this.log = discoveryBotLogger;
     this.featureControl = featureControl;
   }
@@ -49,6 +60,14 @@ public class PlaylistSongsService {
    * Adds all releases to the given playlists
    */
   public void addAllReleasesToSetPlaylists(Map<PlaylistStore, List<AlbumTrackPair>> songsByPlaylist) throws SpotifyApiException {
+    addAllReleasesToSetPlaylists(songsByPlaylist, ps -> {});
+  }
+
+  /**
+   * Adds all releases to the given playlists and notify the given callback
+   * whenever all releases of a playlist have been added
+   */
+  public void addAllReleasesToSetPlaylists(Map<PlaylistStore, List<AlbumTrackPair>> songsByPlaylist, Consumer<PlaylistStore> onPlaylistStoreCompleted) throws SpotifyApiException {
     log.info("Adding to playlists:");
     List<PlaylistStore> sortedPlaylistStores = songsByPlaylist.keySet().stream().sorted().collect(Collectors.toList());
     List<Callable<Void>> callables = new ArrayList<>();
@@ -57,6 +76,7 @@ public class PlaylistSongsService {
       Collections.sort(albumTrackPairs);
       callables.add(() -> {
         addSongsForPlaylistStore(ps, albumTrackPairs);
+        onPlaylistStoreCompleted.accept(ps);
         return null; // must return something for Void class
       });
       log.printAlbumTrackPairs(albumTrackPairs, ps.getAlbumGroupExtended());
@@ -71,7 +91,7 @@ public class PlaylistSongsService {
    */
   private void addSongsForPlaylistStore(PlaylistStore ps, List<AlbumTrackPair> albumTrackPairs) throws SpotifyApiException {
     if (!albumTrackPairs.isEmpty() && featureControl.isPlaylistAdditionEnabled()) {
-      Playlist playlist = playlistService.getPlaylist(ps.getPlaylistId());
+      Playlist playlist = requestScheduler.run("GetPlaylistRequest", () -> playlistService.getPlaylist(ps.getPlaylistId()));
       circularPlaylistFitting(playlist, albumTrackPairs);
 
       List<TrackSimplified> allTracksForPlaylist = albumTrackPairs.stream()
@@ -83,7 +103,7 @@ public class PlaylistSongsService {
       while (partitionsIterator.hasNext()) {
         List<TrackSimplified> partition = partitionsIterator.next();
         List<String> ids = partition.stream().map(TrackSimplified::getId).collect(Collectors.toList());
-        playlistService.addSongsToPlaylistByIdTop(playlist, ids);
+        requestScheduler.runVoid("AddItemsToPlaylistRequest", () -> playlistService.addSongsToPlaylistByIdTop(playlist, ids));
 
         if (partitionsIterator.hasNext()) {
           SpotifyUtils.sneakySleep(PLAYLIST_ADDITION_COOLDOWN);
@@ -113,9 +133,15 @@ public class PlaylistSongsService {
     int totalSongsToDeleteCount = currentTracksInPlaylistCount + songsToAddCount - PLAYLIST_SIZE_LIMIT;
     int offset = currentTracksInPlaylistCount - totalSongsToDeleteCount;
 
-    List<IPlaylistItem> tracksToDelete = playlistService.getPlaylistTracks(playlistId, offset).stream()
+    List<PlaylistTrack> playlistTracks = requestScheduler.executePaging(spotifyApi
+      .getPlaylistsItems(playlistId)
+      .offset(offset)
+      .limit(PLAYLIST_FETCH_LIMIT));
+    List<IPlaylistItem> tracksToDelete = playlistTracks.stream()
       .map(PlaylistTrack::getTrack)
       .collect(Collectors.toList());
-    playlistService.removeItemsFromPlaylist(playlistId, tracksToDelete);
+    for (List<IPlaylistItem> partition : SpotifyUtils.partitionList(tracksToDelete, PLAYLIST_REMOVE_LIMIT)) {
+      requestScheduler.runVoid("RemoveItemsFromPlaylistRequest", () -> playlistService.removeItemsFromPlaylist(playlistId, partition));
+    }
   }
 }
@@ -0,0 +1,167 @@
+package spotify.bot.service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import se.michaelthelin.spotify.enums.AlbumGroup;
+import se.michaelthelin.spotify.model_objects.specification.AlbumSimplified;
+import se.michaelthelin.spotify.model_objects.specification.Paging;
+import spotify.bot.util.data.ArtistWatermark;
+
+/**
+ * Follows the paging through the release listing of a single artist. The listing
+ * is sorted by album group first and by release date (descending) second, so the
+ * newest release of each album group is the first one of its block.<br/>
+ * <br/>
+ * Every album group whose previous watermark has been found and that has reached
+ * a release older than the lookback range may be skipped up to the last release
+ * of its block (as known from the previous crawl). That release is still fetched
+ * to verify that the block hasn't changed in size. If it has, the skip can't be
+ * trusted and the listing has to be paged through again without skipping.
+ */
+class WatermarkTracker {
+  private final String artistId;
+  private final Map<AlbumGroup, ArtistWatermark> previousWatermarks;
+  private final boolean skippingAllowed;
+  private final Predicate<AlbumSimplified> olderThanLookback;
+
+  private final Map<AlbumGroup, GroupState> groups;
+  private AlbumGroup currentGroup;
+  private AlbumGroup pendingSkipGroup;
+
+  WatermarkTracker(String artistId, Map<AlbumGroup, ArtistWatermark> previousWatermarks, boolean skippingAllowed, Predicate<AlbumSimplified> olderThanLookback) {
+    this.artistId = artistId;
+    this.previousWatermarks = previousWatermarks;
+    this.skippingAllowed = skippingAllowed && !previousWatermarks.isEmpty();
+    this.olderThanLookback = olderThanLookback;
+    this.groups = new LinkedHashMap<>();
+  }
+
+  /**
+   * Verify that a page requested through a skip starts right at the expected
+   * boundary, i.e. its first release is the last one of the skipped album group
+   * and the next one (if any) belongs to a different album group.
+   *
+   * @param paging the page that was fetched
+   * @return false if the skip can't be trusted
+   */
+  boolean verify(Paging<AlbumSimplified> paging) {
+    if (pendingSkipGroup == null) {
+      return true;
+    }
+    AlbumGroup skippedGroup = pendingSkipGroup;
+    pendingSkipGroup = null;
+
+    AlbumSimplified[] items = paging.getItems();
+    if (items == null || items.length == 0 || items[0] == null || !skippedGroup.equals(items[0].getAlbumGroup())) {
+      return false;
+    }
+    if (items.length > 1) {
+      return items[1] != null && !skippedGroup.equals(items[1].getAlbumGroup());
+    }
+    return paging.getOffset() + items.length >= paging.getTotal();
+  }
+
+  /**
+   * Process all releases of a page
+   *
+   * @param paging the page
+   */
+  void accept(Paging<AlbumSimplified> paging) {
+    AlbumSimplified[] items = paging.getItems();
+    if (items != null) {
+      for (int i = 0; i < items.length; i++) {
+        if (items[i] != null) {
+          accept(paging.getOffset() + i, items[i]);
+        }
+      }
+    }
+  }
+
+  private void accept(int position, AlbumSimplified album) {
+    AlbumGroup albumGroup = album.getAlbumGroup();
+    if (!albumGroup.equals(currentGroup)) {
+      if (currentGroup != null) {
+        groups.get(currentGroup).end = position;
+      }
+      groups.putIfAbsent(albumGroup, new GroupState(position, album));
+      currentGroup = albumGroup;
+    }
+
+    GroupState state = groups.get(albumGroup);
+    ArtistWatermark watermark = previousWatermarks.get(albumGroup);
+    if (watermark != null) {
+      if (state.watermarkPosition < 0 && watermark.getReleaseId().equals(album.getId())) {
+        state.watermarkPosition = position;
+      }
+      if (state.watermarkPosition >= 0 && olderThanLookback.test(album)) {
+        state.knownAndOld = true;
+      }
+    }
+  }
+
+  /**
+   * Determine the offset of the next page to fetch. This is the next sequential
+   * offset, unless the current album group can be skipped.
+   *
+   * @param sequentialOffset the offset to continue with if nothing can be skipped
+   * @param total the total number of releases in this listing
+   * @return the offset of the next page
+   */
+  int nextOffset(int sequentialOffset, int total) {
+    if (skippingAllowed && currentGroup != null && !AlbumGroup.APPEARS_ON.equals(currentGroup)) {
+      GroupState state = groups.get(currentGroup);
+      ArtistWatermark watermark = previousWatermarks.get(currentGroup);
+      if (watermark != null && state.knownAndOld) {
+        int lastOfGroup = state.watermarkPosition + watermark.getGroupSize() - 1;
+        if (lastOfGroup > sequentialOffset && lastOfGroup < total) {
+          pendingSkipGroup = currentGroup;
+          return lastOfGroup;
+        }
+      }
+    }
+    return sequentialOffset;
+  }
+
+  /**
+   * Mark the end of the listing
+   *
+   * @param endPosition the position after the last release of the listing
+   */
+  void finish(int endPosition) {
+    if (currentGroup != null && groups.get(currentGroup).end < 0) {
+      groups.get(currentGroup).end = endPosition;
+    }
+  }
+
+  /**
+   * Get the new watermarks for every album group that was fully passed
+   * (appears_on releases are never tracked, as they are cut off anyway)
+   */
+  List<ArtistWatermark> getWatermarks() {
+    List<ArtistWatermark> watermarks = new ArrayList<>();
+    for (Map.Entry<AlbumGroup, GroupState> entry : groups.entrySet()) {
+      GroupState state = entry.getValue();
+      if (!AlbumGroup.APPEARS_ON.equals(entry.getKey()) && state.end > state.start) {
+        watermarks.add(new ArtistWatermark(artistId, entry.getKey(), state.head.getId(), state.head.getReleaseDate(), state.end - state.start));
+      }
+    }
+    return watermarks;
+  }
+
+  private static class GroupState {
+    private final int start;
+    private final AlbumSimplified head;
+    private int end = -1;
+    private int watermarkPosition = -1;
+    private boolean knownAndOld;
+
+    private GroupState(int start, AlbumSimplified head) {
+      this.start = start;
+      this.head = head;
+    }
+  }
+}
@@ -0,0 +1,143 @@
+package spotify.bot.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.neovisionaries.i18n.CountryCode;
+
+import se.michaelthelin.spotify.model_objects.specification.AlbumSimplified;
+import se.michaelthelin.spotify.model_objects.specification.ArtistSimplified;
+import se.michaelthelin.spotify.model_objects.specification.ExternalUrl;
+import se.michaelthelin.spotify.model_objects.specification.TrackSimplified;
+
+/**
+ * Converts the Spotify model objects the bot works with into JSON and back, so
+ * they can be persisted in the database. Only the attributes the bot actually
+ * needs are written, in the same format as the Spotify Web API delivers them,
+ * which means the model objects can be restored with the JSON utils of the API
+ * library itself.
+ */
+public class DiscoveryBotJson {
+
+  /**
+   * Utility class
+   */
+  private DiscoveryBotJson() {
+  }
+
+  /**
+   * Serialize the given albums into a JSON array
+   *
+   * @param albums the albums
+   * @return the JSON string
+   */
+  public static String albumsToJson(Collection<AlbumSimplified> albums) {
+    JsonArray jsonArray = new JsonArray();
+    for (AlbumSimplified album : albums) {
+      jsonArray.add(albumToJsonObject(album));
+    }
+    return jsonArray.toString();
+  }
+
+  /**
+   * Restore the albums from a JSON array created by {@link DiscoveryBotJson#albumsToJson}
+   *
+   * @param json the JSON string
+   * @return the albums
+   */
+  public static List<AlbumSimplified> albumsFromJson(String json) {
+    return new ArrayList<>(Arrays.asList(new AlbumSimplified.JsonUtil().createModelObjectArray(json)));
+  }
+
+  /**
+   * Serialize the given tracks into a JSON array
+   *
+   * @param tracks the tracks
+   * @return the JSON string
+   */
+  public static String tracksToJson(Collection<TrackSimplified> tracks) {
+    JsonArray jsonArray = new JsonArray();
+    for (TrackSimplified track : tracks) {
+      jsonArray.add(trackToJsonObject(track));
+    }
+    return jsonArray.toString();
+  }
+
+  /**
+   * Restore the tracks from a JSON array created by {@link DiscoveryBotJson#tracksToJson}
+   *
+   * @param json the JSON string
+   * @return the tracks
+   */
+  public static List<TrackSimplified> tracksFromJson(String json) {
+    return new ArrayList<>(Arrays.asList(new TrackSimplified.JsonUtil().createModelObjectArray(json)));
+  }
+
+  ////////////////////////
+
+  private static JsonObject albumToJsonObject(AlbumSimplified album) {
+    JsonObject json = new JsonObject();
+    json.addProperty("id", album.getId());
+    json.addProperty("name", album.getName());
+    if (album.getAlbumGroup() != null) {
+      json.addProperty("album_group", album.getAlbumGroup().getGroup());
+    }
+    if (album.getAlbumType() != null) {
+      json.addProperty("album_type", album.getAlbumType().getType());
+    }
+    json.addProperty("release_date", album.getReleaseDate());
+    if (album.getReleaseDatePrecision() != null) {
+      json.addProperty("release_date_precision", album.getReleaseDatePrecision().getPrecision());
+    }
+    json.add("artists", artistsToJsonArray(album.getArtists()));
+    json.add("external_urls", externalUrlsToJsonObject(album.getExternalUrls()));
+    json.addProperty("href", album.getHref());
+    json.addProperty("uri", album.getUri());
+    return json;
+  }
+
+  private static JsonObject trackToJsonObject(TrackSimplified track) {
+    JsonObject json = new JsonObject();
+    json.addProperty("id", track.getId());
+    json.addProperty("uri", track.getUri());
+    json.addProperty("name", track.getName());
+    json.addProperty("duration_ms", track.getDurationMs());
+    json.addProperty("disc_number", track.getDiscNumber());
+    json.addProperty("track_number", track.getTrackNumber());
+    json.addProperty("explicit", track.getIsExplicit());
+    json.add("artists", artistsToJsonArray(track.getArtists()));
+    if (track.getAvailableMarkets() != null) {
+      JsonArray markets = new JsonArray();
+      for (CountryCode market : track.getAvailableMarkets()) {
+        markets.add(market.getAlpha2());
+      }
+      json.add("available_markets", markets);
+    }
+    return json;
+  }
+
+  private static JsonObject externalUrlsToJsonObject(ExternalUrl externalUrls) {
+    JsonObject json = new JsonObject();
+    if (externalUrls != null && externalUrls.getExternalUrls() != null) {
+      externalUrls.getExternalUrls().forEach(json::addProperty);
+    }
+    return json;
+  }
+
+  private static JsonArray artistsToJsonArray(ArtistSimplified[] artists) {
+    JsonArray jsonArray = new JsonArray();
+    if (artists != null) {
+      for (ArtistSimplified artist : artists) {
+        JsonObject json = new JsonObject();
+        json.addProperty("id", artist.getId());
+        json.addProperty("name", artist.getName());
+        jsonArray.add(json);
+      }
+    }
+    return jsonArray;
+  }
+}
@@ -2,6 +2,7 @@ package spotify.bot.util;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -102,6 +103,16 @@ public class DiscoveryBotUtils {
     return targetCountMap;
   }
 
+  /**
+   * Count the releases across all given lists
+   *
+   * @param albumTrackPairsByPlaylist the releases, e.g. grouped by their target playlist
+   * @return the total number of releases
+   */
+  public static int countReleases(Collection<List<AlbumTrackPair>> albumTrackPairsByPlaylist) {
+    return albumTrackPairsByPlaylist.stream().mapToInt(List::size).sum();
+  }
+
   /**
    * Return a string which only contains a single character repeated n times
    */
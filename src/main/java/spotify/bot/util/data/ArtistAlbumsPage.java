@@ -0,0 +1,78 @@
+package spotify.bot.util.data;
+
+import java.util.List;
+
+import se.michaelthelin.spotify.model_objects.specification.AlbumSimplified;
+
+/**
+ * A single page of an artist's release listing as it was delivered during a
+ * previous crawl, along with its ETag. Used to restore the page whenever Spotify
+ * answers a conditional request with 304 Not Modified.
+ */
+public class ArtistAlbumsPage {
+	private final String artistId;
+	private final String market;
+	private final int offset;
+	private final String etag;
+	private final int total;
+	private final String next;
+	private final List<AlbumSimplified> items;
+
+	public ArtistAlbumsPage(String artistId, String market, int offset, String etag, int total, String next, List<AlbumSimplified> items) {
+		this.artistId = artistId;
+		this.market = market;
+		this.offset = offset;
+		this.etag = etag;
+		this.total = total;
+		this.next = next;
+		this.items = items;
+	}
+
+	/**
+	 * Create the key of a page, which is unique per artist, market and offset
+	 */
+	public static String key(String artistId, String market, int offset) {
+		return artistId + ":" + market + ":" + offset;
+	}
+
+	public String getKey() {
+		return key(artistId, market, offset);
+	}
+
+	public String getArtistId() {
+		return artistId;
+	}
+
+	public String getMarket() {
+		return market;
+	}
+
+	public int getOffset() {
+		return offset;
+	}
+
+	public String getEtag() {
+		return etag;
+	}
+
+	/**
+	 * The total number of releases of the listing at the time
+	 */
+	public int getTotal() {
+		return total;
+	}
+
+	/**
+	 * The URL of the next page (null if this was the last page)
+	 */
+	public String getNext() {
+		return next;
+	}
+
+	/**
+	 * The releases of this page (only the attributes the bot needs)
+	 */
+	public List<AlbumSimplified> getItems() {
+		return items;
+	}
+}
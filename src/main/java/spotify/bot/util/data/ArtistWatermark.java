@@ -0,0 +1,76 @@
+package spotify.bot.util.data;
+
+import java.util.Objects;
+
+import se.michaelthelin.spotify.enums.AlbumGroup;
+
+/**
+ * The newest release of an artist for a single album group as seen during the
+ * last crawl, along with the number of releases that album group had at that
+ * time. Used to skip over already known parts of an artist's release listing.
+ */
+public class ArtistWatermark {
+	private final String artistId;
+	private final AlbumGroup albumGroup;
+	private final String releaseId;
+	private final String releaseDate;
+	private final int groupSize;
+
+	public ArtistWatermark(String artistId, AlbumGroup albumGroup, String releaseId, String releaseDate, int groupSize) {
+		this.artistId = artistId;
+		this.albumGroup = albumGroup;
+		this.releaseId = releaseId;
+		this.releaseDate = releaseDate;
+		this.groupSize = groupSize;
+	}
+
+	public String getArtistId() {
+		return artistId;
+	}
+
+	public AlbumGroup getAlbumGroup() {
+		return albumGroup;
+	}
+
+	/**
+	 * The ID of the newest release of this album group
+	 */
+	public String getReleaseId() {
+		return releaseId;
+	}
+
+	/**
+	 * The release date of the newest release of this album group
+	 */
+	public String getReleaseDate() {
+		return releaseDate;
+	}
+
+	/**
+	 * The total number of releases this album group consisted of
+	 */
+	public int getGroupSize() {
+		return groupSize;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (o == null || getClass() != o.getClass()) {
+			return false;
+		}
+		ArtistWatermark that = (ArtistWatermark) o;
+		return groupSize == that.groupSize
+			&& Objects.equals(artistId, that.artistId)
+			&& albumGroup == that.albumGroup
+			&& Objects.equals(releaseId, that.releaseId)
+			&& Objects.equals(releaseDate, that.releaseDate);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(artistId, albumGroup, releaseId, releaseDate, groupSize);
+	}
+}
@@ -0,0 +1,44 @@
+package spotify.controller;
+
+import java.util.Map;
+
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import spotify.bot.metrics.ApiCallMetrics;
+import spotify.bot.metrics.CrawlMetrics;
+
+@RestController
+public class MetricsController {
+  private final CrawlMetrics crawlMetrics;
+  private final ApiCallMetrics apiCallMetrics;
+
+  MetricsController(CrawlMetrics crawlMetrics, ApiCallMetrics apiCallMetrics) {
+    this.crawlMetrics = crawlMetrics;
+    this.apiCallMetrics = apiCallMetrics;
+  }
+
+  /**
+   * Returns all metrics recorded by the bot since startup, such as the duration
+   * and item counts of every crawl phase, along with a breakdown of the phases of
+   * the most recent crawl
+   *
+   * @return a ResponseEntity containing the metrics
+   */
+  @GetMapping("/metrics")
+  public ResponseEntity<Map<String, Object>> showMetrics() {
+    return ResponseEntity.ok(crawlMetrics.getSummary());
+  }
+
+  /**
+   * Returns the Spotify Web API calls of the current crawl (or of the most recent
+   * one, if no crawl is in progress), by endpoint type
+   *
+   * @return a ResponseEntity containing the call counts and latencies
+   */
+  @GetMapping("/metrics/api")
+  public ResponseEntity<Map<String, Map<String, Long>>> showApiCalls() {
+    return ResponseEntity.ok(apiCallMetrics.getCrawlSnapshot());
+  }
+}
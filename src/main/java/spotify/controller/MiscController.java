@@ -20,6 +20,7 @@ import org.springframework.web.servlet.ModelAndView;
 
 import spotify.api.events.SpotifyApiException;
 import spotify.bot.DiscoveryBotCrawler;
+import spotify.bot.api.SpotifyRequestScheduler;
 import spotify.bot.properties.FeatureControl;
 import spotify.bot.util.DiscoveryBotLogger;
 import spotify.util.SpotifyUtils;
@@ -33,11 +34,13 @@ public class MiscController implements SchedulingConfigurer {
   private final static int SHUTDOWN_RETRY_SLEEP = 10 * 1000;
 
   private final DiscoveryBotCrawler crawler;
+  private final SpotifyRequestScheduler requestScheduler;
   private final DiscoveryBotLogger log;
   private final FeatureControl featureControl;
 
-  MiscController(DiscoveryBotCrawler discoveryBotCrawler, DiscoveryBotLogger botLogger, FeatureControl featureControl) {
+  MiscController(DiscoveryBotCrawler discoveryBotCrawler, SpotifyRequestScheduler requestScheduler, DiscoveryBotLogger botLogger, FeatureControl featureControl) {
     this.crawler = discoveryBotCrawler;
+    this.requestScheduler = requestScheduler;
     this.log = botLogger;
     this.featureControl = featureControl;
   }
@@ -136,6 +139,19 @@ public class MiscController implements SchedulingConfigurer {
     return ResponseEntity.notFound().build();
   }
 
+  /////////////////
+  // Rate Limit
+
+  /**
+   * Returns the remaining request budget of the shared Spotify rate limiter
+   *
+   * @return a ResponseEntity containing a summary of the current budget
+   */
+  @GetMapping("/ratelimit")
+  public ResponseEntity<String> showRateLimit() {
+    return ResponseEntity.ok(requestScheduler.getRemainingBudget());
+  }
+
   /////////////////
   // Shutdown
 
@@ -0,0 +1,220 @@
+package spotify.bot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.annotation.Profile;
+
+import se.michaelthelin.spotify.model_objects.specification.AlbumSimplified;
+import spotify.SpotifyDiscoveryBot;
+import spotify.SpotifyDiscoveryBot.SpotifyDiscoveryBotSettings;
+import spotify.bot.config.database.DatabaseService;
+import spotify.bot.config.properties.PlaylistStoreConfig;
+import spotify.bot.config.properties.PlaylistStoreConfig.PlaylistStore;
+import spotify.bot.util.DiscoveryBotJson;
+import spotify.bot.util.data.AlbumGroupExtended;
+import spotify.fake.FakeSpotifyApiConfig;
+import spotify.fake.FakeSpotifyCatalog;
+import spotify.fake.FakeSpotifyCatalog.FakeRelease;
+import spotify.fake.FakeSpotifyServer;
+
+/**
+ * Boots the entire bot against a {@link FakeSpotifyServer} and a temporary
+ * database. The release cache is initialized by a first crawl right after the
+ * bot has started.
+ */
+public class DiscoveryBotCrawlerTests {
+	private final static String ARTIST_ALBUMS_ROUTE = "GET /artists/{id}/albums";
+	private final static String STREAMING_PIPELINE = "spotify.discovery.crawl.streaming_pipeline.enabled";
+	private final static String CHECKPOINT = "spotify.discovery.crawl.checkpoint.enabled";
+	private final static int ARTIST_COUNT = 30;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private ConfigurableApplicationContext context;
+	private DiscoveryBotCrawler crawler;
+	private FakeSpotifyServer server;
+	private FakeSpotifyCatalog catalog;
+
+	@After
+	public void stopBot() {
+		if (context != null) {
+			context.close();
+			context = null;
+		}
+	}
+
+	@Test
+	public void streamingPipelineAddsSameReleases() throws Exception {
+		Map<AlbumGroupExtended, Set<String>> regularResult = crawlNewReleases(false);
+		stopBot();
+		Map<AlbumGroupExtended, Set<String>> streamingResult = crawlNewReleases(true);
+
+		assertFalse(regularResult.values().stream().allMatch(Set::isEmpty));
+		assertEquals(regularResult, streamingResult);
+	}
+
+	@Test
+	public void resumesInterruptedCrawl() throws Exception {
+		startBot(folder.getRoot(), Map.of(STREAMING_PIPELINE, true, CHECKPOINT, true));
+
+		// A release that is already cached by the time the crawl is resumed
+		FakeRelease cachedRelease = catalog.addRelease(2, "single", LocalDate.now().minusDays(3));
+		crawler.tryCrawl();
+		String cachedTrackUri = "spotify:track:" + cachedRelease.getTrackId(1);
+		long cachedTrackCount = countInPlaylists(cachedTrackUri);
+
+		// The checkpoint of a crawl that got interrupted after fetching two artists
+		FakeRelease newRelease = catalog.addRelease(0, "single", LocalDate.now());
+		AlbumSimplified newAlbum = fetchAlbum(0, newRelease.getId());
+		String renamedCachedAlbumJson = DiscoveryBotJson.albumsToJson(List.of(fetchAlbum(2, cachedRelease.getId())))
+			.replace(cachedRelease.getName(), cachedRelease.getName() + " (Remastered)");
+		DatabaseService databaseService = context.getBean(DatabaseService.class);
+		databaseService.writeCrawlCheckpoint("crawl", Map.of("started", String.valueOf(System.currentTimeMillis())));
+		databaseService.writeCrawlCheckpoint("artists", Map.of(
+			catalog.getArtistId(0), DiscoveryBotJson.albumsToJson(List.of(newAlbum)),
+			catalog.getArtistId(2), renamedCachedAlbumJson));
+
+		long albumRequestsBefore = server.getRequestCounts().getOrDefault(ARTIST_ALBUMS_ROUTE, 0L);
+		crawler.tryCrawl();
+
+		assertEquals(ARTIST_COUNT - 2, server.getRequestCounts().getOrDefault(ARTIST_ALBUMS_ROUTE, 0L) - albumRequestsBefore);
+		assertTrue(countInPlaylists("spotify:track:" + newRelease.getTrackId(1)) > 0);
+		assertEquals(cachedTrackCount, countInPlaylists(cachedTrackUri));
+		assertTrue(databaseService.getCrawlCheckpoint().isEmpty());
+	}
+
+	////////////////////////
+
+	/**
+	 * Boot the bot with the given feature properties on top of the test defaults
+	 * and initialize the release cache with a first crawl
+	 */
+	private void startBot(File workDir, Map<String, Object> featureProperties) throws Exception {
+		TestSettings.workDir = workDir;
+
+		Map<String, Object> properties = new HashMap<>(featureProperties);
+		properties.put("server.port", 0);
+		properties.put("spotify.fake.artists", ARTIST_COUNT);
+		properties.put("spotify.fake.releases_per_artist", 5);
+		properties.put("spotify.fake.new_release_ratio", 0.0);
+		properties.put("spotify.fake.appears_on_per_artist", 0);
+		properties.put("spotify.discovery.crawl.feature.initial_crawl", false);
+		properties.put("spotify.discovery.crawl.feature.scheduled_crawls", false);
+		properties.put("spotify.discovery.crawl.feature.forwarder", false);
+
+		context = new SpringApplicationBuilder(SpotifyDiscoveryBot.class, FakeSpotifyApiConfig.class, TestSettings.class)
+			.profiles("fake-spotify", "crawler-tests")
+			.properties(properties)
+			.headless(true)
+			.run();
+		crawler = context.getBean(DiscoveryBotCrawler.class);
+		server = context.getBean(FakeSpotifyServer.class);
+		catalog = server.getCatalog();
+
+		awaitReady();
+		crawler.tryCrawl();
+	}
+
+	/**
+	 * Boot the bot in a fresh folder, add a few releases (some of which must be
+	 * filtered out), crawl them, and collect the playlist contents
+	 */
+	private Map<AlbumGroupExtended, Set<String>> crawlNewReleases(boolean streamingPipeline) throws Exception {
+		startBot(folder.newFolder(), Map.of(STREAMING_PIPELINE, streamingPipeline));
+		catalog.addRelease(0, "single", LocalDate.now());
+		catalog.addRelease(1, "album", LocalDate.now().minusDays(2));
+		catalog.addRelease(2, "album", LocalDate.now().minusYears(3));
+		catalog.addRelease(3, "single", LocalDate.now().minusYears(3));
+		catalog.addRelease(4, "single", LocalDate.now().plusDays(7));
+		catalog.addCollaboration(5, 6, "single", LocalDate.now());
+		crawler.tryCrawl();
+
+		Map<AlbumGroupExtended, Set<String>> trackUrisByPlaylist = new HashMap<>();
+		for (PlaylistStore playlistStore : context.getBean(PlaylistStoreConfig.class).getAllPlaylistStores()) {
+			if (playlistStore.getPlaylistId() != null) {
+				trackUrisByPlaylist.put(playlistStore.getAlbumGroupExtended(), new HashSet<>(server.getPlaylistTrackUris(playlistStore.getPlaylistId())));
+			}
+		}
+		return trackUrisByPlaylist;
+	}
+
+	/**
+	 * The crawler becomes ready once the bot has logged in. If the login event
+	 * doesn't arrive, the initialization is triggered manually.
+	 */
+	private void awaitReady() throws Exception {
+		long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+		while (!crawler.isReady() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(100);
+		}
+		if (!crawler.isReady()) {
+			crawler.firstCrawlAndEnableReadyState();
+		}
+	}
+
+	private AlbumSimplified fetchAlbum(int artistIndex, String releaseId) throws Exception {
+		AlbumSimplified[] albums = server.createSpotifyApi().getArtistsAlbums(catalog.getArtistId(artistIndex)).limit(50).build().execute().getItems();
+		for (AlbumSimplified album : albums) {
+			if (album.getId().equals(releaseId)) {
+				return album;
+			}
+		}
+		throw new IllegalStateException("Release not found: " + releaseId);
+	}
+
+	private long countInPlaylists(String trackUri) {
+		long count = 0;
+		for (PlaylistStore playlistStore : context.getBean(PlaylistStoreConfig.class).getAllPlaylistStores()) {
+			if (playlistStore.getPlaylistId() != null) {
+				count += server.getPlaylistTrackUris(playlistStore.getPlaylistId()).stream()
+					.filter(trackUri::equals)
+					.count();
+			}
+		}
+		return count;
+	}
+
+	////////////////////////
+
+	/**
+	 * Points the config files (including the database) to the temporary folder of
+	 * the current test
+	 */
+	@Configuration
+	@Profile("crawler-tests")
+	static class TestSettings {
+		private static File workDir;
+
+		@Bean
+		@Primary
+		SpotifyDiscoveryBotSettings testSettings() {
+			return new SpotifyDiscoveryBotSettings() {
+				@Override
+				public File configFilesBase() {
+					return workDir;
+				}
+			};
+		}
+	}
+}
@@ -0,0 +1,169 @@
+package spotify.bot.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.function.Supplier;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import se.michaelthelin.spotify.exceptions.detailed.TooManyRequestsException;
+import se.michaelthelin.spotify.model_objects.specification.AlbumSimplified;
+import se.michaelthelin.spotify.model_objects.specification.Paging;
+import spotify.api.events.SpotifyApiException;
+import spotify.bot.metrics.ApiCallMetrics;
+import spotify.bot.metrics.ApiCallMetrics.Outcome;
+import spotify.bot.util.DiscoveryBotLogger;
+import spotify.fake.FakeSpotifyCatalog;
+import spotify.fake.FakeSpotifyServer;
+
+/**
+ * Sends requests through the scheduler to a {@link FakeSpotifyServer}, which
+ * answers some of them with 429 Too Many Requests
+ */
+public class SpotifyRequestSchedulerTests {
+	private final static String ARTIST_ALBUMS_ROUTE = "GET /artists/{id}/albums";
+	private final static String ARTIST_ALBUMS_ENDPOINT = "GetArtistsAlbumsRequest";
+	private final static long RETRY_AFTER_GRACE_MS = 1000;
+
+	private FakeSpotifyServer server;
+	private FakeSpotifyCatalog catalog;
+	private ApiCallMetrics apiCallMetrics;
+	private SpotifyRequestScheduler requestScheduler;
+
+	@Before
+	public void setup() throws Exception {
+		catalog = new FakeSpotifyCatalog(1234L, 5, 5, 0.0);
+		server = new FakeSpotifyServer(catalog).start();
+		apiCallMetrics = mock(ApiCallMetrics.class);
+		requestScheduler = new SpotifyRequestScheduler(apiCallMetrics, mock(DiscoveryBotLogger.class));
+		ReflectionTestUtils.setField(requestScheduler, "requestsPerSecond", 0.0);
+		ReflectionTestUtils.setField(requestScheduler, "burst", 1);
+		ReflectionTestUtils.setField(requestScheduler, "maxRetries", 3);
+		ReflectionTestUtils.invokeMethod(requestScheduler, "init");
+	}
+
+	@After
+	public void stopServer() {
+		server.close();
+	}
+
+	@Test
+	public void conditionalRequestWaitsForRetryAfter() throws Exception {
+		server.setRateLimit(2, 0);
+		ConditionalResponse<Paging<AlbumSimplified>> first = executeConditional(0);
+		assertNotNull(first.getEtag());
+
+		// The second request is rate-limited and only repeated (conditionally) once the pause is over
+		long start = System.currentTimeMillis();
+		ConditionalResponse<Paging<AlbumSimplified>> second = executeConditional(1);
+		assertTrue(System.currentTimeMillis() - start >= RETRY_AFTER_GRACE_MS);
+		assertFalse(second.isNotModified());
+		assertNotNull(second.getEtag());
+		assertEquals(3L, (long) server.getRequestCounts().get(ARTIST_ALBUMS_ROUTE));
+		verify(apiCallMetrics).record(eq(ARTIST_ALBUMS_ENDPOINT), anyLong(), eq(Outcome.RATE_LIMITED));
+	}
+
+	@Test
+	public void failedConditionalRequestFallsBackToSeparateCall() {
+		try {
+			requestScheduler.executeConditional(server.createSpotifyApi().getArtistsAlbums("unknown").limit(50), null,
+				json -> new AlbumSimplified.JsonUtil().createModelObjectPaging(json));
+			fail("Expected the unknown artist to be reported");
+		} catch (SpotifyApiException e) {
+			// Reported by the regular call
+		}
+
+		// The conditional request and the regular call are both accounted for
+		assertEquals(2L, (long) server.getRequestCounts().get(ARTIST_ALBUMS_ROUTE));
+		verify(apiCallMetrics, times(2)).record(eq(ARTIST_ALBUMS_ENDPOINT), anyLong(), eq(Outcome.ERROR));
+	}
+
+	@Test
+	public void rateLimitedRequestResumesAfterRetryAfter() throws Exception {
+		server.setRateLimit(2, 1);
+		requestScheduler.run(ARTIST_ALBUMS_ENDPOINT, getArtistsAlbums(0));
+
+		// Retry-After plus the grace period have to pass before the request is repeated
+		long start = System.currentTimeMillis();
+		assertNotNull(requestScheduler.run(ARTIST_ALBUMS_ENDPOINT, getArtistsAlbums(1)));
+		assertTrue(System.currentTimeMillis() - start >= 1000 + RETRY_AFTER_GRACE_MS);
+		assertEquals(3L, (long) server.getRequestCounts().get(ARTIST_ALBUMS_ROUTE));
+		verify(apiCallMetrics).record(eq(ARTIST_ALBUMS_ENDPOINT), anyLong(), eq(Outcome.RATE_LIMITED));
+		verify(apiCallMetrics, times(2)).record(eq(ARTIST_ALBUMS_ENDPOINT), anyLong(), eq(Outcome.SUCCESS));
+	}
+
+	@Test
+	public void givesUpAfterMaxRetries() {
+		ReflectionTestUtils.setField(requestScheduler, "maxRetries", 2);
+		server.setRateLimit(1, 0);
+
+		long start = System.currentTimeMillis();
+		try {
+			requestScheduler.run(ARTIST_ALBUMS_ENDPOINT, getArtistsAlbums(0));
+			fail("Expected the request to stay rate-limited");
+		} catch (SpotifyApiException e) {
+			assertTrue(e.getNestedException() instanceof TooManyRequestsException);
+		}
+
+		// The first attempt and two retries, each of the retries after a pause
+		assertTrue(System.currentTimeMillis() - start >= 2 * RETRY_AFTER_GRACE_MS);
+		assertEquals(3L, (long) server.getRequestCounts().get(ARTIST_ALBUMS_ROUTE));
+		verify(apiCallMetrics, times(3)).record(eq(ARTIST_ALBUMS_ENDPOINT), anyLong(), eq(Outcome.RATE_LIMITED));
+	}
+
+	@Test
+	public void refillsTokensAtConfiguredRate() {
+		ReflectionTestUtils.setField(requestScheduler, "requestsPerSecond", 10.0);
+		ReflectionTestUtils.setField(requestScheduler, "burst", 2);
+		ReflectionTestUtils.invokeMethod(requestScheduler, "init");
+		assertTrue(requestScheduler.getRemainingBudget().startsWith("2 / 2"));
+
+		// The burst passes right away, the remaining requests have to wait for a token each (100 ms apart)
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < 6; i++) {
+			requestScheduler.run("Request", () -> null);
+		}
+		long elapsed = System.currentTimeMillis() - start;
+		assertTrue(elapsed >= 350);
+		assertTrue(elapsed < RETRY_AFTER_GRACE_MS);
+		assertTrue(requestScheduler.getRemainingBudget().startsWith("0 / 2"));
+	}
+
+	////////////////////////
+
+	/**
+	 * Fire the request without the usual SpotifyCall wrapper and report a rate
+	 * limit the way it does (as the nested exception of a SpotifyApiException)
+	 */
+	private Supplier<Paging<AlbumSimplified>> getArtistsAlbums(int artistIndex) {
+		return () -> {
+			try {
+				return server.createSpotifyApi().getArtistsAlbums(catalog.getArtistId(artistIndex)).limit(50).build().execute();
+			} catch (TooManyRequestsException e) {
+				SpotifyApiException spotifyApiException = mock(SpotifyApiException.class);
+				doReturn(e).when(spotifyApiException).getNestedException();
+				throw spotifyApiException;
+			} catch (Exception e) {
+				throw new IllegalStateException(e);
+			}
+		};
+	}
+
+	private ConditionalResponse<Paging<AlbumSimplified>> executeConditional(int artistIndex) {
+		return requestScheduler.executeConditional(server.createSpotifyApi().getArtistsAlbums(catalog.getArtistId(artistIndex)).limit(50), null,
+			json -> new AlbumSimplified.JsonUtil().createModelObjectPaging(json));
+	}
+}
@@ -0,0 +1,9 @@
+package spotify.bot.cluster;
+
+public class InMemoryLeaseStoreTests extends LeaseStoreTests {
+
+	@Override
+	protected LeaseStore createLeaseStore() {
+		return new InMemoryLeaseStore();
+	}
+}
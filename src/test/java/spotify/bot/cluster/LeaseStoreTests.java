@@ -0,0 +1,100 @@
+package spotify.bot.cluster;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import se.michaelthelin.spotify.model_objects.specification.AlbumSimplified;
+
+/**
+ * The contract every {@link LeaseStore} has to fulfill, run against each
+ * implementation by its subclass
+ */
+public abstract class LeaseStoreTests {
+	private final static String LEASE_KEY = "shard:0";
+	private final static long LEASE_MILLIS = 60 * 1000L;
+
+	private LeaseStore leaseStore;
+
+	@Before
+	public void setupLeaseStore() throws Exception {
+		leaseStore = createLeaseStore();
+	}
+
+	@Test
+	public void acquiresFreeLeaseOnly() {
+		assertTrue(leaseStore.tryAcquire(LEASE_KEY, "a", inFuture()));
+		assertFalse(leaseStore.tryAcquire(LEASE_KEY, "b", inFuture()));
+
+		// The holder itself may renew its lease at any time
+		assertTrue(leaseStore.tryAcquire(LEASE_KEY, "a", inFuture()));
+		assertEquals(Map.of(LEASE_KEY, "a"), leaseStore.getActiveHolders());
+	}
+
+	@Test
+	public void expiredLeaseIsTakenOver() {
+		assertTrue(leaseStore.tryAcquire(LEASE_KEY, "a", System.currentTimeMillis() - LEASE_MILLIS));
+		assertEquals(Map.of(), leaseStore.getActiveHolders());
+
+		assertTrue(leaseStore.tryAcquire(LEASE_KEY, "b", inFuture()));
+		assertEquals(Map.of(LEASE_KEY, "b"), leaseStore.getActiveHolders());
+		assertFalse(leaseStore.tryAcquire(LEASE_KEY, "a", inFuture()));
+	}
+
+	@Test
+	public void releasesOnlyOwnLease() {
+		assertTrue(leaseStore.tryAcquire(LEASE_KEY, "a", inFuture()));
+		leaseStore.release(LEASE_KEY, "b");
+		assertEquals(Map.of(LEASE_KEY, "a"), leaseStore.getActiveHolders());
+
+		leaseStore.release(LEASE_KEY, "a");
+		assertEquals(Map.of(), leaseStore.getActiveHolders());
+		assertTrue(leaseStore.tryAcquire(LEASE_KEY, "b", inFuture()));
+	}
+
+	@Test
+	public void handsOffReleasesOnce() {
+		Map<String, List<AlbumSimplified>> releasesByOriginArtist = new HashMap<>();
+		releasesByOriginArtist.put("artist", List.of(album("release1"), album("release2")));
+		releasesByOriginArtist.put(null, List.of(album("release3")));
+		leaseStore.handOff("b", releasesByOriginArtist);
+
+		Map<String, List<AlbumSimplified>> handedOff = leaseStore.takeHandedOff();
+		assertEquals(new HashSet<>(Arrays.asList("artist", null)), handedOff.keySet());
+		assertEquals(Set.of("release1", "release2"), getIds(handedOff.get("artist")));
+		assertEquals(Set.of("release3"), getIds(handedOff.get(null)));
+		assertTrue(leaseStore.takeHandedOff().isEmpty());
+	}
+
+	////////////////////////
+
+	protected abstract LeaseStore createLeaseStore() throws Exception;
+
+	private static long inFuture() {
+		return System.currentTimeMillis() + LEASE_MILLIS;
+	}
+
+	private static AlbumSimplified album(String id) {
+		return new AlbumSimplified.Builder()
+			.setId(id)
+			.setName(id)
+			.build();
+	}
+
+	private static Set<String> getIds(List<AlbumSimplified> albums) {
+		return albums.stream()
+			.map(AlbumSimplified::getId)
+			.collect(Collectors.toSet());
+	}
+}
@@ -0,0 +1,116 @@
+package spotify.bot.cluster;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import se.michaelthelin.spotify.model_objects.specification.AlbumSimplified;
+import spotify.bot.util.DiscoveryBotLogger;
+
+/**
+ * Runs multiple coordinators against one shared {@link InMemoryLeaseStore}, as
+ * if they were separate bot instances
+ */
+public class ShardCoordinatorTests {
+	private final static int SHARD_COUNT = 16;
+	private final static int LEASE_MINUTES = 45;
+
+	private LeaseStore leaseStore;
+
+	@Before
+	public void setup() {
+		leaseStore = new InMemoryLeaseStore();
+	}
+
+	@Test
+	public void spreadsShardsEvenly() {
+		List<ShardCoordinator> coordinators = List.of(createCoordinator("a", LEASE_MINUTES), createCoordinator("b", LEASE_MINUTES), createCoordinator("c", LEASE_MINUTES));
+
+		// The first instance starts out alone and takes everything, it only gives up shards on its next crawl
+		for (int crawl = 0; crawl < 3; crawl++) {
+			coordinators.forEach(ShardCoordinator::acquireShards);
+		}
+
+		Set<Integer> allShards = new HashSet<>();
+		for (ShardCoordinator coordinator : coordinators) {
+			Set<Integer> shards = getOwnShards(coordinator);
+			assertTrue(shards.size() >= 4 && shards.size() <= 6);
+			shards.forEach(shard -> assertTrue(allShards.add(shard)));
+		}
+		assertEquals(SHARD_COUNT, allShards.size());
+		assertEquals(1, coordinators.stream().filter(ShardCoordinator::isCoordinator).count());
+
+		// Every artist is crawled by exactly one instance
+		List<String> artistIds = IntStream.range(0, 100).mapToObj(i -> "artist" + i).collect(Collectors.toList());
+		List<String> crawledArtistIds = new ArrayList<>();
+		coordinators.forEach(coordinator -> crawledArtistIds.addAll(coordinator.getOwnArtists(artistIds)));
+		assertEquals(artistIds.size(), crawledArtistIds.size());
+		assertEquals(new HashSet<>(artistIds), new HashSet<>(crawledArtistIds));
+	}
+
+	@Test
+	public void takesOverExpiredLeases() throws InterruptedException {
+		ShardCoordinator dying = createCoordinator("a", 0);
+		dying.acquireShards();
+		assertTrue(dying.isCoordinator());
+
+		// The leases of the first instance expire without it ever renewing them
+		Thread.sleep(10);
+		ShardCoordinator survivor = createCoordinator("b", LEASE_MINUTES);
+		survivor.acquireShards();
+		assertEquals(SHARD_COUNT, getOwnShards(survivor).size());
+		assertTrue(survivor.isCoordinator());
+		assertEquals("b", leaseStore.getActiveHolders().get("shard:0"));
+	}
+
+	@Test
+	public void handsOffToCoordinator() {
+		ShardCoordinator coordinator = createCoordinator("a", LEASE_MINUTES);
+		coordinator.acquireShards();
+		ShardCoordinator worker = createCoordinator("b", LEASE_MINUTES);
+		worker.acquireShards();
+		assertTrue(coordinator.isCoordinator());
+		assertFalse(worker.isCoordinator());
+
+		AlbumSimplified release = new AlbumSimplified.Builder()
+			.setId("release")
+			.setName("release")
+			.build();
+		worker.handOff(Map.of("artist", List.of(release)));
+
+		Map<String, List<AlbumSimplified>> handedOff = coordinator.takeHandedOff();
+		assertEquals(Set.of("artist"), handedOff.keySet());
+		assertEquals("release", handedOff.get("artist").get(0).getId());
+		assertTrue(coordinator.takeHandedOff().isEmpty());
+	}
+
+	////////////////////////
+
+	private ShardCoordinator createCoordinator(String instanceId, int leaseMinutes) {
+		ShardCoordinator coordinator = new ShardCoordinator(leaseStore, mock(DiscoveryBotLogger.class));
+		ReflectionTestUtils.setField(coordinator, "shardingEnabled", true);
+		ReflectionTestUtils.setField(coordinator, "shardCount", SHARD_COUNT);
+		ReflectionTestUtils.setField(coordinator, "leaseMinutes", leaseMinutes);
+		ReflectionTestUtils.setField(coordinator, "instanceId", instanceId);
+		ReflectionTestUtils.invokeMethod(coordinator, "init");
+		return coordinator;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Set<Integer> getOwnShards(ShardCoordinator coordinator) {
+		return (Set<Integer>) ReflectionTestUtils.getField(coordinator, "ownShards");
+	}
+}
@@ -0,0 +1,31 @@
+package spotify.bot.cluster;
+
+import static org.mockito.Mockito.mock;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.rules.TemporaryFolder;
+
+import spotify.bot.config.database.TestDatabase;
+import spotify.bot.util.DiscoveryBotLogger;
+
+/**
+ * Runs the lease store contract against a temporary database
+ */
+public class SqliteLeaseStoreTests extends LeaseStoreTests {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private TestDatabase database;
+
+	@After
+	public void closeDatabase() {
+		database.close();
+	}
+
+	@Override
+	protected LeaseStore createLeaseStore() {
+		database = new TestDatabase(folder.getRoot());
+		return new SqliteLeaseStore(database.getDatabaseService(), mock(DiscoveryBotLogger.class));
+	}
+}
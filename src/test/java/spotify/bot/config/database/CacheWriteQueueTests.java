@@ -0,0 +1,148 @@
+package spotify.bot.config.database;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import spotify.api.SpotifyDependenciesSettings;
+import spotify.bot.util.DiscoveryBotLogger;
+
+/**
+ * Runs the write queue against a mocked {@link CacheStore}, with a flush interval
+ * long enough that nothing is flushed in the background during a test
+ */
+public class CacheWriteQueueTests {
+	private final static String JOURNAL_FILE_NAME = "database_write_queue.log";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private CacheStore cacheStore;
+	private CacheWriteQueue cacheWriteQueue;
+	private Path journalPath;
+
+	@Before
+	public void setup() {
+		SpotifyDependenciesSettings settings = mock(SpotifyDependenciesSettings.class);
+		when(settings.configFilesBase()).thenReturn(folder.getRoot());
+		journalPath = folder.getRoot().toPath().resolve(JOURNAL_FILE_NAME);
+
+		cacheStore = mock(CacheStore.class);
+		cacheWriteQueue = new CacheWriteQueue(cacheStore, mock(DiscoveryBotLogger.class), settings);
+		ReflectionTestUtils.setField(cacheWriteQueue, "writeBehindEnabled", true);
+		ReflectionTestUtils.setField(cacheWriteQueue, "flushIntervalMs", 60000L);
+		ReflectionTestUtils.setField(cacheWriteQueue, "batchSize", 1000);
+	}
+
+	@After
+	public void shutdown() {
+		cacheWriteQueue.drain();
+	}
+
+	@Test
+	public void replaysJournal() throws Exception {
+		Files.write(journalPath, List.of(
+			"{\"table\":\"cache_releases\",\"row\":[\"release1\",1700000000000,\"artist1\",\"single\",\"2023-11-14\"]}",
+			"{\"table\":\"cache_releases_names\",\"row\":[\"Artist - Release\"]}",
+			"{\"table\":\"cache_releases\",\"row\":[\"release2\",1700000000001,null,null,null]}"), StandardCharsets.UTF_8);
+		ReflectionTestUtils.setField(cacheWriteQueue, "writeBehindEnabled", false);
+
+		cacheWriteQueue.init();
+
+		verify(cacheStore).putAll(DBConstants.TABLE_CACHE_RELEASES, List.of(
+			List.of("release1", 1700000000000L, "artist1", "single", "2023-11-14"),
+			Arrays.asList("release2", 1700000000001L, null, null, null)));
+		verify(cacheStore).putAll(DBConstants.TABLE_CACHE_RELEASES_NAMES, List.of(List.of("Artist - Release")));
+		assertFalse(Files.exists(journalPath));
+	}
+
+	@Test
+	public void skipsTornFinalLine() throws Exception {
+		Files.write(journalPath, List.of(
+			"{\"table\":\"cache_releases\",\"row\":[\"release1\",1700000000000,null,null,null]}",
+			"{\"table\":\"cache_releases\",\"row\":[\"release2\",17"), StandardCharsets.UTF_8);
+
+		cacheWriteQueue.init();
+		assertEquals(Set.of("release1"), cacheWriteQueue.getPendingKeys(DBConstants.TABLE_CACHE_RELEASES));
+
+		cacheWriteQueue.flush();
+		verify(cacheStore).putAll(DBConstants.TABLE_CACHE_RELEASES, List.of(Arrays.asList("release1", 1700000000000L, null, null, null)));
+		assertEquals(0, Files.size(journalPath));
+	}
+
+	@Test
+	public void drainWritesPendingRows() throws Exception {
+		cacheWriteQueue.init();
+		List<List<Object>> rows = List.of(List.of("Artist - Release 1"), List.of("Artist - Release 2"));
+		cacheWriteQueue.enqueue(DBConstants.TABLE_CACHE_RELEASES_NAMES, rows);
+
+		verify(cacheStore, never()).putAll(any(), any());
+		assertEquals(Set.of("Artist - Release 1", "Artist - Release 2"), cacheWriteQueue.getPendingKeys(DBConstants.TABLE_CACHE_RELEASES_NAMES));
+		assertTrue(Files.size(journalPath) > 0);
+
+		cacheWriteQueue.drain();
+		verify(cacheStore).putAll(DBConstants.TABLE_CACHE_RELEASES_NAMES, rows);
+		assertTrue(cacheWriteQueue.getPendingKeys(DBConstants.TABLE_CACHE_RELEASES_NAMES).isEmpty());
+		assertEquals(0, Files.size(journalPath));
+	}
+
+	@Test
+	public void writesImmediatelyWhenSharded() throws Exception {
+		ReflectionTestUtils.setField(cacheWriteQueue, "shardingEnabled", true);
+		cacheWriteQueue.init();
+		List<List<Object>> rows = List.of(List.of("Artist - Release"));
+		cacheWriteQueue.enqueue(DBConstants.TABLE_CACHE_RELEASES_NAMES, rows);
+
+		verify(cacheStore).putAll(DBConstants.TABLE_CACHE_RELEASES_NAMES, rows);
+		assertFalse(Files.exists(journalPath));
+	}
+
+	@Test
+	public void coalescesRowsLikeTheDatabase() throws Exception {
+		cacheWriteQueue.init();
+		cacheWriteQueue.enqueue(DBConstants.TABLE_CACHE_RELEASES, List.of(
+			List.of("release1", 1700000000000L, "artist1", "album", "2023-11-14"),
+			List.of("release2", 1700000000000L, "artist1", "album", "2023-11-14"),
+			Arrays.asList("release3", 1700000000000L, null, null, null)));
+		cacheWriteQueue.enqueue(DBConstants.TABLE_CACHE_RELEASES, List.of(
+			List.of("release1", 1700000000001L, "artist1", "album", "2023-11-14"),
+			List.of("release2", 1700000000001L, "artist2", "album", "2023-11-14"),
+			List.of("release3", 1700000000001L, "artist2", "single", "2023-11-15")));
+
+		cacheWriteQueue.flush();
+		verify(cacheStore).putAll(DBConstants.TABLE_CACHE_RELEASES, List.of(
+			List.of("release1", 1700000000000L, "artist1", "album", "2023-11-14"),
+			Arrays.asList("release2", 1700000000000L, null, "album", "2023-11-14"),
+			List.of("release3", 1700000000000L, "artist2", "single", "2023-11-15")));
+	}
+
+	@Test
+	public void writesImmediatelyWhenJournalIsUnavailable() throws Exception {
+		Files.createDirectory(journalPath);
+		cacheWriteQueue.init();
+		List<List<Object>> rows = List.of(List.of("Artist - Release"));
+		cacheWriteQueue.enqueue(DBConstants.TABLE_CACHE_RELEASES_NAMES, rows);
+
+		verify(cacheStore).putAll(DBConstants.TABLE_CACHE_RELEASES_NAMES, rows);
+		assertTrue(cacheWriteQueue.getPendingKeys(DBConstants.TABLE_CACHE_RELEASES_NAMES).isEmpty());
+	}
+}
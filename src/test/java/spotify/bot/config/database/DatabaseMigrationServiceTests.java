@@ -0,0 +1,124 @@
+package spotify.bot.config.database;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import spotify.bot.util.DiscoveryBotLogger;
+
+/**
+ * Migrates a database file with the schema of the releases before any migration
+ * existed (<code>user_version</code> 0)
+ */
+public class DatabaseMigrationServiceTests {
+	private final static int LATEST_VERSION = 2;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Connection connection;
+	private DatabaseMigrationService databaseMigrationService;
+
+	@Before
+	public void setup() throws Exception {
+		String dbUrl = "jdbc:sqlite:" + folder.newFile("database.db").getAbsolutePath();
+		connection = DriverManager.getConnection(dbUrl);
+		try (Statement statement = connection.createStatement()) {
+			statement.execute("CREATE TABLE cache_releases (release_id STRING NOT NULL UNIQUE ON CONFLICT IGNORE PRIMARY KEY)");
+			statement.execute("CREATE TABLE cache_releases_names (release_name STRING UNIQUE ON CONFLICT IGNORE NOT NULL PRIMARY KEY)");
+			statement.execute("CREATE TABLE shard_handoff (release_id STRING NOT NULL, instance_id STRING NOT NULL, payload STRING NOT NULL, PRIMARY KEY (release_id, instance_id) ON CONFLICT REPLACE)");
+			statement.execute("INSERT INTO cache_releases (release_id) VALUES ('1a2b3c'), ('4d5e6f')");
+			statement.execute("INSERT INTO cache_releases_names (release_name) VALUES ('Artist - Release')");
+		}
+		databaseMigrationService = new DatabaseMigrationService(mock(DiscoveryBotLogger.class));
+	}
+
+	@After
+	public void closeConnection() throws SQLException {
+		connection.close();
+	}
+
+	@Test
+	public void upgradesBaselineSchema() throws SQLException {
+		databaseMigrationService.migrate(connection);
+
+		assertEquals(LATEST_VERSION, getSchemaVersion());
+		assertTrue(getColumns("cache_releases").containsAll(Set.of("release_id", "first_seen", "artist_id", "album_group", "release_date")));
+		assertTrue(getIndexes("cache_releases").containsAll(Set.of("idx_cache_releases_artist", "idx_cache_releases_first_seen")));
+		assertTrue(getColumns("shard_handoff").contains("artist_id"));
+
+		// The existing rows survive, without any metadata
+		Map<String, Long> releases = selectFirstSeen("cache_releases", "release_id");
+		assertEquals(Set.of("1a2b3c", "4d5e6f"), releases.keySet());
+		assertNull(releases.get("1a2b3c"));
+	}
+
+	@Test
+	public void rerunningIsNoOp() throws SQLException {
+		databaseMigrationService.migrate(connection);
+		Set<String> columns = getColumns("cache_releases");
+
+		// A second migration would fail on the duplicate columns
+		databaseMigrationService.migrate(connection);
+		assertEquals(LATEST_VERSION, getSchemaVersion());
+		assertEquals(columns, getColumns("cache_releases"));
+		assertTrue(connection.getAutoCommit());
+	}
+
+	////////////////////////
+
+	private int getSchemaVersion() throws SQLException {
+		try (Statement statement = connection.createStatement();
+			ResultSet resultSet = statement.executeQuery("PRAGMA user_version")) {
+			return resultSet.next() ? resultSet.getInt(1) : 0;
+		}
+	}
+
+	private Set<String> getColumns(String table) throws SQLException {
+		return selectNames("PRAGMA table_info(" + table + ")");
+	}
+
+	private Set<String> getIndexes(String table) throws SQLException {
+		return selectNames("PRAGMA index_list(" + table + ")");
+	}
+
+	private Set<String> selectNames(String pragma) throws SQLException {
+		Set<String> names = new HashSet<>();
+		try (Statement statement = connection.createStatement();
+			ResultSet resultSet = statement.executeQuery(pragma)) {
+			while (resultSet.next()) {
+				names.add(resultSet.getString("name"));
+			}
+		}
+		return names;
+	}
+
+	private Map<String, Long> selectFirstSeen(String table, String keyColumn) throws SQLException {
+		Map<String, Long> firstSeen = new HashMap<>();
+		try (Statement statement = connection.createStatement();
+			ResultSet resultSet = statement.executeQuery("SELECT " + keyColumn + ", first_seen FROM " + table)) {
+			while (resultSet.next()) {
+				Number value = (Number) resultSet.getObject("first_seen");
+				firstSeen.put(resultSet.getString(keyColumn), value != null ? value.longValue() : null);
+			}
+		}
+		return firstSeen;
+	}
+}
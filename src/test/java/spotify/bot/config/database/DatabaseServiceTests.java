@@ -0,0 +1,277 @@
+package spotify.bot.config.database;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import se.michaelthelin.spotify.enums.AlbumGroup;
+import se.michaelthelin.spotify.model_objects.specification.AlbumSimplified;
+import se.michaelthelin.spotify.model_objects.specification.ArtistSimplified;
+import spotify.api.SpotifyDependenciesSettings;
+import spotify.bot.util.DiscoveryBotLogger;
+
+/**
+ * Caches releases in a temporary database and runs the retention deletes
+ * against it
+ */
+public class DatabaseServiceTests {
+	private final static String INSERT_RELEASE_QUERY = "INSERT INTO cache_releases (release_id, release_date) VALUES (?, ?)";
+	private final static LocalDate HORIZON = LocalDate.of(2019, 1, 1);
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private TestDatabase testDatabase;
+	private DiscoveryDatabase database;
+	private SqliteCacheStore cacheStore;
+	private DatabaseService databaseService;
+
+	@Before
+	public void setup() {
+		testDatabase = new TestDatabase(folder.getRoot());
+		database = testDatabase.getDiscoveryDatabase();
+		cacheStore = new SqliteCacheStore(database);
+		databaseService = testDatabase.getDatabaseService();
+	}
+
+	@After
+	public void closeDatabase() {
+		testDatabase.close();
+	}
+
+	@Test
+	public void deletesOnlyReleasesBeforeHorizon() throws Exception {
+		database.executeAll(INSERT_RELEASE_QUERY, List.of(
+			Arrays.asList("old", "2010-05-01"),
+			Arrays.asList("oldYearOnly", "2015"),
+			Arrays.asList("dayBeforeHorizon", "2018-12-31"),
+			Arrays.asList("onHorizon", "2019-01-01"),
+			Arrays.asList("recent", "2023-06-15"),
+			Arrays.asList("withoutDate", null),
+			Arrays.asList("unknownDate", "unknown")));
+
+		assertEquals(3, databaseService.deleteReleasesReleasedBefore(HORIZON, 100));
+		assertEquals(Set.of("onHorizon", "recent", "withoutDate", "unknownDate"), getCachedReleaseIds());
+		assertEquals(0, databaseService.deleteReleasesReleasedBefore(HORIZON, 100));
+	}
+
+	@Test
+	public void deletesInBatchesOfLimit() throws Exception {
+		List<List<Object>> rows = new ArrayList<>();
+		for (int i = 0; i < 25; i++) {
+			rows.add(List.of("old" + i, "2010-01-01"));
+		}
+		rows.add(List.of("recent", "2023-06-15"));
+		database.executeAll(INSERT_RELEASE_QUERY, rows);
+
+		assertEquals(10, databaseService.deleteReleasesReleasedBefore(HORIZON, 10));
+		assertEquals(16, getCachedReleaseIds().size());
+		assertEquals(10, databaseService.deleteReleasesReleasedBefore(HORIZON, 10));
+		assertEquals(5, databaseService.deleteReleasesReleasedBefore(HORIZON, 10));
+		assertEquals(0, databaseService.deleteReleasesReleasedBefore(HORIZON, 10));
+		assertEquals(Set.of("recent"), getCachedReleaseIds());
+	}
+
+	@Test
+	public void vacuumFreesPagesIncrementally() throws Exception {
+		List<List<Object>> rows = new ArrayList<>();
+		for (int i = 0; i < 5000; i++) {
+			rows.add(List.of("old" + i, "2010-01-01"));
+		}
+		database.executeAll(INSERT_RELEASE_QUERY, rows);
+		databaseService.deleteReleasesReleasedBefore(HORIZON, rows.size());
+		int freePages = getPragma("freelist_count");
+		assertEquals(2, getPragma("auto_vacuum"));
+		assertTrue(freePages > 1);
+
+		databaseService.vacuum(1);
+		assertEquals(freePages - 1, getPragma("freelist_count"));
+		databaseService.vacuum(freePages);
+		assertEquals(0, getPragma("freelist_count"));
+	}
+
+	@Test
+	public void existingDatabaseIsConvertedToIncrementalVacuum() throws Exception {
+		File existingFolder = folder.newFolder();
+		try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + new File(existingFolder, "database.db").getAbsolutePath());
+			Statement statement = connection.createStatement()) {
+			statement.execute("CREATE TABLE cache_releases (release_id STRING NOT NULL UNIQUE ON CONFLICT IGNORE PRIMARY KEY)");
+			statement.execute("INSERT INTO cache_releases (release_id) VALUES ('1a2b3c')");
+		}
+
+		TestDatabase existingDatabase = new TestDatabase(existingFolder);
+		try {
+			assertEquals(2, getPragma(existingDatabase.getDiscoveryDatabase(), "auto_vacuum"));
+			assertEquals(List.of("1a2b3c"), existingDatabase.getDatabaseService().getReleasesIdsCache());
+		} finally {
+			existingDatabase.close();
+		}
+	}
+
+	@Test
+	public void keepsCollaborationsOfFollowedArtists() throws Exception {
+		database.executeAll("INSERT INTO cache_artists (artist_id) VALUES (?)", List.of(List.of("followed")));
+		AlbumSimplified ownRelease = album("ownRelease", "unfollowed");
+		AlbumSimplified collaboration = album("collaboration", "unfollowed", "followed");
+		AlbumSimplified sharedCollaboration = album("sharedCollaboration", "unfollowed", "followed");
+		Map<String, String> originArtistIds = Map.of("ownRelease", "unfollowed", "collaboration", "followed");
+
+		// The shared collaboration was found for multiple artists, so its origin is unknown
+		databaseService.cacheAlbumIds(List.of(ownRelease, collaboration, sharedCollaboration), a -> originArtistIds.get(a.getId()));
+
+		// Credited to an unfollowed artist first, but found for the followed one
+		assertEquals(1, databaseService.deleteReleasesOfUnfollowedArtists(100));
+		assertEquals(Set.of("collaboration", "sharedCollaboration"), getCachedReleaseIds());
+		assertEquals(0, databaseService.deleteReleasesOfUnfollowedArtists(100));
+	}
+
+	@Test
+	public void releasesFoundForAnotherArtistLoseTheirOrigin() throws Exception {
+		database.executeAll("INSERT INTO cache_artists (artist_id) VALUES (?)", List.of(List.of("newlyFollowed")));
+		database.executeAll(INSERT_RELEASE_QUERY, List.of(Arrays.asList("legacy", null)));
+		AlbumSimplified release = album("release", "unfollowed", "newlyFollowed");
+		AlbumSimplified legacy = album("legacy", "unfollowed");
+		databaseService.cacheAlbumIds(List.of(release), a -> "unfollowed");
+
+		// Found again for the same artist, the release keeps its origin
+		databaseService.cacheAlbumIds(List.of(release), a -> "unfollowed");
+		assertEquals("unfollowed", getOriginArtistIds().get("release"));
+
+		// Once a newly followed artist finds it as well, it's no longer removed with its first artist
+		databaseService.cacheAlbumIds(List.of(release, legacy), a -> a == release ? "newlyFollowed" : "unfollowed");
+		assertNull(getOriginArtistIds().get("release"));
+		assertEquals("unfollowed", getOriginArtistIds().get("legacy"));
+		databaseService.cacheAlbumIds(List.of(release), a -> "unfollowed");
+		assertNull(getOriginArtistIds().get("release"));
+
+		assertEquals(1, databaseService.deleteReleasesOfUnfollowedArtists(100));
+		assertEquals(Set.of("release"), getCachedReleaseIds());
+	}
+
+	@Test
+	public void pendingReleasesStayVisibleWhileFlushing() throws Exception {
+		SpotifyDependenciesSettings settings = mock(SpotifyDependenciesSettings.class);
+		when(settings.configFilesBase()).thenReturn(folder.getRoot());
+		DiscoveryBotLogger log = mock(DiscoveryBotLogger.class);
+		CacheWriteQueue writeQueue = new CacheWriteQueue(cacheStore, log, settings);
+		ReflectionTestUtils.setField(writeQueue, "writeBehindEnabled", true);
+		ReflectionTestUtils.setField(writeQueue, "flushIntervalMs", 1L);
+		ReflectionTestUtils.setField(writeQueue, "batchSize", 1000);
+		writeQueue.init();
+		DatabaseService writeBehindService = new DatabaseService(database, cacheStore, writeQueue, log);
+
+		AtomicInteger cachedCount = new AtomicInteger();
+		ExecutorService executorService = Executors.newFixedThreadPool(3);
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			futures.add(executorService.submit(() -> {
+				for (int i = 0; i < 300; i++) {
+					writeBehindService.cacheAlbumIds(List.of(album("release" + i, "artist")), a -> "artist");
+					cachedCount.set(i + 1);
+				}
+				return null;
+			}));
+			for (int reader = 0; reader < 2; reader++) {
+				futures.add(executorService.submit(() -> {
+					while (cachedCount.get() < 300) {
+						int expectedCount = cachedCount.get();
+						List<String> expected = new ArrayList<>();
+						for (int i = 0; i < expectedCount; i++) {
+							expected.add("release" + i);
+						}
+						assertTrue(writeBehindService.getReleasesIdsCache().containsAll(expected));
+						assertEquals(expectedCount, writeBehindService.getCachedReleaseIds(expected).size());
+					}
+					return null;
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get(60, TimeUnit.SECONDS);
+			}
+		} finally {
+			executorService.shutdownNow();
+			writeQueue.drain();
+		}
+
+		assertEquals(300, getCachedReleaseIds().size());
+	}
+
+	@Test
+	public void fillsInMissingValuesOfCachedReleases() throws Exception {
+		database.executeAll(INSERT_RELEASE_QUERY, List.of(Arrays.asList("cached", "2010-05-01")));
+		cacheStore.putAll(DBConstants.TABLE_CACHE_RELEASES, List.of(
+			Arrays.asList("cached", 1000L, "artist", "ALBUM", "2023-06-15"),
+			Arrays.asList("new", 2000L, "artist", "SINGLE", "2023-06-15")));
+
+		// Found again by another artist, the release loses its origin, but keeps everything else
+		cacheStore.putAll(DBConstants.TABLE_CACHE_RELEASES, List.of(Arrays.asList("new", 3000L, "otherArtist", "ALBUM", null)));
+
+		List<String> cachedRows = new ArrayList<>();
+		database.select("SELECT * FROM " + DBConstants.TABLE_CACHE_RELEASES + " ORDER BY release_id", List.of(), rs -> cachedRows.add(
+			String.join(",", rs.getString("release_id"), rs.getString("first_seen"), rs.getString("artist_id"), rs.getString("album_group"), rs.getString("release_date"))));
+		assertEquals(List.of("cached,1000,artist,ALBUM,2010-05-01", "new,2000,null,SINGLE,2023-06-15"), cachedRows);
+	}
+
+	////////////////////////
+
+	private static AlbumSimplified album(String releaseId, String... artistIds) {
+		ArtistSimplified[] artists = Arrays.stream(artistIds)
+			.map(artistId -> new ArtistSimplified.Builder().setId(artistId).build())
+			.toArray(ArtistSimplified[]::new);
+		return new AlbumSimplified.Builder()
+			.setId(releaseId)
+			.setArtists(artists)
+			.setAlbumGroup(AlbumGroup.ALBUM)
+			.setReleaseDate("2023-06-15")
+			.build();
+	}
+
+	private Set<String> getCachedReleaseIds() throws Exception {
+		Set<String> releaseIds = new HashSet<>();
+		database.selectAll(DBConstants.TABLE_CACHE_RELEASES, rs -> releaseIds.add(rs.getString(DBConstants.COL_RELEASE_ID)));
+		return releaseIds;
+	}
+
+	private int getPragma(String pragma) throws Exception {
+		return getPragma(database, pragma);
+	}
+
+	private static int getPragma(DiscoveryDatabase database, String pragma) throws Exception {
+		List<Integer> values = new ArrayList<>();
+		database.select("PRAGMA " + pragma, List.of(), rs -> values.add(rs.getInt(1)));
+		return values.get(0);
+	}
+
+	private Map<String, String> getOriginArtistIds() throws Exception {
+		Map<String, String> originArtistIds = new HashMap<>();
+		database.selectAll(DBConstants.TABLE_CACHE_RELEASES, rs -> originArtistIds.put(rs.getString(DBConstants.COL_RELEASE_ID), rs.getString(DBConstants.COL_ARTIST_ID)));
+		return originArtistIds;
+	}
+}
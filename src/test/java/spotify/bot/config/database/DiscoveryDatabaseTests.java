@@ -0,0 +1,162 @@
+package spotify.bot.config.database;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Writes through the batched statements of a temporary database and reads
+ * through its pool of read connections
+ */
+public class DiscoveryDatabaseTests {
+	private final static String INSERT_RELEASE_NAME_QUERY = "INSERT INTO cache_releases_names (release_name) VALUES (?)";
+	private final static List<String> METADATA_COLUMNS = List.of(DBConstants.COL_ARTIST_ID, DBConstants.COL_ARTIST_NAME, DBConstants.COL_GENRES, DBConstants.COL_REFRESHED_AT);
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private TestDatabase testDatabase;
+	private DiscoveryDatabase database;
+
+	@Before
+	public void setup() {
+		testDatabase = new TestDatabase(folder.getRoot());
+		database = testDatabase.getDiscoveryDatabase();
+	}
+
+	@After
+	public void closeDatabase() {
+		testDatabase.close();
+	}
+
+	@Test
+	public void insertsAndRemovesValuesWithQuotes() throws SQLException {
+		insertReleaseNames(List.of("It's Here", "Say \"Hi\"", "Plain", "It's Here"));
+		assertEquals(Set.of("It's Here", "Say \"Hi\"", "Plain"), readReleaseNames());
+
+		database.removeAll(List.of("It's Here", "Say \"Hi\""), DBConstants.TABLE_CACHE_RELEASES_NAMES, DBConstants.COL_RELEASE_NAME);
+		assertEquals(Set.of("Plain"), readReleaseNames());
+	}
+
+	@Test
+	public void upsertReplacesRowsWithSameKey() throws SQLException {
+		database.upsertAll(List.of(
+			List.of("artist1", "O'Brien", "", 1L),
+			List.of("artist2", "\"Weird\" Al", "polka", 1L)), DBConstants.TABLE_CACHE_ARTIST_METADATA, METADATA_COLUMNS);
+		database.upsertAll(List.of(
+			List.of("artist1", "O'Brien & Co.", "folk", 2L)), DBConstants.TABLE_CACHE_ARTIST_METADATA, METADATA_COLUMNS);
+
+		assertEquals(Map.of("artist1", "O'Brien & Co.", "artist2", "\"Weird\" Al"), readArtistNames());
+	}
+
+	@Test
+	public void failedBatchIsRolledBack() throws SQLException {
+		database.upsertAll(List.of(List.of("artist1", "Kept", "", 1L)), DBConstants.TABLE_CACHE_ARTIST_METADATA, METADATA_COLUMNS);
+		try {
+			database.upsertAll(List.of(
+				List.of("artist1", "Overwritten", "", 2L),
+				Arrays.asList("artist2", null, "", 2L)), DBConstants.TABLE_CACHE_ARTIST_METADATA, METADATA_COLUMNS);
+			fail("Expected the row without a name to be rejected");
+		} catch (SQLException e) {
+			// expected
+		}
+
+		assertEquals(Map.of("artist1", "Kept"), readArtistNames());
+		insertReleaseNames(List.of("Next"));
+		assertEquals(Set.of("Next"), readReleaseNames());
+	}
+
+	@Test
+	public void clearTableRemovesAllRows() throws SQLException {
+		insertReleaseNames(List.of("It's Here", "Plain"));
+		database.clearTable(DBConstants.TABLE_CACHE_RELEASES_NAMES);
+		assertTrue(readReleaseNames().isEmpty());
+	}
+
+	@Test
+	public void readsRunAlongsideWrites() throws Exception {
+		ExecutorService executorService = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			futures.add(executorService.submit(() -> {
+				for (int i = 0; i < 50; i++) {
+					insertReleaseNames(List.of("Release " + i));
+				}
+				return null;
+			}));
+			for (int reader = 0; reader < 3; reader++) {
+				futures.add(executorService.submit(() -> {
+					int lastSize = 0;
+					for (int i = 0; i < 50; i++) {
+						int size = readReleaseNames().size();
+						assertTrue(size >= lastSize);
+						lastSize = size;
+					}
+					return null;
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get(30, TimeUnit.SECONDS);
+			}
+		} finally {
+			executorService.shutdownNow();
+		}
+
+		assertEquals(50, readReleaseNames().size());
+	}
+
+	@Test
+	public void readsFailOnceClosed() throws SQLException {
+		insertReleaseNames(List.of("Plain"));
+		assertEquals(Set.of("Plain"), readReleaseNames());
+
+		testDatabase.close();
+		try {
+			readReleaseNames();
+			fail("Expected reads to be rejected after closing the database");
+		} catch (SQLException e) {
+			// expected
+		}
+	}
+
+	////////////////////////
+
+	private void insertReleaseNames(List<String> releaseNames) throws SQLException {
+		List<List<Object>> rows = new ArrayList<>();
+		releaseNames.forEach(releaseName -> rows.add(List.of(releaseName)));
+		database.executeAll(INSERT_RELEASE_NAME_QUERY, rows);
+	}
+
+	private Set<String> readReleaseNames() throws SQLException {
+		Set<String> releaseNames = new HashSet<>();
+		database.select("SELECT release_name FROM cache_releases_names", List.of(),
+			rs -> releaseNames.add(rs.getString(DBConstants.COL_RELEASE_NAME)));
+		return releaseNames;
+	}
+
+	private Map<String, String> readArtistNames() throws SQLException {
+		Map<String, String> artistNames = new HashMap<>();
+		database.select("SELECT artist_id, artist_name FROM cache_artist_metadata", List.of(),
+			rs -> artistNames.put(rs.getString(DBConstants.COL_ARTIST_ID), rs.getString(DBConstants.COL_ARTIST_NAME)));
+		return artistNames;
+	}
+}
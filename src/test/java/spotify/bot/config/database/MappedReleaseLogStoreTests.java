@@ -0,0 +1,130 @@
+package spotify.bot.config.database;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import spotify.api.SpotifyDependenciesSettings;
+import spotify.bot.filter.ReleaseIdSet;
+import spotify.bot.util.DiscoveryBotLogger;
+
+/**
+ * Opens the release log next to a temporary database
+ */
+public class MappedReleaseLogStoreTests {
+	private final static String INSERT_RELEASE_QUERY = "INSERT INTO cache_releases (release_id) VALUES (?)";
+	private final static String FIRST_RELEASE = ReleaseIdSet.encode(1L, 2L);
+	private final static String SECOND_RELEASE = ReleaseIdSet.encode(3L, 4L);
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private SpotifyDependenciesSettings settings;
+	private DiscoveryBotLogger log;
+	private TestDatabase testDatabase;
+	private DiscoveryDatabase database;
+	private List<MappedReleaseLogStore> openStores;
+
+	@Before
+	public void setup() throws Exception {
+		settings = mock(SpotifyDependenciesSettings.class);
+		when(settings.configFilesBase()).thenReturn(folder.getRoot());
+		log = mock(DiscoveryBotLogger.class);
+		testDatabase = new TestDatabase(folder.getRoot());
+		database = testDatabase.getDiscoveryDatabase();
+		database.executeAll(INSERT_RELEASE_QUERY, List.of(List.of(FIRST_RELEASE)));
+		openStores = new ArrayList<>();
+	}
+
+	@After
+	public void closeStores() throws Exception {
+		for (MappedReleaseLogStore store : openStores) {
+			store.close();
+		}
+		testDatabase.close();
+	}
+
+	@Test
+	public void importsUntilMarkedAsComplete() throws Exception {
+		MappedReleaseLogStore store = openStore();
+		assertEquals(Set.of(FIRST_RELEASE), store.findKeys(DBConstants.TABLE_CACHE_RELEASES, List.of(FIRST_RELEASE, SECOND_RELEASE)));
+		store.close();
+
+		// An import that got interrupted before it was marked as complete in the header
+		try (FileChannel channel = FileChannel.open(new File(folder.getRoot(), "releases.log").toPath(), StandardOpenOption.WRITE)) {
+			channel.write(ByteBuffer.allocate(8).putLong(0).flip(), 16);
+		}
+		database.executeAll(INSERT_RELEASE_QUERY, List.of(List.of(SECOND_RELEASE)));
+
+		store = openStore();
+		assertEquals(Set.of(FIRST_RELEASE, SECOND_RELEASE), store.findKeys(DBConstants.TABLE_CACHE_RELEASES, List.of(FIRST_RELEASE, SECOND_RELEASE)));
+		List<String> keys = new ArrayList<>();
+		store.forEachKey(DBConstants.TABLE_CACHE_RELEASES, keys::add);
+		assertEquals(List.of(FIRST_RELEASE, SECOND_RELEASE), keys);
+	}
+
+	@Test
+	public void skipsImportOnceMarkedAsComplete() throws Exception {
+		openStore().close();
+		database.executeAll(INSERT_RELEASE_QUERY, List.of(List.of(SECOND_RELEASE)));
+
+		MappedReleaseLogStore store = openStore();
+		assertEquals(Set.of(FIRST_RELEASE), store.findKeys(DBConstants.TABLE_CACHE_RELEASES, List.of(FIRST_RELEASE, SECOND_RELEASE)));
+	}
+
+	@Test
+	public void importsAgainIntoNewLog() throws Exception {
+		openStore().close();
+		Files.delete(new File(folder.getRoot(), "releases.log").toPath());
+		database.executeAll(INSERT_RELEASE_QUERY, List.of(List.of(SECOND_RELEASE)));
+
+		MappedReleaseLogStore store = openStore();
+		assertEquals(Set.of(FIRST_RELEASE, SECOND_RELEASE), store.findKeys(DBConstants.TABLE_CACHE_RELEASES, List.of(FIRST_RELEASE, SECOND_RELEASE)));
+	}
+
+	@Test(expected = SQLException.class)
+	public void refusesSecondStoreWhileLocked() throws Exception {
+		openStore();
+		openStore();
+	}
+
+	@Test
+	public void refusesShardedCrawls() {
+		MappedReleaseLogStore store = new MappedReleaseLogStore(database, log, settings);
+		ReflectionTestUtils.setField(store, "shardingEnabled", true);
+		try {
+			store.init();
+		} catch (SQLException e) {
+			assertFalse(new File(folder.getRoot(), "releases.log").exists());
+			return;
+		}
+		throw new AssertionError("The store was opened for a sharded crawl");
+	}
+
+	////////////////////////
+
+	private MappedReleaseLogStore openStore() throws SQLException {
+		MappedReleaseLogStore store = new MappedReleaseLogStore(database, log, settings);
+		store.init();
+		openStores.add(store);
+		return store;
+	}
+}
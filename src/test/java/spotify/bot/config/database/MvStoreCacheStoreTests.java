@@ -0,0 +1,152 @@
+package spotify.bot.config.database;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVStore;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import spotify.api.SpotifyDependenciesSettings;
+import spotify.bot.util.DiscoveryBotLogger;
+
+/**
+ * Opens an MVStore cache store next to a temporary database and compares it
+ * with the SQLite store
+ */
+public class MvStoreCacheStoreTests {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private TestDatabase testDatabase;
+	private SqliteCacheStore sqliteCacheStore;
+	private MvStoreCacheStore mvStoreCacheStore;
+
+	@Before
+	public void setup() {
+		testDatabase = new TestDatabase(folder.getRoot());
+		sqliteCacheStore = new SqliteCacheStore(testDatabase.getDiscoveryDatabase());
+	}
+
+	@After
+	public void closeStores() {
+		if (mvStoreCacheStore != null) {
+			mvStoreCacheStore.close();
+		}
+		testDatabase.close();
+	}
+
+	@Test
+	public void importsSqliteCachesOnFirstOpen() throws Exception {
+		sqliteCacheStore.putAll(DBConstants.TABLE_CACHE_RELEASES, List.of(
+			List.of("release1", 1000L, "artist1", "album", "2023-06-15"),
+			Arrays.asList("release2", 2000L, null, null, null)));
+		sqliteCacheStore.putAll(DBConstants.TABLE_CACHE_RELEASES_NAMES, List.of(List.of("Artist - Release")));
+		sqliteCacheStore.putAll(DBConstants.TABLE_CACHE_ARTISTS, List.of(List.of("artist1"), List.of("artist2")));
+
+		mvStoreCacheStore = openMvStoreCacheStore();
+
+		for (String table : DBConstants.CACHE_STORE_COLUMNS.keySet()) {
+			assertEquals(readSqlite(table), readMvStore(table));
+		}
+		assertEquals(Set.of("release1", "release2"), getKeys(DBConstants.TABLE_CACHE_RELEASES));
+		assertEquals(Set.of("release2"), mvStoreCacheStore.findKeys(DBConstants.TABLE_CACHE_RELEASES, List.of("release2", "release3")));
+	}
+
+	@Test
+	public void coalescesRowsLikeSqlite() throws Exception {
+		mvStoreCacheStore = openMvStoreCacheStore();
+		List<List<List<Object>>> writes = List.of(
+			List.of(
+				List.of("sameArtist", 1000L, "artist1", "album", "2023-06-15"),
+				List.of("otherArtist", 1000L, "artist1", "single", "2023-06-15"),
+				Arrays.asList("withoutMetadata", 1000L, null, null, null)),
+			List.of(
+				List.of("sameArtist", 2000L, "artist1", "single", "2023-06-16"),
+				List.of("otherArtist", 2000L, "artist2", "single", "2023-06-15"),
+				List.of("withoutMetadata", 2000L, "artist2", "compilation", "2023-06-17")),
+			List.of(
+				List.of("otherArtist", 3000L, "artist1", "single", "2023-06-15")));
+		for (List<List<Object>> rows : writes) {
+			sqliteCacheStore.putAll(DBConstants.TABLE_CACHE_RELEASES, rows);
+			mvStoreCacheStore.putAll(DBConstants.TABLE_CACHE_RELEASES, rows);
+		}
+
+		Map<String, List<Object>> expected = new HashMap<>();
+		expected.put("sameArtist", List.of("sameArtist", 1000L, "artist1", "album", "2023-06-15"));
+		expected.put("otherArtist", Arrays.asList("otherArtist", 1000L, null, "single", "2023-06-15"));
+		expected.put("withoutMetadata", List.of("withoutMetadata", 1000L, "artist2", "compilation", "2023-06-17"));
+		assertEquals(expected, readSqlite(DBConstants.TABLE_CACHE_RELEASES));
+		assertEquals(expected, readMvStore(DBConstants.TABLE_CACHE_RELEASES));
+	}
+
+	@Test
+	public void keepsContentsAcrossReopen() throws Exception {
+		mvStoreCacheStore = openMvStoreCacheStore();
+		mvStoreCacheStore.putAll(DBConstants.TABLE_CACHE_ARTISTS, List.of(List.of("artist1"), List.of("artist2")));
+		mvStoreCacheStore.removeAll(DBConstants.TABLE_CACHE_ARTISTS, List.of("artist2"));
+		mvStoreCacheStore.close();
+
+		// Rows that only exist in SQLite aren't imported a second time
+		sqliteCacheStore.putAll(DBConstants.TABLE_CACHE_ARTISTS, List.of(List.of("artist3")));
+		mvStoreCacheStore = openMvStoreCacheStore();
+		assertEquals(Set.of("artist1"), getKeys(DBConstants.TABLE_CACHE_ARTISTS));
+	}
+
+	////////////////////////
+
+	private MvStoreCacheStore openMvStoreCacheStore() throws Exception {
+		SpotifyDependenciesSettings settings = mock(SpotifyDependenciesSettings.class);
+		when(settings.configFilesBase()).thenReturn(folder.getRoot());
+		MvStoreCacheStore cacheStore = new MvStoreCacheStore(testDatabase.getDiscoveryDatabase(), mock(DiscoveryBotLogger.class), settings);
+		cacheStore.init();
+		return cacheStore;
+	}
+
+	private Set<String> getKeys(String table) throws Exception {
+		Set<String> keys = new HashSet<>();
+		mvStoreCacheStore.forEachKey(table, keys::add);
+		return keys;
+	}
+
+	private Map<String, List<Object>> readSqlite(String table) throws Exception {
+		List<String> columns = DBConstants.CACHE_STORE_COLUMNS.get(table);
+		Map<String, List<Object>> rows = new HashMap<>();
+		testDatabase.getDiscoveryDatabase().selectAll(table, rs -> {
+			List<Object> row = new ArrayList<>();
+			for (String column : columns) {
+				Object value = rs.getObject(column);
+				row.add(value instanceof Number ? (Object) ((Number) value).longValue() : value);
+			}
+			rows.put((String) row.get(0), row);
+		});
+		return rows;
+	}
+
+	private Map<String, List<Object>> readMvStore(String table) {
+		MVStore store = (MVStore) ReflectionTestUtils.getField(mvStoreCacheStore, "store");
+		MVMap<String, Object[]> map = store.openMap(table);
+		Map<String, List<Object>> rows = new HashMap<>();
+		map.forEach((key, values) -> {
+			List<Object> row = new ArrayList<>();
+			row.add(key);
+			row.addAll(Arrays.asList(values));
+			rows.put(key, row);
+		});
+		return rows;
+	}
+}
@@ -0,0 +1,211 @@
+package spotify.bot.config.database;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ReleaseLogTests {
+	private final static int LOG_HEADER_SIZE = 24;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Path logPath;
+	private Path indexPath;
+
+	@Before
+	public void setup() {
+		logPath = folder.getRoot().toPath().resolve("releases.log");
+		indexPath = folder.getRoot().toPath().resolve("releases.idx");
+	}
+
+	@Test
+	public void containsAppendedIdsOnly() throws IOException {
+		List<long[]> ids = randomIds(new Random(1L), 1000);
+		try (ReleaseLog releaseLog = new ReleaseLog(logPath, indexPath)) {
+			assertEquals(1000, releaseLog.appendAll(ids));
+			assertEquals(0, releaseLog.appendAll(ids.subList(0, 10)));
+			assertEquals(1000, releaseLog.size());
+			for (long[] id : ids) {
+				assertTrue(releaseLog.contains(id[0], id[1]));
+			}
+			for (long[] id : randomIds(new Random(2L), 1000)) {
+				assertFalse(releaseLog.contains(id[0], id[1]));
+			}
+		}
+	}
+
+	@Test
+	public void keepsIdsAcrossReopening() throws IOException {
+		List<long[]> ids = randomIds(new Random(3L), 200000);
+		try (ReleaseLog releaseLog = new ReleaseLog(logPath, indexPath)) {
+			releaseLog.appendAll(ids);
+		}
+		try (ReleaseLog releaseLog = new ReleaseLog(logPath, indexPath)) {
+			assertEquals(ids.size(), releaseLog.size());
+			for (long[] id : ids) {
+				assertTrue(releaseLog.contains(id[0], id[1]));
+			}
+			List<long[]> readIds = new ArrayList<>();
+			releaseLog.forEach((high, low) -> readIds.add(new long[] { high, low }));
+			assertEquals(ids.get(ids.size() - 1)[1], readIds.get(readIds.size() - 1)[1]);
+		}
+	}
+
+	@Test
+	public void ignoresUncommittedRecords() throws IOException {
+		List<long[]> ids = randomIds(new Random(4L), 10);
+		try (ReleaseLog releaseLog = new ReleaseLog(logPath, indexPath)) {
+			releaseLog.appendAll(ids);
+		}
+
+		// A crash after writing a record, but before updating the header
+		long[] tornId = randomIds(new Random(5L), 1).get(0);
+		try (FileChannel channel = FileChannel.open(logPath, StandardOpenOption.WRITE)) {
+			channel.write(ByteBuffer.allocate(16).putLong(tornId[0]).putLong(tornId[1]).flip(), LOG_HEADER_SIZE + 10 * 16);
+		}
+		try (ReleaseLog releaseLog = new ReleaseLog(logPath, indexPath)) {
+			assertEquals(10, releaseLog.size());
+			assertFalse(releaseLog.contains(tornId[0], tornId[1]));
+			assertEquals(1, releaseLog.appendAll(List.of(tornId)));
+			assertTrue(releaseLog.contains(tornId[0], tornId[1]));
+		}
+	}
+
+	@Test
+	public void rebuildsMissingIndex() throws IOException {
+		List<long[]> ids = randomIds(new Random(6L), 1000);
+		try (ReleaseLog releaseLog = new ReleaseLog(logPath, indexPath)) {
+			releaseLog.appendAll(ids);
+		}
+		Files.delete(indexPath);
+		try (ReleaseLog releaseLog = new ReleaseLog(logPath, indexPath)) {
+			for (long[] id : ids) {
+				assertTrue(releaseLog.contains(id[0], id[1]));
+			}
+		}
+	}
+
+	@Test
+	public void removesIds() throws IOException {
+		List<long[]> ids = randomIds(new Random(7L), 1000);
+		try (ReleaseLog releaseLog = new ReleaseLog(logPath, indexPath)) {
+			releaseLog.appendAll(ids);
+			assertEquals(500, releaseLog.removeAll(ids.subList(0, 500)));
+			assertEquals(500, releaseLog.size());
+			assertFalse(releaseLog.contains(ids.get(0)[0], ids.get(0)[1]));
+			assertTrue(releaseLog.contains(ids.get(999)[0], ids.get(999)[1]));
+		}
+		try (ReleaseLog releaseLog = new ReleaseLog(logPath, indexPath)) {
+			assertEquals(500, releaseLog.size());
+			assertFalse(releaseLog.contains(ids.get(0)[0], ids.get(0)[1]));
+			assertTrue(releaseLog.contains(ids.get(999)[0], ids.get(999)[1]));
+		}
+	}
+
+	@Test
+	public void recoversFromInterruptedRemoval() throws IOException {
+		List<long[]> ids = randomIds(new Random(8L), 10);
+		try (ReleaseLog releaseLog = new ReleaseLog(logPath, indexPath)) {
+			releaseLog.appendAll(ids);
+		}
+
+		// A crash while removing the first ID, after the index was invalidated and the second record was moved to the front
+		try (FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.WRITE)) {
+			channel.write(ByteBuffer.allocate(8).putLong(0).flip(), 0);
+		}
+		try (FileChannel channel = FileChannel.open(logPath, StandardOpenOption.WRITE)) {
+			channel.write(ByteBuffer.allocate(16).putLong(ids.get(1)[0]).putLong(ids.get(1)[1]).flip(), LOG_HEADER_SIZE);
+		}
+		try (ReleaseLog releaseLog = new ReleaseLog(logPath, indexPath)) {
+			assertFalse(releaseLog.contains(ids.get(0)[0], ids.get(0)[1]));
+			for (long[] id : ids.subList(1, 10)) {
+				assertTrue(releaseLog.contains(id[0], id[1]));
+			}
+
+			// The second copy goes away with the next removal
+			assertEquals(1, releaseLog.removeAll(ids.subList(1, 2)));
+			assertEquals(8, releaseLog.size());
+			assertFalse(releaseLog.contains(ids.get(1)[0], ids.get(1)[1]));
+			assertEquals(2, releaseLog.appendAll(ids.subList(0, 2)));
+		}
+	}
+
+	@Test
+	public void removalKeepsFilesInPlace() throws IOException {
+		List<long[]> ids = randomIds(new Random(9L), 200000);
+		try (ReleaseLog releaseLog = new ReleaseLog(logPath, indexPath)) {
+			releaseLog.appendAll(ids.subList(0, 1000));
+			Object logFileKey = Files.readAttributes(logPath, BasicFileAttributes.class).fileKey();
+			Object indexFileKey = Files.readAttributes(indexPath, BasicFileAttributes.class).fileKey();
+
+			// Grows the index, then shrinks the log
+			releaseLog.appendAll(ids);
+			assertEquals(100000, releaseLog.removeAll(ids.subList(0, 100000)));
+			assertEquals(100000, releaseLog.size());
+			assertEquals(logFileKey, Files.readAttributes(logPath, BasicFileAttributes.class).fileKey());
+			assertEquals(indexFileKey, Files.readAttributes(indexPath, BasicFileAttributes.class).fileKey());
+		}
+		try (ReleaseLog releaseLog = new ReleaseLog(logPath, indexPath)) {
+			assertEquals(100000, releaseLog.size());
+			assertFalse(releaseLog.contains(ids.get(0)[0], ids.get(0)[1]));
+			assertTrue(releaseLog.contains(ids.get(199999)[0], ids.get(199999)[1]));
+		}
+	}
+
+	@Test
+	public void keepsImportMarkAcrossReopening() throws IOException {
+		try (ReleaseLog releaseLog = new ReleaseLog(logPath, indexPath)) {
+			assertFalse(releaseLog.isImported());
+			releaseLog.appendAll(randomIds(new Random(10L), 10));
+			releaseLog.markImported();
+		}
+		try (ReleaseLog releaseLog = new ReleaseLog(logPath, indexPath)) {
+			assertTrue(releaseLog.isImported());
+			assertEquals(10, releaseLog.size());
+		}
+	}
+
+	@Test
+	public void growsLogWithoutRoomForRecords() throws IOException {
+		try (ReleaseLog releaseLog = new ReleaseLog(logPath, indexPath)) {
+			releaseLog.markImported();
+		}
+		try (FileChannel channel = FileChannel.open(logPath, StandardOpenOption.WRITE)) {
+			channel.truncate(LOG_HEADER_SIZE);
+		}
+
+		List<long[]> ids = randomIds(new Random(11L), 10);
+		try (ReleaseLog releaseLog = new ReleaseLog(logPath, indexPath)) {
+			assertEquals(10, releaseLog.appendAll(ids));
+			assertTrue(releaseLog.contains(ids.get(9)[0], ids.get(9)[1]));
+			assertTrue(releaseLog.isImported());
+		}
+	}
+
+	////////////////////////
+
+	private static List<long[]> randomIds(Random random, int count) {
+		List<long[]> ids = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			ids.add(new long[] { random.nextLong(), random.nextLong() });
+		}
+		return ids;
+	}
+}
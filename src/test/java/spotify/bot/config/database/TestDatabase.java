@@ -0,0 +1,42 @@
+package spotify.bot.config.database;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+
+import org.springframework.test.util.ReflectionTestUtils;
+
+import spotify.api.SpotifyDependenciesSettings;
+import spotify.bot.metrics.DatabaseMetrics;
+import spotify.bot.util.DiscoveryBotLogger;
+
+/**
+ * A real database in the given folder for the tests outside of this package
+ * (the write-behind queue writes straight through)
+ */
+public class TestDatabase {
+	private final DiscoveryDatabase database;
+	private final DatabaseService databaseService;
+
+	public TestDatabase(File folder) {
+		SpotifyDependenciesSettings settings = mock(SpotifyDependenciesSettings.class);
+		when(settings.configFilesBase()).thenReturn(folder);
+		DiscoveryBotLogger log = mock(DiscoveryBotLogger.class);
+		this.database = new DiscoveryDatabase(log, new DatabaseCreationService(new DatabaseMigrationService(log)), mock(DatabaseMetrics.class), settings, true, 2);
+		SqliteCacheStore cacheStore = new SqliteCacheStore(database);
+		this.databaseService = new DatabaseService(database, cacheStore, new CacheWriteQueue(cacheStore, log, settings), log);
+	}
+
+	public DiscoveryDatabase getDiscoveryDatabase() {
+		return database;
+	}
+
+	public DatabaseService getDatabaseService() {
+		return databaseService;
+	}
+
+	public void close() {
+		ReflectionTestUtils.invokeMethod(database, "closeConnection");
+	}
+}
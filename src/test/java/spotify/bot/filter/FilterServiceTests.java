@@ -0,0 +1,127 @@
+package spotify.bot.filter;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import se.michaelthelin.spotify.enums.AlbumGroup;
+import se.michaelthelin.spotify.model_objects.specification.AlbumSimplified;
+import spotify.bot.config.database.DatabaseService;
+import spotify.bot.config.properties.PlaylistStoreConfig;
+import spotify.bot.properties.BlacklistService;
+import spotify.bot.properties.FeatureControl;
+import spotify.bot.util.DiscoveryBotLogger;
+
+/**
+ * Compares the streaming candidate filter with the regular cache and
+ * future-date filters
+ */
+public class FilterServiceTests {
+	private DatabaseService databaseService;
+	private FilterService filterService;
+
+	@Before
+	public void setup() throws Exception {
+		databaseService = mock(DatabaseService.class);
+		Set<String> cachedReleaseIds = Set.of("cached1", "cached2");
+		when(databaseService.getCachedReleaseIds(any())).thenAnswer(invocation -> invocation.<Collection<String>>getArgument(0).stream()
+			.filter(cachedReleaseIds::contains)
+			.collect(Collectors.toSet()));
+		doAnswer(invocation -> {
+			cachedReleaseIds.forEach(invocation.<Consumer<String>>getArgument(0));
+			return null;
+		}).when(databaseService).forEachCachedReleaseId(any());
+		filterService = new FilterService(mock(DiscoveryBotLogger.class), databaseService, mock(PlaylistStoreConfig.class), mock(BlacklistService.class), mock(FeatureControl.class));
+	}
+
+	@Test
+	public void streamingFilterKeepsSameCandidates() throws Exception {
+		List<AlbumSimplified> artist1 = List.of(
+			album("new1", AlbumGroup.ALBUM, LocalDate.now()),
+			album("cached1", AlbumGroup.SINGLE, LocalDate.now().minusYears(1)),
+			album("future", AlbumGroup.SINGLE, LocalDate.now().plusDays(7)),
+			album("shared", AlbumGroup.APPEARS_ON, LocalDate.now()));
+		List<AlbumSimplified> artist2 = Arrays.asList(
+			album("shared", AlbumGroup.ALBUM, LocalDate.now()),
+			album("cached2", AlbumGroup.ALBUM, LocalDate.now().minusYears(2)),
+			null,
+			album("yearOnly", AlbumGroup.COMPILATION, null));
+
+		List<AlbumSimplified> allAlbums = new ArrayList<>();
+		allAlbums.addAll(artist1);
+		allAlbums.addAll(artist2);
+		List<AlbumSimplified> expected = filterService.filterFutureAlbums(filterService.getNonCachedAlbums(allAlbums));
+
+		UnaryOperator<List<AlbumSimplified>> candidateFilter = filterService.createStreamingCandidateFilter();
+		List<AlbumSimplified> candidates = new ArrayList<>();
+		candidates.addAll(candidateFilter.apply(artist1));
+		candidates.addAll(candidateFilter.apply(artist2));
+		List<AlbumSimplified> streamed = filterService.filterDuplicateAlbumIds(candidates);
+
+		assertEquals(List.of("new1", "shared", "yearOnly"), ids(expected));
+		assertEquals(ids(expected), ids(streamed));
+	}
+
+	@Test
+	public void duplicatesKeepSuperiorAlbumGroup() {
+		List<AlbumSimplified> albums = List.of(
+			album("shared", AlbumGroup.APPEARS_ON, LocalDate.now()),
+			album("shared", AlbumGroup.ALBUM, LocalDate.now()),
+			album("shared", AlbumGroup.COMPILATION, LocalDate.now()));
+
+		List<AlbumSimplified> filtered = filterService.filterDuplicateAlbumIds(albums);
+		assertEquals(1, filtered.size());
+		assertEquals(AlbumGroup.ALBUM, filtered.get(0).getAlbumGroup());
+	}
+
+	@Test
+	public void releaseIndexIsLoadedAtStartup() throws Exception {
+		ReflectionTestUtils.setField(filterService, "releaseIndexEnabled", true);
+		filterService.init();
+		verify(databaseService).forEachCachedReleaseId(any());
+
+		List<AlbumSimplified> albums = List.of(
+			album("new1", AlbumGroup.ALBUM, LocalDate.now()),
+			album("cached1", AlbumGroup.SINGLE, LocalDate.now()));
+		assertEquals(List.of("new1"), ids(filterService.getNonCachedAlbums(albums)));
+		verify(databaseService, never()).getCachedReleaseIds(any());
+		verify(databaseService).forEachCachedReleaseId(any());
+	}
+
+	////////////////////////
+
+	private static AlbumSimplified album(String id, AlbumGroup albumGroup, LocalDate releaseDate) {
+		return new AlbumSimplified.Builder()
+			.setId(id)
+			.setName(id)
+			.setAlbumGroup(albumGroup)
+			.setReleaseDate(releaseDate != null ? releaseDate.toString() : "2015")
+			.build();
+	}
+
+	private static List<String> ids(List<AlbumSimplified> albums) {
+		return albums.stream()
+			.map(AlbumSimplified::getId)
+			.sorted(Comparator.naturalOrder())
+			.collect(Collectors.toList());
+	}
+}
@@ -0,0 +1,96 @@
+package spotify.bot.filter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class ReleaseIdSetTests {
+	private final static String BASE62 = "0123456789abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ";
+
+	@Test
+	public void decodesRealSpotifyIds() {
+		assertNotNull(ReleaseIdSet.decode("5wMGdTWNzO3qqztd2MyKrr"));
+		assertNotNull(ReleaseIdSet.decode("4J0hkWvySY1xfL9oHyF3ql"));
+		assertNotNull(ReleaseIdSet.decode("0000000000000000000000"));
+	}
+
+	@Test
+	public void rejectsIdsBeyond128Bits() {
+		assertNull(ReleaseIdSet.decode("ZZZZZZZZZZZZZZZZZZZZZZ"));
+		assertNull(ReleaseIdSet.decode("tooShort"));
+		assertNull(ReleaseIdSet.decode("5wMGdTWNzO3qqztd2MyKr-"));
+	}
+
+	@Test
+	public void distinctIdsDecodeDistinctly() {
+		long[] a = ReleaseIdSet.decode("0000000000000000000001");
+		long[] b = ReleaseIdSet.decode("1000000000000000000000");
+		assertTrue(a[0] != b[0] || a[1] != b[1]);
+	}
+
+	@Test
+	public void encodesBackIntoTheSameIds() {
+		Random random = new Random(42L);
+		for (int i = 0; i < 10_000; i++) {
+			String id = randomId(random, '6');
+			long[] decoded = ReleaseIdSet.decode(id);
+			assertEquals(id, ReleaseIdSet.encode(decoded[0], decoded[1]));
+		}
+		assertEquals("0000000000000000000000", ReleaseIdSet.encode(0, 0));
+	}
+
+	@Test
+	public void behavesLikeHashSet() {
+		Random random = new Random(42L);
+		ReleaseIdSet releaseIdSet = new ReleaseIdSet();
+		Set<String> expected = new HashSet<>();
+		for (int i = 0; i < 50_000; i++) {
+			String id = randomId(random, i % 100 == 0 ? 'Z' : '7');
+			assertEquals(expected.add(id), releaseIdSet.add(id));
+		}
+		assertEquals(expected.size(), releaseIdSet.size());
+
+		for (String id : expected) {
+			assertTrue(releaseIdSet.contains(id));
+		}
+		for (int i = 0; i < 50_000; i++) {
+			String id = randomId(random, '7');
+			assertEquals(expected.contains(id), releaseIdSet.contains(id));
+		}
+	}
+
+	@Test
+	public void handlesZeroAndFallbackIds() {
+		ReleaseIdSet releaseIdSet = new ReleaseIdSet();
+		assertFalse(releaseIdSet.contains("0000000000000000000000"));
+		assertTrue(releaseIdSet.add("0000000000000000000000"));
+		assertFalse(releaseIdSet.add("0000000000000000000000"));
+		assertTrue(releaseIdSet.add("not-a-spotify-id"));
+		assertTrue(releaseIdSet.contains("0000000000000000000000"));
+		assertTrue(releaseIdSet.contains("not-a-spotify-id"));
+		assertEquals(2, releaseIdSet.size());
+	}
+
+	////////////////////////
+
+	/**
+	 * A random 22-character ID, whose first character is at most the given one
+	 * (IDs starting with 'Z' mostly exceed 128 bits)
+	 */
+	private static String randomId(Random random, char maxFirstChar) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(BASE62.charAt(random.nextInt(BASE62.indexOf(maxFirstChar) + 1)));
+		for (int i = 1; i < 22; i++) {
+			sb.append(BASE62.charAt(random.nextInt(BASE62.length())));
+		}
+		return sb.toString();
+	}
+}
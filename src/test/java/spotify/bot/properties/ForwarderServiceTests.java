@@ -0,0 +1,105 @@
+package spotify.bot.properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.sun.net.httpserver.HttpServer;
+
+import se.michaelthelin.spotify.enums.AlbumGroup;
+import se.michaelthelin.spotify.enums.AlbumType;
+import se.michaelthelin.spotify.enums.ReleaseDatePrecision;
+import se.michaelthelin.spotify.model_objects.specification.AlbumSimplified;
+import se.michaelthelin.spotify.model_objects.specification.ArtistSimplified;
+import se.michaelthelin.spotify.model_objects.specification.ExternalUrl;
+import spotify.bot.config.properties.PlaylistStoreConfig.PlaylistStore;
+import spotify.bot.util.DiscoveryBotJson;
+import spotify.bot.util.DiscoveryBotLogger;
+import spotify.bot.util.data.AlbumGroupExtended;
+import spotify.util.data.AlbumTrackPair;
+
+/**
+ * Forwards albums that went through the JSON round trip of a crawl checkpoint
+ * to a local HTTP server
+ */
+public class ForwarderServiceTests {
+	private final static String ALBUM_LINK = "https://open.spotify.com/album/5wMGdTWNzO3qqztd2MyKrr";
+
+	private HttpServer server;
+	private Queue<String> forwardedMessages;
+	private ForwarderService forwarderService;
+
+	@Before
+	public void setup() throws IOException {
+		forwardedMessages = new ConcurrentLinkedQueue<>();
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/forward", exchange -> {
+			forwardedMessages.add(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+			exchange.sendResponseHeaders(200, -1);
+			exchange.close();
+		});
+		server.start();
+
+		FeatureControl featureControl = mock(FeatureControl.class);
+		when(featureControl.isForwarderEnabled()).thenReturn(true);
+		forwarderService = new ForwarderService(mock(DiscoveryBotLogger.class), featureControl);
+		ReflectionTestUtils.setField(forwarderService, "forwarderUrl", "http://localhost:" + server.getAddress().getPort() + "/forward");
+		ReflectionTestUtils.setField(forwarderService, "forwarderWhitelistedTypes", new String[] {AlbumGroupExtended.SINGLE.name()});
+		ReflectionTestUtils.invokeMethod(forwarderService, "init");
+	}
+
+	@After
+	public void stopServer() {
+		server.stop(0);
+	}
+
+	@Test
+	public void restoredAlbumKeepsItsLinks() {
+		AlbumSimplified album = createAlbum();
+		AlbumSimplified restoredAlbum = DiscoveryBotJson.albumsFromJson(DiscoveryBotJson.albumsToJson(List.of(album))).get(0);
+
+		assertEquals(album.getId(), restoredAlbum.getId());
+		assertEquals(ALBUM_LINK, restoredAlbum.getExternalUrls().get("spotify"));
+		assertEquals(album.getHref(), restoredAlbum.getHref());
+		assertEquals(album.getUri(), restoredAlbum.getUri());
+	}
+
+	@Test
+	public void forwardsLinkOfRestoredAlbum() {
+		AlbumSimplified restoredAlbum = DiscoveryBotJson.albumsFromJson(DiscoveryBotJson.albumsToJson(List.of(createAlbum()))).get(0);
+		PlaylistStore playlistStore = new PlaylistStore(AlbumGroupExtended.SINGLE, "playlist");
+
+		forwarderService.forwardResults(Map.of(playlistStore, List.of(AlbumTrackPair.of(restoredAlbum, List.of()))));
+		assertEquals(List.of(ALBUM_LINK), List.copyOf(forwardedMessages));
+	}
+
+	////////////////////////
+
+	private static AlbumSimplified createAlbum() {
+		return new AlbumSimplified.Builder()
+			.setId("5wMGdTWNzO3qqztd2MyKrr")
+			.setName("Some Single")
+			.setAlbumGroup(AlbumGroup.SINGLE)
+			.setAlbumType(AlbumType.SINGLE)
+			.setReleaseDate("2026-10-16")
+			.setReleaseDatePrecision(ReleaseDatePrecision.DAY)
+			.setArtists(new ArtistSimplified.Builder().setId("4J0hkWvySY1xfL9oHyF3ql").setName("Some Artist").build())
+			.setExternalUrls(new ExternalUrl.Builder().setExternalUrls(Map.of("spotify", ALBUM_LINK)).build())
+			.setHref("https://api.spotify.com/v1/albums/5wMGdTWNzO3qqztd2MyKrr")
+			.setUri("spotify:album:5wMGdTWNzO3qqztd2MyKrr")
+			.build();
+	}
+}
@@ -0,0 +1,154 @@
+package spotify.bot.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import se.michaelthelin.spotify.enums.AlbumGroup;
+import spotify.bot.config.database.DatabaseService;
+import spotify.bot.filter.FilterService;
+import spotify.bot.properties.FeatureControl;
+import spotify.bot.service.AdaptiveCrawlScheduleService.Tier;
+import spotify.bot.util.DiscoveryBotLogger;
+import spotify.bot.util.data.ArtistWatermark;
+
+public class AdaptiveCrawlScheduleServiceTests {
+	private final static List<String> ARTISTS = List.of("hot", "unknown", "quiet", "warm", "cold");
+
+	private DatabaseService databaseService;
+	private AdaptiveCrawlScheduleService adaptiveCrawlScheduleService;
+
+	@Before
+	public void setup() throws Exception {
+		Map<String, Map<AlbumGroup, ArtistWatermark>> watermarks = new HashMap<>();
+		watermarks.put("hot", Map.of(
+			AlbumGroup.ALBUM, watermark("hot", AlbumGroup.ALBUM, LocalDate.now().minusDays(60)),
+			AlbumGroup.SINGLE, watermark("hot", AlbumGroup.SINGLE, LocalDate.now().minusDays(10))));
+		watermarks.put("quiet", Map.of(AlbumGroup.SINGLE, watermark("quiet", AlbumGroup.SINGLE, LocalDate.now().minusDays(100))));
+		watermarks.put("warm", Map.of(
+			AlbumGroup.ALBUM, watermark("warm", AlbumGroup.ALBUM, LocalDate.now().minusYears(2)),
+			AlbumGroup.SINGLE, watermark("warm", AlbumGroup.SINGLE, LocalDate.now().minusYears(1))));
+		watermarks.put("cold", Map.of(AlbumGroup.ALBUM, watermark("cold", AlbumGroup.ALBUM, LocalDate.now().minusYears(10))));
+		ArtistWatermarkService artistWatermarkService = mock(ArtistWatermarkService.class);
+		when(artistWatermarkService.getWatermarks()).thenReturn(watermarks);
+
+		databaseService = mock(DatabaseService.class);
+		when(databaseService.getArtistLastCrawled()).thenReturn(Map.of());
+		FilterService filterService = mock(FilterService.class);
+		when(filterService.parseReleaseDate(any())).thenAnswer(invocation -> LocalDate.parse(invocation.getArgument(0)));
+		FeatureControl featureControl = mock(FeatureControl.class);
+		when(featureControl.isCacheEnabled()).thenReturn(true);
+
+		adaptiveCrawlScheduleService = new AdaptiveCrawlScheduleService(artistWatermarkService, databaseService, filterService, featureControl, mock(DiscoveryBotLogger.class));
+		ReflectionTestUtils.setField(adaptiveCrawlScheduleService, "enabled", true);
+		ReflectionTestUtils.setField(adaptiveCrawlScheduleService, "hotDays", 90);
+		ReflectionTestUtils.setField(adaptiveCrawlScheduleService, "warmDays", 730);
+		ReflectionTestUtils.setField(adaptiveCrawlScheduleService, "warmIntervalHours", 6);
+		ReflectionTestUtils.setField(adaptiveCrawlScheduleService, "coldIntervalHours", 24);
+		ReflectionTestUtils.setField(adaptiveCrawlScheduleService, "store", "sqlite");
+		adaptiveCrawlScheduleService.init();
+	}
+
+	@Test
+	public void sortsArtistsIntoTiersByReleaseCadence() {
+		assertEquals(ARTISTS, adaptiveCrawlScheduleService.getArtistsDueForCrawl(ARTISTS));
+
+		Map<String, Tier> tiers = getTiers();
+		assertEquals(Tier.HOT, tiers.get("hot"));
+		assertEquals(Tier.HOT, tiers.get("unknown"));
+		assertEquals(Tier.WARM, tiers.get("quiet"));
+		assertEquals(Tier.WARM, tiers.get("warm"));
+		assertEquals(Tier.COLD, tiers.get("cold"));
+	}
+
+	@Test
+	public void warmAndColdArtistsWaitForTheirInterval() {
+		adaptiveCrawlScheduleService.getArtistsDueForCrawl(ARTISTS);
+		adaptiveCrawlScheduleService.markCrawled(ARTISTS);
+		assertEquals(List.of("hot", "unknown"), adaptiveCrawlScheduleService.getArtistsDueForCrawl(ARTISTS));
+
+		// Six hours later, the warm artists are due again, the cold one isn't
+		adaptiveCrawlScheduleService.markCrawled(List.of("warm", "quiet", "cold"));
+		moveLastCrawlBack(6);
+		assertEquals(List.of("hot", "unknown", "quiet", "warm"), adaptiveCrawlScheduleService.getArtistsDueForCrawl(ARTISTS));
+
+		moveLastCrawlBack(18);
+		assertEquals(ARTISTS, adaptiveCrawlScheduleService.getArtistsDueForCrawl(ARTISTS));
+	}
+
+	@Test
+	public void firstCrawlIsBackdatedWithinInterval() {
+		adaptiveCrawlScheduleService.getArtistsDueForCrawl(ARTISTS);
+		long before = System.currentTimeMillis();
+		adaptiveCrawlScheduleService.markCrawled(List.of("cold"));
+		long firstCrawl = getLastCrawled().get("cold");
+		assertTrue(firstCrawl <= System.currentTimeMillis());
+		assertTrue(firstCrawl > before - TimeUnit.HOURS.toMillis(24));
+
+		// Later crawls aren't backdated anymore
+		adaptiveCrawlScheduleService.markCrawled(List.of("cold"));
+		assertTrue(getLastCrawled().get("cold") >= before);
+	}
+
+	@Test
+	public void restoresLastCrawlFromDatabase() throws Exception {
+		long now = System.currentTimeMillis();
+		when(databaseService.getArtistLastCrawled()).thenReturn(Map.of(
+			"warm", now - TimeUnit.HOURS.toMillis(7),
+			"cold", now - TimeUnit.HOURS.toMillis(7)));
+
+		assertEquals(List.of("hot", "unknown", "quiet", "warm"), adaptiveCrawlScheduleService.getArtistsDueForCrawl(ARTISTS));
+	}
+
+	@Test
+	public void crawlsEveryArtistForOtherStores() throws Exception {
+		for (String store : List.of("mvstore", "mmap")) {
+			ReflectionTestUtils.setField(adaptiveCrawlScheduleService, "enabled", true);
+			ReflectionTestUtils.setField(adaptiveCrawlScheduleService, "store", store);
+			adaptiveCrawlScheduleService.init();
+			assertFalse((boolean) ReflectionTestUtils.getField(adaptiveCrawlScheduleService, "enabled"));
+
+			// The release dates in the database are stale, as the releases are cached elsewhere
+			adaptiveCrawlScheduleService.markCrawled(ARTISTS);
+			assertEquals(ARTISTS, adaptiveCrawlScheduleService.getArtistsDueForCrawl(ARTISTS));
+		}
+		verify(databaseService, never()).getRecentReleaseDates(anyInt());
+		verify(databaseService, never()).cacheArtistLastCrawled(any());
+	}
+
+	////////////////////////
+
+	private static ArtistWatermark watermark(String artistId, AlbumGroup albumGroup, LocalDate releaseDate) {
+		return new ArtistWatermark(artistId, albumGroup, artistId + "-" + albumGroup.getGroup(), releaseDate.toString(), 1);
+	}
+
+	@SuppressWarnings("unchecked")
+	private Map<String, Tier> getTiers() {
+		return (Map<String, Tier>) ReflectionTestUtils.getField(adaptiveCrawlScheduleService, "tiers");
+	}
+
+	@SuppressWarnings("unchecked")
+	private Map<String, Long> getLastCrawled() {
+		return (Map<String, Long>) ReflectionTestUtils.getField(adaptiveCrawlScheduleService, "lastCrawled");
+	}
+
+	private void moveLastCrawlBack(int hours) {
+		getLastCrawled().replaceAll((artistId, lastCrawl) -> lastCrawl - TimeUnit.HOURS.toMillis(hours));
+	}
+}
@@ -0,0 +1,119 @@
+package spotify.bot.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import se.michaelthelin.spotify.model_objects.specification.AlbumSimplified;
+import se.michaelthelin.spotify.model_objects.specification.TrackSimplified;
+import spotify.bot.config.database.DatabaseService;
+import spotify.bot.config.database.TestDatabase;
+import spotify.bot.properties.FeatureControl;
+import spotify.bot.util.DiscoveryBotLogger;
+import spotify.util.data.AlbumTrackPair;
+
+/**
+ * Caches album tracks in a temporary database
+ */
+public class AlbumTracksCacheServiceTests {
+	private final static Set<String> ALL_ALBUMS = Set.of("album1", "album2", "album3", "album4");
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private TestDatabase database;
+	private DatabaseService databaseService;
+	private AlbumTracksCacheService albumTracksCacheService;
+
+	@Before
+	public void setup() {
+		database = new TestDatabase(folder.getRoot());
+		databaseService = database.getDatabaseService();
+		FeatureControl featureControl = mock(FeatureControl.class);
+		when(featureControl.isCacheEnabled()).thenReturn(true);
+
+		albumTracksCacheService = new AlbumTracksCacheService(databaseService, featureControl, mock(DiscoveryBotLogger.class));
+		ReflectionTestUtils.setField(albumTracksCacheService, "albumTracksCacheEnabled", true);
+		ReflectionTestUtils.setField(albumTracksCacheService, "maxAgeDays", 30);
+		ReflectionTestUtils.setField(albumTracksCacheService, "maxEntries", 3);
+	}
+
+	@After
+	public void closeDatabase() {
+		database.close();
+	}
+
+	@Test
+	public void cachedTracksAreReturned() {
+		albumTracksCacheService.cacheTracks(List.of(albumTrackPair("album1", 3), albumTrackPair("album2", 1)));
+
+		List<TrackSimplified> tracks = albumTracksCacheService.getCachedTracks(ALL_ALBUMS).get("album1");
+		assertEquals(3, tracks.size());
+		assertEquals("album1-track2", tracks.get(1).getId());
+		assertEquals(Set.of("album1", "album2"), albumTracksCacheService.getCachedTracks(ALL_ALBUMS).keySet());
+	}
+
+	@Test
+	public void oldestAlbumsAreEvictedBeyondMaxEntries() throws Exception {
+		for (String albumId : List.of("album1", "album2", "album3", "album4")) {
+			albumTracksCacheService.cacheTracks(List.of(albumTrackPair(albumId, 1)));
+			Thread.sleep(5);
+		}
+
+		assertEquals(Set.of("album2", "album3", "album4"), albumTracksCacheService.getCachedTracks(ALL_ALBUMS).keySet());
+	}
+
+	@Test
+	public void outdatedAlbumsAreEvictedBeforeExcessOnes() throws Exception {
+		ReflectionTestUtils.setField(albumTracksCacheService, "maxEntries", 10);
+		albumTracksCacheService.cacheTracks(List.of(albumTrackPair("album1", 1)));
+		Thread.sleep(5);
+		long cachedBefore = System.currentTimeMillis();
+		Thread.sleep(5);
+		for (String albumId : List.of("album2", "album3", "album4")) {
+			albumTracksCacheService.cacheTracks(List.of(albumTrackPair(albumId, 1)));
+			Thread.sleep(5);
+		}
+
+		databaseService.evictAlbumTracks(cachedBefore, 2);
+		assertEquals(Set.of("album3", "album4"), albumTracksCacheService.getCachedTracks(ALL_ALBUMS).keySet());
+	}
+
+	@Test
+	public void nothingIsCachedWhenDisabled() {
+		ReflectionTestUtils.setField(albumTracksCacheService, "albumTracksCacheEnabled", false);
+		albumTracksCacheService.cacheTracks(List.of(albumTrackPair("album1", 1)));
+
+		ReflectionTestUtils.setField(albumTracksCacheService, "albumTracksCacheEnabled", true);
+		assertTrue(albumTracksCacheService.getCachedTracks(ALL_ALBUMS).isEmpty());
+	}
+
+	////////////////////////
+
+	private static AlbumTrackPair albumTrackPair(String albumId, int trackCount) {
+		AlbumSimplified album = new AlbumSimplified.Builder()
+			.setId(albumId)
+			.setName(albumId)
+			.build();
+		TrackSimplified[] tracks = new TrackSimplified[trackCount];
+		for (int i = 0; i < trackCount; i++) {
+			tracks[i] = new TrackSimplified.Builder()
+				.setId(albumId + "-track" + (i + 1))
+				.setName(albumId + " - Track " + (i + 1))
+				.setTrackNumber(i + 1)
+				.build();
+		}
+		return AlbumTrackPair.of(album, List.of(tracks));
+	}
+}
@@ -0,0 +1,154 @@
+package spotify.bot.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import se.michaelthelin.spotify.enums.AlbumGroup;
+import se.michaelthelin.spotify.model_objects.specification.AlbumSimplified;
+import se.michaelthelin.spotify.model_objects.specification.Artist;
+import se.michaelthelin.spotify.model_objects.specification.ArtistSimplified;
+import spotify.bot.api.SpotifyRequestScheduler;
+import spotify.bot.config.database.TestDatabase;
+import spotify.bot.metrics.ApiCallMetrics;
+import spotify.bot.properties.FeatureControl;
+import spotify.bot.util.DiscoveryBotLogger;
+import spotify.fake.FakeSpotifyCatalog;
+import spotify.fake.FakeSpotifyServer;
+import spotify.services.AlbumService;
+import spotify.services.UserService;
+import spotify.util.SpotifyOptimizedExecutorService;
+import spotify.util.SpotifyUtils;
+
+/**
+ * Resolves the names of appears_on artists against a {@link FakeSpotifyServer},
+ * with the artist metadata kept in a temporary database
+ */
+public class ArtistMetadataServiceTests {
+	private final static String SEVERAL_ARTISTS_ROUTE = "GET /artists";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private TestDatabase database;
+	private FakeSpotifyServer server;
+	private FakeSpotifyCatalog catalog;
+	private ArtistMetadataService artistMetadataService;
+	private DiscoveryAlbumService discoveryAlbumService;
+
+	@Before
+	public void setup() throws Exception {
+		database = new TestDatabase(folder.getRoot());
+		catalog = new FakeSpotifyCatalog(2468L, 10, 3, 0.0);
+		server = new FakeSpotifyServer(catalog).start();
+
+		FeatureControl featureControl = mock(FeatureControl.class);
+		when(featureControl.isCacheEnabled()).thenReturn(true);
+		artistMetadataService = new ArtistMetadataService(database.getDatabaseService(), featureControl, mock(DiscoveryBotLogger.class));
+		ReflectionTestUtils.setField(artistMetadataService, "maxAgeDays", 30);
+
+		discoveryAlbumService = new DiscoveryAlbumService(server.createSpotifyApi(), mock(AlbumService.class), mock(UserService.class), mock(SpotifyOptimizedExecutorService.class),
+			createRequestScheduler(), mock(ArtistWatermarkService.class), mock(ArtistAlbumsEtagService.class), artistMetadataService, mock(DiscoveryBotLogger.class));
+	}
+
+	@After
+	public void tearDown() {
+		server.close();
+		database.close();
+	}
+
+	@Test
+	public void storedNamesExpireAfterMaxAge() {
+		artistMetadataService.storeArtists(List.of(artist(1), artist(2)));
+		assertEquals(Map.of(catalog.getArtistId(1), catalog.getArtistName(1)),
+			artistMetadataService.getArtistNames(Set.of(catalog.getArtistId(1), catalog.getArtistId(3))));
+
+		ReflectionTestUtils.setField(artistMetadataService, "maxAgeDays", -1);
+		assertTrue(artistMetadataService.getArtistNames(Set.of(catalog.getArtistId(1))).isEmpty());
+	}
+
+	@Test
+	public void viaArtistsAreFetchedOnceAndReadThroughAfterwards() throws Exception {
+		List<AlbumSimplified> albums = new ArrayList<>();
+		for (int i = 0; i < 60; i++) {
+			albums.add(appearsOn("collab" + i, i % 2 == 0 ? 1 : 2));
+		}
+
+		discoveryAlbumService.resolveViaAppearsOnArtistNames(albums);
+		assertEquals(1L, getRequestCount(SEVERAL_ARTISTS_ROUTE));
+		assertEquals("(" + catalog.getArtistName(1) + ")", SpotifyUtils.getLastArtistName(albums.get(0)));
+		assertEquals("(" + catalog.getArtistName(2) + ")", SpotifyUtils.getLastArtistName(albums.get(1)));
+
+		List<AlbumSimplified> nextAlbums = List.of(appearsOn("collab", 2));
+		discoveryAlbumService.resolveViaAppearsOnArtistNames(nextAlbums);
+		assertEquals(1L, getRequestCount(SEVERAL_ARTISTS_ROUTE));
+		assertEquals("(" + catalog.getArtistName(2) + ")", SpotifyUtils.getLastArtistName(nextAlbums.get(0)));
+	}
+
+	@Test
+	public void followedArtistsNeedNoRequest() throws Exception {
+		artistMetadataService.storeArtists(List.of(artist(3)));
+
+		List<AlbumSimplified> albums = List.of(appearsOn("collab", 3));
+		discoveryAlbumService.resolveViaAppearsOnArtistNames(albums);
+
+		assertEquals(0L, getRequestCount(SEVERAL_ARTISTS_ROUTE));
+		assertEquals("(" + catalog.getArtistName(3) + ")", SpotifyUtils.getLastArtistName(albums.get(0)));
+	}
+
+	////////////////////////
+
+	private static SpotifyRequestScheduler createRequestScheduler() throws Exception {
+		Constructor<SpotifyRequestScheduler> constructor = SpotifyRequestScheduler.class.getDeclaredConstructor(ApiCallMetrics.class, DiscoveryBotLogger.class);
+		constructor.setAccessible(true);
+		SpotifyRequestScheduler requestScheduler = constructor.newInstance(mock(ApiCallMetrics.class), mock(DiscoveryBotLogger.class));
+		ReflectionTestUtils.invokeMethod(requestScheduler, "init");
+		return requestScheduler;
+	}
+
+	private Artist artist(int artistIndex) {
+		return new Artist.Builder()
+			.setId(catalog.getArtistId(artistIndex))
+			.setName(catalog.getArtistName(artistIndex))
+			.setGenres("fake")
+			.build();
+	}
+
+	/**
+	 * An appears_on release of the first artist, with the ID of the given "via"
+	 * artist attached as the last artist name (just like the album service does)
+	 */
+	private AlbumSimplified appearsOn(String id, int viaArtistIndex) {
+		ArtistSimplified mainArtist = new ArtistSimplified.Builder()
+			.setId(catalog.getArtistId(0))
+			.setName(catalog.getArtistName(0))
+			.build();
+		ArtistSimplified viaArtist = new ArtistSimplified.Builder()
+			.setName(catalog.getArtistId(viaArtistIndex))
+			.build();
+		return new AlbumSimplified.Builder()
+			.setId(id)
+			.setName(id)
+			.setAlbumGroup(AlbumGroup.APPEARS_ON)
+			.setArtists(mainArtist, viaArtist)
+			.build();
+	}
+
+	private long getRequestCount(String route) {
+		return server.getRequestCounts().getOrDefault(route, 0L);
+	}
+}
@@ -0,0 +1,108 @@
+package spotify.bot.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.scheduling.config.ScheduledTaskRegistrar;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import spotify.bot.DiscoveryBotCrawler;
+import spotify.bot.config.database.DatabaseService;
+import spotify.bot.filter.FilterService;
+import spotify.bot.properties.FeatureControl;
+import spotify.bot.util.DiscoveryBotLogger;
+
+public class CacheRetentionServiceTests {
+	private final static LocalDate HORIZON = LocalDate.of(2019, 1, 1);
+	private final static int BATCH_SIZE = 10;
+	private final static int VACUUM_PAGES = 100;
+
+	private DatabaseService databaseService;
+	private FilterService filterService;
+	private DiscoveryBotCrawler crawler;
+	private FeatureControl featureControl;
+	private CacheRetentionService cacheRetentionService;
+
+	@Before
+	public void setup() {
+		databaseService = mock(DatabaseService.class);
+		filterService = mock(FilterService.class);
+		when(filterService.getRetentionHorizon()).thenReturn(HORIZON);
+		crawler = mock(DiscoveryBotCrawler.class);
+		when(crawler.tryRunExclusive(any())).thenAnswer(invocation -> {
+			invocation.<Runnable>getArgument(0).run();
+			return true;
+		});
+
+		featureControl = mock(FeatureControl.class);
+		when(featureControl.isCacheEnabled()).thenReturn(true);
+
+		cacheRetentionService = new CacheRetentionService(databaseService, filterService, crawler, featureControl, mock(DiscoveryBotLogger.class));
+		ReflectionTestUtils.setField(cacheRetentionService, "retentionEnabled", true);
+		ReflectionTestUtils.setField(cacheRetentionService, "retentionCron", "0 15 4 * * *");
+		ReflectionTestUtils.setField(cacheRetentionService, "batchSize", BATCH_SIZE);
+		ReflectionTestUtils.setField(cacheRetentionService, "vacuumPages", VACUUM_PAGES);
+		ReflectionTestUtils.setField(cacheRetentionService, "store", "sqlite");
+	}
+
+	@Test
+	public void deletesBatchesUntilOneIsIncomplete() throws Exception {
+		when(databaseService.deleteReleasesReleasedBefore(HORIZON, BATCH_SIZE)).thenReturn(BATCH_SIZE, BATCH_SIZE, 3);
+
+		cacheRetentionService.runRetention();
+
+		verify(databaseService, times(3)).deleteReleasesReleasedBefore(HORIZON, BATCH_SIZE);
+		verify(databaseService, never()).deleteReleasesOfUnfollowedArtists(anyInt());
+		verify(databaseService).analyze();
+		verify(databaseService).vacuum(VACUUM_PAGES);
+	}
+
+	@Test
+	public void keepsReleasesWithoutHorizon() throws Exception {
+		when(filterService.getRetentionHorizon()).thenReturn(null);
+		ReflectionTestUtils.setField(cacheRetentionService, "removeUnfollowedArtists", true);
+		when(databaseService.deleteReleasesOfUnfollowedArtists(BATCH_SIZE)).thenReturn(BATCH_SIZE, 0);
+
+		cacheRetentionService.runRetention();
+
+		verify(databaseService, never()).deleteReleasesReleasedBefore(any(), anyInt());
+		verify(databaseService, times(2)).deleteReleasesOfUnfollowedArtists(BATCH_SIZE);
+	}
+
+	@Test
+	public void skipsWhileCrawling() {
+		doReturn(false).when(crawler).tryRunExclusive(any());
+
+		cacheRetentionService.runRetention();
+
+		verifyNoInteractions(databaseService);
+	}
+
+	@Test
+	public void isScheduledForSqliteStoreOnly() {
+		ScheduledTaskRegistrar sqliteRegistrar = new ScheduledTaskRegistrar();
+		cacheRetentionService.configureTasks(sqliteRegistrar);
+		assertEquals(1, sqliteRegistrar.getCronTaskList().size());
+
+		for (String store : List.of("mvstore", "mmap")) {
+			ReflectionTestUtils.setField(cacheRetentionService, "store", store);
+			ScheduledTaskRegistrar registrar = new ScheduledTaskRegistrar();
+			cacheRetentionService.configureTasks(registrar);
+			assertTrue(registrar.getCronTaskList().isEmpty());
+		}
+	}
+}
@@ -0,0 +1,254 @@
+package spotify.bot.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.lang.reflect.Constructor;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.neovisionaries.i18n.CountryCode;
+
+import se.michaelthelin.spotify.enums.AlbumGroup;
+import se.michaelthelin.spotify.model_objects.specification.AlbumSimplified;
+import se.michaelthelin.spotify.model_objects.specification.Paging;
+import spotify.bot.api.SpotifyRequestScheduler;
+import spotify.bot.metrics.ApiCallMetrics;
+import spotify.bot.util.DiscoveryBotLogger;
+import spotify.bot.util.data.ArtistAlbumsPage;
+import spotify.bot.util.data.ArtistWatermark;
+import spotify.fake.FakeSpotifyCatalog;
+import spotify.fake.FakeSpotifyCatalog.FakeRelease;
+import spotify.fake.FakeSpotifyServer;
+import spotify.services.AlbumService;
+import spotify.services.UserService;
+import spotify.util.SpotifyOptimizedExecutorService;
+
+/**
+ * Crawls the release listings of a {@link FakeSpotifyCatalog} with everything
+ * but the album fetching itself mocked away. The watermarks and the pages for
+ * the conditional requests are kept in memory between the crawls.
+ */
+public class DiscoveryAlbumServiceTests {
+	private final static String ARTIST_ALBUMS_ROUTE = "GET /artists/{id}/albums";
+	private final static int ARTIST_COUNT = 20;
+	private final static int LOOKBACK_DAYS = 60;
+
+	private FakeSpotifyServer server;
+	private FakeSpotifyCatalog catalog;
+	private List<String> artistIds;
+
+	private ArtistWatermarkService artistWatermarkService;
+	private ArtistAlbumsEtagService artistAlbumsEtagService;
+	private DiscoveryAlbumService discoveryAlbumService;
+	private Map<String, Map<AlbumGroup, ArtistWatermark>> storedWatermarks;
+	private Map<String, ArtistAlbumsPage> storedPages;
+	private List<AlbumSimplified> lastResult;
+
+	@Before
+	public void setup() throws Exception {
+		catalog = new FakeSpotifyCatalog(4321L, ARTIST_COUNT, 150, 0.0);
+		server = new FakeSpotifyServer(catalog).start();
+		artistIds = new ArrayList<>();
+		for (int i = 0; i < ARTIST_COUNT; i++) {
+			artistIds.add(catalog.getArtistId(i));
+		}
+
+		UserService userService = mock(UserService.class);
+		when(userService.getMarketOfCurrentUser()).thenReturn(CountryCode.DE);
+		AlbumService albumService = mock(AlbumService.class);
+		when(albumService.createAlbumGroupString(any())).thenReturn("album,single,compilation,appears_on");
+
+		SpotifyRequestScheduler requestScheduler = createRequestScheduler();
+
+		storedWatermarks = new HashMap<>();
+		artistWatermarkService = mock(ArtistWatermarkService.class);
+		when(artistWatermarkService.startCrawl()).thenReturn(false, true);
+		when(artistWatermarkService.getWatermarks()).thenAnswer(invocation -> copyOf(storedWatermarks));
+		when(artistWatermarkService.isOlderThanLookback(any())).thenAnswer(invocation -> {
+			AlbumSimplified album = invocation.getArgument(0);
+			return LocalDate.parse(album.getReleaseDate()).isBefore(LocalDate.now().minusDays(LOOKBACK_DAYS));
+		});
+		doAnswer(invocation -> {
+			Collection<ArtistWatermark> newWatermarks = invocation.getArgument(1);
+			for (ArtistWatermark watermark : newWatermarks) {
+				storedWatermarks.computeIfAbsent(watermark.getArtistId(), a -> new HashMap<>()).put(watermark.getAlbumGroup(), watermark);
+			}
+			return null;
+		}).when(artistWatermarkService).updateWatermarks(any(), any());
+
+		storedPages = new HashMap<>();
+		artistAlbumsEtagService = mock(ArtistAlbumsEtagService.class);
+		when(artistAlbumsEtagService.startCrawl()).thenReturn(false);
+		when(artistAlbumsEtagService.getKnownPage(any(), any(), anyInt())).thenAnswer(invocation -> storedPages.get(
+			ArtistAlbumsPage.key(invocation.getArgument(0), invocation.<CountryCode>getArgument(1).getAlpha2(), invocation.getArgument(2))));
+		doAnswer(invocation -> {
+			String artistId = invocation.getArgument(0);
+			String market = invocation.<CountryCode>getArgument(1).getAlpha2();
+			Paging<AlbumSimplified> paging = invocation.getArgument(3);
+			ArtistAlbumsPage page = new ArtistAlbumsPage(artistId, market, paging.getOffset(), invocation.getArgument(2), paging.getTotal(), paging.getNext(), Arrays.asList(paging.getItems()));
+			storedPages.put(page.getKey(), page);
+			return null;
+		}).when(artistAlbumsEtagService).recordPage(any(), any(), any(), any());
+
+		discoveryAlbumService = new DiscoveryAlbumService(server.createSpotifyApi(), albumService, userService, mock(SpotifyOptimizedExecutorService.class),
+			requestScheduler, artistWatermarkService, artistAlbumsEtagService, mock(ArtistMetadataService.class), mock(DiscoveryBotLogger.class));
+	}
+
+	@After
+	public void stopServer() {
+		server.close();
+	}
+
+	@Test
+	public void knownArtistsAreSkipped() throws Exception {
+		long fullCrawlRequests = countAlbumRequests(() -> discoveryAlbumService.getAllAlbumsOfArtists(artistIds, false, true));
+		Set<String> fullCrawlReleaseIds = toIds(lastResult);
+		Map<String, Map<AlbumGroup, ArtistWatermark>> watermarksAfterFullCrawl = copyOf(storedWatermarks);
+		assertEquals(ARTIST_COUNT, watermarksAfterFullCrawl.size());
+
+		long incrementalCrawlRequests = countAlbumRequests(() -> discoveryAlbumService.getAllAlbumsOfArtists(artistIds, false, true));
+		assertTrue(incrementalCrawlRequests < fullCrawlRequests);
+		assertTrue(incrementalCrawlRequests >= ARTIST_COUNT);
+		assertTrue(fullCrawlReleaseIds.containsAll(toIds(lastResult)));
+		assertEquals(watermarksAfterFullCrawl, storedWatermarks);
+	}
+
+	@Test
+	public void newReleaseMovesWatermarkForward() throws Exception {
+		discoveryAlbumService.getAllAlbumsOfArtists(artistIds, false, true);
+		Map<String, Map<AlbumGroup, ArtistWatermark>> previousWatermarks = copyOf(storedWatermarks);
+		ArtistWatermark previousWatermark = storedWatermarks.get(artistIds.get(0)).get(AlbumGroup.SINGLE);
+
+		FakeRelease newRelease = catalog.addRelease(0, "single", LocalDate.now());
+		List<AlbumSimplified> albums = discoveryAlbumService.getAllAlbumsOfArtists(artistIds, false, true);
+		assertTrue(toIds(albums).contains(newRelease.getId()));
+
+		ArtistWatermark newWatermark = storedWatermarks.get(artistIds.get(0)).get(AlbumGroup.SINGLE);
+		assertEquals(newRelease.getId(), newWatermark.getReleaseId());
+		assertEquals(newRelease.getReleaseDate().toString(), newWatermark.getReleaseDate());
+		assertEquals(previousWatermark.getGroupSize() + 1, newWatermark.getGroupSize());
+
+		// The watermarks of all other artists stay where they were
+		for (String artistId : artistIds.subList(1, ARTIST_COUNT)) {
+			assertEquals(previousWatermarks.get(artistId), storedWatermarks.get(artistId));
+		}
+	}
+
+	@Test
+	public void unchangedPagesAreRestored() throws Exception {
+		when(artistWatermarkService.startCrawl()).thenReturn(false);
+		when(artistAlbumsEtagService.startCrawl()).thenReturn(true);
+
+		// 200: Nothing is known yet, so every page is delivered and stored
+		long firstCrawlRequests = countAlbumRequests(() -> discoveryAlbumService.getAllAlbumsOfArtists(artistIds, false, true));
+		assertFalse(lastResult.isEmpty());
+		assertFalse(storedPages.isEmpty());
+		Map<String, Map<AlbumGroup, ArtistWatermark>> watermarksAfterFirstCrawl = copyOf(storedWatermarks);
+
+		// 304: Nothing has changed, so every page is restored (and nothing is new)
+		long secondCrawlRequests = countAlbumRequests(() -> discoveryAlbumService.getAllAlbumsOfArtists(artistIds, false, true));
+		assertEquals(firstCrawlRequests, secondCrawlRequests);
+		assertTrue(lastResult.isEmpty());
+		assertEquals(watermarksAfterFirstCrawl, storedWatermarks);
+
+		// Only the listing of the artist with a new release is delivered again
+		FakeRelease newRelease = catalog.addRelease(0, "single", LocalDate.now());
+		countAlbumRequests(() -> discoveryAlbumService.getAllAlbumsOfArtists(artistIds, false, true));
+		Set<String> releaseIdsOfArtist = catalog.getReleasesOfArtist(0).stream()
+			.map(FakeRelease::getId)
+			.collect(Collectors.toSet());
+		assertTrue(toIds(lastResult).contains(newRelease.getId()));
+		assertTrue(releaseIdsOfArtist.containsAll(toIds(lastResult)));
+		assertEquals(newRelease.getId(), storedWatermarks.get(artistIds.get(0)).get(AlbumGroup.SINGLE).getReleaseId());
+	}
+
+	@Test
+	public void collaborationsKeepTheirOriginArtist() throws Exception {
+		FakeRelease collaboration = catalog.addCollaboration(0, 1, "album", LocalDate.now());
+		List<AlbumSimplified> albums = discoveryAlbumService.getAllAlbumsOfArtists(artistIds.subList(0, 1), false, true);
+		AlbumSimplified album = albums.stream()
+			.filter(a -> a.getId().equals(collaboration.getId()))
+			.findFirst()
+			.orElseThrow();
+
+		// Credited to the other artist first, but found for (and stored with) the followed one
+		assertEquals(artistIds.get(1), album.getArtists()[0].getId());
+		assertEquals(artistIds.get(0), discoveryAlbumService.getOriginArtistId(album));
+		assertEquals(List.of(album), discoveryAlbumService.groupByOriginArtist(List.of(album)).get(artistIds.get(0)));
+
+		discoveryAlbumService.clearOriginArtistIds();
+		assertNull(discoveryAlbumService.getOriginArtistId(album));
+	}
+
+	@Test
+	public void sharedReleasesHaveNoOrigin() throws Exception {
+		FakeRelease collaboration = catalog.addCollaboration(0, 1, "album", LocalDate.now());
+		List<AlbumSimplified> albums = discoveryAlbumService.getAllAlbumsOfArtists(artistIds.subList(0, 1), false, true);
+		AlbumSimplified album = albums.stream()
+			.filter(a -> a.getId().equals(collaboration.getId()))
+			.findFirst()
+			.orElseThrow();
+
+		// Found again for the other followed artist (e.g. by another shard)
+		discoveryAlbumService.recordOriginArtistId(artistIds.get(1), List.of(album));
+		assertNull(discoveryAlbumService.getOriginArtistId(album));
+		discoveryAlbumService.recordOriginArtistId(artistIds.get(1), List.of(album));
+		assertNull(discoveryAlbumService.getOriginArtistId(album));
+	}
+
+	////////////////////////
+
+	/**
+	 * The actual scheduler (unthrottled), so that the conditional requests are
+	 * sent just like in production
+	 */
+	private static SpotifyRequestScheduler createRequestScheduler() throws Exception {
+		Constructor<SpotifyRequestScheduler> constructor = SpotifyRequestScheduler.class.getDeclaredConstructor(ApiCallMetrics.class, DiscoveryBotLogger.class);
+		constructor.setAccessible(true);
+		SpotifyRequestScheduler requestScheduler = constructor.newInstance(mock(ApiCallMetrics.class), mock(DiscoveryBotLogger.class));
+		ReflectionTestUtils.invokeMethod(requestScheduler, "init");
+		return requestScheduler;
+	}
+
+	private long countAlbumRequests(Crawl crawl) throws Exception {
+		long before = server.getRequestCounts().getOrDefault(ARTIST_ALBUMS_ROUTE, 0L);
+		lastResult = crawl.run();
+		return server.getRequestCounts().getOrDefault(ARTIST_ALBUMS_ROUTE, 0L) - before;
+	}
+
+	private static Set<String> toIds(List<AlbumSimplified> albums) {
+		return albums.stream()
+			.map(AlbumSimplified::getId)
+			.collect(Collectors.toSet());
+	}
+
+	private static Map<String, Map<AlbumGroup, ArtistWatermark>> copyOf(Map<String, Map<AlbumGroup, ArtistWatermark>> watermarks) {
+		Map<String, Map<AlbumGroup, ArtistWatermark>> copy = new HashMap<>();
+		watermarks.forEach((artistId, watermarksOfArtist) -> copy.put(artistId, new HashMap<>(watermarksOfArtist)));
+		return copy;
+	}
+
+	private interface Crawl {
+		List<AlbumSimplified> run() throws Exception;
+	}
+}
@@ -0,0 +1,159 @@
+package spotify.bot.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.lang.reflect.Constructor;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import se.michaelthelin.spotify.model_objects.specification.AlbumSimplified;
+import se.michaelthelin.spotify.model_objects.specification.TrackSimplified;
+import spotify.bot.api.SpotifyRequestScheduler;
+import spotify.bot.metrics.ApiCallMetrics;
+import spotify.bot.util.DiscoveryBotLogger;
+import spotify.fake.FakeSpotifyCatalog;
+import spotify.fake.FakeSpotifyCatalog.FakeRelease;
+import spotify.fake.FakeSpotifyServer;
+import spotify.util.SpotifyOptimizedExecutorService;
+import spotify.util.data.AlbumTrackPair;
+
+/**
+ * Resolves the tracks of releases of a {@link FakeSpotifyCatalog}, with the
+ * batches executed one after another
+ */
+public class DiscoveryTrackServiceTests {
+	private final static String SEVERAL_ALBUMS_ROUTE = "GET /albums";
+	private final static String ALBUM_TRACKS_ROUTE = "GET /albums/{id}/tracks";
+
+	private FakeSpotifyServer server;
+	private FakeSpotifyCatalog catalog;
+	private DiscoveryTrackService discoveryTrackService;
+
+	@Before
+	public void setup() throws Exception {
+		catalog = new FakeSpotifyCatalog(5678L, 10, 5, 0.0);
+		server = new FakeSpotifyServer(catalog).start();
+
+		SpotifyOptimizedExecutorService executorService = mock(SpotifyOptimizedExecutorService.class);
+		when(executorService.executeAndWait(any())).thenAnswer(invocation -> {
+			List<Object> results = new ArrayList<>();
+			for (Callable<?> callable : invocation.<List<Callable<?>>>getArgument(0)) {
+				results.add(callable.call());
+			}
+			return results;
+		});
+
+		discoveryTrackService = new DiscoveryTrackService(server.createSpotifyApi(), executorService, createRequestScheduler(), mock(AlbumTracksCacheService.class));
+	}
+
+	@After
+	public void stopServer() {
+		server.close();
+	}
+
+	@Test
+	public void tracksAreResolvedInBatches() {
+		List<FakeRelease> releases = getReleases(45);
+
+		List<AlbumTrackPair> albumTrackPairs = discoveryTrackService.getTracksOfAlbums(toAlbums(releases));
+
+		assertTracksMatchCatalog(releases, albumTrackPairs);
+		assertEquals(3L, getRequestCount(SEVERAL_ALBUMS_ROUTE));
+		assertEquals(0L, getRequestCount(ALBUM_TRACKS_ROUTE));
+	}
+
+	@Test
+	public void truncatedAlbumsArePagedThrough() {
+		List<FakeRelease> releases = getReleases(5);
+		releases.add(2, catalog.addRelease(1, "compilation", LocalDate.now(), 120));
+
+		List<AlbumTrackPair> albumTrackPairs = discoveryTrackService.getTracksOfAlbums(toAlbums(releases));
+
+		assertTracksMatchCatalog(releases, albumTrackPairs);
+		assertEquals(1L, getRequestCount(SEVERAL_ALBUMS_ROUTE));
+
+		// 50 embedded tracks, followed by two pages starting at offset 50
+		assertEquals(2L, getRequestCount(ALBUM_TRACKS_ROUTE));
+	}
+
+	@Test
+	public void failedBatchFallsBackToSingleAlbums() {
+		List<FakeRelease> releases = getReleases(25);
+		releases.add(catalog.addRelease(3, "album", LocalDate.now(), 60));
+		server.setFailingRoute(SEVERAL_ALBUMS_ROUTE, 400);
+
+		List<AlbumTrackPair> albumTrackPairs = discoveryTrackService.getTracksOfAlbums(toAlbums(releases));
+
+		assertTracksMatchCatalog(releases, albumTrackPairs);
+		assertEquals(2L, getRequestCount(SEVERAL_ALBUMS_ROUTE));
+		assertEquals(releases.size() + 1L, getRequestCount(ALBUM_TRACKS_ROUTE));
+	}
+
+	////////////////////////
+
+	/**
+	 * The actual scheduler (unthrottled), so that the requests are sent just like
+	 * in production
+	 */
+	private static SpotifyRequestScheduler createRequestScheduler() throws Exception {
+		Constructor<SpotifyRequestScheduler> constructor = SpotifyRequestScheduler.class.getDeclaredConstructor(ApiCallMetrics.class, DiscoveryBotLogger.class);
+		constructor.setAccessible(true);
+		SpotifyRequestScheduler requestScheduler = constructor.newInstance(mock(ApiCallMetrics.class), mock(DiscoveryBotLogger.class));
+		ReflectionTestUtils.invokeMethod(requestScheduler, "init");
+		return requestScheduler;
+	}
+
+	private List<FakeRelease> getReleases(int count) {
+		List<FakeRelease> releases = new ArrayList<>();
+		for (int artistIndex = 0; releases.size() < count; artistIndex++) {
+			for (FakeRelease release : catalog.getReleasesOfArtist(artistIndex)) {
+				if (releases.size() < count) {
+					releases.add(release);
+				}
+			}
+		}
+		return releases;
+	}
+
+	private static List<AlbumSimplified> toAlbums(List<FakeRelease> releases) {
+		List<AlbumSimplified> albums = new ArrayList<>();
+		for (FakeRelease release : releases) {
+			albums.add(new AlbumSimplified.Builder()
+				.setId(release.getId())
+				.setName(release.getName())
+				.build());
+		}
+		return albums;
+	}
+
+	private static void assertTracksMatchCatalog(List<FakeRelease> releases, List<AlbumTrackPair> albumTrackPairs) {
+		assertEquals(releases.size(), albumTrackPairs.size());
+		for (int i = 0; i < releases.size(); i++) {
+			FakeRelease release = releases.get(i);
+			AlbumTrackPair albumTrackPair = albumTrackPairs.get(i);
+			assertNotNull(albumTrackPair);
+			assertEquals(release.getId(), albumTrackPair.getAlbum().getId());
+
+			List<TrackSimplified> tracks = albumTrackPair.getTracks();
+			assertEquals(release.getTrackCount(), tracks.size());
+			for (int trackNumber = 1; trackNumber <= tracks.size(); trackNumber++) {
+				assertEquals(release.getTrackId(trackNumber), tracks.get(trackNumber - 1).getId());
+			}
+		}
+	}
+
+	private long getRequestCount(String route) {
+		return server.getRequestCounts().getOrDefault(route, 0L);
+	}
+}
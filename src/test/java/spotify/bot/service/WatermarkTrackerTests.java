@@ -0,0 +1,129 @@
+package spotify.bot.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import se.michaelthelin.spotify.enums.AlbumGroup;
+import se.michaelthelin.spotify.model_objects.specification.AlbumSimplified;
+import se.michaelthelin.spotify.model_objects.specification.Paging;
+import spotify.bot.util.data.ArtistWatermark;
+
+/**
+ * Pages through synthetic release listings of a single artist (sorted by album
+ * group and release date, just like Spotify's) with pages of two releases each
+ */
+public class WatermarkTrackerTests {
+	private final static String ARTIST_ID = "artist";
+	private final static int PAGE_SIZE = 2;
+	private final static LocalDate OLD_RELEASE_DATE = LocalDate.of(2015, 1, 1);
+
+	@Test
+	public void fullPassCreatesWatermarks() {
+		List<AlbumSimplified> listing = listing(3, 2);
+		WatermarkTracker tracker = new WatermarkTracker(ARTIST_ID, Map.of(), true, album -> true);
+		pageThrough(tracker, listing);
+
+		assertEquals(List.of(
+			new ArtistWatermark(ARTIST_ID, AlbumGroup.ALBUM, "album0", OLD_RELEASE_DATE.toString(), 3),
+			new ArtistWatermark(ARTIST_ID, AlbumGroup.SINGLE, "single0", OLD_RELEASE_DATE.toString(), 2)), tracker.getWatermarks());
+	}
+
+	@Test
+	public void knownOldReleasesAreSkipped() {
+		List<AlbumSimplified> listing = listing(10, 2);
+		Map<AlbumGroup, ArtistWatermark> watermarks = createWatermarks(listing);
+		WatermarkTracker tracker = new WatermarkTracker(ARTIST_ID, watermarks, true, album -> true);
+
+		// Only the first page and the last album are fetched, the rest of the albums is skipped
+		List<Integer> offsets = pageThrough(tracker, listing);
+		assertEquals(List.of(0, 9, 11), offsets);
+		assertEquals(List.copyOf(watermarks.values()), tracker.getWatermarks());
+	}
+
+	@Test
+	public void recentReleasesAreNotSkipped() {
+		List<AlbumSimplified> listing = listing(10, 2);
+		WatermarkTracker tracker = new WatermarkTracker(ARTIST_ID, createWatermarks(listing), true, album -> false);
+		assertEquals(List.of(0, 2, 4, 6, 8, 10), pageThrough(tracker, listing));
+	}
+
+	@Test
+	public void skipIsRejectedWhenGroupHasShrunk() {
+		List<AlbumSimplified> listing = listing(10, 2);
+		Map<AlbumGroup, ArtistWatermark> watermarks = createWatermarks(listing);
+		listing.remove(5);
+		WatermarkTracker tracker = new WatermarkTracker(ARTIST_ID, watermarks, true, album -> true);
+
+		// The skip lands on the first single instead of the last album
+		tracker.accept(page(listing, 0));
+		assertEquals(9, tracker.nextOffset(PAGE_SIZE, listing.size()));
+		assertFalse(tracker.verify(page(listing, 9)));
+	}
+
+	////////////////////////
+
+	/**
+	 * Page through the given listing the same way the album fetch does and return
+	 * the offsets of all fetched pages
+	 */
+	private static List<Integer> pageThrough(WatermarkTracker tracker, List<AlbumSimplified> listing) {
+		List<Integer> offsets = new ArrayList<>();
+		Paging<AlbumSimplified> paging = null;
+		do {
+			int offset = paging == null ? 0 : tracker.nextOffset(paging.getOffset() + paging.getLimit(), paging.getTotal());
+			paging = page(listing, offset);
+			assertTrue(tracker.verify(paging));
+			tracker.accept(paging);
+			offsets.add(offset);
+		} while (paging.getNext() != null);
+		tracker.finish(paging.getOffset() + paging.getItems().length);
+		return offsets;
+	}
+
+	private static Map<AlbumGroup, ArtistWatermark> createWatermarks(List<AlbumSimplified> listing) {
+		WatermarkTracker tracker = new WatermarkTracker(ARTIST_ID, Map.of(), false, album -> true);
+		pageThrough(tracker, listing);
+		Map<AlbumGroup, ArtistWatermark> watermarks = new LinkedHashMap<>();
+		tracker.getWatermarks().forEach(watermark -> watermarks.put(watermark.getAlbumGroup(), watermark));
+		return watermarks;
+	}
+
+	private static List<AlbumSimplified> listing(int albumCount, int singleCount) {
+		List<AlbumSimplified> listing = new ArrayList<>();
+		for (int i = 0; i < albumCount; i++) {
+			listing.add(release("album" + i, AlbumGroup.ALBUM, OLD_RELEASE_DATE.minusDays(i)));
+		}
+		for (int i = 0; i < singleCount; i++) {
+			listing.add(release("single" + i, AlbumGroup.SINGLE, OLD_RELEASE_DATE.minusDays(i)));
+		}
+		return listing;
+	}
+
+	private static AlbumSimplified release(String id, AlbumGroup albumGroup, LocalDate releaseDate) {
+		return new AlbumSimplified.Builder()
+			.setId(id)
+			.setAlbumGroup(albumGroup)
+			.setReleaseDate(releaseDate.toString())
+			.build();
+	}
+
+	private static Paging<AlbumSimplified> page(List<AlbumSimplified> listing, int offset) {
+		int end = Math.min(listing.size(), offset + PAGE_SIZE);
+		return new Paging.Builder<AlbumSimplified>()
+			.setItems(listing.subList(offset, end).toArray(AlbumSimplified[]::new))
+			.setOffset(offset)
+			.setLimit(PAGE_SIZE)
+			.setTotal(listing.size())
+			.setNext(end < listing.size() ? "next" : null)
+			.build();
+	}
+}
@@ -0,0 +1,63 @@
+package spotify.fake;
+
+import java.io.IOException;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.annotation.Profile;
+
+import se.michaelthelin.spotify.SpotifyApi;
+
+/**
+ * Points the bot at a {@link FakeSpotifyServer} instead of the real Spotify Web
+ * API. Activate with the <code>fake-spotify</code> profile and shape the
+ * synthetic catalog and the server behavior with the
+ * <code>spotify.fake.*</code> properties.
+ */
+@TestConfiguration
+@Profile("fake-spotify")
+public class FakeSpotifyApiConfig {
+	@Value("${spotify.fake.seed:#{42}}")
+	private long seed;
+
+	@Value("${spotify.fake.artists:#{1000}}")
+	private int artistCount;
+
+	@Value("${spotify.fake.releases_per_artist:#{10}}")
+	private int releasesPerArtist;
+
+	@Value("${spotify.fake.new_release_ratio:#{0.05}}")
+	private double newReleaseRatio;
+
+	@Value("${spotify.fake.appears_on_per_artist:#{1}}")
+	private int appearsOnPerArtist;
+
+	@Value("${spotify.fake.latency_ms:#{0}}")
+	private int latencyMillis;
+
+	@Value("${spotify.fake.latency_jitter_ms:#{0}}")
+	private int latencyJitterMillis;
+
+	@Value("${spotify.fake.rate_limit_every:#{0}}")
+	private int rateLimitEveryNthRequest;
+
+	@Value("${spotify.fake.retry_after_seconds:#{1}}")
+	private int retryAfterSeconds;
+
+	@Bean(destroyMethod = "close")
+	FakeSpotifyServer fakeSpotifyServer() throws IOException {
+		FakeSpotifyCatalog catalog = new FakeSpotifyCatalog(seed, artistCount, releasesPerArtist, newReleaseRatio, appearsOnPerArtist);
+		return new FakeSpotifyServer(catalog)
+			.setLatency(latencyMillis, latencyJitterMillis)
+			.setRateLimit(rateLimitEveryNthRequest, retryAfterSeconds)
+			.start();
+	}
+
+	@Bean
+	@Primary
+	SpotifyApi fakeSpotifyApi(FakeSpotifyServer fakeSpotifyServer) {
+		return fakeSpotifyServer.createSpotifyApi();
+	}
+}
@@ -0,0 +1,301 @@
+package spotify.fake;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Synthetic, deterministic music catalog for the {@link FakeSpotifyServer}. Nothing
+ * is held in memory: the releases of an artist are generated on demand from the
+ * seed and the artist's index, so catalogs with tens of thousands of artists are
+ * no problem. Only releases added afterwards with
+ * {@link FakeSpotifyCatalog#addRelease} are kept in memory.<br/>
+ * <br/>
+ * All IDs are 22 characters long (just like real Spotify IDs) and encode
+ * everything needed to regenerate the object they refer to:
+ * <ul>
+ * <li>Artist: <code>ar</code> + artist index (20)</li>
+ * <li>Release: <code>al</code> (or <code>ap</code> for appears_on releases) + artist index (8) + release index (8) + <code>0000</code></li>
+ * <li>Track: <code>tl</code> (or <code>tp</code>) + artist index (8) + release index (8) + track number (4)</li>
+ * </ul>
+ */
+public class FakeSpotifyCatalog {
+	private final static String BASE62 = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz";
+	private final static List<String> GROUP_ORDER = List.of("album", "single", "compilation", "appears_on");
+	private final static int ADDED_RELEASE_INDEX_OFFSET = 100000;
+
+	private final long seed;
+	private final int artistCount;
+	private final int meanReleasesPerArtist;
+	private final double newReleaseRatio;
+	private final int meanAppearsOnPerArtist;
+	private final LocalDate today;
+	private final Map<Integer, List<FakeRelease>> addedReleases;
+
+	/**
+	 * Create a new synthetic catalog
+	 *
+	 * @param seed the seed (the same seed always results in the same catalog)
+	 * @param artistCount the number of artists (all of which are followed by the fake user)
+	 * @param meanReleasesPerArtist the average number of releases per artist
+	 * @param newReleaseRatio the ratio of artists whose newest release is from the past two weeks
+	 */
+	public FakeSpotifyCatalog(long seed, int artistCount, int meanReleasesPerArtist, double newReleaseRatio) {
+		this(seed, artistCount, meanReleasesPerArtist, newReleaseRatio, 1);
+	}
+
+	/**
+	 * Create a new synthetic catalog
+	 *
+	 * @param seed the seed (the same seed always results in the same catalog)
+	 * @param artistCount the number of artists (all of which are followed by the fake user)
+	 * @param meanReleasesPerArtist the average number of releases per artist
+	 * @param newReleaseRatio the ratio of artists whose newest release is from the past two weeks
+	 * @param meanAppearsOnPerArtist the average number of appears_on releases per artist
+	 */
+	public FakeSpotifyCatalog(long seed, int artistCount, int meanReleasesPerArtist, double newReleaseRatio, int meanAppearsOnPerArtist) {
+		this.seed = seed;
+		this.artistCount = artistCount;
+		this.meanReleasesPerArtist = Math.max(1, meanReleasesPerArtist);
+		this.newReleaseRatio = newReleaseRatio;
+		this.meanAppearsOnPerArtist = Math.max(0, meanAppearsOnPerArtist);
+		this.today = LocalDate.now();
+		this.addedReleases = new ConcurrentHashMap<>();
+	}
+
+	public int getArtistCount() {
+		return artistCount;
+	}
+
+	public String getArtistId(int artistIndex) {
+		return "ar" + toBase62(artistIndex, 20);
+	}
+
+	public String getArtistName(int artistIndex) {
+		return "Artist " + artistIndex;
+	}
+
+	/**
+	 * @return the index of the artist with the given ID, or -1 if it doesn't exist
+	 */
+	public int getArtistIndex(String artistId) {
+		if (artistId == null || artistId.length() != 22 || !artistId.startsWith("ar")) {
+			return -1;
+		}
+		long index = fromBase62(artistId.substring(2));
+		return index >= 0 && index < artistCount ? (int) index : -1;
+	}
+
+	/**
+	 * Generate all releases of the given artist, sorted like Spotify does it: by
+	 * album group first and by release date (descending) second
+	 */
+	public List<FakeRelease> getReleasesOfArtist(int artistIndex) {
+		Random random = new Random(seed ^ (artistIndex * 0x9E3779B97F4A7C15L));
+		List<FakeRelease> releases = new ArrayList<>();
+
+		int ownReleaseCount = 1 + random.nextInt(2 * meanReleasesPerArtist);
+		int daysAgo = random.nextDouble() < newReleaseRatio ? random.nextInt(14) : 30 + random.nextInt(1500);
+		for (int i = 0; i < ownReleaseCount; i++) {
+			int roll = random.nextInt(100);
+			String group = roll < 25 ? "album" : roll < 95 ? "single" : "compilation";
+			int trackCount = "single".equals(group) ? 1 + random.nextInt(3) : 8 + random.nextInt(12);
+			releases.add(new FakeRelease("al" + toBase62(artistIndex, 8) + toBase62(i, 8) + "0000",
+				getArtistName(artistIndex) + " - Release " + i, group, group, today.minusDays(daysAgo), artistIndex, -1, trackCount));
+			daysAgo += 20 + random.nextInt(200);
+		}
+
+		int appearsOnCount = artistCount > 1 ? random.nextInt(2 * meanAppearsOnPerArtist + 1) : 0;
+		for (int i = 0; i < appearsOnCount; i++) {
+			int mainArtistIndex = (artistIndex + 1 + random.nextInt(artistCount - 1)) % artistCount;
+			releases.add(new FakeRelease("ap" + toBase62(artistIndex, 8) + toBase62(i, 8) + "0000",
+				getArtistName(mainArtistIndex) + " - Collaboration " + i, "appears_on", "single", today.minusDays(random.nextInt(1000)), mainArtistIndex, artistIndex, 1 + random.nextInt(3)));
+		}
+
+		releases.addAll(addedReleases.getOrDefault(artistIndex, List.of()));
+
+		releases.sort(Comparator.comparing((FakeRelease r) -> GROUP_ORDER.indexOf(r.getAlbumGroup()))
+			.thenComparing(FakeRelease::getReleaseDate, Comparator.reverseOrder()));
+		return releases;
+	}
+
+	/**
+	 * Add a new release to the given artist, e.g. to simulate a release that came
+	 * out between two crawls
+	 *
+	 * @param artistIndex the index of the artist
+	 * @param albumGroup the album group ("album", "single", or "compilation")
+	 * @param releaseDate the release date
+	 * @return the new release
+	 */
+	public FakeRelease addRelease(int artistIndex, String albumGroup, LocalDate releaseDate) {
+		return addRelease(artistIndex, albumGroup, releaseDate, 1);
+	}
+
+	/**
+	 * Add a new release with the given number of tracks to the given artist
+	 *
+	 * @param artistIndex the index of the artist
+	 * @param albumGroup the album group ("album", "single", or "compilation")
+	 * @param releaseDate the release date
+	 * @param trackCount the number of tracks
+	 * @return the new release
+	 */
+	public FakeRelease addRelease(int artistIndex, String albumGroup, LocalDate releaseDate, int trackCount) {
+		List<FakeRelease> releasesOfArtist = addedReleases.computeIfAbsent(artistIndex, i -> new CopyOnWriteArrayList<>());
+		int releaseIndex = ADDED_RELEASE_INDEX_OFFSET + releasesOfArtist.size();
+		FakeRelease release = new FakeRelease("al" + toBase62(artistIndex, 8) + toBase62(releaseIndex, 8) + "0000",
+			getArtistName(artistIndex) + " - Release " + releaseIndex, albumGroup, albumGroup, releaseDate, artistIndex, -1, trackCount);
+		releasesOfArtist.add(release);
+		return release;
+	}
+
+	/**
+	 * Add a new collaboration to the given artist that is credited to another
+	 * artist first (e.g. "Main Artist, Artist" on the main artist's album), but
+	 * still listed under the artist's own album group
+	 *
+	 * @param artistIndex the index of the artist whose listing contains the release
+	 * @param mainArtistIndex the index of the artist credited first
+	 * @param albumGroup the album group ("album", "single", or "compilation")
+	 * @param releaseDate the release date
+	 * @return the new release
+	 */
+	public FakeRelease addCollaboration(int artistIndex, int mainArtistIndex, String albumGroup, LocalDate releaseDate) {
+		List<FakeRelease> releasesOfArtist = addedReleases.computeIfAbsent(artistIndex, i -> new CopyOnWriteArrayList<>());
+		int releaseIndex = ADDED_RELEASE_INDEX_OFFSET + releasesOfArtist.size();
+		FakeRelease release = new FakeRelease("al" + toBase62(artistIndex, 8) + toBase62(releaseIndex, 8) + "0000",
+			getArtistName(mainArtistIndex) + " - Collaboration " + releaseIndex, albumGroup, albumGroup, releaseDate, mainArtistIndex, artistIndex, 1);
+		releasesOfArtist.add(release);
+		return release;
+	}
+
+	/**
+	 * @return the release with the given ID, or null if it doesn't exist
+	 */
+	public FakeRelease getRelease(String releaseId) {
+		if (releaseId == null || releaseId.length() != 22 || !(releaseId.startsWith("al") || releaseId.startsWith("ap"))) {
+			return null;
+		}
+		long artistIndex = fromBase62(releaseId.substring(2, 10));
+		if (artistIndex < 0 || artistIndex >= artistCount) {
+			return null;
+		}
+		return getReleasesOfArtist((int) artistIndex).stream()
+			.filter(r -> r.getId().equals(releaseId))
+			.findFirst()
+			.orElse(null);
+	}
+
+	/**
+	 * @return the release the track with the given ID belongs to, or null if it doesn't exist
+	 */
+	public FakeRelease getReleaseOfTrack(String trackId) {
+		if (trackId == null || trackId.length() != 22 || !trackId.startsWith("t")) {
+			return null;
+		}
+		return getRelease("a" + trackId.substring(1, 18) + "0000");
+	}
+
+	/**
+	 * @return the number of the track with the given ID on its release
+	 */
+	public int getTrackNumber(String trackId) {
+		return (int) fromBase62(trackId.substring(18));
+	}
+
+	//////////////
+
+	private static String toBase62(long value, int length) {
+		char[] chars = new char[length];
+		for (int i = length - 1; i >= 0; i--) {
+			chars[i] = BASE62.charAt((int) (value % 62));
+			value /= 62;
+		}
+		return new String(chars);
+	}
+
+	private static long fromBase62(String string) {
+		long value = 0;
+		for (char c : string.toCharArray()) {
+			int digit = BASE62.indexOf(c);
+			if (digit < 0) {
+				return -1;
+			}
+			value = value * 62 + digit;
+		}
+		return value;
+	}
+
+	//////////////
+
+	/**
+	 * A single synthetic release
+	 */
+	public static class FakeRelease {
+		private final String id;
+		private final String name;
+		private final String albumGroup;
+		private final String albumType;
+		private final LocalDate releaseDate;
+		private final int mainArtistIndex;
+		private final int viaArtistIndex;
+		private final int trackCount;
+
+		private FakeRelease(String id, String name, String albumGroup, String albumType, LocalDate releaseDate, int mainArtistIndex, int viaArtistIndex, int trackCount) {
+			this.id = id;
+			this.name = name;
+			this.albumGroup = albumGroup;
+			this.albumType = albumType;
+			this.releaseDate = releaseDate;
+			this.mainArtistIndex = mainArtistIndex;
+			this.viaArtistIndex = viaArtistIndex;
+			this.trackCount = trackCount;
+		}
+
+		public String getId() {
+			return id;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public String getAlbumGroup() {
+			return albumGroup;
+		}
+
+		public String getAlbumType() {
+			return albumType;
+		}
+
+		public LocalDate getReleaseDate() {
+			return releaseDate;
+		}
+
+		public int getMainArtistIndex() {
+			return mainArtistIndex;
+		}
+
+		/**
+		 * @return the index of the featured artist through which this release was
+		 *         found (appears_on releases and collaborations only), otherwise -1
+		 */
+		public int getViaArtistIndex() {
+			return viaArtistIndex;
+		}
+
+		public int getTrackCount() {
+			return trackCount;
+		}
+
+		public String getTrackId(int trackNumber) {
+			return "t" + id.charAt(1) + id.substring(2, 18) + toBase62(trackNumber, 4);
+		}
+	}
+}
@@ -0,0 +1,778 @@
+package spotify.fake;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import se.michaelthelin.spotify.SpotifyApi;
+import spotify.fake.FakeSpotifyCatalog.FakeRelease;
+
+/**
+ * Offline stand-in for the parts of the Spotify Web API used by the bot, served
+ * from a {@link FakeSpotifyCatalog} over plain HTTP on localhost. Supported are:
+ * <ul>
+ * <li>GET /v1/me and /v1/me/following (every artist of the catalog is followed)</li>
+ * <li>GET /v1/me/player/currently-playing (never playing anything)</li>
+ * <li>GET /v1/artists/{id}/albums (with ETags, so If-None-Match is answered
+ * with 304 Not Modified if nothing has changed) and /v1/albums/{id}/tracks</li>
+ * <li>GET /v1/artists?ids=... and /v1/albums?ids=...</li>
+ * <li>GET/PUT /v1/playlists/{id}, GET/POST/DELETE /v1/playlists/{id}/tracks and
+ * POST /v1/users/{id}/playlists (playlists are kept in memory and created on first
+ * access)</li>
+ * </ul>
+ * Token requests (POST /api/token) are always granted, in case the
+ * authentication host is pointed at this server as well.<br/>
+ * <br/>
+ * Every response can be delayed by a configurable latency and every n-th request
+ * can be answered with a 429 Too Many Requests (including a Retry-After header),
+ * to see how the bot behaves under realistic conditions. Single routes can be
+ * made to fail entirely, to test the fallbacks of the bot.
+ */
+public class FakeSpotifyServer implements AutoCloseable {
+	private final static String API_PREFIX = "/v1";
+	private final static String TOKEN_PATH = "/api/token";
+	private final static String MARKET = "DE";
+	private final static String USER_ID = "fakeuser";
+	private final static int MAX_LIMIT = 50;
+	private final static int MAX_PLAYLIST_LIMIT = 100;
+
+	private final static Pattern ARTIST_ALBUMS = Pattern.compile("/artists/([^/]+)/albums");
+	private final static Pattern ALBUM_TRACKS = Pattern.compile("/albums/([^/]+)/tracks");
+	private final static Pattern PLAYLIST = Pattern.compile("/playlists/([^/]+)");
+	private final static Pattern PLAYLIST_TRACKS = Pattern.compile("/playlists/([^/]+)/tracks");
+	private final static Pattern USER_PLAYLISTS = Pattern.compile("/users/([^/]+)/playlists");
+
+	private final FakeSpotifyCatalog catalog;
+	private final HttpServer server;
+	private final ExecutorService executor;
+
+	private final Map<String, FakePlaylist> playlists;
+	private final Map<String, AtomicLong> requestCounts;
+	private final Map<String, Integer> failingRoutes;
+	private final AtomicLong requestCounter;
+	private final AtomicLong playlistCounter;
+
+	private volatile int latencyMillis;
+	private volatile int latencyJitterMillis;
+	private volatile int rateLimitEveryNthRequest;
+	private volatile int retryAfterSeconds;
+
+	/**
+	 * Create a new fake server for the given catalog on a random free port. The
+	 * server needs to be started with {@link FakeSpotifyServer#start}.
+	 *
+	 * @param catalog the catalog to serve
+	 */
+	public FakeSpotifyServer(FakeSpotifyCatalog catalog) throws IOException {
+		this.catalog = catalog;
+		this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		this.executor = Executors.newCachedThreadPool();
+		this.playlists = new ConcurrentHashMap<>();
+		this.requestCounts = new ConcurrentHashMap<>();
+		this.failingRoutes = new ConcurrentHashMap<>();
+		this.requestCounter = new AtomicLong();
+		this.playlistCounter = new AtomicLong();
+		this.retryAfterSeconds = 1;
+		server.createContext(API_PREFIX, this::handle);
+		server.createContext(TOKEN_PATH, this::handleToken);
+		server.setExecutor(executor);
+	}
+
+	public FakeSpotifyServer start() {
+		server.start();
+		return this;
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	public FakeSpotifyCatalog getCatalog() {
+		return catalog;
+	}
+
+	/**
+	 * Create a SpotifyApi instance that sends all its requests to this server
+	 */
+	public SpotifyApi createSpotifyApi() {
+		return new SpotifyApi.Builder()
+			.setScheme("http")
+			.setHost("localhost")
+			.setPort(getPort())
+			.setAccessToken("fake-access-token")
+			.setRefreshToken("fake-refresh-token")
+			.build();
+	}
+
+	/**
+	 * Delay every response by the given latency plus a random jitter
+	 *
+	 * @param latencyMillis the base latency in milliseconds
+	 * @param jitterMillis the maximum random jitter added on top in milliseconds
+	 */
+	public FakeSpotifyServer setLatency(int latencyMillis, int jitterMillis) {
+		this.latencyMillis = Math.max(0, latencyMillis);
+		this.latencyJitterMillis = Math.max(0, jitterMillis);
+		return this;
+	}
+
+	/**
+	 * Answer every n-th request with a 429 Too Many Requests
+	 *
+	 * @param everyNthRequest n (0 to disable)
+	 * @param retryAfterSeconds the value of the Retry-After header
+	 */
+	public FakeSpotifyServer setRateLimit(int everyNthRequest, int retryAfterSeconds) {
+		this.rateLimitEveryNthRequest = Math.max(0, everyNthRequest);
+		this.retryAfterSeconds = Math.max(0, retryAfterSeconds);
+		return this;
+	}
+
+	/**
+	 * Answer every request of the given route (e.g. "GET /albums") with the given
+	 * error status
+	 *
+	 * @param route the route, as used by {@link FakeSpotifyServer#getRequestCounts}
+	 * @param status the HTTP status (0 to let the route succeed again)
+	 */
+	public FakeSpotifyServer setFailingRoute(String route, int status) {
+		if (status > 0) {
+			failingRoutes.put(route, status);
+		} else {
+			failingRoutes.remove(route);
+		}
+		return this;
+	}
+
+	/**
+	 * Get the number of requests received so far, by route (e.g.
+	 * "GET /artists/{id}/albums"), including the rate-limited ones
+	 */
+	public Map<String, Long> getRequestCounts() {
+		Map<String, Long> counts = new TreeMap<>();
+		requestCounts.forEach((route, count) -> counts.put(route, count.get()));
+		return counts;
+	}
+
+	public long getTotalRequestCount() {
+		return requestCounter.get();
+	}
+
+	/**
+	 * Get the URIs of the tracks currently in the given playlist, newest first
+	 */
+	public List<String> getPlaylistTrackUris(String playlistId) {
+		FakePlaylist playlist = playlists.get(playlistId);
+		if (playlist == null) {
+			return List.of();
+		}
+		synchronized (playlist) {
+			List<String> uris = new ArrayList<>();
+			for (FakePlaylistEntry entry : playlist.entries) {
+				uris.add(entry.uri);
+			}
+			return uris;
+		}
+	}
+
+	////////////////////////
+	// DISPATCHING
+
+	private void handle(HttpExchange exchange) throws IOException {
+		try {
+			String method = exchange.getRequestMethod();
+			String path = exchange.getRequestURI().getPath().substring(API_PREFIX.length());
+			Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+
+			String route = method + " " + toRoute(path);
+			long requestNumber = requestCounter.incrementAndGet();
+			requestCounts.computeIfAbsent(route, r -> new AtomicLong()).incrementAndGet();
+			simulateLatency();
+
+			int rateLimit = rateLimitEveryNthRequest;
+			if (rateLimit > 0 && requestNumber % rateLimit == 0) {
+				exchange.getResponseHeaders().add("Retry-After", String.valueOf(retryAfterSeconds));
+				sendError(exchange, 429, "API rate limit exceeded");
+				return;
+			}
+
+			Integer failureStatus = failingRoutes.get(route);
+			if (failureStatus != null) {
+				sendError(exchange, failureStatus, "Injected failure");
+				return;
+			}
+
+			route(exchange, method, path, query);
+		} catch (RuntimeException e) {
+			sendError(exchange, 500, e.toString());
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private void handleToken(HttpExchange exchange) throws IOException {
+		try {
+			readBody(exchange);
+			JsonObject token = new JsonObject();
+			token.addProperty("access_token", "fake-access-token");
+			token.addProperty("token_type", "Bearer");
+			token.addProperty("expires_in", 3600);
+			token.addProperty("refresh_token", "fake-refresh-token");
+			token.addProperty("scope", "");
+			sendJson(exchange, 200, token);
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private void route(HttpExchange exchange, String method, String path, Map<String, String> query) throws IOException {
+		Matcher m;
+		if ("GET".equals(method)) {
+			if (path.equals("/me")) {
+				sendJson(exchange, 200, currentUser());
+			} else if (path.equals("/me/following")) {
+				sendJson(exchange, 200, followedArtists(query));
+			} else if (path.equals("/me/player/currently-playing")) {
+				sendEmpty(exchange, 204);
+			} else if (path.equals("/artists")) {
+				sendJson(exchange, 200, severalArtists(query));
+			} else if (path.equals("/albums")) {
+				sendJson(exchange, 200, severalAlbums(query));
+			} else if ((m = ARTIST_ALBUMS.matcher(path)).matches()) {
+				sendConditionalOrNotFound(exchange, artistAlbums(m.group(1), query, path));
+			} else if ((m = ALBUM_TRACKS.matcher(path)).matches()) {
+				sendOrNotFound(exchange, albumTracks(m.group(1), query, path));
+			} else if ((m = PLAYLIST_TRACKS.matcher(path)).matches()) {
+				sendJson(exchange, 200, playlistTracks(getOrCreatePlaylist(m.group(1)), query, path));
+			} else if ((m = PLAYLIST.matcher(path)).matches()) {
+				sendJson(exchange, 200, playlist(getOrCreatePlaylist(m.group(1)), path));
+			} else {
+				sendError(exchange, 404, "Unsupported endpoint: GET " + path);
+			}
+		} else if ("PUT".equals(method) && (m = PLAYLIST.matcher(path)).matches()) {
+			changePlaylistDetails(getOrCreatePlaylist(m.group(1)), readBody(exchange));
+			sendEmpty(exchange, 200);
+		} else if ("POST".equals(method) && (m = PLAYLIST_TRACKS.matcher(path)).matches()) {
+			sendJson(exchange, 201, addToPlaylist(getOrCreatePlaylist(m.group(1)), query, readBody(exchange)));
+		} else if ("DELETE".equals(method) && (m = PLAYLIST_TRACKS.matcher(path)).matches()) {
+			sendJson(exchange, 200, removeFromPlaylist(getOrCreatePlaylist(m.group(1)), readBody(exchange)));
+		} else if ("POST".equals(method) && (m = USER_PLAYLISTS.matcher(path)).matches()) {
+			sendJson(exchange, 201, createPlaylist(readBody(exchange)));
+		} else {
+			sendError(exchange, 404, "Unsupported endpoint: " + method + " " + path);
+		}
+	}
+
+	////////////////////////
+	// USER & ARTISTS
+
+	private JsonObject currentUser() {
+		JsonObject user = new JsonObject();
+		user.addProperty("id", USER_ID);
+		user.addProperty("display_name", "Fake User");
+		user.addProperty("country", MARKET);
+		user.addProperty("product", "premium");
+		user.addProperty("type", "user");
+		user.addProperty("uri", "spotify:user:" + USER_ID);
+		user.addProperty("href", href("/users/" + USER_ID));
+		user.add("external_urls", new JsonObject());
+		user.add("images", new JsonArray());
+		return user;
+	}
+
+	/**
+	 * The followed artists are paged by cursor, the cursor being the ID of the last
+	 * artist of the previous page
+	 */
+	private JsonObject followedArtists(Map<String, String> query) {
+		int limit = getLimit(query, MAX_LIMIT);
+		int start = query.containsKey("after") ? catalog.getArtistIndex(query.get("after")) + 1 : 0;
+		int end = Math.min(catalog.getArtistCount(), start + limit);
+
+		JsonArray items = new JsonArray();
+		for (int i = start; i < end; i++) {
+			items.add(artist(i));
+		}
+
+		JsonObject cursors = new JsonObject();
+		String after = end < catalog.getArtistCount() ? catalog.getArtistId(end - 1) : null;
+		cursors.addProperty("after", after);
+
+		JsonObject paging = new JsonObject();
+		paging.addProperty("href", href("/me/following?type=artist&limit=" + limit));
+		paging.add("items", items);
+		paging.addProperty("limit", limit);
+		paging.addProperty("next", after != null ? href("/me/following?type=artist&limit=" + limit + "&after=" + after) : null);
+		paging.add("cursors", cursors);
+		paging.addProperty("total", catalog.getArtistCount());
+
+		JsonObject result = new JsonObject();
+		result.add("artists", paging);
+		return result;
+	}
+
+	private JsonObject severalArtists(Map<String, String> query) {
+		JsonArray artists = new JsonArray();
+		for (String artistId : splitIds(query)) {
+			int artistIndex = catalog.getArtistIndex(artistId);
+			artists.add(artistIndex >= 0 ? artist(artistIndex) : null);
+		}
+		JsonObject result = new JsonObject();
+		result.add("artists", artists);
+		return result;
+	}
+
+	private JsonObject artistAlbums(String artistId, Map<String, String> query, String path) {
+		int artistIndex = catalog.getArtistIndex(artistId);
+		if (artistIndex < 0) {
+			return null;
+		}
+		List<JsonElement> albums = new ArrayList<>();
+		for (FakeRelease release : catalog.getReleasesOfArtist(artistIndex)) {
+			albums.add(albumSimplified(release));
+		}
+		return paging(albums, query, path, MAX_LIMIT);
+	}
+
+	////////////////////////
+	// ALBUMS & TRACKS
+
+	private JsonObject severalAlbums(Map<String, String> query) {
+		JsonArray albums = new JsonArray();
+		for (String albumId : splitIds(query)) {
+			FakeRelease release = catalog.getRelease(albumId);
+			if (release != null) {
+				JsonObject album = albumSimplified(release);
+				album.add("tracks", albumTracks(albumId, Map.of(), "/albums/" + albumId + "/tracks"));
+				album.add("genres", new JsonArray());
+				album.add("copyrights", new JsonArray());
+				album.add("external_ids", new JsonObject());
+				album.addProperty("label", "Fake Records");
+				album.addProperty("popularity", 0);
+				albums.add(album);
+			} else {
+				albums.add((JsonElement) null);
+			}
+		}
+		JsonObject result = new JsonObject();
+		result.add("albums", albums);
+		return result;
+	}
+
+	private JsonObject albumTracks(String albumId, Map<String, String> query, String path) {
+		FakeRelease release = catalog.getRelease(albumId);
+		if (release == null) {
+			return null;
+		}
+		List<JsonElement> tracks = new ArrayList<>();
+		for (int trackNumber = 1; trackNumber <= release.getTrackCount(); trackNumber++) {
+			tracks.add(trackSimplified(release, trackNumber));
+		}
+		return paging(tracks, query, path, MAX_LIMIT);
+	}
+
+	////////////////////////
+	// PLAYLISTS
+
+	private FakePlaylist getOrCreatePlaylist(String playlistId) {
+		return playlists.computeIfAbsent(playlistId, id -> new FakePlaylist(id, id));
+	}
+
+	private JsonObject createPlaylist(JsonObject body) {
+		String playlistId = String.format("pl%020d", playlistCounter.incrementAndGet());
+		String name = body.has("name") ? body.get("name").getAsString() : playlistId;
+		FakePlaylist playlist = new FakePlaylist(playlistId, name);
+		playlists.put(playlistId, playlist);
+		return playlist(playlist, "/playlists/" + playlistId);
+	}
+
+	private JsonObject playlist(FakePlaylist playlist, String path) {
+		synchronized (playlist) {
+			JsonObject result = new JsonObject();
+			result.addProperty("id", playlist.id);
+			result.addProperty("name", playlist.name);
+			result.addProperty("description", playlist.description);
+			result.addProperty("collaborative", false);
+			result.addProperty("public", false);
+			result.addProperty("snapshot_id", playlist.getSnapshotId());
+			result.addProperty("type", "playlist");
+			result.addProperty("uri", "spotify:playlist:" + playlist.id);
+			result.addProperty("href", href(path));
+			result.add("owner", currentUser());
+			result.add("images", new JsonArray());
+			result.add("external_urls", new JsonObject());
+			result.add("tracks", playlistTracks(playlist, Map.of(), path + "/tracks"));
+			return result;
+		}
+	}
+
+	private JsonObject playlistTracks(FakePlaylist playlist, Map<String, String> query, String path) {
+		List<JsonElement> items = new ArrayList<>();
+		synchronized (playlist) {
+			for (FakePlaylistEntry entry : playlist.entries) {
+				JsonObject item = new JsonObject();
+				item.addProperty("added_at", DateTimeFormatter.ISO_INSTANT.format(entry.addedAt));
+				item.addProperty("is_local", false);
+				item.add("track", trackFull(entry.uri));
+				items.add(item);
+			}
+		}
+		return paging(items, query, path, MAX_PLAYLIST_LIMIT);
+	}
+
+	private void changePlaylistDetails(FakePlaylist playlist, JsonObject body) {
+		synchronized (playlist) {
+			if (body.has("name")) {
+				playlist.name = body.get("name").getAsString();
+			}
+			if (body.has("description")) {
+				playlist.description = body.get("description").getAsString();
+			}
+		}
+	}
+
+	/**
+	 * The URIs may be passed either in the query or in the body (both are allowed
+	 * by the real API)
+	 */
+	private JsonObject addToPlaylist(FakePlaylist playlist, Map<String, String> query, JsonObject body) {
+		List<String> uris = new ArrayList<>();
+		if (query.containsKey("uris")) {
+			uris.addAll(Arrays.asList(query.get("uris").split(",")));
+		}
+		if (body.has("uris")) {
+			for (JsonElement uri : body.getAsJsonArray("uris")) {
+				uris.add(uri.getAsString());
+			}
+		}
+		String position = query.containsKey("position") ? query.get("position") : body.has("position") ? body.get("position").getAsString() : null;
+
+		synchronized (playlist) {
+			int index = position != null ? Math.min(Integer.parseInt(position), playlist.entries.size()) : playlist.entries.size();
+			List<FakePlaylistEntry> newEntries = new ArrayList<>();
+			Instant now = Instant.now();
+			for (String uri : uris) {
+				newEntries.add(new FakePlaylistEntry(uri, now));
+			}
+			playlist.entries.addAll(index, newEntries);
+			playlist.version++;
+			return snapshot(playlist);
+		}
+	}
+
+	private JsonObject removeFromPlaylist(FakePlaylist playlist, JsonObject body) {
+		List<String> uris = new ArrayList<>();
+		if (body.has("tracks")) {
+			for (JsonElement track : body.getAsJsonArray("tracks")) {
+				uris.add(track.getAsJsonObject().get("uri").getAsString());
+			}
+		}
+		synchronized (playlist) {
+			playlist.entries.removeIf(entry -> uris.contains(entry.uri));
+			playlist.version++;
+			return snapshot(playlist);
+		}
+	}
+
+	private JsonObject snapshot(FakePlaylist playlist) {
+		JsonObject result = new JsonObject();
+		result.addProperty("snapshot_id", playlist.getSnapshotId());
+		return result;
+	}
+
+	////////////////////////
+	// MODEL OBJECTS
+
+	private JsonObject artist(int artistIndex) {
+		JsonObject artist = artistSimplified(artistIndex);
+		JsonObject followers = new JsonObject();
+		followers.addProperty("total", 1000 + artistIndex);
+		artist.add("followers", followers);
+		artist.add("genres", new JsonArray());
+		artist.add("images", new JsonArray());
+		artist.addProperty("popularity", artistIndex % 100);
+		return artist;
+	}
+
+	private JsonObject artistSimplified(int artistIndex) {
+		String artistId = catalog.getArtistId(artistIndex);
+		JsonObject artist = new JsonObject();
+		artist.addProperty("id", artistId);
+		artist.addProperty("name", catalog.getArtistName(artistIndex));
+		artist.addProperty("type", "artist");
+		artist.addProperty("uri", "spotify:artist:" + artistId);
+		artist.addProperty("href", href("/artists/" + artistId));
+		artist.add("external_urls", new JsonObject());
+		return artist;
+	}
+
+	private JsonArray artistsOf(FakeRelease release) {
+		JsonArray artists = new JsonArray();
+		artists.add(artistSimplified(release.getMainArtistIndex()));
+		if (release.getViaArtistIndex() >= 0) {
+			artists.add(artistSimplified(release.getViaArtistIndex()));
+		}
+		return artists;
+	}
+
+	private JsonObject albumSimplified(FakeRelease release) {
+		JsonObject album = new JsonObject();
+		album.addProperty("id", release.getId());
+		album.addProperty("name", release.getName());
+		album.addProperty("album_group", release.getAlbumGroup());
+		album.addProperty("album_type", release.getAlbumType());
+		album.addProperty("release_date", release.getReleaseDate().toString());
+		album.addProperty("release_date_precision", "day");
+		album.addProperty("total_tracks", release.getTrackCount());
+		album.addProperty("type", "album");
+		album.addProperty("uri", "spotify:album:" + release.getId());
+		album.addProperty("href", href("/albums/" + release.getId()));
+		album.add("artists", artistsOf(release));
+		album.add("available_markets", marketArray());
+		album.add("external_urls", new JsonObject());
+		album.add("images", new JsonArray());
+		return album;
+	}
+
+	private JsonObject trackSimplified(FakeRelease release, int trackNumber) {
+		String trackId = release.getTrackId(trackNumber);
+		JsonObject track = new JsonObject();
+		track.addProperty("id", trackId);
+		track.addProperty("name", release.getName() + " - Track " + trackNumber);
+		track.addProperty("track_number", trackNumber);
+		track.addProperty("disc_number", 1);
+		track.addProperty("duration_ms", 120_000 + (trackId.hashCode() & 0xFFFF) * 2);
+		track.addProperty("explicit", false);
+		track.addProperty("is_local", false);
+		track.addProperty("type", "track");
+		track.addProperty("uri", "spotify:track:" + trackId);
+		track.addProperty("href", href("/tracks/" + trackId));
+		track.add("artists", artistsOf(release));
+		track.add("available_markets", marketArray());
+		track.add("external_urls", new JsonObject());
+		return track;
+	}
+
+	private JsonObject trackFull(String trackUri) {
+		String trackId = trackUri.substring(trackUri.lastIndexOf(':') + 1);
+		FakeRelease release = catalog.getReleaseOfTrack(trackId);
+		if (release == null) {
+			// Unknown (e.g. manually added) track, only keep the bare minimum
+			JsonObject track = new JsonObject();
+			track.addProperty("id", trackId);
+			track.addProperty("uri", trackUri);
+			track.addProperty("type", "track");
+			return track;
+		}
+		JsonObject track = trackSimplified(release, catalog.getTrackNumber(trackId));
+		track.add("album", albumSimplified(release));
+		track.add("external_ids", new JsonObject());
+		track.addProperty("popularity", 0);
+		return track;
+	}
+
+	private JsonArray marketArray() {
+		JsonArray markets = new JsonArray();
+		markets.add(MARKET);
+		return markets;
+	}
+
+	////////////////////////
+	// HTTP UTILS
+
+	private JsonObject paging(List<JsonElement> allItems, Map<String, String> query, String path, int maxLimit) {
+		int limit = Math.min(getLimit(query, maxLimit), maxLimit);
+		int offset = Math.max(0, Integer.parseInt(query.getOrDefault("offset", "0")));
+		int end = Math.min(allItems.size(), offset + limit);
+
+		JsonArray items = new JsonArray();
+		for (int i = offset; i < end; i++) {
+			items.add(allItems.get(i));
+		}
+
+		JsonObject paging = new JsonObject();
+		paging.addProperty("href", pagingHref(path, query, offset, limit));
+		paging.add("items", items);
+		paging.addProperty("limit", limit);
+		paging.addProperty("offset", offset);
+		paging.addProperty("total", allItems.size());
+		paging.addProperty("next", end < allItems.size() ? pagingHref(path, query, end, limit) : null);
+		paging.addProperty("previous", offset > 0 ? pagingHref(path, query, Math.max(0, offset - limit), limit) : null);
+		return paging;
+	}
+
+	private String pagingHref(String path, Map<String, String> query, int offset, int limit) {
+		Map<String, String> pageQuery = new TreeMap<>(query);
+		pageQuery.put("offset", String.valueOf(offset));
+		pageQuery.put("limit", String.valueOf(limit));
+		StringBuilder sb = new StringBuilder(path).append('?');
+		pageQuery.forEach((k, v) -> sb.append(k).append('=').append(v).append('&'));
+		return href(sb.substring(0, sb.length() - 1));
+	}
+
+	private int getLimit(Map<String, String> query, int defaultLimit) {
+		return Math.max(1, Integer.parseInt(query.getOrDefault("limit", String.valueOf(defaultLimit))));
+	}
+
+	private List<String> splitIds(Map<String, String> query) {
+		String ids = query.get("ids");
+		return ids == null || ids.isBlank() ? List.of() : Arrays.asList(ids.split(","));
+	}
+
+	private String href(String pathAndQuery) {
+		return URI.create("http://localhost:" + getPort() + API_PREFIX + pathAndQuery).toString();
+	}
+
+	private static String toRoute(String path) {
+		return path.replaceAll("/(artists|albums|playlists|users)/[^/]+", "/$1/{id}");
+	}
+
+	private void simulateLatency() {
+		int latency = latencyMillis + (latencyJitterMillis > 0 ? ThreadLocalRandom.current().nextInt(latencyJitterMillis + 1) : 0);
+		if (latency > 0) {
+			try {
+				Thread.sleep(latency);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private static Map<String, String> parseQuery(String rawQuery) {
+		Map<String, String> query = new HashMap<>();
+		if (rawQuery != null && !rawQuery.isEmpty()) {
+			for (String param : rawQuery.split("&")) {
+				int eq = param.indexOf('=');
+				String key = URLDecoder.decode(eq >= 0 ? param.substring(0, eq) : param, StandardCharsets.UTF_8);
+				String value = eq >= 0 ? URLDecoder.decode(param.substring(eq + 1), StandardCharsets.UTF_8) : "";
+				query.put(key, value);
+			}
+		}
+		return query;
+	}
+
+	private static JsonObject readBody(HttpExchange exchange) throws IOException {
+		try (InputStream in = exchange.getRequestBody()) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			in.transferTo(out);
+			String body = out.toString(StandardCharsets.UTF_8);
+			if (body.isBlank()) {
+				return new JsonObject();
+			}
+			JsonElement json = JsonParser.parseString(body);
+			return json.isJsonObject() ? json.getAsJsonObject() : new JsonObject();
+		}
+	}
+
+	private static void sendOrNotFound(HttpExchange exchange, JsonObject json) throws IOException {
+		if (json != null) {
+			sendJson(exchange, 200, json);
+		} else {
+			sendError(exchange, 404, "Non existing id");
+		}
+	}
+
+	/**
+	 * Same as sendOrNotFound, but with a hash of the body as ETag. If the client
+	 * already knows that ETag, an empty 304 Not Modified is sent instead.
+	 */
+	private static void sendConditionalOrNotFound(HttpExchange exchange, JsonObject json) throws IOException {
+		if (json != null) {
+			String etag = "\"" + Integer.toHexString(json.toString().hashCode()) + "\"";
+			exchange.getResponseHeaders().add("ETag", etag);
+			if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+				sendEmpty(exchange, 304);
+			} else {
+				sendJson(exchange, 200, json);
+			}
+		} else {
+			sendError(exchange, 404, "Non existing id");
+		}
+	}
+
+	private static void sendJson(HttpExchange exchange, int status, JsonObject json) throws IOException {
+		byte[] bytes = json.toString().getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().add("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+
+	private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+		JsonObject error = new JsonObject();
+		error.addProperty("status", status);
+		error.addProperty("message", message);
+		JsonObject json = new JsonObject();
+		json.add("error", error);
+		sendJson(exchange, status, json);
+	}
+
+	private static void sendEmpty(HttpExchange exchange, int status) throws IOException {
+		exchange.sendResponseHeaders(status, -1);
+	}
+
+	////////////////////////
+
+	private static class FakePlaylist {
+		private final String id;
+		private final List<FakePlaylistEntry> entries;
+		private String name;
+		private String description;
+		private long version;
+
+		private FakePlaylist(String id, String name) {
+			this.id = id;
+			this.name = name;
+			this.description = "";
+			this.entries = new ArrayList<>();
+		}
+
+		private String getSnapshotId() {
+			return id + "-" + version;
+		}
+	}
+
+	private static class FakePlaylistEntry {
+		private final String uri;
+		private final Instant addedAt;
+
+		private FakePlaylistEntry(String uri, Instant addedAt) {
+			this.uri = uri;
+			this.addedAt = addedAt;
+		}
+	}
+}
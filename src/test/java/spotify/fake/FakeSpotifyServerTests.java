@@ -0,0 +1,122 @@
+package spotify.fake;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import se.michaelthelin.spotify.SpotifyApi;
+import se.michaelthelin.spotify.enums.AlbumGroup;
+import se.michaelthelin.spotify.enums.ModelObjectType;
+import se.michaelthelin.spotify.exceptions.detailed.TooManyRequestsException;
+import se.michaelthelin.spotify.model_objects.specification.AlbumSimplified;
+import se.michaelthelin.spotify.model_objects.specification.Artist;
+import se.michaelthelin.spotify.model_objects.specification.Paging;
+import se.michaelthelin.spotify.model_objects.specification.PagingCursorbased;
+import se.michaelthelin.spotify.model_objects.specification.PlaylistTrack;
+import se.michaelthelin.spotify.model_objects.specification.TrackSimplified;
+import spotify.fake.FakeSpotifyCatalog.FakeRelease;
+
+public class FakeSpotifyServerTests {
+	private final static int ARTIST_COUNT = 120;
+
+	private FakeSpotifyServer server;
+	private SpotifyApi spotifyApi;
+
+	@Before
+	public void startServer() throws Exception {
+		server = new FakeSpotifyServer(new FakeSpotifyCatalog(1234L, ARTIST_COUNT, 40, 0.1)).start();
+		spotifyApi = server.createSpotifyApi();
+	}
+
+	@After
+	public void stopServer() {
+		server.close();
+	}
+
+	@Test
+	public void followedArtistsArePagedByCursor() throws Exception {
+		List<String> artistIds = new ArrayList<>();
+		String after = null;
+		do {
+			PagingCursorbased<Artist> paging = after == null
+				? spotifyApi.getUsersFollowedArtists(ModelObjectType.ARTIST).limit(50).build().execute()
+				: spotifyApi.getUsersFollowedArtists(ModelObjectType.ARTIST).limit(50).after(after).build().execute();
+			for (Artist artist : paging.getItems()) {
+				artistIds.add(artist.getId());
+			}
+			after = paging.getNext() != null ? paging.getCursors()[0].getAfter() : null;
+		} while (after != null);
+
+		assertEquals(ARTIST_COUNT, artistIds.size());
+		assertEquals(server.getCatalog().getArtistId(ARTIST_COUNT - 1), artistIds.get(ARTIST_COUNT - 1));
+	}
+
+	@Test
+	public void artistAlbumsMatchCatalog() throws Exception {
+		FakeSpotifyCatalog catalog = server.getCatalog();
+		for (int artistIndex = 0; artistIndex < 5; artistIndex++) {
+			List<FakeRelease> expected = catalog.getReleasesOfArtist(artistIndex);
+			List<AlbumSimplified> actual = new ArrayList<>();
+			int offset = 0;
+			Paging<AlbumSimplified> paging;
+			do {
+				paging = spotifyApi.getArtistsAlbums(catalog.getArtistId(artistIndex)).limit(50).offset(offset).build().execute();
+				actual.addAll(List.of(paging.getItems()));
+				offset += paging.getLimit();
+			} while (paging.getNext() != null);
+
+			assertEquals(expected.size(), actual.size());
+			for (int i = 0; i < expected.size(); i++) {
+				assertEquals(expected.get(i).getId(), actual.get(i).getId());
+				assertEquals(AlbumGroup.keyOf(expected.get(i).getAlbumGroup()), actual.get(i).getAlbumGroup());
+			}
+		}
+	}
+
+	@Test
+	public void albumTracksMatchCatalog() throws Exception {
+		FakeRelease release = server.getCatalog().getReleasesOfArtist(7).get(0);
+		Paging<TrackSimplified> tracks = spotifyApi.getAlbumsTracks(release.getId()).limit(50).build().execute();
+		assertEquals(release.getTrackCount(), tracks.getTotal().intValue());
+		assertEquals(release.getTrackId(1), tracks.getItems()[0].getId());
+		assertEquals(release.getId(), server.getCatalog().getReleaseOfTrack(tracks.getItems()[0].getId()).getId());
+	}
+
+	@Test
+	public void playlistWritesAreVisibleOnRead() throws Exception {
+		FakeRelease release = server.getCatalog().getReleasesOfArtist(3).get(0);
+		String trackUri = "spotify:track:" + release.getTrackId(1);
+		spotifyApi.addItemsToPlaylist("testplaylist", new String[] { trackUri }).position(0).build().execute();
+
+		Paging<PlaylistTrack> items = spotifyApi.getPlaylistsItems("testplaylist").build().execute();
+		assertEquals(1, items.getTotal().intValue());
+		assertEquals(trackUri, items.getItems()[0].getTrack().getUri());
+		assertEquals(List.of(trackUri), server.getPlaylistTrackUris("testplaylist"));
+	}
+
+	@Test
+	public void nothingIsCurrentlyPlaying() throws Exception {
+		assertNull(spotifyApi.getUsersCurrentlyPlayingTrack().build().execute());
+	}
+
+	@Test
+	public void rateLimitIsInjected() throws Exception {
+		server.setRateLimit(2, 3);
+		spotifyApi.getCurrentUsersProfile().build().execute();
+		try {
+			spotifyApi.getCurrentUsersProfile().build().execute();
+			fail("Expected the second request to be rate limited");
+		} catch (TooManyRequestsException e) {
+			assertEquals(3, e.getRetryAfter());
+		}
+		assertTrue(server.getTotalRequestCount() >= 2);
+	}
+}
@@ -15,6 +15,8 @@ import org.springframework.boot.context.properties.EnableConfigurationProperties
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.context.junit4.SpringRunner;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
 import se.michaelthelin.spotify.SpotifyApi;
 import se.michaelthelin.spotify.model_objects.specification.Album;
 import se.michaelthelin.spotify.model_objects.specification.AlbumSimplified;
@@ -23,9 +25,14 @@ import spotify.SpotifyDiscoveryBot;
 import spotify.api.SpotifyApiManager;
 import spotify.api.SpotifyCall;
 import spotify.api.events.SpotifyApiException;
+import spotify.bot.api.SpotifyRequestScheduler;
+import spotify.bot.metrics.ApiCallMetrics;
+import spotify.bot.config.database.CacheWriteQueue;
 import spotify.bot.config.database.DatabaseCreationService;
+import spotify.bot.config.database.DatabaseMigrationService;
 import spotify.bot.config.database.DatabaseService;
 import spotify.bot.config.database.DiscoveryDatabase;
+import spotify.bot.config.database.SqliteCacheStore;
 import spotify.bot.properties.BlacklistService;
 import spotify.bot.config.properties.PlaylistStoreConfig;
 import spotify.bot.filter.FilterService;
@@ -35,6 +42,7 @@ import spotify.bot.filter.remapper.Remapper;
 import spotify.bot.filter.remapper.Remapper.Action;
 import spotify.bot.filter.remapper.RemixRemapper;
 import spotify.bot.filter.remapper.RereleaseRemapper;
+import spotify.bot.metrics.DatabaseMetrics;
 import spotify.bot.properties.FeatureControl;
 import spotify.bot.util.DiscoveryBotLogger;
 import spotify.bot.util.data.AlbumGroupExtended;
@@ -56,11 +64,18 @@ import spotify.util.data.AlbumTrackPair;
 	TrackService.class,
 	UserService.class,
 	DatabaseCreationService.class,
+	DatabaseMetrics.class,
+	SimpleMeterRegistry.class,
+	DatabaseMigrationService.class,
+	CacheWriteQueue.class,
+	SqliteCacheStore.class,
 	PlaylistStoreConfig.class,
 	BlacklistService.class,
 	DatabaseService.class,
 	FeatureControl.class,
 	SpringPortConfig.class,
+	SpotifyRequestScheduler.class,
+	ApiCallMetrics.class,
 	SpotifyDiscoveryBot.SpotifyDiscoveryBotSettings.class
 
 })